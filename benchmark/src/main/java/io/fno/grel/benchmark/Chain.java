@@ -0,0 +1,187 @@
+package io.fno.grel.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chain of GREL functions applied to one column, as in a function map whose input is the output of the next one,
+ * such as {@code escape(replace(toLowerCase(trim(name)), " ", "-"), "url")}.
+ * <p>
+ * Steps are called through reflection, as mapping engines call FnO implementations, so the numbers include the cost
+ * a mapping job actually pays per call.
+ */
+final class Chain {
+
+    /**
+     * The chains that are run by default: one per kind of work a mapping typically does on a column.
+     */
+    static final List<Chain> DEFAULTS = Collections.unmodifiableList(Arrays.asList(
+            new Chain("iri-slug", Dataset.Column.NAME)
+                    .then("string_trim")
+                    .then("toLowerCase")
+                    .then("string_replace", " ", "-")
+                    .then("escape", "url"),
+            new Chain("hash-key", Dataset.Column.ID)
+                    .then("string_trim")
+                    .then("toUpperCase")
+                    .then("string_md5"),
+            new Chain("first-tag", Dataset.Column.TAGS)
+                    .then("string_split", ";")
+                    .then("array_get", 0)
+                    .then("string_trim")
+                    .then("string_toTitlecase"),
+            new Chain("amount", Dataset.Column.AMOUNT)
+                    .then("string_trim")
+                    .then("string_toNumber")
+                    .then("string_toString"),
+            new Chain("date", Dataset.Column.DATE)
+                    .then("string_trim")
+                    .then("date_toDate", "dd/MM/yyyy"),
+            new Chain("similarity", Dataset.Column.NAME)
+                    .then("string_trim")
+                    .then("toLowerCase")
+                    .then("string_levenshtein", "marvan dijk")
+    ));
+
+    private final String name;
+    private final Dataset.Column column;
+    private final List<String> functions = new ArrayList<>();
+    private final List<Object[]> arguments = new ArrayList<>();
+
+    Chain(String name, Dataset.Column column) {
+        this.name = name;
+        this.column = column;
+    }
+
+    /**
+     * @param function  name of the GREL function, as in {@code grel_java_mapping.ttl}
+     * @param arguments the arguments after the first, which is the result of the previous step
+     * @return this chain
+     */
+    Chain then(String function, Object... arguments) {
+        functions.add(function);
+        this.arguments.add(arguments);
+        return this;
+    }
+
+    String name() {
+        return name;
+    }
+
+    Dataset.Column column() {
+        return column;
+    }
+
+    /**
+     * @param mappings mappings of the library under test
+     * @return the functions of this chain that `mappings` does not map to a method with the right number of arguments
+     */
+    List<String> missing(FunctionMappings mappings) {
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < functions.size(); i++) {
+            if (candidates(mappings, i).isEmpty()) {
+                missing.add(functions.get(i));
+            }
+        }
+        return missing;
+    }
+
+    private List<Method> candidates(FunctionMappings mappings, int step) {
+        List<Method> candidates = new ArrayList<>();
+        for (Method method : mappings.methods(functions.get(step))) {
+            if (method.getParameterCount() == arguments.get(step).length + 1) {
+                candidates.add(method);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @param mappings mappings of the library under test
+     * @return an evaluator of this chain, for use by one thread
+     */
+    Evaluator evaluator(FunctionMappings mappings) {
+        return new Evaluator(mappings);
+    }
+
+    /**
+     * Evaluates a chain on one thread, reusing its argument arrays from call to call.
+     */
+    final class Evaluator {
+        private final List<List<Method>> candidates;
+        private final Method[] resolved;
+        private final Class<?>[] resolvedFor;
+        private final Object[][] calls;
+        private long errors;
+
+        private Evaluator(FunctionMappings mappings) {
+            int steps = functions.size();
+            candidates = new ArrayList<>(steps);
+            resolved = new Method[steps];
+            resolvedFor = new Class<?>[steps];
+            calls = new Object[steps][];
+            for (int i = 0; i < steps; i++) {
+                candidates.add(candidates(mappings, i));
+                if (candidates.get(i).isEmpty()) {
+                    throw new IllegalStateException("No implementation of " + functions.get(i) + " taking "
+                            + (arguments.get(i).length + 1) + " arguments");
+                }
+                Object[] args = arguments.get(i);
+                calls[i] = new Object[args.length + 1];
+                System.arraycopy(args, 0, calls[i], 1, args.length);
+            }
+        }
+
+        /**
+         * @param value the value of the column
+         * @return the result of the chain, or null when a step failed
+         */
+        Object apply(Object value) {
+            for (int i = 0; i < calls.length && value != null; i++) {
+                Object[] call = calls[i];
+                call[0] = value;
+                try {
+                    value = method(i, value).invoke(null, call);
+                } catch (InvocationTargetException | IllegalArgumentException e) {
+                    // dirty values make functions throw; a mapping engine logs them and leaves the term out
+                    errors++;
+                    value = null;
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Picks the overload for the class of `value`, as a function handler does on the first call with it.
+         */
+        private Method method(int step, Object value) {
+            Class<?> type = value.getClass();
+            if (resolvedFor[step] != type) {
+                Method found = null;
+                for (Method candidate : candidates.get(step)) {
+                    if (candidate.getParameterTypes()[0].isAssignableFrom(type)
+                            && (found == null
+                            || found.getParameterTypes()[0].isAssignableFrom(candidate.getParameterTypes()[0]))) {
+                        found = candidate;
+                    }
+                }
+                resolved[step] = found != null ? found : candidates.get(step).get(0);
+                resolvedFor[step] = type;
+            }
+            return resolved[step];
+        }
+
+        /**
+         * @return the number of calls that threw
+         */
+        long errors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package io.fno.grel.benchmark;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * A synthetic table with the kind of columns RML mappings typically transform: identifiers, names, tag lists,
+ * amounts and dates.
+ * <p>
+ * Each column draws its values from a pool of `cardinality` distinct values, generated once; rows pick a value from
+ * each pool with a hash of the row number, so a table of any number of rows takes no more memory than its pools,
+ * and every run over the same options sees the same rows.
+ * <p>
+ * A fraction `dirtiness` of the values is dirty the way real input is: surrounding or doubled white space, odd casing,
+ * accented letters, quoted tags, and, for amounts and dates, the occasional value that does not parse at all.
+ */
+final class Dataset {
+
+    enum Column {
+        ID, NAME, TAGS, AMOUNT, DATE
+    }
+
+    private static final String[] SYLLABLES = {
+            "an", "ber", "co", "da", "el", "fre", "gi", "han", "is", "jo", "ka", "li", "mar", "ne", "o", "pe",
+            "ri", "sa", "ton", "u", "van", "wil", "xe", "ya", "zo"
+    };
+    private static final String[] ACCENTED = {
+            "\u00e9", "\u00fc", "\u00f8", "\u00f1", "\u00e7", "\u00e5", "\u00df", "\u0142"
+    };
+    private static final String[] BROKEN = {"n/a", "", "-", "unknown", "NULL"};
+
+    private final int rows;
+    private final String[][] pools;
+    private final long seed;
+
+    /**
+     * @param rows        number of rows
+     * @param cardinality number of distinct values per column
+     * @param length      typical length of names and tag lists
+     * @param dirtiness   fraction of the values that are dirty, between 0 and 1
+     * @param seed        seed of the generator
+     */
+    Dataset(int rows, int cardinality, int length, double dirtiness, long seed) {
+        if (rows < 0 || cardinality < 1 || length < 1 || dirtiness < 0 || dirtiness > 1) {
+            throw new IllegalArgumentException("Invalid dataset: rows=" + rows + ", cardinality=" + cardinality
+                    + ", length=" + length + ", dirtiness=" + dirtiness);
+        }
+        this.rows = rows;
+        this.seed = seed;
+        SplittableRandom random = new SplittableRandom(seed);
+        pools = new String[Column.values().length][cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            pools[Column.ID.ordinal()][i] = dirty(id(i), random, dirtiness, false);
+            pools[Column.NAME.ordinal()][i] = dirty(name(random, length), random, dirtiness, false);
+            pools[Column.TAGS.ordinal()][i] = dirty(tags(random, length), random, dirtiness, false);
+            pools[Column.AMOUNT.ordinal()][i] = dirty(Integer.toString(random.nextInt(1_000_000)), random,
+                    dirtiness, true);
+            pools[Column.DATE.ordinal()][i] = dirty(date(random), random, dirtiness, true);
+        }
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    /**
+     * @param column column
+     * @param row    row number
+     * @return the value of `column` in `row`
+     */
+    String value(Column column, int row) {
+        String[] pool = pools[column.ordinal()];
+        long h = (seed + row) * 0x9E3779B97F4A7C15L + column.ordinal();
+        // the finalizer of SplitMix64, so that consecutive rows hit unrelated values
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return pool[(int) Long.remainderUnsigned(h, pool.length)];
+    }
+
+    private static String id(int i) {
+        StringBuilder sb = new StringBuilder("ID-");
+        String digits = Integer.toString(i, 36).toUpperCase(Locale.ROOT);
+        for (int k = digits.length(); k < 7; k++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    private static String name(SplittableRandom random, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            int syllables = 1 + random.nextInt(3);
+            for (int k = 0; k < syllables; k++) {
+                sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+        }
+        sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+        return sb.toString();
+    }
+
+    private static String tags(SplittableRandom random, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]).append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String date(SplittableRandom random) {
+        int day = 1 + random.nextInt(28);
+        int month = 1 + random.nextInt(12);
+        int year = 1950 + random.nextInt(75);
+        return (day < 10 ? "0" : "") + day + "/" + (month < 10 ? "0" : "") + month + "/" + year;
+    }
+
+    private static String dirty(String value, SplittableRandom random, double dirtiness, boolean parsed) {
+        if (random.nextDouble() >= dirtiness) {
+            return value;
+        }
+        if (parsed) {
+            // values that are parsed are mostly just padded, and sometimes not values at all
+            return random.nextInt(10) == 0 ? BROKEN[random.nextInt(BROKEN.length)] : "  " + value + " ";
+        }
+        switch (random.nextInt(5)) {
+            case 0:
+                return " " + value + "\t";
+            case 1:
+                return value.toUpperCase(Locale.ROOT);
+            case 2:
+                return value.replace(" ", "  ");
+            case 3:
+                int at = random.nextInt(value.length());
+                return value.substring(0, at) + ACCENTED[random.nextInt(ACCENTED.length)] + value.substring(at);
+            default:
+                return "\"" + value + "\"";
+        }
+    }
+}
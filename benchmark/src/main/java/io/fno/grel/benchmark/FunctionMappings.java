@@ -0,0 +1,134 @@
+package io.fno.grel.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The Java implementations of the GREL functions, as described by {@code grel_java_mapping.ttl}.
+ * <p>
+ * The harness looks functions up the way a mapping engine does: by the name of the GREL function
+ * (such as {@code string_trim}), through the class and method name of its {@code fno:Mapping}. This way, a chain
+ * measures whatever the mapping of the library version under test points to.
+ * <p>
+ * Only the subset of Turtle that the mapping file uses is understood: one statement per line, blocks ended by
+ * a line holding a single {@code .}.
+ */
+final class FunctionMappings {
+
+    private static final Pattern SUBJECT = Pattern.compile("^(\\S+:\\S+)\\s*$");
+    private static final Pattern CLASS_NAME = Pattern.compile("fnoi:class-name\\s+\"([^\"]+)\"");
+    private static final Pattern FUNCTION = Pattern.compile("fno:function\\s+grel:(\\S+)");
+    private static final Pattern IMPLEMENTATION = Pattern.compile("fno:implementation\\s+(\\S+)");
+    private static final Pattern METHOD_NAME = Pattern.compile("fnom:method-name\\s+\"([^\"]+)\"");
+
+    private final Map<String, List<Method>> methods;
+
+    private FunctionMappings(Map<String, List<Method>> methods) {
+        this.methods = methods;
+    }
+
+    /**
+     * Reads the mapping file of the library on the class path.
+     *
+     * @return mappings
+     * @throws IOException when the mapping file cannot be read
+     */
+    static FunctionMappings load() throws IOException {
+        InputStream in = FunctionMappings.class.getResourceAsStream("/grel_java_mapping.ttl");
+        if (in == null) {
+            throw new IOException("grel_java_mapping.ttl is not on the class path");
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * @param ttl mapping file
+     * @return mappings
+     * @throws IOException when reading fails
+     */
+    static FunctionMappings parse(Reader ttl) throws IOException {
+        Map<String, String> classes = new HashMap<>();
+        List<String[]> mappings = new ArrayList<>();
+        BufferedReader in = new BufferedReader(ttl);
+        String subject = null;
+        String function = null;
+        String implementation = null;
+        String method = null;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.equals(".")) {
+                if (function != null && implementation != null && method != null) {
+                    mappings.add(new String[]{function, implementation, method});
+                }
+                subject = function = implementation = method = null;
+                continue;
+            }
+            Matcher m = SUBJECT.matcher(line);
+            if (m.matches()) {
+                subject = m.group(1);
+            } else if ((m = CLASS_NAME.matcher(line)).find() && subject != null) {
+                classes.put(subject, m.group(1));
+            } else if ((m = FUNCTION.matcher(line)).find()) {
+                function = m.group(1);
+            } else if ((m = IMPLEMENTATION.matcher(line)).find()) {
+                implementation = m.group(1);
+            } else if ((m = METHOD_NAME.matcher(line)).find()) {
+                method = m.group(1);
+            }
+        }
+        Map<String, List<Method>> methods = new HashMap<>();
+        for (String[] mapping : mappings) {
+            String className = classes.get(mapping[1]);
+            if (className == null) {
+                continue;
+            }
+            Class<?> implementationClass;
+            try {
+                implementationClass = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                continue;
+            }
+            List<Method> candidates = methods.computeIfAbsent(mapping[0], k -> new ArrayList<>());
+            for (Method candidate : implementationClass.getMethods()) {
+                if (candidate.getName().equals(mapping[2]) && Modifier.isStatic(candidate.getModifiers())
+                        && !candidates.contains(candidate)) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+        return new FunctionMappings(methods);
+    }
+
+    /**
+     * @param function name of the GREL function, such as {@code string_trim}
+     * @return the public static methods it is mapped to, possibly none
+     */
+    List<Method> methods(String function) {
+        return methods.getOrDefault(function, Collections.emptyList());
+    }
+
+    /**
+     * @return the number of mapped functions
+     */
+    int size() {
+        return methods.size();
+    }
+}
@@ -0,0 +1,73 @@
+package io.fno.grel.benchmark;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the garbage collections of the JVM while it is open, from the notifications the JVM sends after each one.
+ * <p>
+ * Collectors that do most of their work concurrently report their cycles and their pauses on separate beans
+ * (such as ZGC's "ZGC Cycles" and "ZGC Pauses"); only the pauses are counted, as those are what stop the mapping.
+ */
+final class GcPauses implements NotificationListener, AutoCloseable {
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private long count;
+    private long totalMillis;
+    private long maxMillis;
+
+    GcPauses() {
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (bean instanceof NotificationEmitter && !bean.getName().endsWith("Cycles")) {
+                NotificationEmitter emitter = (NotificationEmitter) bean;
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long duration = info.getGcInfo().getDuration();
+        count++;
+        totalMillis += duration;
+        maxMillis = Math.max(maxMillis, duration);
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    synchronized long totalMillis() {
+        return totalMillis;
+    }
+
+    synchronized long maxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                // already removed
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package io.fno.grel.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * End-to-end throughput harness: runs chains of GREL functions over a synthetic table, single- and multi-threaded,
+ * and reports rows per second, allocation and garbage collection pauses.
+ * <p>
+ * Usage: {@code java -jar grel-functions-benchmark-...-jar-with-dependencies.jar [options]}, with the options listed by
+ * {@code --help}. Counts take a {@code k} or {@code m} suffix, such as {@code --rows 5m}. With {@code --csv}, the
+ * results are appended to a file, labelled with the library version, to compare releases.
+ */
+public final class Throughput {
+
+    private static final String USAGE = String.join("\n",
+            "Options:",
+            "  --rows N          rows per measured run (default 2m)",
+            "  --warmup N        rows per warm-up run (default 500k)",
+            "  --iterations N    measured runs per chain and thread count; the median is reported (default 3)",
+            "  --cardinality N   distinct values per column (default 100k)",
+            "  --length N        typical length of names and tag lists (default 24)",
+            "  --dirtiness F     fraction of dirty values, between 0 and 1 (default 0.2)",
+            "  --seed N          seed of the data generator (default 42)",
+            "  --threads LIST    comma-separated thread counts (default 1 and the number of processors)",
+            "  --chains LIST     comma-separated chain names (default all: " + chainNames() + ")",
+            "  --csv FILE        append the results to FILE",
+            "  --label TEXT      label of the results in the CSV file (default the library version)");
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private Throughput() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.help) {
+            System.out.println(USAGE);
+            return;
+        }
+        FunctionMappings mappings = FunctionMappings.load();
+        Dataset data = new Dataset(options.rows, options.cardinality, options.length, options.dirtiness, options.seed);
+        System.out.printf(Locale.ROOT, "grel-functions-java %s, %d functions mapped%n", options.label, mappings.size());
+        System.out.printf(Locale.ROOT, "%s %s on %s %s, %d processors, max heap %d MB%n",
+                System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                System.getProperty("os.name"), System.getProperty("os.arch"),
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf(Locale.ROOT, "%d rows, cardinality %d, length %d, dirtiness %.2f, %d iterations%n%n",
+                options.rows, options.cardinality, options.length, options.dirtiness, options.iterations);
+        System.out.printf(Locale.ROOT, "%-12s %7s %12s %10s %9s %6s %8s %7s %9s %11s%n", "chain", "threads",
+                "rows/s", "alloc MB/s", "B/row", "GCs", "GC ms", "max ms", "errors", "checksum");
+
+        PrintWriter csv = null;
+        if (options.csv != null) {
+            boolean header = !options.csv.exists() || options.csv.length() == 0;
+            csv = new PrintWriter(new FileWriter(options.csv, true));
+            if (header) {
+                csv.println("label,chain,threads,rows,rows_per_second,allocated_bytes_per_row,gc_count,gc_millis,"
+                        + "gc_max_millis,errors,checksum");
+            }
+        }
+        try {
+            for (Chain chain : options.chains) {
+                List<String> missing = chain.missing(mappings);
+                if (!missing.isEmpty()) {
+                    System.out.printf(Locale.ROOT, "%-12s skipped, not in the mapping: %s%n", chain.name(), missing);
+                    continue;
+                }
+                for (int threads : options.threads) {
+                    Result result = measure(chain, mappings, data, threads, options);
+                    System.out.printf(Locale.ROOT, "%-12s %7d %12.0f %10.1f %9.1f %6d %8d %7d %9d %11d%n",
+                            chain.name(), threads, result.rowsPerSecond(), result.allocatedMegabytesPerSecond(),
+                            result.allocatedBytesPerRow(), result.gcCount, result.gcMillis, result.gcMaxMillis,
+                            result.errors, result.checksum);
+                    if (csv != null) {
+                        csv.printf(Locale.ROOT, "%s,%s,%d,%d,%.0f,%.1f,%d,%d,%d,%d,%d%n", options.label,
+                                chain.name(), threads, result.rows, result.rowsPerSecond(),
+                                result.allocatedBytesPerRow(), result.gcCount, result.gcMillis, result.gcMaxMillis,
+                                result.errors, result.checksum);
+                        csv.flush();
+                    }
+                }
+            }
+        } finally {
+            if (csv != null) {
+                csv.close();
+            }
+        }
+    }
+
+    /**
+     * Warms up, then returns the median of the measured runs.
+     */
+    private static Result measure(Chain chain, FunctionMappings mappings, Dataset data, int threads, Options options)
+            throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "grel-benchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            run(chain, mappings, data, Math.min(options.warmup, data.rows()), threads, pool);
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < options.iterations; i++) {
+                results.add(run(chain, mappings, data, data.rows(), threads, pool));
+            }
+            results.sort(Comparator.comparingDouble(Result::rowsPerSecond));
+            return results.get(results.size() / 2);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Result run(Chain chain, FunctionMappings mappings, Dataset data, int rows, int threads,
+                              ExecutorService pool) throws InterruptedException, ExecutionException {
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int from = (int) ((long) rows * t / threads);
+            int to = (int) ((long) rows * (t + 1) / threads);
+            tasks.add(() -> work(chain.evaluator(mappings), data, chain.column(), from, to));
+        }
+        Result result = new Result(rows);
+        try (GcPauses gc = new GcPauses()) {
+            long start = System.nanoTime();
+            List<Future<long[]>> futures = pool.invokeAll(tasks);
+            result.nanos = System.nanoTime() - start;
+            for (Future<long[]> future : futures) {
+                long[] totals = future.get();
+                result.checksum += totals[0];
+                result.errors += totals[1];
+                result.allocated = totals[2] < 0 || result.allocated < 0 ? -1 : result.allocated + totals[2];
+            }
+            // notifications arrive on another thread, shortly after the collection
+            Thread.sleep(50);
+            result.gcCount = gc.count();
+            result.gcMillis = gc.totalMillis();
+            result.gcMaxMillis = gc.maxMillis();
+        }
+        return result;
+    }
+
+    /**
+     * @return the checksum of the results, the number of errors and the bytes allocated
+     */
+    private static long[] work(Chain.Evaluator evaluator, Dataset data, Dataset.Column column, int from, int to) {
+        long allocated = allocatedBytes();
+        long checksum = 0;
+        for (int row = from; row < to; row++) {
+            Object result = evaluator.apply(data.value(column, row));
+            // sums, so that the checksum does not depend on how the rows are spread over the threads
+            checksum += result == null ? 0 : result.hashCode();
+        }
+        long after = allocatedBytes();
+        return new long[]{checksum, evaluator.errors(), allocated < 0 ? -1 : after - allocated};
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static String chainNames() {
+        List<String> names = new ArrayList<>();
+        for (Chain chain : Chain.DEFAULTS) {
+            names.add(chain.name());
+        }
+        return String.join(", ", names);
+    }
+
+    /**
+     * @return the version of the library this harness was built against, from the manifest of its jar
+     */
+    private static String libraryVersion() {
+        try {
+            URL location = Throughput.class.getProtectionDomain().getCodeSource().getLocation();
+            File file = new File(location.toURI());
+            if (file.isFile()) {
+                try (JarFile jar = new JarFile(file)) {
+                    Manifest manifest = jar.getManifest();
+                    String version = manifest == null ? null : manifest.getMainAttributes().getValue("Grel-Version");
+                    if (version != null) {
+                        return version;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // not run from the assembled jar
+        }
+        return "unknown";
+    }
+
+    private static final class Result {
+        private final int rows;
+        private long nanos;
+        private long allocated;
+        private long checksum;
+        private long errors;
+        private long gcCount;
+        private long gcMillis;
+        private long gcMaxMillis;
+
+        Result(int rows) {
+            this.rows = rows;
+        }
+
+        double rowsPerSecond() {
+            return rows * 1e9 / Math.max(1, nanos);
+        }
+
+        double allocatedMegabytesPerSecond() {
+            return allocated < 0 ? Double.NaN : allocated * 1e9 / Math.max(1, nanos) / (1 << 20);
+        }
+
+        double allocatedBytesPerRow() {
+            return allocated < 0 ? Double.NaN : (double) allocated / Math.max(1, rows);
+        }
+    }
+
+    private static final class Options {
+        private int rows = 2_000_000;
+        private int warmup = 500_000;
+        private int iterations = 3;
+        private int cardinality = 100_000;
+        private int length = 24;
+        private double dirtiness = 0.2;
+        private long seed = 42;
+        private int[] threads = Runtime.getRuntime().availableProcessors() > 1
+                ? new int[]{1, Runtime.getRuntime().availableProcessors()} : new int[]{1};
+        private List<Chain> chains = Chain.DEFAULTS;
+        private File csv;
+        private String label;
+        private boolean help;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--help") || option.equals("-h")) {
+                    options.help = true;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--rows":
+                        options.rows = count(option, value);
+                        break;
+                    case "--warmup":
+                        options.warmup = count(option, value);
+                        break;
+                    case "--iterations":
+                        options.iterations = Math.max(1, count(option, value));
+                        break;
+                    case "--cardinality":
+                        options.cardinality = count(option, value);
+                        break;
+                    case "--length":
+                        options.length = count(option, value);
+                        break;
+                    case "--dirtiness":
+                        options.dirtiness = Double.parseDouble(value);
+                        break;
+                    case "--seed":
+                        options.seed = Long.parseLong(value);
+                        break;
+                    case "--threads":
+                        options.threads = Arrays.stream(value.split(",")).mapToInt(t -> count(option, t)).toArray();
+                        if (Arrays.stream(options.threads).anyMatch(t -> t < 1)) {
+                            throw new IllegalArgumentException("Thread counts must be positive: " + value);
+                        }
+                        break;
+                    case "--chains":
+                        options.chains = chains(value);
+                        break;
+                    case "--csv":
+                        options.csv = new File(value);
+                        break;
+                    case "--label":
+                        options.label = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            if (options.label == null) {
+                options.label = libraryVersion();
+            }
+            return options;
+        }
+
+        private static int count(String option, String value) {
+            String digits = value.trim().toLowerCase(Locale.ROOT);
+            long factor = 1;
+            if (digits.endsWith("k")) {
+                factor = 1_000;
+            } else if (digits.endsWith("m")) {
+                factor = 1_000_000;
+            }
+            try {
+                long count = Long.parseLong(factor == 1 ? digits : digits.substring(0, digits.length() - 1)) * factor;
+                if (count < 0 || count > Integer.MAX_VALUE) {
+                    throw new NumberFormatException();
+                }
+                return (int) count;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid count for " + option + ": " + value);
+            }
+        }
+
+        private static List<Chain> chains(String names) {
+            List<Chain> chains = new ArrayList<>();
+            for (String name : names.split(",")) {
+                Chain found = null;
+                for (Chain chain : Chain.DEFAULTS) {
+                    if (chain.name().equals(name.trim())) {
+                        found = chain;
+                    }
+                }
+                if (found == null) {
+                    throw new IllegalArgumentException("Unknown chain " + name + ", expected one of " + chainNames());
+                }
+                chains.add(found);
+            }
+            return chains;
+        }
+    }
+}
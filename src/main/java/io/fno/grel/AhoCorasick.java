@@ -0,0 +1,225 @@
+package io.fno.grel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton matching a dictionary of literal keys in one pass over a string,
+ * regardless of the number of keys.
+ * <p>
+ * Used by {@link StringFunctions#replaceAll(String, Map)} and {@link StringFunctions#containsAny(String, List)}.
+ * Replacement follows leftmost-longest semantics: of all keys occurring in the string, the one starting first
+ * is replaced, the longest one if several start there, and scanning resumes after it.
+ * Empty keys are ignored.
+ * <p>
+ * The automaton is built from the reversed keys and runs from the end of the string to its start, so that the state
+ * reached at each position gives the longest key starting there. Replacement then takes a second, greedy pass over
+ * those keys from left to right.
+ */
+final class AhoCorasick {
+
+    private static final CompiledCache<Map<String, String>, AhoCorasick> REPLACE_CACHE =
+            new CompiledCache<>(64, m -> Collections.unmodifiableMap(new LinkedHashMap<>(m)));
+
+    private static final CompiledCache<List<String>, AhoCorasick> CONTAINS_CACHE =
+            new CompiledCache<>(64, l -> Collections.unmodifiableList(new ArrayList<>(l)));
+
+    // per state: failure link, and the longest (reversed) key that ends in this state (or -1)
+    private final int[] fail;
+    private final int[] match;
+    private int states;
+
+    // transitions: open addressing table from (state << 16 | char) to the next state
+    private final long[] edgeKeys;
+    private final int[] edgeTargets;
+    private final int edgeMask;
+
+    private final int[] keyLength;
+    private final String[] replacement;
+
+    private AhoCorasick(Collection<String> keys, Collection<String> replacements) {
+        int n = keys.size();
+        keyLength = new int[n];
+        replacement = replacements == null ? null : replacements.toArray(new String[0]);
+
+        int capacity = 1;
+        for (String key : keys) {
+            capacity += key.length();
+        }
+        fail = new int[capacity];
+        match = new int[capacity];
+        Arrays.fill(match, -1);
+        states = 1;
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+        edgeKeys = new long[tableSize];
+        Arrays.fill(edgeKeys, -1L);
+        edgeTargets = new int[tableSize];
+        edgeMask = tableSize - 1;
+
+        // build the trie, keeping child lists for the breadth-first pass below
+        int[] firstChild = new int[capacity];
+        int[] nextSibling = new int[capacity];
+        char[] label = new char[capacity];
+        Arrays.fill(firstChild, -1);
+        int k = 0;
+        for (String key : keys) {
+            keyLength[k] = key.length();
+            if (key.isEmpty()) {
+                k++;
+                continue;
+            }
+            int state = 0;
+            for (int i = key.length() - 1; i >= 0; i--) {
+                char c = key.charAt(i);
+                int next = child(state, c);
+                if (next < 0) {
+                    next = states++;
+                    label[next] = c;
+                    nextSibling[next] = firstChild[state];
+                    firstChild[state] = next;
+                    addEdge(state, c, next);
+                }
+                state = next;
+            }
+            // the first occurrence of a key wins
+            if (match[state] < 0) {
+                match[state] = k;
+            }
+            k++;
+        }
+
+        // failure links and inherited matches, in breadth-first order
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = firstChild[0]; c >= 0; c = nextSibling[c]) {
+            fail[c] = 0;
+            queue[tail++] = c;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int c = firstChild[state]; c >= 0; c = nextSibling[c]) {
+                int f = fail[state];
+                int target = child(f, label[c]);
+                while (target < 0 && f != 0) {
+                    f = fail[f];
+                    target = child(f, label[c]);
+                }
+                fail[c] = target < 0 ? 0 : target;
+                if (match[c] < 0) {
+                    match[c] = match[fail[c]];
+                }
+                queue[tail++] = c;
+            }
+        }
+    }
+
+    /**
+     * Returns the (cached) automaton replacing the keys of `dictionary` by their values.
+     */
+    static AhoCorasick forReplace(Map<String, String> dictionary) {
+        return REPLACE_CACHE.get(dictionary, m -> new AhoCorasick(m.keySet(), m.values()));
+    }
+
+    /**
+     * Returns the (cached) automaton finding the entries of `dictionary`.
+     */
+    static AhoCorasick forContains(List<String> dictionary) {
+        return CONTAINS_CACHE.get(dictionary, l -> new AhoCorasick(l, null));
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void addEdge(int state, char c, int target) {
+        long key = ((long) state << 16) | c;
+        int i = slot(key, edgeMask);
+        while (edgeKeys[i] != -1L) {
+            i = (i + 1) & edgeMask;
+        }
+        edgeKeys[i] = key;
+        edgeTargets[i] = target;
+    }
+
+    private int child(int state, char c) {
+        long key = ((long) state << 16) | c;
+        int i = slot(key, edgeMask);
+        long k;
+        while ((k = edgeKeys[i]) != -1L) {
+            if (k == key) {
+                return edgeTargets[i];
+            }
+            i = (i + 1) & edgeMask;
+        }
+        return -1;
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int next = child(state, c);
+            if (next >= 0) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    /**
+     * Returns whether any key occurs in `s`.
+     */
+    boolean containsAny(String s) {
+        int state = 0;
+        for (int i = s.length() - 1; i >= 0; i--) {
+            state = step(state, s.charAt(i));
+            if (match[state] >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns `s` with every leftmost-longest occurrence of a key replaced, or `s` itself if no key occurs.
+     */
+    String replaceAll(String s) {
+        int n = s.length();
+        // the longest key starting at each position, plus one (0 when none), allocated at the first match
+        int[] longest = null;
+        int state = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            state = step(state, s.charAt(i));
+            int k = match[state];
+            if (k >= 0) {
+                if (longest == null) {
+                    longest = new int[i + 1];
+                }
+                longest[i] = k + 1;
+            }
+        }
+        if (longest == null) {
+            return s;
+        }
+        StringBuilder o = new StringBuilder(n + 16);
+        int copied = 0;
+        for (int i = 0; i < longest.length; ) {
+            int k = longest[i] - 1;
+            if (k < 0) {
+                i++;
+                continue;
+            }
+            o.append(s, copied, i).append(replacement[k]);
+            i += keyLength[k];
+            copied = i;
+        }
+        return o.append(s, copied, n).toString();
+    }
+}
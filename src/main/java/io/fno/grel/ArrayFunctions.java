@@ -1,10 +1,19 @@
 package io.fno.grel;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 
 import java.util.*;
 
+/**
+ * GREL array functions.
+ * <p>
+ * Thread safety: all functions are stateless, safe to call concurrently, and never modify their arguments;
+ * functions that return a reordered array return a new one.
+ * Arguments themselves must not be modified by other threads while a function reads them.
+ * <p>
+ * `reverse`, `slice` and `get` return an immutable {@link ArrayView} on their argument instead of a copy;
+ * all functions that take an array also take such views.
+ */
 public class ArrayFunctions {
 
     /**
@@ -27,6 +36,8 @@ public class ArrayFunctions {
      * If o is a string, returns o.substring(from, to)
      * https://github.com/OpenRefine/OpenRefine/wiki/GREL%20Array%20Functions#getarray-a-number-or-string-from-optional-number-to
      *
+     * Callers that call this function from the same place many times can use an {@link ArrayGetCallSite} instead.
+     *
      * @param a    object (either List or Map) to get a value from
      * @param from from index (either Integer or String, must be )
      * @param to   to index (optional, exclusive)
@@ -39,7 +50,7 @@ public class ArrayFunctions {
                 if (to == null) {
                     return a_array.get((Integer) from);
                 }
-                return a_array.subList((Integer) from, to);
+                return ArrayView.<Object>of((List<?>) a_array, (Integer) from, to);
             }
             throw new Error("'a' is a List, so 'from' parameter must be Integer");
         }
@@ -68,10 +79,40 @@ public class ArrayFunctions {
      * @param sep separator
      * @return the string obtained by joining the array `a` with the separator `sep`
      */
-    public static String join(List<String> a, String sep) {
+    public static String join(List<?> a, String sep) {
         return StringUtils.join(a, sep);
     }
 
+    /**
+     * Returns whether the array `a` contains `v`.
+     * For example, `inArray([ "foo", "bar", "baz" ], "bar")` returns `true`.
+     * https://docs.openrefine.org/manual/grelfunctions#inarraya-s
+     * <p>
+     * `a` is usually the same constant array for every record, so the lookup structure built from it is cached:
+     * after the first call, each call takes constant time, however large `a` is. The cache recognizes `a` by
+     * identity, and looks it up again when its size changes: a list that elements are added to or removed from
+     * between calls is seen as changed, but one whose elements are replaced with {@link List#set} is not, and should
+     * be passed as a copy.
+     *
+     * @param a array
+     * @param v value
+     * @return whether `a` contains `v`
+     */
+    public static boolean inArray(List<?> a, Object v) {
+        return Membership.of(a).contains(v);
+    }
+
+    /**
+     * Same as {@link #inArray(List, Object)}.
+     *
+     * @param a array
+     * @param v value
+     * @return whether `a` contains `v`
+     */
+    public static boolean inArray(Object[] a, Object v) {
+        return Membership.of(a).contains(v);
+    }
+
     // TO-DO these functions are untested and need docstrings
     // (brought over from commit 98360fe7f7c13dcbd51c14db12218b605bd86c16)
 
@@ -79,23 +120,65 @@ public class ArrayFunctions {
         return a.length;
     }
 
-    public static Object[] slice(Object[] a, Integer from, Integer to) {
-        return Arrays.copyOfRange(a, from, to + 1);
+    public static Integer length(List<?> a) {
+        return a.size();
+    }
+
+    /**
+     * Returns the part of the array `a` from `from` up to, but not including, `to`, as a view on `a`.
+     * Negative indices count from the end of the array.
+     * For example, `slice([ "a", "b", "c", "d" ], 1, -1)` returns `[ "b", "c" ]`.
+     * https://docs.openrefine.org/manual/grelfunctions#slicea-n-from-n-to-optional
+     *
+     * @param a    array
+     * @param from start index, inclusive
+     * @param to   end index, exclusive
+     * @return view on the part of `a`
+     */
+    public static ArrayView<Object> slice(Object[] a, Integer from, Integer to) {
+        return slice(ArrayView.of(a), from, to);
     }
 
-    public static Object[] slice(Object[] a, Integer from) {
+    public static ArrayView<Object> slice(Object[] a, Integer from) {
         return slice(a, from, a.length);
     }
 
+    /**
+     * Same as {@link #slice(Object[], Integer, Integer)}, for a list or view.
+     */
+    public static ArrayView<Object> slice(List<?> a, Integer from, Integer to) {
+        int start = sliceIndex(from, a.size());
+        int end = Math.max(start, sliceIndex(to, a.size()));
+        return ArrayView.<Object>of(a, start, end);
+    }
+
+    public static ArrayView<Object> slice(List<?> a, Integer from) {
+        return slice(a, from, a.size());
+    }
+
+    private static int sliceIndex(int index, int size) {
+        return Math.min(size, Math.max(0, index < 0 ? index + size : index));
+    }
+
     // see get of strings
-    public static Object[] reverse(Object[] a) {
-        ArrayUtils.reverse(a);
-        return a;
+    public static ArrayView<Object> reverse(Object[] a) {
+        return ArrayView.of(a).reversed();
+    }
+
+    public static ArrayView<Object> reverse(List<?> a) {
+        return ArrayView.<Object>of(a).reversed();
     }
 
     public static Object[] sort(Object[] a) {
-        Arrays.sort(a);
-        return a;
+        Object[] sorted = a.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    public static Object[] sort(List<?> a) {
+        Object[] sorted = a.toArray();
+        Arrays.sort(sorted);
+        return sorted;
     }
 
     public static Integer sum(Integer[] a) {
@@ -103,9 +186,12 @@ public class ArrayFunctions {
     }
 
     public static Object[] uniques(Object[] a) {
-        SortedSet<Object> set = new TreeSet<>(Arrays.asList(a));
-        return set.toArray(new Object[0]);
+        return uniques(Arrays.asList(a));
+    }
 
+    public static Object[] uniques(List<?> a) {
+        SortedSet<Object> set = new TreeSet<>(a);
+        return set.toArray(new Object[0]);
     }
 
 }
@@ -0,0 +1,131 @@
+package io.fno.grel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inline cache for {@link ArrayFunctions#get(Object, Object, Integer)} at one call site.
+ * <p>
+ * {@code ArrayFunctions.get} checks the types of the container and the key on every call. An engine that calls it
+ * from the same place over and over, nearly always with the same argument classes, can instead create one
+ * {@code ArrayGetCallSite} for that place and call {@link #get(Object, Object, Integer)} on it.
+ * The call site links itself to a method specialized to the argument classes it sees, guarded by an exact class check,
+ * so that the JIT compiler can inline it; when other classes show up, a guarded specialization is added for them.
+ * After {@value #MAX_SHAPES} different shapes, the site gives up specializing and calls
+ * {@code ArrayFunctions.get} directly.
+ * <p>
+ * Results and errors are the same as those of {@code ArrayFunctions.get}. Call sites are thread-safe.
+ */
+public final class ArrayGetCallSite extends MutableCallSite {
+
+    static final int MAX_SHAPES = 4;
+
+    private static final MethodType TYPE = MethodType.methodType(Object.class, Object.class, Object.class, Integer.class);
+
+    private static final MethodHandle GENERIC;
+    private static final MethodHandle LIST_INDEX;
+    private static final MethodHandle MAP_GET;
+    private static final MethodHandle SAME_CLASSES;
+    private static final MethodHandle RELINK;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            GENERIC = lookup.findStatic(ArrayFunctions.class, "get", TYPE);
+            LIST_INDEX = lookup.findStatic(ArrayGetCallSite.class, "listIndex", TYPE);
+            MAP_GET = lookup.findStatic(ArrayGetCallSite.class, "mapGet", TYPE);
+            SAME_CLASSES = lookup.findStatic(ArrayGetCallSite.class, "sameClasses", MethodType.methodType(
+                    boolean.class, Class.class, Class.class, Object.class, Object.class, Integer.class));
+            RELINK = lookup.findVirtual(ArrayGetCallSite.class, "relink", TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MethodHandle invoker;
+    private int shapes;
+
+    public ArrayGetCallSite() {
+        super(TYPE);
+        setTarget(RELINK.bindTo(this));
+        invoker = dynamicInvoker();
+    }
+
+    /**
+     * Same as {@link ArrayFunctions#get(Object, Object)}.
+     */
+    public Object get(Object a, Object from) {
+        return get(a, from, null);
+    }
+
+    /**
+     * Same as {@link ArrayFunctions#get(Object, Object, Integer)}.
+     */
+    public Object get(Object a, Object from, Integer to) {
+        try {
+            return (Object) invoker.invokeExact(a, from, to);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Number of argument shapes the call site is specialized to; {@value #MAX_SHAPES} or more means it has given up.
+     */
+    int shapes() {
+        return shapes;
+    }
+
+    /**
+     * Target reached when no specialization matches: adds one for the classes of `a` and `from`,
+     * then answers the call.
+     */
+    private synchronized Object relink(Object a, Object from, Integer to) {
+        if (shapes < MAX_SHAPES) {
+            // null arguments have no class to specialize on, and are left to the generic method
+            if (a != null && from != null) {
+                MethodHandle specialized = GENERIC;
+                if (a instanceof List && from instanceof Integer) {
+                    specialized = LIST_INDEX;
+                } else if (a instanceof Map && (from instanceof Integer || from instanceof String)) {
+                    specialized = MAP_GET;
+                }
+                MethodHandle test = MethodHandles.insertArguments(SAME_CLASSES, 0, a.getClass(), from.getClass());
+                setTarget(MethodHandles.guardWithTest(test, specialized, getTarget()));
+                shapes++;
+            }
+        } else if (shapes == MAX_SHAPES) {
+            setTarget(GENERIC);
+            shapes++;
+        }
+        return ArrayFunctions.get(a, from, to);
+    }
+
+    private static boolean sameClasses(Class<?> aClass, Class<?> fromClass, Object a, Object from, Integer to) {
+        return a != null && a.getClass() == aClass && from != null && from.getClass() == fromClass;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Object listIndex(Object a, Object from, Integer to) {
+        List list = (List) a;
+        int index = (Integer) from;
+        if (to == null) {
+            return list.get(index);
+        }
+        return ArrayView.<Object>of((List<?>) list, index, to);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Object mapGet(Object a, Object from, Integer to) {
+        if (to != null) {
+            throw new Error("'a' is a Map, so no 'to' parameter is allowed");
+        }
+        return ((Map) a).get(from);
+    }
+}
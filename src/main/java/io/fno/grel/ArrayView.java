@@ -0,0 +1,128 @@
+package io.fno.grel;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable view on a range of an array or list, possibly in reverse order, as returned by
+ * {@link ArrayFunctions#reverse(Object[])}, {@link ArrayFunctions#slice(Object[], Integer, Integer)} and
+ * {@link ArrayFunctions#get(Object, Object, Integer)}.
+ * <p>
+ * Creating a view, reversing it or taking a range of it takes constant time and copies nothing.
+ * A view cannot be modified; it does reflect later changes to its backing array or list, which are therefore best
+ * left alone while the view is in use.
+ *
+ * @param <E> type of the elements
+ */
+public final class ArrayView<E> extends AbstractList<E> implements RandomAccess {
+
+    private final Object[] array;
+    private final List<? extends E> list;
+    private final int offset;
+    private final int length;
+    private final boolean reversed;
+
+    private ArrayView(Object[] array, List<? extends E> list, int offset, int length, boolean reversed) {
+        this.array = array;
+        this.list = list;
+        this.offset = offset;
+        this.length = length;
+        this.reversed = reversed;
+    }
+
+    /**
+     * @param array array
+     * @return a view on all of `array`
+     */
+    public static <E> ArrayView<E> of(E[] array) {
+        return new ArrayView<>(array, null, 0, array.length, false);
+    }
+
+    /**
+     * @param array array
+     * @param from  start index, inclusive
+     * @param to    end index, exclusive
+     * @return a view on `array` from `from` to `to`
+     * @throws IndexOutOfBoundsException when the range is not within the array
+     */
+    public static <E> ArrayView<E> of(E[] array, int from, int to) {
+        checkRange(from, to, array.length);
+        return new ArrayView<>(array, null, from, to - from, false);
+    }
+
+    /**
+     * @param list list
+     * @return a view on all of `list`
+     */
+    public static <E> ArrayView<E> of(List<? extends E> list) {
+        return of(list, 0, list.size());
+    }
+
+    /**
+     * @param list list
+     * @param from start index, inclusive
+     * @param to   end index, exclusive
+     * @return a view on `list` from `from` to `to`
+     * @throws IndexOutOfBoundsException when the range is not within the list
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> ArrayView<E> of(List<? extends E> list, int from, int to) {
+        if (list instanceof ArrayView) {
+            return ((ArrayView<E>) list).subList(from, to);
+        }
+        checkRange(from, to, list.size());
+        return new ArrayView<>(null, list, from, to - from, false);
+    }
+
+    private static void checkRange(int from, int to, int size) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", size: " + size);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + length);
+        }
+        int i = reversed ? offset + length - 1 - index : offset + index;
+        return array != null ? (E) array[i] : list.get(i);
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+     * @return a view on the same elements in reverse order
+     */
+    public ArrayView<E> reversed() {
+        return new ArrayView<>(array, list, offset, length, !reversed);
+    }
+
+    /**
+     * Returns a view on the elements from `from` to `to` of this view, without copying them.
+     */
+    @Override
+    public ArrayView<E> subList(int from, int to) {
+        checkRange(from, to, length);
+        int start = reversed ? offset + length - to : offset + from;
+        return new ArrayView<>(array, list, start, to - from, reversed);
+    }
+
+    @Override
+    public Object[] toArray() {
+        if (array != null && !reversed) {
+            return Arrays.copyOfRange(array, offset, offset + length, Object[].class);
+        }
+        Object[] copy = new Object[length];
+        for (int i = 0; i < length; i++) {
+            copy[i] = get(i);
+        }
+        return copy;
+    }
+}
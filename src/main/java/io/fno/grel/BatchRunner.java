@@ -0,0 +1,507 @@
+package io.fno.grel;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Command-line entry point that applies chains of GREL functions to the columns of a CSV or NDJSON file.
+ * <p>
+ * For example, {@code java -jar grel-functions-java-jar-with-dependencies.jar --apply 'name=value.trim().toTitlecase()'
+ * --apply 'slug=cells["name"].value.toLowercase().replace(" ", "-")' people.csv -o clean.csv} rewrites the
+ * {@code name} column and adds a {@code slug} column. See {@link FunctionChain} for the syntax of the chains.
+ * The chains are applied in the order they are given, so later ones see the results of earlier ones.
+ * <p>
+ * The input is read from memory-mapped windows of the file, split into chunks of rows, and the chunks are evaluated
+ * on a pool of worker threads while the next ones are read. Output is written in input order.
+ * CSV files must have a header row; their fields are read as by {@link CsvTokenizer}, and written with quotes where
+ * needed. NDJSON files hold one JSON object per line; the chains read and write fields of those objects.
+ */
+public final class BatchRunner {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: [options] INPUT",
+            "  INPUT                    CSV or NDJSON file, or - for standard input",
+            "  -o, --output FILE        output file, or - for standard output (default)",
+            "  -a, --apply COL=CHAIN    sets column COL to the result of CHAIN, such as value.trim(); repeatable",
+            "  --format csv|ndjson      format of the input and output (default from the file extension, else csv)",
+            "  --separator C            CSV field separator (default ,)",
+            "  --threads N              worker threads (default the number of processors)",
+            "  --chunk N                rows per chunk (default 4096)",
+            "  --on-error keep|null|fail  when a chain throws: keep the old value (default), write null, or stop");
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private BatchRunner() {
+    }
+
+    enum OnError {
+        KEEP, NULL, FAIL
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * @return the exit status: 0 on success, 1 when processing failed, 2 when the arguments are invalid
+     */
+    static int run(String[] args, InputStream stdin, OutputStream stdout, PrintStream err) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        if (options.help) {
+            err.println(USAGE);
+            return 0;
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(options.threads, r -> {
+            Thread thread = new Thread(r, "grel-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        try (Reader in = options.input.equals("-")
+                ? new InputStreamReader(stdin, StandardCharsets.UTF_8)
+                : new MappedReader(Paths.get(options.input));
+             Writer out = new BufferedWriter(new OutputStreamWriter(options.output.equals("-")
+                     ? new NonClosing(stdout)
+                     : Files.newOutputStream(Paths.get(options.output)), StandardCharsets.UTF_8), 1 << 16)) {
+            Batch batch = options.format == Format.NDJSON ? new NdjsonBatch(options, in) : new CsvBatch(options, in);
+            long rows = batch.run(workers, out);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            err.printf(Locale.ROOT, "%d rows in %.2f s (%.0f rows/s), %d errors%n", rows, seconds,
+                    rows / Math.max(seconds, 1e-9), batch.errors.sum());
+            return 0;
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 2;
+        } catch (IOException | UncheckedIOException e) {
+            err.println("Error: " + e.getMessage());
+            return 1;
+        } catch (ExecutionException e) {
+            err.println("Error: " + e.getCause().getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    enum Format {
+        CSV, NDJSON
+    }
+
+    /**
+     * One `--apply` option: the column it sets, the column it reads, and the chain in between.
+     */
+    private static final class Application {
+        private final String target;
+        private final String source;
+        private final FunctionChain chain;
+
+        Application(String spec) {
+            int eq = spec.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected COLUMN=CHAIN, not " + spec);
+            }
+            target = spec.substring(0, eq).trim();
+            chain = FunctionChain.parse(spec.substring(eq + 1));
+            source = chain.column() != null ? chain.column() : target;
+        }
+    }
+
+    /**
+     * Reads chunks of rows on the calling thread, evaluates them on the workers, and writes them in order.
+     */
+    private abstract static class Batch {
+        final Options options;
+        final LongAdder errors = new LongAdder();
+
+        Batch(Options options) {
+            this.options = options;
+        }
+
+        /**
+         * @return the next chunk of at most `size` rows, or null at the end of the input
+         */
+        abstract List<?> read(int size) throws IOException;
+
+        /**
+         * @param first number of the first row of the chunk, from 1
+         * @return the output of the chunk
+         */
+        abstract String evaluate(List<?> chunk, long first);
+
+        long run(ExecutorService workers, Writer out) throws IOException, InterruptedException, ExecutionException {
+            // at most two chunks per worker are in flight, so that memory stays bounded when writing is slow
+            Deque<Future<String>> pending = new ArrayDeque<>();
+            long rows = 0;
+            for (List<?> chunk = read(options.chunk); chunk != null; chunk = read(options.chunk)) {
+                List<?> rowsOfChunk = chunk;
+                long first = rows + 1;
+                Callable<String> task = () -> evaluate(rowsOfChunk, first);
+                pending.add(workers.submit(task));
+                rows += chunk.size();
+                while (!pending.isEmpty() && (pending.size() > 2 * options.threads || pending.peek().isDone())) {
+                    out.write(pending.remove().get());
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(pending.remove().get());
+            }
+            return rows;
+        }
+
+        /**
+         * Applies `application` to `value`, the current value of its target being `old`.
+         */
+        Object apply(Application application, Object value, Object old, long row) {
+            try {
+                return application.chain.apply(value);
+            } catch (RuntimeException e) {
+                errors.increment();
+                switch (options.onError) {
+                    case KEEP:
+                        return old;
+                    case NULL:
+                        return null;
+                    default:
+                        throw new IllegalStateException("Row " + row + ", column " + application.target + ": "
+                                + application.chain + " failed with " + e, e);
+                }
+            }
+        }
+    }
+
+    private static final class CsvBatch extends Batch {
+        private final CsvTokenizer.Records records;
+        private final String separator;
+        private final int[] sources;
+        private final int[] targets;
+        private final int width;
+        private String header;
+
+        CsvBatch(Options options, Reader in) throws IOException {
+            super(options);
+            separator = options.separator;
+            records = new CsvTokenizer(separator).records(in);
+            List<String> columns = new ArrayList<>();
+            if (!records.next(columns)) {
+                throw new IOException("The CSV input has no header row");
+            }
+            sources = new int[options.applications.size()];
+            targets = new int[options.applications.size()];
+            for (int i = 0; i < sources.length; i++) {
+                Application application = options.applications.get(i);
+                sources[i] = columns.indexOf(application.source);
+                if (sources[i] < 0) {
+                    throw new IllegalArgumentException("Unknown column " + application.source);
+                }
+                targets[i] = columns.indexOf(application.target);
+                if (targets[i] < 0) {
+                    targets[i] = columns.size();
+                    columns.add(application.target);
+                }
+            }
+            width = columns.size();
+            StringBuilder sb = new StringBuilder();
+            appendRow(sb, columns.toArray(new String[0]));
+            header = sb.toString();
+        }
+
+        @Override
+        List<?> read(int size) throws IOException {
+            List<String[]> chunk = new ArrayList<>(size);
+            List<String> fields = new ArrayList<>();
+            while (chunk.size() < size && records.next(fields)) {
+                chunk.add(fields.toArray(new String[0]));
+            }
+            return chunk.isEmpty() ? null : chunk;
+        }
+
+        @Override
+        long run(ExecutorService workers, Writer out) throws IOException, InterruptedException, ExecutionException {
+            out.write(header);
+            header = null;
+            return super.run(workers, out);
+        }
+
+        @Override
+        String evaluate(List<?> chunk, long first) {
+            StringBuilder sb = new StringBuilder(chunk.size() * 64);
+            long row = first;
+            for (Object record : chunk) {
+                String[] fields = Arrays.copyOf((String[]) record, Math.max(width, ((String[]) record).length));
+                for (int i = 0; i < sources.length; i++) {
+                    Application application = options.applications.get(i);
+                    Object result = apply(application, fields[sources[i]], fields[targets[i]], row);
+                    fields[targets[i]] = result == null ? null : cell(result);
+                }
+                appendRow(sb, fields);
+                row++;
+            }
+            return sb.toString();
+        }
+
+        private void appendRow(StringBuilder sb, String[] fields) {
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    sb.append(separator);
+                }
+                String field = fields[i];
+                if (field == null) {
+                    continue;
+                }
+                if (field.contains(separator) || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+                        || field.indexOf('\r') >= 0) {
+                    sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+                } else {
+                    sb.append(field);
+                }
+            }
+            sb.append('\n');
+        }
+
+        private static String cell(Object value) {
+            if (value instanceof String) {
+                return (String) value;
+            }
+            if (value.getClass().isArray() || value instanceof Collection || value instanceof Map) {
+                try {
+                    return JSON.writeValueAsString(value);
+                } catch (JsonProcessingException e) {
+                    return value.toString();
+                }
+            }
+            return value.toString();
+        }
+    }
+
+    private static final class NdjsonBatch extends Batch {
+        private final BufferedReader lines;
+        private boolean first = true;
+
+        NdjsonBatch(Options options, Reader in) {
+            super(options);
+            lines = new BufferedReader(in, 1 << 16);
+        }
+
+        @Override
+        List<?> read(int size) throws IOException {
+            List<String> chunk = new ArrayList<>(size);
+            String line;
+            while (chunk.size() < size && (line = lines.readLine()) != null) {
+                if (first && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                    line = line.substring(1);
+                }
+                first = false;
+                if (!line.trim().isEmpty()) {
+                    chunk.add(line);
+                }
+            }
+            return chunk.isEmpty() ? null : chunk;
+        }
+
+        @Override
+        String evaluate(List<?> chunk, long first) {
+            StringBuilder sb = new StringBuilder(chunk.size() * 128);
+            long row = first;
+            for (Object line : chunk) {
+                JsonNode node;
+                try {
+                    node = JSON.readTree((String) line);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Row " + row + " is not valid JSON: " + e.getMessage(), e);
+                }
+                if (!(node instanceof ObjectNode)) {
+                    throw new IllegalStateException("Row " + row + " is not a JSON object");
+                }
+                ObjectNode object = (ObjectNode) node;
+                for (Application application : options.applications) {
+                    Object value = value(object.get(application.source));
+                    Object old = object.get(application.target);
+                    Object result = apply(application, value, old, row);
+                    object.set(application.target, result instanceof JsonNode ? (JsonNode) result : node(result));
+                }
+                try {
+                    sb.append(JSON.writeValueAsString(object)).append('\n');
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException(e);
+                }
+                row++;
+            }
+            return sb.toString();
+        }
+
+        private static Object value(JsonNode node) {
+            if (node == null || node.isNull()) {
+                return null;
+            }
+            if (node.isTextual()) {
+                return node.textValue();
+            }
+            if (node.isInt()) {
+                return node.intValue();
+            }
+            if (node.isLong()) {
+                return node.longValue();
+            }
+            if (node.isNumber()) {
+                return node.doubleValue();
+            }
+            if (node.isBoolean()) {
+                return node.booleanValue();
+            }
+            return JSON.convertValue(node, Object.class);
+        }
+
+        private static JsonNode node(Object value) {
+            if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value.getClass().isArray() || value instanceof Collection || value instanceof Map) {
+                return JSON.valueToTree(value);
+            }
+            return JSON.getNodeFactory().textNode(value.toString());
+        }
+    }
+
+    /**
+     * Standard output, which must stay open after the batch.
+     */
+    private static final class NonClosing extends FilterOutputStream {
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final class Options {
+        private String input;
+        private String output = "-";
+        private Format format;
+        private String separator = ",";
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int chunk = 4096;
+        private OnError onError = OnError.KEEP;
+        private final List<Application> applications = new ArrayList<>();
+        private boolean help;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("--help")) {
+                    options.help = true;
+                    return options;
+                }
+                if (!arg.startsWith("-") || arg.equals("-")) {
+                    if (options.input != null) {
+                        throw new IllegalArgumentException("Only one input file can be given");
+                    }
+                    options.input = arg;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "-o":
+                    case "--output":
+                        options.output = value;
+                        break;
+                    case "-a":
+                    case "--apply":
+                        options.applications.add(new Application(value));
+                        break;
+                    case "--format":
+                        options.format = Format.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--separator":
+                        if (value.isEmpty()) {
+                            throw new IllegalArgumentException("The separator must not be empty");
+                        }
+                        options.separator = value.equals("\\t") ? "\t" : value;
+                        break;
+                    case "--threads":
+                        options.threads = positive(arg, value);
+                        break;
+                    case "--chunk":
+                        options.chunk = positive(arg, value);
+                        break;
+                    case "--on-error":
+                        options.onError = OnError.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (options.input == null) {
+                throw new IllegalArgumentException("No input file given");
+            }
+            if (options.format == null) {
+                String name = options.input.toLowerCase(Locale.ROOT);
+                options.format = name.endsWith(".ndjson") || name.endsWith(".jsonl") ? Format.NDJSON : Format.CSV;
+            }
+            return options;
+        }
+
+        private static int positive(String option, String value) {
+            try {
+                int n = Integer.parseInt(value);
+                if (n > 0) {
+                    return n;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException(option + " must be a positive number, not " + value);
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package io.fno.grel;
 
 import java.util.List;
+import java.util.function.Supplier;
 
+/**
+ * GREL boolean functions.
+ * <p>
+ * Thread safety: all functions are stateless and safe to call concurrently.
+ */
 public class BooleanFunctions {
 
     /**
@@ -54,4 +60,50 @@ public class BooleanFunctions {
         return numberOfTrues == 1;
     }
 
+    /**
+     * Same as {@link #and(List)}, but the booleans are evaluated in order, and only until one of them is false.
+     *
+     * @param b two or more booleans
+     * @return boolean
+     */
+    public static Boolean andLazy(List<? extends Supplier<Boolean>> b) {
+        for (Supplier<Boolean> b1 : b) {
+            if (!b1.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #or(List)}, but the booleans are evaluated in order, and only until one of them is true.
+     *
+     * @param b two or more booleans
+     * @return boolean
+     */
+    public static Boolean orLazy(List<? extends Supplier<Boolean>> b) {
+        for (Supplier<Boolean> b1 : b) {
+            if (b1.get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link #xor(List)}, but the booleans are evaluated in order, and only until a second one is true.
+     *
+     * @param b two or more booleans
+     * @return Boolean
+     */
+    public static Boolean xorLazy(List<? extends Supplier<Boolean>> b) {
+        int numberOfTrues = 0;
+        for (Supplier<Boolean> b1 : b) {
+            if (b1.get() && ++numberOfTrues > 1) {
+                return false;
+            }
+        }
+        return numberOfTrues == 1;
+    }
+
 }
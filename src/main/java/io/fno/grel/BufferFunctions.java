@@ -0,0 +1,257 @@
+package io.fno.grel;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.function.Consumer;
+
+/**
+ * Variants of the {@link StringFunctions} hash, escape and split functions for very large values, which take
+ * the UTF-8 encoded value as a {@link ByteBuffer} (for example a memory-mapped file region) instead of a {@code String}.
+ * <p>
+ * They stream through the bytes a chunk at a time, so they use constant memory however large the value is,
+ * and give the same results as the string functions applied to the decoded value.
+ * The buffers' positions and limits are left untouched.
+ */
+public class BufferFunctions {
+
+    private static final int CHUNK = 1 << 16;
+
+    private static final long MAX_MAPPING = 1L << 30;
+
+    /**
+     * Maps a region of `file` into memory, read-only.
+     *
+     * @param file     file
+     * @param position offset of the region in the file
+     * @param size     size of the region, at most {@link Integer#MAX_VALUE} bytes
+     * @return mapped region
+     * @throws IOException when the file cannot be read
+     */
+    public static MappedByteBuffer map(Path file, long position, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+    }
+
+    /**
+     * Returns the MD5 hash of the UTF-8 encoded value in `bytes`, the same as {@link StringFunctions#md5(String)}.
+     *
+     * @param bytes UTF-8 encoded value
+     * @return MD5 hash as hex string
+     */
+    public static String md5(ByteBuffer bytes) {
+        return hash(DigestUtils.getMd5Digest(), bytes);
+    }
+
+    /**
+     * Returns the SHA-1 hash of the UTF-8 encoded value in `bytes`, the same as {@link StringFunctions#sha1(String)}.
+     *
+     * @param bytes UTF-8 encoded value
+     * @return SHA-1 hash as hex string
+     */
+    public static String sha1(ByteBuffer bytes) {
+        return hash(DigestUtils.getSha1Digest(), bytes);
+    }
+
+    /**
+     * Returns the MD5 hash of a region of `file`, which holds a UTF-8 encoded value.
+     * The region can be of any size; it is mapped into memory a part at a time.
+     *
+     * @param file     file
+     * @param position offset of the region in the file
+     * @param size     size of the region
+     * @return MD5 hash as hex string
+     * @throws IOException when the file cannot be read
+     */
+    public static String md5(Path file, long position, long size) throws IOException {
+        return hash(DigestUtils.getMd5Digest(), file, position, size);
+    }
+
+    /**
+     * Returns the SHA-1 hash of a region of `file`, which holds a UTF-8 encoded value.
+     * The region can be of any size; it is mapped into memory a part at a time.
+     *
+     * @param file     file
+     * @param position offset of the region in the file
+     * @param size     size of the region
+     * @return SHA-1 hash as hex string
+     * @throws IOException when the file cannot be read
+     */
+    public static String sha1(Path file, long position, long size) throws IOException {
+        return hash(DigestUtils.getSha1Digest(), file, position, size);
+    }
+
+    private static String hash(MessageDigest digest, ByteBuffer bytes) {
+        ByteBuffer in = bytes.duplicate();
+        int end = in.limit();
+        while (in.position() < end) {
+            in.limit(Math.min(end, in.position() + CHUNK));
+            digest.update(in);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static String hash(MessageDigest digest, Path file, long position, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long done = 0; done < size; ) {
+                long part = Math.min(MAX_MAPPING, size - done);
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, position + done, part);
+                while (in.hasRemaining()) {
+                    in.limit(Math.min(in.capacity(), in.position() + CHUNK));
+                    digest.update(in);
+                    in.limit(in.capacity());
+                }
+                done += part;
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Escapes the UTF-8 encoded value in `bytes` in the given escaping mode (`html`, `xml`, `csv`, `url`, `javascript`)
+     * and writes the result to `out`; the output is the same as {@link StringFunctions#escape(String, String)}.
+     *
+     * @param bytes UTF-8 encoded value
+     * @param mode  mode
+     * @param out   writer to write the escaped value to
+     * @throws IOException when writing fails
+     */
+    public static void escape(ByteBuffer bytes, String mode, Writer out) throws IOException {
+        String lMode = mode.toLowerCase();
+        boolean quote = false;
+        if ("csv".equals(lMode)) {
+            // escapeCsv only quotes values containing one of these ASCII characters, which UTF-8 keeps as single bytes
+            for (int i = bytes.position(); i < bytes.limit(); i++) {
+                byte b = bytes.get(i);
+                if (b == ',' || b == '"' || b == '\r' || b == '\n') {
+                    quote = true;
+                    break;
+                }
+            }
+            if (quote) {
+                out.write('"');
+            }
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer in = bytes.duplicate();
+        CharBuffer chars = CharBuffer.allocate(CHUNK);
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            decoder.decode(in, chars, true);
+            endOfInput = !in.hasRemaining();
+            if (endOfInput) {
+                decoder.flush(chars);
+            }
+            chars.flip();
+            // keep a high surrogate at the end of the chunk for the next one, so pairs are escaped together
+            int end = chars.limit();
+            if (!endOfInput && end > 0 && Character.isHighSurrogate(chars.get(end - 1))) {
+                end--;
+            }
+            String chunk = chars.subSequence(0, end).toString();
+            chars.position(end);
+            chars.compact();
+            switch (lMode) {
+                case "html":
+                    StringEscapeUtils.escapeHtml(out, chunk);
+                    break;
+                case "xml":
+                    StringEscapeUtils.escapeXml(out, chunk);
+                    break;
+                case "csv":
+                    out.write(quote ? chunk.replace("\"", "\"\"") : chunk);
+                    break;
+                case "url":
+                    out.write(StringFunctions.escape(CharSlice.of(chunk), "url"));
+                    break;
+                case "javascript":
+                    StringEscapeUtils.escapeJavaScript(out, chunk);
+                    break;
+                default:
+                    out.write(chunk);
+            }
+        }
+        if (quote) {
+            out.write('"');
+        }
+    }
+
+    /**
+     * Splits the UTF-8 encoded value in `bytes` at every occurrence of `sep`, and passes the parts to `consumer` in order.
+     * The parts are the same as those of {@link StringFunctions#split(String, String)}, including the removal of
+     * trailing empty parts, but `sep` must be a literal separator (a string without regular expression metacharacters,
+     * or a single escaped character).
+     *
+     * @param bytes    UTF-8 encoded value
+     * @param sep      literal separator
+     * @param consumer receives the parts
+     * @throws IllegalArgumentException when `sep` is a regular expression
+     */
+    public static void split(ByteBuffer bytes, String sep, Consumer<String> consumer) {
+        String literal = Patterns.literal(sep);
+        if (literal == null) {
+            throw new IllegalArgumentException("Only literal separators are supported for buffers: " + sep);
+        }
+        byte[] needle = literal.getBytes(StandardCharsets.UTF_8);
+        int start = bytes.position();
+        int end = bytes.limit();
+        int fieldStart = start;
+        int pendingEmpty = 0;
+        boolean matched = false;
+        int last = end - needle.length;
+        for (int i = start; i <= last; ) {
+            if (matches(bytes, i, needle)) {
+                if (i == fieldStart) {
+                    pendingEmpty++;
+                } else {
+                    for (; pendingEmpty > 0; pendingEmpty--) {
+                        consumer.accept("");
+                    }
+                    consumer.accept(decode(bytes, fieldStart, i));
+                }
+                matched = true;
+                i += needle.length;
+                fieldStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (fieldStart < end || !matched) {
+            for (; pendingEmpty > 0; pendingEmpty--) {
+                consumer.accept("");
+            }
+            consumer.accept(decode(bytes, fieldStart, end));
+        }
+    }
+
+    private static boolean matches(ByteBuffer bytes, int at, byte[] needle) {
+        for (int k = 0; k < needle.length; k++) {
+            if (bytes.get(at + k) != needle[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer bytes, int from, int to) {
+        ByteBuffer part = bytes.duplicate();
+        part.limit(to).position(from);
+        return StandardCharsets.UTF_8.decode(part).toString();
+    }
+}
@@ -0,0 +1,150 @@
+package io.fno.grel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe pool of canonical string instances.
+ * <p>
+ * {@link #canonical(String)} returns a pooled instance equal to its argument when there is one, so that values
+ * which are computed over and over (such as lowercased categories) share a single instance on the heap,
+ * and the argument can be garbage collected right away.
+ * The pool is a two-way set-associative table of fixed size: a string that does not fit replaces the least
+ * recently used string of its set, so memory use is bounded and lookups never block.
+ * Functions in {@link StringFunctions} use a pool once it is installed with
+ * {@link StringFunctions#setCanonicalPool(CanonicalPool)}.
+ */
+public final class CanonicalPool {
+
+    private final AtomicReferenceArray<String> slots;
+    private final int setMask;
+    private final int maxLength;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates a pool for strings of at most 128 characters.
+     *
+     * @param capacity maximum number of pooled strings, rounded up to a power of two
+     */
+    public CanonicalPool(int capacity) {
+        this(capacity, 128);
+    }
+
+    /**
+     * @param capacity  maximum number of pooled strings, rounded up to a power of two
+     * @param maxLength longer strings are not pooled, since they are unlikely to repeat
+     */
+    public CanonicalPool(int capacity, int maxLength) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        int sets = Integer.highestOneBit(capacity - 1);
+        slots = new AtomicReferenceArray<>(sets * 2);
+        setMask = sets - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the pooled instance equal to `s`, or pools and returns `s` itself.
+     *
+     * @param s string
+     * @return a string equal to `s`
+     */
+    public String canonical(String s) {
+        if (s == null || s.length() > maxLength) {
+            return s;
+        }
+        int h = s.hashCode();
+        int first = ((h ^ (h >>> 16)) & setMask) << 1;
+        String pooled = slots.get(first);
+        if (pooled != null && pooled.hashCode() == h && pooled.equals(s)) {
+            hits.increment();
+            return pooled;
+        }
+        String second = slots.get(first + 1);
+        if (second != null && second.hashCode() == h && second.equals(s)) {
+            hits.increment();
+            // promotes the hit to the first slot, so that the set evicts its least recently used string;
+            // when another thread changed the first slot meanwhile, the set is left as it is
+            if (pooled != null && slots.compareAndSet(first, pooled, second)) {
+                slots.lazySet(first + 1, pooled);
+            }
+            return second;
+        }
+        misses.increment();
+        // the newest string takes the first slot, the previous one moves to the second slot
+        if (pooled == null) {
+            if (slots.compareAndSet(first, null, s)) {
+                size.incrementAndGet();
+            }
+            return s;
+        }
+        if (second == null) {
+            size.incrementAndGet();
+        } else {
+            evictions.increment();
+        }
+        slots.lazySet(first + 1, pooled);
+        slots.lazySet(first, s);
+        return s;
+    }
+
+    /**
+     * @return number of calls that returned a pooled instance
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of calls that pooled their argument
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of pooled strings that were replaced by newer ones
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return approximate number of pooled strings
+     */
+    public int size() {
+        return Math.min(size.get(), slots.length());
+    }
+
+    /**
+     * @return maximum number of pooled strings
+     */
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Removes all pooled strings and resets the metrics.
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+        size.set(0);
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "CanonicalPool{size=" + size() + ", capacity=" + capacity() + ", hits=" + hits()
+                + ", misses=" + misses() + ", evictions=" + evictions() + "}";
+    }
+}
@@ -0,0 +1,74 @@
+package io.fno.grel;
+
+/**
+ * Unicode general categories of code points, as used by {@link StringFunctions#unicodeType(String)} and
+ * {@link StringFunctions#splitByCharType(String)}.
+ * <p>
+ * The categories of the Basic Multilingual Plane are precomputed into a 64 KiB table, so looking up the category
+ * of a character is a single array access; the rare supplementary code points are looked up in {@link Character}.
+ */
+final class CharCategories {
+
+    private static final byte[] BMP = new byte[0x10000];
+
+    static {
+        for (int c = 0; c < BMP.length; c++) {
+            BMP[c] = (byte) Character.getType(c);
+        }
+    }
+
+    private static final String[] NAMES = new String[32];
+
+    static {
+        NAMES[Character.UNASSIGNED] = "unassigned";
+        NAMES[Character.UPPERCASE_LETTER] = "uppercase letter";
+        NAMES[Character.LOWERCASE_LETTER] = "lowercase letter";
+        NAMES[Character.TITLECASE_LETTER] = "titlecase letter";
+        NAMES[Character.MODIFIER_LETTER] = "modifier letter";
+        NAMES[Character.OTHER_LETTER] = "other letter";
+        NAMES[Character.NON_SPACING_MARK] = "non-spacing mark";
+        NAMES[Character.ENCLOSING_MARK] = "enclosing mark";
+        NAMES[Character.COMBINING_SPACING_MARK] = "combining spacing mark";
+        NAMES[Character.DECIMAL_DIGIT_NUMBER] = "decimal digit number";
+        NAMES[Character.LETTER_NUMBER] = "letter number";
+        NAMES[Character.OTHER_NUMBER] = "other number";
+        NAMES[Character.SPACE_SEPARATOR] = "space separator";
+        NAMES[Character.LINE_SEPARATOR] = "line separator";
+        NAMES[Character.PARAGRAPH_SEPARATOR] = "paragraph separator";
+        NAMES[Character.CONTROL] = "control";
+        NAMES[Character.FORMAT] = "format";
+        NAMES[Character.PRIVATE_USE] = "private use";
+        NAMES[Character.SURROGATE] = "surrogate";
+        NAMES[Character.DASH_PUNCTUATION] = "dash punctuation";
+        NAMES[Character.START_PUNCTUATION] = "start punctuation";
+        NAMES[Character.END_PUNCTUATION] = "end punctuation";
+        NAMES[Character.CONNECTOR_PUNCTUATION] = "connector punctuation";
+        NAMES[Character.OTHER_PUNCTUATION] = "other punctuation";
+        NAMES[Character.MATH_SYMBOL] = "math symbol";
+        NAMES[Character.CURRENCY_SYMBOL] = "currency symbol";
+        NAMES[Character.MODIFIER_SYMBOL] = "modifier symbol";
+        NAMES[Character.OTHER_SYMBOL] = "other symbol";
+        NAMES[Character.INITIAL_QUOTE_PUNCTUATION] = "initial quote punctuation";
+        NAMES[Character.FINAL_QUOTE_PUNCTUATION] = "final quote punctuation";
+    }
+
+    private CharCategories() {
+    }
+
+    /**
+     * Returns the general category of `cp`, one of the category constants of {@link Character}.
+     */
+    static int type(int cp) {
+        if (cp < 0x10000) {
+            return BMP[cp];
+        }
+        return Character.getType(cp);
+    }
+
+    /**
+     * Returns the name of a general category, such as `uppercase letter`.
+     */
+    static String name(int type) {
+        return NAMES[type];
+    }
+}
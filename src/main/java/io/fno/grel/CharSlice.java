@@ -0,0 +1,221 @@
+package io.fno.grel;
+
+/**
+ * A read-only window onto a range of another {@link CharSequence}.
+ * <p>
+ * Slicing a {@code CharSlice} (or creating one over a {@code String}) never copies character data;
+ * the characters are only copied into a new {@code String} the first time {@link #toString()} is called,
+ * after which that string is reused.
+ * Slices are immutable as long as the backing sequence is not modified, which is always the case for
+ * {@code String} backing sequences.
+ */
+public final class CharSlice implements CharSequence, Comparable<CharSequence> {
+
+    private final CharSequence base;
+    private final int offset;
+    private final int length;
+    private String string;
+
+    private CharSlice(CharSequence base, int offset, int length) {
+        this.base = base;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns a view of the whole of `s`.
+     *
+     * @param s character sequence
+     * @return view
+     */
+    public static CharSlice of(CharSequence s) {
+        if (s instanceof CharSlice) {
+            return (CharSlice) s;
+        }
+        return new CharSlice(s, 0, s.length());
+    }
+
+    /**
+     * Returns a view of the characters of `s` from index `from` (inclusive) up to index `to` (exclusive),
+     * with the same bounds checks as {@link String#substring(int, int)}.
+     *
+     * @param s    character sequence
+     * @param from character index from
+     * @param to   character index upto
+     * @return view
+     */
+    public static CharSlice of(CharSequence s, int from, int to) {
+        if (from < 0 || to > s.length() || from > to) {
+            throw new StringIndexOutOfBoundsException("begin " + from + ", end " + to + ", length " + s.length());
+        }
+        if (s instanceof CharSlice) {
+            CharSlice slice = (CharSlice) s;
+            return new CharSlice(slice.base, slice.offset + from, to - from);
+        }
+        return new CharSlice(s, from, to - from);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return base.charAt(offset + index);
+    }
+
+    @Override
+    public CharSlice subSequence(int start, int end) {
+        return of(this, start, end);
+    }
+
+    /**
+     * Returns whether this slice starts with `prefix`, without copying either sequence.
+     *
+     * @param prefix prefix
+     * @return boolean
+     */
+    public boolean startsWith(CharSequence prefix) {
+        return regionMatches(0, prefix);
+    }
+
+    /**
+     * Returns whether this slice ends with `suffix`, without copying either sequence.
+     *
+     * @param suffix suffix
+     * @return boolean
+     */
+    public boolean endsWith(CharSequence suffix) {
+        return regionMatches(length - suffix.length(), suffix);
+    }
+
+    /**
+     * Returns the index of the first occurrence of `sub` in this slice, or -1.
+     *
+     * @param sub sequence to look for
+     * @return character index
+     */
+    public int indexOf(CharSequence sub) {
+        return indexOf(sub, 0);
+    }
+
+    /**
+     * Returns the index of the first occurrence of `sub` in this slice at or after `from`, or -1.
+     *
+     * @param sub  sequence to look for
+     * @param from character index to start looking from
+     * @return character index
+     */
+    public int indexOf(CharSequence sub, int from) {
+        int n = sub.length();
+        if (from < 0) {
+            from = 0;
+        }
+        if (n == 0) {
+            return from <= length ? from : -1;
+        }
+        char first = sub.charAt(0);
+        int last = length - n;
+        for (int i = from; i <= last; i++) {
+            if (base.charAt(offset + i) == first && regionMatches(i, sub)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last occurrence of `sub` in this slice, or -1.
+     *
+     * @param sub sequence to look for
+     * @return character index
+     */
+    public int lastIndexOf(CharSequence sub) {
+        for (int i = length - sub.length(); i >= 0; i--) {
+            if (regionMatches(i, sub)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(int at, CharSequence other) {
+        int n = other.length();
+        if (at < 0 || at + n > length) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (base.charAt(offset + at + i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether this slice holds the same characters as `other`.
+     *
+     * @param other character sequence
+     * @return boolean
+     */
+    public boolean contentEquals(CharSequence other) {
+        return other.length() == length && regionMatches(0, other);
+    }
+
+    @Override
+    public int compareTo(CharSequence other) {
+        int n = Math.min(length, other.length());
+        for (int i = 0; i < n; i++) {
+            char a = base.charAt(offset + i);
+            char b = other.charAt(i);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - other.length();
+    }
+
+    /**
+     * Two slices are equal when they hold the same characters, regardless of their backing sequences.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharSlice && contentEquals((CharSlice) o);
+    }
+
+    /**
+     * Same value as {@link String#hashCode()} of the materialized string.
+     */
+    @Override
+    public int hashCode() {
+        if (string != null) {
+            return string.hashCode();
+        }
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + base.charAt(offset + i);
+        }
+        return h;
+    }
+
+    /**
+     * Materializes the slice; the resulting string is cached, so only the first call copies.
+     */
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            if (base instanceof String) {
+                s = ((String) base).substring(offset, offset + length);
+            } else {
+                s = base.subSequence(offset, offset + length).toString();
+            }
+            string = s;
+        }
+        return s;
+    }
+}
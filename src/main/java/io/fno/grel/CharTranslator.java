@@ -0,0 +1,132 @@
+package io.fno.grel;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A precompiled character translation table, as used by {@link StringFunctions#replaceChars(String, String, String)}.
+ * <p>
+ * The table gives the same result as replacing every character of `find` by the corresponding character of `replace`
+ * one after the other, but rewrites a string in a single pass.
+ * Tables whose characters lie close together are stored as a dense array indexed by character;
+ * others as a sorted array that is binary searched.
+ * Compiled tables are cached per `find`/`replace` pair.
+ */
+final class CharTranslator {
+
+    private static final int MAX_DENSE_RANGE = 4096;
+
+    private static final int MAX_CACHE_SIZE = 256;
+
+    private static final Map<String, Map<String, CharTranslator>> CACHE = new ConcurrentHashMap<>();
+
+    private final char min;
+    private final char max;
+    // dense: to[c - min] is the translation of c
+    private final char[] to;
+    // sparse: keys[i] translates to values[i]
+    private final char[] keys;
+    private final char[] values;
+
+    private CharTranslator(String find, String replace) {
+        char[] chars = find.toCharArray();
+        Arrays.sort(chars);
+        int n = 0;
+        for (int i = 0; i < chars.length; i++) {
+            if (n == 0 || chars[n - 1] != chars[i]) {
+                chars[n++] = chars[i];
+            }
+        }
+        min = n == 0 ? Character.MAX_VALUE : chars[0];
+        max = n == 0 ? Character.MIN_VALUE : chars[n - 1];
+        if (n > 0 && max - min < MAX_DENSE_RANGE) {
+            to = new char[max - min + 1];
+            for (int i = 0; i < to.length; i++) {
+                to[i] = (char) (min + i);
+            }
+            for (int i = 0; i < n; i++) {
+                to[chars[i] - min] = apply(chars[i], find, replace);
+            }
+            keys = null;
+            values = null;
+        } else {
+            to = null;
+            keys = Arrays.copyOf(chars, n);
+            values = new char[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = apply(keys[i], find, replace);
+            }
+        }
+    }
+
+    /**
+     * The character `c` ends up as after replacing each character of `find` by the corresponding one of `replace`,
+     * in order.
+     */
+    private static char apply(char c, String find, String replace) {
+        for (int i = 0; i < find.length(); i++) {
+            if (c == find.charAt(i)) {
+                c = replace.charAt(i);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the (cached) table for `find` and `replace`; `replace` must be at least as long as `find`.
+     */
+    static CharTranslator of(String find, String replace) {
+        Map<String, CharTranslator> byReplace = CACHE.get(find);
+        if (byReplace == null) {
+            if (CACHE.size() >= MAX_CACHE_SIZE) {
+                CACHE.clear();
+            }
+            byReplace = CACHE.computeIfAbsent(find, k -> new ConcurrentHashMap<>());
+        }
+        CharTranslator translator = byReplace.get(replace);
+        if (translator == null) {
+            if (byReplace.size() >= MAX_CACHE_SIZE) {
+                byReplace.clear();
+            }
+            translator = new CharTranslator(find, replace);
+            byReplace.put(replace, translator);
+        }
+        return translator;
+    }
+
+    private char translate(char c) {
+        if (c < min || c > max) {
+            return c;
+        }
+        if (to != null) {
+            return to[c - min];
+        }
+        int i = Arrays.binarySearch(keys, c);
+        return i < 0 ? c : values[i];
+    }
+
+    /**
+     * Returns `s` with every character translated, or `s` itself if none of its characters changes.
+     */
+    String translate(String s) {
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (translate(c) != c) {
+                break;
+            }
+            i++;
+        }
+        if (i == n) {
+            return s;
+        }
+        char[] out = new char[n];
+        s.getChars(0, i, out, 0);
+        for (; i < n; i++) {
+            out[i] = translate(s.charAt(i));
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,305 @@
+package io.fno.grel;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Variants of the most used {@link StringFunctions} that transform a whole {@link Utf8Column} at once,
+ * working on the UTF-8 bytes instead of decoding every value into a {@code String} and encoding the result again.
+ * <p>
+ * The results are the same as those of the corresponding string functions applied to every decoded value.
+ * Values that are entirely ASCII, which is the common case, never leave the byte level; case mapping and the
+ * `html`, `xml` and `javascript` escaping modes decode values that contain other characters.
+ * <p>
+ * Thread safety: all functions are stateless and safe to call concurrently; columns are immutable.
+ */
+public class ColumnFunctions {
+
+    /**
+     * Same as {@link StringFunctions#length(String)}, for every value: the number of UTF-16 characters.
+     *
+     * @param column values
+     * @return lengths
+     */
+    public static int[] length(Utf8Column column) {
+        ByteBuffer data = column.data();
+        int[] lengths = new int[column.size()];
+        for (int row = 0; row < lengths.length; row++) {
+            int length = 0;
+            for (int i = column.start(row), end = column.end(row); i < end; i++) {
+                int b = data.get(i) & 0xff;
+                // every byte but continuation bytes starts a character; four-byte sequences are surrogate pairs
+                if ((b & 0xc0) != 0x80) {
+                    length += b >= 0xf0 ? 2 : 1;
+                }
+            }
+            lengths[row] = length;
+        }
+        return lengths;
+    }
+
+    /**
+     * Same as {@link StringFunctions#startsWith(String, String)}, for every value.
+     *
+     * @param column values
+     * @param prefix prefix
+     * @return whether each value starts with `prefix`
+     */
+    public static boolean[] startsWith(Utf8Column column, String prefix) {
+        byte[] needle = prefix.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data = column.data();
+        boolean[] result = new boolean[column.size()];
+        for (int row = 0; row < result.length; row++) {
+            int start = column.start(row);
+            result[row] = column.end(row) - start >= needle.length && matches(data, start, needle);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link StringFunctions#contains(String, String)}, for every value.
+     * Comparing UTF-8 bytes gives the same answer as comparing characters, since no character's encoding
+     * appears inside another's.
+     *
+     * @param column values
+     * @param sub    substring
+     * @return whether each value contains `sub`
+     */
+    public static boolean[] contains(Utf8Column column, String sub) {
+        byte[] needle = sub.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data = column.data();
+        boolean[] result = new boolean[column.size()];
+        for (int row = 0; row < result.length; row++) {
+            for (int i = column.start(row), last = column.end(row) - needle.length; i <= last; i++) {
+                if (matches(data, i, needle)) {
+                    result[row] = true;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(ByteBuffer data, int at, byte[] needle) {
+        for (int k = 0; k < needle.length; k++) {
+            if (data.get(at + k) != needle[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link StringFunctions#trim(String)}, for every value. The characters that `trim` removes are all
+     * single bytes in UTF-8, so the result shares the bytes of `column` and copies nothing.
+     *
+     * @param column values
+     * @return trimmed values
+     */
+    public static Utf8Column trim(Utf8Column column) {
+        ByteBuffer data = column.data();
+        int[] starts = new int[column.size()];
+        int[] ends = new int[column.size()];
+        for (int row = 0; row < starts.length; row++) {
+            int start = column.start(row);
+            int end = column.end(row);
+            while (start < end && (data.get(start) & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (data.get(end - 1) & 0xff) <= ' ') {
+                end--;
+            }
+            starts[row] = start;
+            ends[row] = end;
+        }
+        return new Utf8Column(data, starts, ends);
+    }
+
+    /**
+     * Same as {@link StringFunctions#toLowercase(String)}, for every value.
+     *
+     * @param column values
+     * @return lowercase values
+     */
+    public static Utf8Column toLowercase(Utf8Column column) {
+        return mapCase(column, 'A', true);
+    }
+
+    /**
+     * Same as {@link StringFunctions#toUppercase(String)}, for every value.
+     *
+     * @param column values
+     * @return uppercase values
+     */
+    public static Utf8Column toUppercase(Utf8Column column) {
+        return mapCase(column, 'a', false);
+    }
+
+    private static Utf8Column mapCase(Utf8Column column, char first, boolean lower) {
+        ByteBuffer data = column.data();
+        Utf8Column.Builder out = builder(column);
+        for (int row = 0; row < column.size(); row++) {
+            int start = column.start(row);
+            int end = column.end(row);
+            if (!isAscii(data, start, end)) {
+                String value = column.getString(row);
+                out.add(lower ? StringFunctions.toLowercase(value) : StringFunctions.toUppercase(value));
+                continue;
+            }
+            out.ensure(end - start);
+            for (int i = start; i < end; i++) {
+                byte b = data.get(i);
+                // flips the 0x20 bit of the 26 letters from `first` only
+                out.put((b >= first && b < first + 26) ? (byte) (b ^ 0x20) : b);
+            }
+            out.endValue();
+        }
+        return out.build();
+    }
+
+    private static boolean isAscii(ByteBuffer data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link StringFunctions#escape(String, String)}, for every value.
+     * The `url` and `csv` modes work on the bytes of any value.
+     *
+     * @param column values
+     * @param mode   `html`, `xml`, `csv`, `url` or `javascript`
+     * @return escaped values
+     */
+    public static Utf8Column escape(Utf8Column column, String mode) {
+        String lMode = mode.toLowerCase();
+        if (!"url".equals(lMode) && !"csv".equals(lMode) && !"html".equals(lMode) && !"xml".equals(lMode)
+                && !"javascript".equals(lMode)) {
+            return column;
+        }
+        ByteBuffer data = column.data();
+        Utf8Column.Builder out = builder(column);
+        for (int row = 0; row < column.size(); row++) {
+            int start = column.start(row);
+            int end = column.end(row);
+            if ("url".equals(lMode)) {
+                out.ensure((end - start) * 3);
+                for (int i = start; i < end; i++) {
+                    byte b = data.get(i);
+                    if (b >= 0 && StringFunctions.ALLOWED[b]) {
+                        out.put(b);
+                    } else {
+                        out.put((byte) '%');
+                        out.put((byte) StringFunctions.HEX[(b >> 4) & 0xf]);
+                        out.put((byte) StringFunctions.HEX[b & 0xf]);
+                    }
+                }
+                out.endValue();
+            } else if ("csv".equals(lMode)) {
+                escapeCsv(data, start, end, out);
+            } else if (isAscii(data, start, end) && !needsEscaping(data, start, end, lMode)) {
+                out.ensure(end - start);
+                out.put(data, start, end);
+                out.endValue();
+            } else {
+                out.add(StringFunctions.escape(column.getString(row), lMode));
+            }
+        }
+        return out.build();
+    }
+
+    private static void escapeCsv(ByteBuffer data, int start, int end, Utf8Column.Builder out) {
+        int quotes = -1;
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            if (b == ',' || b == '"' || b == '\r' || b == '\n') {
+                quotes = 0;
+                for (int k = i; k < end; k++) {
+                    if (data.get(k) == '"') {
+                        quotes++;
+                    }
+                }
+                break;
+            }
+        }
+        if (quotes < 0) {
+            out.ensure(end - start);
+            out.put(data, start, end);
+            out.endValue();
+            return;
+        }
+        out.ensure(end - start + quotes + 2);
+        out.put((byte) '"');
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            out.put(b);
+            if (b == '"') {
+                out.put(b);
+            }
+        }
+        out.put((byte) '"');
+        out.endValue();
+    }
+
+    /**
+     * Whether an ASCII value has characters that the `html`, `xml` or `javascript` escaping modes change.
+     */
+    private static boolean needsEscaping(ByteBuffer data, int start, int end, String mode) {
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            if (b == '&' || b == '<' || b == '>' || b == '"' || b == '\'' || b < ' ' || b == 0x7f
+                    || ("javascript".equals(mode) && (b == '\\' || b == '/'))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link StringFunctions#md5(String)}, for every value.
+     *
+     * @param column values
+     * @return MD5 hashes as hex strings
+     */
+    public static Utf8Column md5(Utf8Column column) {
+        return hash(column, DigestUtils.getMd5Digest());
+    }
+
+    /**
+     * Same as {@link StringFunctions#sha1(String)}, for every value.
+     *
+     * @param column values
+     * @return SHA-1 hashes as hex strings
+     */
+    public static Utf8Column sha1(Utf8Column column) {
+        return hash(column, DigestUtils.getSha1Digest());
+    }
+
+    private static Utf8Column hash(Utf8Column column, MessageDigest digest) {
+        ByteBuffer value = column.data().duplicate();
+        int hexLength = digest.getDigestLength() * 2;
+        Utf8Column.Builder out = Utf8Column.builder(column.size() * hexLength, value.isDirect());
+        for (int row = 0; row < column.size(); row++) {
+            value.limit(column.end(row)).position(column.start(row));
+            digest.update(value);
+            out.ensure(hexLength);
+            for (byte b : digest.digest()) {
+                out.put((byte) Character.forDigit((b >> 4) & 0xf, 16));
+                out.put((byte) Character.forDigit(b & 0xf, 16));
+            }
+            out.endValue();
+        }
+        return out.build();
+    }
+
+    private static Utf8Column.Builder builder(Utf8Column column) {
+        int bytes = column.size() == 0 ? 0 : column.end(column.size() - 1) - column.start(0);
+        return Utf8Column.builder(Math.max(bytes, 0), column.data().isDirect());
+    }
+}
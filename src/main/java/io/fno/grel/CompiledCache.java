@@ -0,0 +1,94 @@
+package io.fno.grel;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded, thread-safe cache of values compiled from (possibly large) arguments such as dictionaries or arrays,
+ * which mapping engines typically pass as the same constant object for every record.
+ * <p>
+ * Lookups first check a small identity-keyed table, which costs no hashing of the argument's content;
+ * only when a different object is passed is the argument looked up by content.
+ * Arguments are snapshotted when they are added, so cached values are not affected if the caller later modifies
+ * the object. An identity hit is only trusted while the size of the object (a collection, map or array) is the one
+ * it had when it was looked up by content, so that a list that gained or lost elements is looked up again; an object
+ * whose elements were replaced in place, keeping its size, still gets the value compiled before the change.
+ */
+final class CompiledCache<K, V> {
+
+    private static final int IDENTITY_SLOTS = 16;
+
+    private static final class Entry<V> {
+        final Object identity;
+        final int size;
+        final V value;
+
+        Entry(Object identity, int size, V value) {
+            this.identity = identity;
+            this.size = size;
+            this.value = value;
+        }
+    }
+
+    private final int maxSize;
+    private final UnaryOperator<K> snapshot;
+    private final Map<K, V> byContent = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Entry<V>> byIdentity = new AtomicReferenceArray<>(IDENTITY_SLOTS);
+
+    /**
+     * @param maxSize  maximum number of values kept by content; the cache is emptied when it is full
+     * @param snapshot returns an unmodifiable copy of a key, to be kept in the cache
+     */
+    CompiledCache(int maxSize, UnaryOperator<K> snapshot) {
+        this.maxSize = maxSize;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns the value for `key`, compiling it with `compiler` if it is not cached yet.
+     */
+    V get(K key, Function<? super K, ? extends V> compiler) {
+        return get(key, key, compiler);
+    }
+
+    /**
+     * Returns the value for `key`, where `identity` is the object the caller was passed and `key` a view of it,
+     * such as a list wrapping an array: repeated calls with the same `identity` skip hashing `key`.
+     */
+    V get(Object identity, K key, Function<? super K, ? extends V> compiler) {
+        int slot = System.identityHashCode(identity) & (IDENTITY_SLOTS - 1);
+        Entry<V> entry = byIdentity.get(slot);
+        int size = size(identity);
+        if (entry != null && entry.identity == identity && entry.size == size) {
+            return entry.value;
+        }
+        V value = byContent.get(key);
+        if (value == null) {
+            K copy = snapshot.apply(key);
+            value = compiler.apply(copy);
+            if (byContent.size() >= maxSize) {
+                byContent.clear();
+            }
+            byContent.put(copy, value);
+        }
+        byIdentity.set(slot, new Entry<>(identity, size, value));
+        return value;
+    }
+
+    private static int size(Object identity) {
+        if (identity instanceof Collection) {
+            return ((Collection<?>) identity).size();
+        }
+        if (identity instanceof Map) {
+            return ((Map<?, ?>) identity).size();
+        }
+        if (identity instanceof Object[]) {
+            return ((Object[]) identity).length;
+        }
+        return -1;
+    }
+}
@@ -1,5 +1,12 @@
 package io.fno.grel;
 
+import java.util.function.Supplier;
+
+/**
+ * GREL control functions.
+ * <p>
+ * Thread safety: all functions are stateless and safe to call concurrently.
+ */
 public class ControlsFunctions {
 
     /**
@@ -15,4 +22,19 @@ public class ControlsFunctions {
         }
         return eFalse;
     }
+
+    /**
+     * Same as {@link #ifThenElse(Boolean, Object, Object)}, but only the branch that is chosen is evaluated.
+     *
+     * @param b      condition
+     * @param eTrue  evaluated when `b` is true
+     * @param eFalse evaluated when `b` is false
+     * @return Object
+     */
+    public static Object ifThenElseLazy(Boolean b, Supplier<?> eTrue, Supplier<?> eFalse) {
+        if (b) {
+            return eTrue.get();
+        }
+        return eFalse.get();
+    }
 }
@@ -0,0 +1,395 @@
+package io.fno.grel;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits lines of CSV or TSV into fields, as used by {@link StringFunctions#smartSplit(String)}.
+ * <p>
+ * A field that starts with a double quote is quoted: separators and line breaks in it are part of the field,
+ * two double quotes stand for one, and the field ends at the next single double quote (characters after it, up to
+ * the separator, are kept as they are). Double quotes inside unquoted fields are ordinary characters.
+ * A quote that is never closed runs to the end of the line.
+ * <p>
+ * Each line is read once: when the separator is guessed, the fields for both candidates (comma and tab) are
+ * delimited in the same pass, and only those of the separator that wins are created. A tokenizer reuses its buffers
+ * from one line to the next, so tokenizing many lines with {@link #splitAll(Iterable)} or {@link #records(Reader)}
+ * allocates little more than the fields themselves.
+ * <p>
+ * Thread safety: a tokenizer must only be used by one thread at a time.
+ */
+public final class CsvTokenizer {
+
+    private final String separator;
+    private final Spans first;
+    private final Spans second = new Spans("\t");
+    private final StringBuilder field = new StringBuilder();
+    private int commas;
+    private int tabs;
+
+    /**
+     * Creates a tokenizer that guesses the separator of each line: a comma if the line has more commas than tabs,
+     * a tab otherwise.
+     */
+    public CsvTokenizer() {
+        this.separator = null;
+        this.first = new Spans(",");
+    }
+
+    /**
+     * @param separator separator of the fields
+     */
+    public CsvTokenizer(char separator) {
+        this(String.valueOf(separator));
+    }
+
+    /**
+     * @param separator separator of the fields, of one or more characters
+     */
+    public CsvTokenizer(String separator) {
+        if (separator.isEmpty()) {
+            throw new IllegalArgumentException("The separator must not be empty");
+        }
+        this.separator = separator;
+        this.first = new Spans(separator);
+    }
+
+    /**
+     * @return the separator, or null when it is guessed
+     */
+    String separator() {
+        return separator;
+    }
+
+    /**
+     * @param line line
+     * @return its fields
+     */
+    public String[] split(CharSequence line) {
+        begin(line);
+        feed(line, 0);
+        Spans spans = end();
+        String[] fields = new String[spans.size];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = field(line, spans, i);
+        }
+        return fields;
+    }
+
+    /**
+     * Batch mode: splits all `lines` with the same buffers.
+     *
+     * @param lines lines, each holding one record
+     * @return the fields of each line
+     */
+    public List<String[]> splitAll(Iterable<? extends CharSequence> lines) {
+        List<String[]> records = new ArrayList<>();
+        for (CharSequence line : lines) {
+            records.add(split(line));
+        }
+        return records;
+    }
+
+    /**
+     * Batch mode: returns the records of `in`, where quoted fields may span several lines.
+     * Blank lines are skipped, and so is a byte order mark at the start.
+     *
+     * @param in characters to read, which are closed with the returned reader
+     * @return a reader of the records of `in`
+     */
+    public Records records(Reader in) {
+        return new Records(in);
+    }
+
+    private void begin(CharSequence line) {
+        first.reset(line);
+        second.reset(line);
+        commas = 0;
+        tabs = 0;
+    }
+
+    /**
+     * Delimits the fields of `line` from `from` on.
+     */
+    private void feed(CharSequence line, int from) {
+        int n = line.length();
+        if (separator != null) {
+            for (int i = from; i < n; i++) {
+                first.accept(i, line.charAt(i));
+            }
+            return;
+        }
+        for (int i = from; i < n; i++) {
+            char c = line.charAt(i);
+            if (c == ',') {
+                commas++;
+            } else if (c == '\t') {
+                tabs++;
+            }
+            first.accept(i, c);
+            second.accept(i, c);
+        }
+    }
+
+    /**
+     * @return the spans of the separator that is used
+     */
+    private Spans used() {
+        return separator != null || tabs < commas ? first : second;
+    }
+
+    /**
+     * @return the spans of the separator that is used, with the last field added
+     */
+    private Spans end() {
+        Spans spans = used();
+        spans.finish();
+        return spans;
+    }
+
+    private String field(CharSequence line, Spans spans, int index) {
+        int start = spans.starts[index];
+        int end = spans.ends[index];
+        if (!spans.quoted[index]) {
+            return line.subSequence(start, end).toString();
+        }
+        field.setLength(0);
+        boolean inQuotes = true;
+        for (int i = start + 1; i < end; i++) {
+            char c = line.charAt(i);
+            if (inQuotes && c == '"') {
+                if (i + 1 < end && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    inQuotes = false;
+                }
+            } else {
+                field.append(c);
+            }
+        }
+        return field.toString();
+    }
+
+    /**
+     * Where the fields of a line are for one separator, found a character at a time.
+     */
+    private static final class Spans {
+        private final String separator;
+        private CharSequence line;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private boolean[] quoted = new boolean[16];
+        private int size;
+        private int fieldStart;
+        private boolean inQuotes;
+        private boolean fieldQuoted;
+        private int skip;
+
+        Spans(String separator) {
+            this.separator = separator;
+        }
+
+        void reset(CharSequence line) {
+            // the line may grow between calls to accept, when it is a buffer
+            this.line = line;
+            size = 0;
+            fieldStart = 0;
+            inQuotes = false;
+            fieldQuoted = false;
+            skip = 0;
+        }
+
+        void accept(int i, char c) {
+            if (skip > 0) {
+                skip--;
+                return;
+            }
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        skip = 1;
+                    } else {
+                        inQuotes = false;
+                    }
+                }
+                return;
+            }
+            if (c == separator.charAt(0) && isSeparator(i)) {
+                add(i);
+                fieldStart = i + separator.length();
+                fieldQuoted = false;
+                skip = separator.length() - 1;
+            } else if (c == '"' && i == fieldStart) {
+                inQuotes = true;
+                fieldQuoted = true;
+            }
+        }
+
+        private boolean isSeparator(int i) {
+            int length = separator.length();
+            if (i + length > line.length()) {
+                return false;
+            }
+            for (int k = 1; k < length; k++) {
+                if (line.charAt(i + k) != separator.charAt(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void finish() {
+            add(line.length());
+        }
+
+        /**
+         * @return whether the line ends inside a quoted field
+         */
+        boolean unterminated() {
+            return inQuotes;
+        }
+
+        private void add(int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                quoted = Arrays.copyOf(quoted, size * 2);
+            }
+            starts[size] = fieldStart;
+            ends[size] = end;
+            quoted[size++] = fieldQuoted;
+        }
+    }
+
+    /**
+     * Reads the records of CSV or TSV text, one at a time.
+     */
+    public final class Records implements AutoCloseable {
+        private final Reader in;
+        private final char[] buf = new char[1 << 13];
+        private final StringBuilder line = new StringBuilder();
+        private String lineBreak = "";
+        private int pos;
+        private int limit;
+        private boolean started;
+
+        private Records(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next record into `fields`.
+         *
+         * @param fields list to fill with the fields of the record, after clearing it
+         * @return false, leaving `fields` empty, when there are no more records
+         * @throws IOException when reading fails
+         */
+        public boolean next(List<String> fields) throws IOException {
+            fields.clear();
+            line.setLength(0);
+            do {
+                if (!readLine()) {
+                    return false;
+                }
+            } while (line.length() == 0);
+            begin(line);
+            feed(line, 0);
+            int from = line.length();
+            while (used().unterminated() && appendLine()) {
+                // the line break is part of a quoted field
+                feed(line, from);
+                from = line.length();
+            }
+            Spans spans = end();
+            for (int i = 0; i < spans.size; i++) {
+                fields.add(field(line, spans, i));
+            }
+            return true;
+        }
+
+        /**
+         * @return the fields of all remaining records
+         * @throws IOException when reading fails
+         */
+        public List<String[]> readAll() throws IOException {
+            List<String[]> records = new ArrayList<>();
+            List<String> fields = new ArrayList<>();
+            while (next(fields)) {
+                records.add(fields.toArray(new String[0]));
+            }
+            return records;
+        }
+
+        private int peek() throws IOException {
+            if (pos == limit) {
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buf[pos];
+        }
+
+        /**
+         * Appends the next line to `line`, without its line break.
+         *
+         * @return false at the end of the input
+         */
+        private boolean readLine() throws IOException {
+            if (!started) {
+                started = true;
+                if (peek() == '\uFEFF') {
+                    pos++;
+                }
+            }
+            if (peek() < 0) {
+                return false;
+            }
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    lineBreak = "";
+                    return true;
+                }
+                pos++;
+                if (c == '\n') {
+                    lineBreak = "\n";
+                    return true;
+                }
+                if (c == '\r') {
+                    lineBreak = "\r";
+                    if (peek() == '\n') {
+                        pos++;
+                        lineBreak = "\r\n";
+                    }
+                    return true;
+                }
+                line.append((char) c);
+            }
+        }
+
+        /**
+         * Appends the line break that ended `line`, and the next line.
+         *
+         * @return false at the end of the input
+         */
+        private boolean appendLine() throws IOException {
+            if (peek() < 0) {
+                return false;
+            }
+            line.append(lineBreak);
+            return readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
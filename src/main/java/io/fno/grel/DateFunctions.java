@@ -1,35 +1,158 @@
 package io.fno.grel;
 
-import java.text.SimpleDateFormat;
-import java.time.Duration;
+import java.time.Clock;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAccessor;
 import java.time.temporal.TemporalField;
 import java.time.temporal.TemporalUnit;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * NOTE: brought over from commit f598c20470abdc7b30b444a1f3a382ab310c551d,
  *       has not been tested
  */
+
+/**
+ * GREL date functions.
+ * <p>
+ * Thread safety: all functions are safe to call concurrently. Date patterns are compiled into immutable
+ * {@link DateTimeFormatter}s, which are cached and shared between threads.
+ * <p>
+ * The `...EpochMillis` and `...EpochDay` functions do the same date arithmetic on dates given as milliseconds or days
+ * since 1970-01-01 in UTC, without creating any objects. Their time units are given as strings
+ * (`years`, `months`, `weeks`, `days`, `hours`, `minutes`, `seconds`, `milliseconds`, singular or plural),
+ * which are resolved through a table built once. They are not in the FnO mapping file, since they take other
+ * arguments than the GREL functions describe.
+ * <p>
+ * {@link #now()} reads the clock set with {@link #setClock(Clock)}; {@link #freeze()} fixes it to the current instant,
+ * so that every call during a mapping run returns the same timestamp. There is one clock for the whole JVM: when
+ * several mapping runs share a JVM at the same time, each call to {@link #setClock(Clock)} or {@link #freeze()}
+ * changes the timestamp of all of them, so such runs should freeze the clock once, before any of them starts.
+ */
 public class DateFunctions {
 
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    private static final DateTimeFormatter ISO_DATE_OPTIONAL_TIME = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .optionalStart()
+            .appendLiteral('T')
+            .append(DateTimeFormatter.ISO_LOCAL_TIME)
+            .toFormatter();
+
+    static DateTimeFormatter formatter(String pattern) {
+        DateTimeFormatter formatter = FORMATTERS.get(pattern);
+        if (formatter == null) {
+            formatter = DateTimeFormatter.ofPattern(pattern);
+            if (FORMATTERS.size() < 256) {
+                FORMATTERS.put(pattern, formatter);
+            }
+        }
+        return formatter;
+    }
+
+    private static volatile Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Sets the clock that {@link #now()} reads, for example a fixed clock for reproducible output.
+     * The clock is shared by all threads of the JVM.
+     *
+     * @param newClock clock, or null for the system clock in the default time zone
+     */
+    public static void setClock(Clock newClock) {
+        clock = newClock == null ? Clock.systemDefaultZone() : newClock;
+    }
+
+    /**
+     * @return the clock that {@link #now()} reads
+     */
+    public static Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Fixes the clock to the current instant of the clock in use, until {@link #setClock(Clock)} is called again,
+     * so that all dates computed during a mapping run share one timestamp. The clock is shared by all threads of the
+     * JVM, so this also fixes the timestamp of any other mapping run in the same JVM.
+     *
+     * @return the frozen clock
+     */
+    public static Clock freeze() {
+        Clock current = clock;
+        Clock frozen = Clock.fixed(current.instant(), current.getZone());
+        clock = frozen;
+        return frozen;
+    }
+
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#now
+     * Returns the current date and time, from the clock set with {@link #setClock(Clock)}.
+     *
+     * @return current date-time
+     */
     public static LocalDateTime now() {
-        return LocalDateTime.now();
+        return LocalDateTime.now(clock);
     }
 
-    // TODO
+    /**
+     * Same as {@link #now()}, as milliseconds since 1970-01-01T00:00Z.
+     *
+     * @return current time in milliseconds
+     */
+    public static long nowEpochMillis() {
+        return clock.millis();
+    }
+
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#todateo-b-monthfirst-s-format1-s-format2-
+     * Parses `o` with the date pattern `pattern`, and returns the date in ISO-8601 format.
+     * For example, `toDate("24/03/2022", "dd/MM/yyyy")` returns `2022-03-24T00:00`.
+     *
+     * @param o       date string
+     * @param pattern date pattern, as in {@link DateTimeFormatter}
+     * @return ISO-8601 date-time
+     */
     public static String toDate(String o, String pattern) {
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-        return simpleDateFormat.format(o);
+        TemporalAccessor parsed = formatter(pattern).parseBest(o, LocalDateTime::from, LocalDate::from);
+        if (parsed instanceof LocalDate) {
+            return ((LocalDate) parsed).atStartOfDay().toString();
+        }
+        return parsed.toString();
     }
 
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#tostringo-string-format-optional
+     * Formats the ISO-8601 date or date-time `date` with the date pattern `pattern`.
+     * For example, `toString("2022-03-24T10:15", "dd/MM/yyyy")` returns `24/03/2022`.
+     *
+     * @param date    ISO-8601 date or date-time
+     * @param pattern date pattern, as in {@link DateTimeFormatter}
+     * @return formatted date
+     */
     public static String toString(String date, String pattern) {
-        return toDate(date, pattern);
+        TemporalAccessor parsed = ISO_DATE_OPTIONAL_TIME.parseBest(date, LocalDateTime::from, LocalDate::from);
+        return formatter(pattern).format(parsed);
     }
 
-    // TODO
-    public static String diff(LocalDateTime d1, LocalDateTime d2, String timeUnit) {
-        Duration duration = Duration.between(d1, d2);
-        return duration.toString();
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#diffd1-d2-s-timeunit
+     * Returns the difference `d1 - d2` in whole `timeUnit`s, truncated towards zero.
+     * For example, `diff(2011-11-01T00:00, 2009-11-01T00:00, "weeks")` returns `104`.
+     *
+     * @param d1       date-time
+     * @param d2       date-time
+     * @param timeUnit time unit, such as `days` or `hours`
+     * @return the difference
+     */
+    public static long diff(LocalDateTime d1, LocalDateTime d2, String timeUnit) {
+        return Unit.of(timeUnit).chronoUnit.between(d2, d1);
     }
 
     public static String inc(LocalDateTime f, long value, TemporalUnit unit) {
@@ -39,4 +162,254 @@ public class DateFunctions {
     public static long datePart(LocalDateTime d, TemporalField unit) {
         return d.get(unit);
     }
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    /**
+     * Time units, with their length in milliseconds, or in months for the calendar-based units.
+     */
+    private enum Unit {
+        MILLISECONDS(1, 0, ChronoUnit.MILLIS),
+        SECONDS(1000, 0, ChronoUnit.SECONDS),
+        MINUTES(60_000, 0, ChronoUnit.MINUTES),
+        HOURS(3_600_000, 0, ChronoUnit.HOURS),
+        DAYS(MILLIS_PER_DAY, 0, ChronoUnit.DAYS),
+        WEEKS(7 * MILLIS_PER_DAY, 0, ChronoUnit.WEEKS),
+        MONTHS(0, 1, ChronoUnit.MONTHS),
+        YEARS(0, 12, ChronoUnit.YEARS);
+
+        private static final Map<String, Unit> BY_NAME = new HashMap<>();
+
+        static {
+            for (Unit unit : values()) {
+                String plural = unit.name().toLowerCase(Locale.ROOT);
+                BY_NAME.put(plural, unit);
+                BY_NAME.put(plural.substring(0, plural.length() - 1), unit);
+            }
+            BY_NAME.put("ms", MILLISECONDS);
+        }
+
+        final long millis;
+        final int months;
+        final ChronoUnit chronoUnit;
+
+        Unit(long millis, int months, ChronoUnit chronoUnit) {
+            this.millis = millis;
+            this.months = months;
+            this.chronoUnit = chronoUnit;
+        }
+
+        static Unit of(String name) {
+            Unit unit = BY_NAME.get(name);
+            if (unit == null) {
+                unit = BY_NAME.get(name.toLowerCase(Locale.ROOT));
+                if (unit == null) {
+                    throw new IllegalArgumentException("Unknown time unit: " + name);
+                }
+            }
+            return unit;
+        }
+    }
+
+    /**
+     * Same as {@link #inc(LocalDateTime, long, TemporalUnit)}, for a date-time in milliseconds since 1970-01-01T00:00Z.
+     * Adding months or years keeps the day of the month, or takes the last day of the month if it is shorter.
+     *
+     * @param epochMillis date-time
+     * @param value       number of units to add, possibly negative
+     * @param timeUnit    time unit
+     * @return the new date-time in milliseconds
+     */
+    public static long incEpochMillis(long epochMillis, long value, String timeUnit) {
+        Unit unit = Unit.of(timeUnit);
+        if (unit.months == 0) {
+            return epochMillis + value * unit.millis;
+        }
+        long day = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        long millisOfDay = epochMillis - day * MILLIS_PER_DAY;
+        return plusMonths(day, value * unit.months) * MILLIS_PER_DAY + millisOfDay;
+    }
+
+    /**
+     * Same as {@link #diff(LocalDateTime, LocalDateTime, String)}, for date-times in milliseconds since 1970-01-01T00:00Z.
+     *
+     * @param epochMillis1 date-time
+     * @param epochMillis2 date-time
+     * @param timeUnit     time unit
+     * @return the difference `epochMillis1 - epochMillis2` in whole units, truncated towards zero
+     */
+    public static long diffEpochMillis(long epochMillis1, long epochMillis2, String timeUnit) {
+        Unit unit = Unit.of(timeUnit);
+        if (unit.months == 0) {
+            return (epochMillis1 - epochMillis2) / unit.millis;
+        }
+        long day1 = Math.floorDiv(epochMillis1, MILLIS_PER_DAY);
+        long day2 = Math.floorDiv(epochMillis2, MILLIS_PER_DAY);
+        return monthsBetween(day2, epochMillis2 - day2 * MILLIS_PER_DAY, day1, epochMillis1 - day1 * MILLIS_PER_DAY)
+                / unit.months;
+    }
+
+    /**
+     * Returns a part of a date-time in milliseconds since 1970-01-01T00:00Z, in UTC:
+     * `year`, `month` (1 to 12), `day` (of the month), `dayOfWeek` (1 for Monday to 7 for Sunday), `dayOfYear`,
+     * `hour`, `minute`, `second` or `millisecond`.
+     *
+     * @param epochMillis date-time
+     * @param part        part to return
+     * @return the part
+     */
+    public static long datePartEpochMillis(long epochMillis, String part) {
+        long day = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        long millisOfDay = epochMillis - day * MILLIS_PER_DAY;
+        switch (part) {
+            case "hour":
+            case "hours":
+                return millisOfDay / 3_600_000;
+            case "minute":
+            case "minutes":
+                return millisOfDay / 60_000 % 60;
+            case "second":
+            case "seconds":
+                return millisOfDay / 1000 % 60;
+            case "millisecond":
+            case "milliseconds":
+                return millisOfDay % 1000;
+            default:
+                return datePartEpochDay(day, part);
+        }
+    }
+
+    /**
+     * Same as {@link #incEpochMillis(long, long, String)}, for a date in days since 1970-01-01.
+     * Units shorter than a day are added as fractions of a day, and the result is rounded down to a whole day.
+     *
+     * @param epochDay date
+     * @param value    number of units to add, possibly negative
+     * @param timeUnit time unit
+     * @return the new date in days
+     */
+    public static long incEpochDay(long epochDay, long value, String timeUnit) {
+        Unit unit = Unit.of(timeUnit);
+        if (unit.months != 0) {
+            return plusMonths(epochDay, value * unit.months);
+        }
+        if (unit.millis % MILLIS_PER_DAY == 0) {
+            return epochDay + value * (unit.millis / MILLIS_PER_DAY);
+        }
+        return Math.floorDiv(epochDay * MILLIS_PER_DAY + value * unit.millis, MILLIS_PER_DAY);
+    }
+
+    /**
+     * Same as {@link #diffEpochMillis(long, long, String)}, for dates in days since 1970-01-01.
+     *
+     * @param epochDay1 date
+     * @param epochDay2 date
+     * @param timeUnit  time unit
+     * @return the difference `epochDay1 - epochDay2` in whole units, truncated towards zero
+     */
+    public static long diffEpochDay(long epochDay1, long epochDay2, String timeUnit) {
+        Unit unit = Unit.of(timeUnit);
+        if (unit.months == 0) {
+            return (epochDay1 - epochDay2) * MILLIS_PER_DAY / unit.millis;
+        }
+        return monthsBetween(epochDay2, 0, epochDay1, 0) / unit.months;
+    }
+
+    /**
+     * Returns a part of a date in days since 1970-01-01:
+     * `year`, `month` (1 to 12), `day` (of the month), `dayOfWeek` (1 for Monday to 7 for Sunday) or `dayOfYear`.
+     *
+     * @param epochDay date
+     * @param part     part to return
+     * @return the part
+     */
+    public static long datePartEpochDay(long epochDay, String part) {
+        switch (part) {
+            case "year":
+            case "years":
+                return year(civil(epochDay));
+            case "month":
+            case "months":
+                return month(civil(epochDay));
+            case "day":
+            case "days":
+                return dayOfMonth(civil(epochDay));
+            case "dayOfWeek":
+                return Math.floorMod(epochDay + 3, 7) + 1;
+            case "dayOfYear":
+                return epochDay - epochDay(year(civil(epochDay)), 1, 1) + 1;
+            default:
+                throw new IllegalArgumentException("Unknown date part: " + part);
+        }
+    }
+
+    // proleptic Gregorian calendar conversions, after Howard Hinnant's days_from_civil and civil_from_days;
+    // a civil date is packed into a long as year << 9 | month << 5 | day
+
+    private static long epochDay(long year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static long civil(long epochDay) {
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    private static long year(long civil) {
+        return civil >> 9;
+    }
+
+    private static int month(long civil) {
+        return (int) (civil >> 5 & 0xf);
+    }
+
+    private static int dayOfMonth(long civil) {
+        return (int) (civil & 0x1f);
+    }
+
+    private static int lengthOfMonth(long year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static long plusMonths(long epochDay, long months) {
+        long civil = civil(epochDay);
+        long totalMonths = year(civil) * 12 + (month(civil) - 1) + months;
+        long year = Math.floorDiv(totalMonths, 12);
+        int month = (int) Math.floorMod(totalMonths, 12) + 1;
+        return epochDay(year, month, Math.min(dayOfMonth(civil), lengthOfMonth(year, month)));
+    }
+
+    /**
+     * Whole months from (`day1`, `millisOfDay1`) to (`day2`, `millisOfDay2`), truncated towards zero,
+     * the same way {@link LocalDateTime#until} counts {@link ChronoUnit#MONTHS}.
+     */
+    private static long monthsBetween(long day1, long millisOfDay1, long day2, long millisOfDay2) {
+        // the last day only counts once its time of day is reached
+        if (day2 > day1 && millisOfDay2 < millisOfDay1) {
+            day2--;
+        } else if (day2 < day1 && millisOfDay2 > millisOfDay1) {
+            day2++;
+        }
+        long civil1 = civil(day1);
+        long civil2 = civil(day2);
+        long packed1 = (year(civil1) * 12 + month(civil1)) * 32 + dayOfMonth(civil1);
+        long packed2 = (year(civil2) * 12 + month(civil2)) * 32 + dayOfMonth(civil2);
+        return (packed2 - packed1) / 32;
+    }
 }
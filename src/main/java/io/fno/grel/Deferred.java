@@ -0,0 +1,277 @@
+package io.fno.grel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A value that is computed only when it is first asked for, and then remembered.
+ * <p>
+ * The lazy functions ({@link ControlsFunctions#ifThenElseLazy}, {@link OtherFunctions#coalesceLazy},
+ * {@link BooleanFunctions#andLazy}, ...) take their branches as suppliers, so that branches that are not needed are
+ * never computed.
+ * <p>
+ * The lazy functions are not in the FnO mapping file: they take suppliers rather than the values the GREL functions
+ * describe, so they cannot share the function IRIs of their eager counterparts. Engines that evaluate FnO function
+ * compositions call them through {@link #call(Class, String, Object...)} instead, for example
+ * {@code Deferred.call(ControlsFunctions.class, "ifThenElseLazy", condition, whenTrue, whenFalse)}, passing each nested
+ * function call as another {@link #call(Class, String, Object...)} with the implementation class and method name from
+ * its FnO mapping, and its arguments.
+ * <p>
+ * Deferred values are thread-safe: the value is computed at most once, even when several threads ask for it at once.
+ *
+ * @param <T> type of the value
+ */
+public final class Deferred<T> implements Supplier<T> {
+
+    /**
+     * Orders overloads so that the most specific come first: toString(String, String) before
+     * toString(Object, String), and otherwise by signature, so that the order does not depend on the JVM.
+     */
+    static final Comparator<Method> MOST_SPECIFIC_FIRST = Comparator.<Method>comparingInt(Deferred::objectParameters)
+            .thenComparing(Method::toString);
+
+    private Supplier<? extends T> supplier;
+    private volatile boolean done;
+    private T value;
+
+    private Deferred(Supplier<? extends T> supplier) {
+        this.supplier = supplier;
+    }
+
+    /**
+     * @param supplier computes the value, at most once
+     * @return a deferred value
+     */
+    public static <T> Deferred<T> of(Supplier<? extends T> supplier) {
+        return new Deferred<>(supplier);
+    }
+
+    /**
+     * @param value an already computed value
+     * @return a deferred value that is already computed
+     */
+    public static <T> Deferred<T> value(T value) {
+        Deferred<T> deferred = new Deferred<>(null);
+        deferred.value = value;
+        deferred.done = true;
+        return deferred;
+    }
+
+    /**
+     * Returns the deferred result of calling the public static method `methodName` of `implementation` with `args`.
+     * Arguments that are deferred are computed before the call, unless the method takes a {@link Supplier} there.
+     * When several overloads could take the arguments, the overload is chosen once the deferred arguments are
+     * computed, from their values.
+     *
+     * @param implementation class implementing the function, such as {@code StringFunctions.class}
+     * @param methodName     name of the method
+     * @param args           arguments
+     * @return a deferred value
+     * @throws IllegalArgumentException when there is no public static method `methodName` taking that many arguments
+     */
+    public static Deferred<Object> call(Class<?> implementation, String methodName, Object... args) {
+        Method[] methods = find(implementation, methodName, args);
+        if (methods.length == 1) {
+            Method method = methods[0];
+            return new Deferred<>(() -> invoke(method, args));
+        }
+        return new Deferred<>(() -> invoke(implementation, methods, args));
+    }
+
+    @Override
+    public T get() {
+        if (!done) {
+            synchronized (this) {
+                if (!done) {
+                    value = supplier.get();
+                    supplier = null;
+                    done = true;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return whether the value has been computed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public String toString() {
+        return done ? "Deferred[" + value + "]" : "Deferred[?]";
+    }
+
+    /**
+     * @return the overloads that may take `args`, most specific first, or all overloads taking that many arguments
+     * when none does
+     */
+    private static Method[] find(Class<?> implementation, String methodName, Object[] args) {
+        List<Method> candidates = new ArrayList<>();
+        List<Method> accepting = new ArrayList<>();
+        for (Method method : implementation.getMethods()) {
+            if (method.getName().equals(methodName) && Modifier.isStatic(method.getModifiers())
+                    && method.getParameterCount() == args.length) {
+                candidates.add(method);
+                // argument types are only known for certain once deferred arguments are computed
+                if (accepts(method, args)) {
+                    accepting.add(method);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No method " + implementation.getName() + "." + methodName
+                    + " with " + args.length + " parameters");
+        }
+        List<Method> methods = accepting.isEmpty() ? candidates : accepting;
+        methods.sort(MOST_SPECIFIC_FIRST);
+        return methods.toArray(new Method[0]);
+    }
+
+    private static int objectParameters(Method method) {
+        int count = 0;
+        for (Class<?> type : method.getParameterTypes()) {
+            if (type == Object.class) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static boolean accepts(Method method, Object[] args) {
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof Deferred && !Supplier.class.isAssignableFrom(types[i])) {
+                continue;
+            }
+            if (arg != null && !wrap(types[i]).isInstance(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return `args` with the numbers that `method` takes as another numeric type (Integer, Long or Double)
+     * converted to it, or null when `method` does not take the arguments even so, or a number would change
+     */
+    static Object[] convertNumbers(Method method, Object[] args) {
+        Class<?>[] types = method.getParameterTypes();
+        Object[] converted = args.clone();
+        for (int i = 0; i < types.length; i++) {
+            Class<?> type = wrap(types[i]);
+            Object arg = args[i];
+            if (arg instanceof Number && !type.isInstance(arg)) {
+                converted[i] = convert((Number) arg, type);
+                if (converted[i] == null) {
+                    return null;
+                }
+            }
+        }
+        return accepts(method, converted) ? converted : null;
+    }
+
+    private static Number convert(Number n, Class<?> type) {
+        boolean floating = n instanceof Double || n instanceof Float;
+        if (!floating && !(n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte)) {
+            return null;
+        }
+        double d = n.doubleValue();
+        if (type == Double.class) {
+            // longs above 2^53 may not have a double of the same value
+            return floating || (long) d == n.longValue() ? (Number) d : null;
+        }
+        if (floating && d != (long) d || type != Long.class && type != Integer.class) {
+            return null;
+        }
+        long l = n.longValue();
+        if (type == Long.class) {
+            return l;
+        }
+        return l == (int) l ? (Number) (int) l : null;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == char.class) {
+            return Character.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        return Byte.class;
+    }
+
+    /**
+     * Calls the first of `methods` that takes `args` once the deferred arguments it does not take as suppliers are
+     * computed.
+     */
+    private static Object invoke(Class<?> implementation, Method[] methods, Object[] args) {
+        for (Method method : methods) {
+            Object[] actual = compute(method, args);
+            if (accepts(method, actual)) {
+                return reflect(method, actual);
+            }
+        }
+        throw new IllegalArgumentException("No method " + implementation.getName() + "." + methods[0].getName()
+                + " for the arguments");
+    }
+
+    static Object invoke(Method method, Object[] args) {
+        return reflect(method, compute(method, args));
+    }
+
+    private static Object[] compute(Method method, Object[] args) {
+        Class<?>[] types = method.getParameterTypes();
+        Object[] actual = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            actual[i] = arg instanceof Deferred && !Supplier.class.isAssignableFrom(types[i])
+                    ? ((Deferred<?>) arg).get()
+                    : arg;
+        }
+        return actual;
+    }
+
+    private static Object reflect(Method method, Object[] actual) {
+        try {
+            return method.invoke(null, actual);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package io.fno.grel;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Remembers the results of function calls for the duration of one record, so that a call that appears several times
+ * in the mappings of a record, such as {@code md5(value)} in both a subject template and an object map, is computed
+ * only once.
+ * <p>
+ * Calls are identified by a function key and their arguments, compared with {@code equals}. The function key is any
+ * object that names the function consistently, typically its name; method references are not suitable, as two
+ * references to the same method are not necessarily equal. Only deterministic functions should be called through a
+ * context.
+ * <p>
+ * A mapping engine creates one context per thread, and calls {@link #nextRecord()} before each record. Starting a new
+ * record takes constant time and allocates nothing: entries are stamped with the record they belong to, and entries
+ * of earlier records count as empty. The table only grows (and allocates) when a record has more distinct calls than
+ * any record before it. Results of earlier records stay referenced until their slot is reused or {@link #clear()}
+ * is called.
+ * <p>
+ * Thread safety: a context is not thread-safe and must only be used by one thread at a time.
+ */
+public final class EvaluationContext {
+
+    /**
+     * Marks the second argument of one-argument calls, so that they differ from two-argument calls with a null.
+     */
+    private static final Object NONE = new Object();
+    /**
+     * Marks the second argument of reflective calls, which keep their arguments as an array.
+     */
+    private static final Object CALL = new Object();
+
+    private Object[] functions;
+    private Object[] firsts;
+    private Object[] seconds;
+    private Object[][] rests;
+    private Object[] values;
+    private int[] stamps;
+    private int generation = 1;
+    private int count;
+    private long hits;
+    private long misses;
+
+    public EvaluationContext() {
+        this(64);
+    }
+
+    /**
+     * @param expectedCalls expected number of distinct calls per record
+     */
+    public EvaluationContext(int expectedCalls) {
+        allocate(Integer.highestOneBit(Math.max(8, expectedCalls) * 2 - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+        functions = new Object[capacity];
+        firsts = new Object[capacity];
+        seconds = new Object[capacity];
+        rests = new Object[capacity][];
+        values = new Object[capacity];
+        stamps = new int[capacity];
+    }
+
+    /**
+     * Forgets the results of the current record.
+     */
+    public void nextRecord() {
+        count = 0;
+        if (++generation == Integer.MAX_VALUE) {
+            // stamps of long gone records could otherwise come back as current
+            clear();
+        }
+    }
+
+    /**
+     * Forgets all results and releases the references to them.
+     */
+    public void clear() {
+        Arrays.fill(functions, null);
+        Arrays.fill(firsts, null);
+        Arrays.fill(seconds, null);
+        Arrays.fill(rests, null);
+        Arrays.fill(values, null);
+        Arrays.fill(stamps, 0);
+        generation = 1;
+        count = 0;
+    }
+
+    /**
+     * Returns the result of `function` applied to `arg`, computed with `implementation` unless it was already computed
+     * for this record.
+     *
+     * @param function       key identifying the function, such as {@code "md5"}
+     * @param arg            argument
+     * @param implementation computes the result
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    public <A, R> R apply(Object function, A arg, Function<? super A, ? extends R> implementation) {
+        int hash = hash(function, arg, NONE, null);
+        int slot = find(hash, function, arg, NONE, null);
+        if (slot >= 0) {
+            hits++;
+            return (R) values[slot];
+        }
+        misses++;
+        R result = implementation.apply(arg);
+        put(hash, function, arg, NONE, null, result);
+        return result;
+    }
+
+    /**
+     * Returns the result of `function` applied to `arg1` and `arg2`, computed with `implementation` unless it was
+     * already computed for this record.
+     *
+     * @param function       key identifying the function, such as {@code "replace"}
+     * @param arg1           first argument
+     * @param arg2           second argument
+     * @param implementation computes the result
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    public <A, B, R> R apply(Object function, A arg1, B arg2,
+                             BiFunction<? super A, ? super B, ? extends R> implementation) {
+        int hash = hash(function, arg1, arg2, null);
+        int slot = find(hash, function, arg1, arg2, null);
+        if (slot >= 0) {
+            hits++;
+            return (R) values[slot];
+        }
+        misses++;
+        R result = implementation.apply(arg1, arg2);
+        put(hash, function, arg1, arg2, null, result);
+        return result;
+    }
+
+    /**
+     * Returns the result of calling the public static method `methodName` of `implementation` with `args`,
+     * as {@link Deferred#call(Class, String, Object...)} does, unless it was already computed for this record.
+     *
+     * @param implementation class implementing the function, such as {@code StringFunctions.class}
+     * @param methodName     name of the method
+     * @param args           arguments, which must not be modified afterwards
+     * @return result
+     * @throws IllegalArgumentException when there is no public static method `methodName` taking that many arguments
+     */
+    public Object call(Class<?> implementation, String methodName, Object... args) {
+        int hash = hash(implementation, methodName, CALL, args);
+        int slot = find(hash, implementation, methodName, CALL, args);
+        if (slot >= 0) {
+            hits++;
+            return values[slot];
+        }
+        misses++;
+        Object result = Deferred.call(implementation, methodName, args).get();
+        put(hash, implementation, methodName, CALL, args, result);
+        return result;
+    }
+
+    /**
+     * @return number of calls answered from memory, over all records
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * @return number of calls that were computed, over all records
+     */
+    public long misses() {
+        return misses;
+    }
+
+    private static int hash(Object function, Object first, Object second, Object[] rest) {
+        int h = function.hashCode();
+        h = h * 31 + Objects.hashCode(first);
+        h = h * 31 + (second == NONE || second == CALL ? 0 : Objects.hashCode(second));
+        h = h * 31 + Arrays.deepHashCode(rest);
+        // spreads the high bits, as the table is indexed with the low ones
+        return h ^ (h >>> 16);
+    }
+
+    private int find(int hash, Object function, Object first, Object second, Object[] rest) {
+        int mask = stamps.length - 1;
+        for (int slot = hash & mask; stamps[slot] == generation; slot = (slot + 1) & mask) {
+            if (function.equals(functions[slot]) && Objects.equals(first, firsts[slot])
+                    && Objects.equals(second, seconds[slot]) && Arrays.deepEquals(rest, rests[slot])) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void put(int hash, Object function, Object first, Object second, Object[] rest, Object value) {
+        // the table may have changed while computing the value, through nested calls
+        if (find(hash, function, first, second, rest) >= 0) {
+            return;
+        }
+        if ((count + 1) * 2 > stamps.length) {
+            grow();
+        }
+        int mask = stamps.length - 1;
+        int slot = hash & mask;
+        while (stamps[slot] == generation) {
+            slot = (slot + 1) & mask;
+        }
+        functions[slot] = function;
+        firsts[slot] = first;
+        seconds[slot] = second;
+        rests[slot] = rest;
+        values[slot] = value;
+        stamps[slot] = generation;
+        count++;
+    }
+
+    private void grow() {
+        Object[] oldFunctions = functions;
+        Object[] oldFirsts = firsts;
+        Object[] oldSeconds = seconds;
+        Object[][] oldRests = rests;
+        Object[] oldValues = values;
+        int[] oldStamps = stamps;
+        allocate(oldStamps.length * 2);
+        int mask = stamps.length - 1;
+        for (int i = 0; i < oldStamps.length; i++) {
+            if (oldStamps[i] != generation) {
+                continue;
+            }
+            int slot = hash(oldFunctions[i], oldFirsts[i], oldSeconds[i], oldRests[i]) & mask;
+            while (stamps[slot] == generation) {
+                slot = (slot + 1) & mask;
+            }
+            functions[slot] = oldFunctions[i];
+            firsts[slot] = oldFirsts[i];
+            seconds[slot] = oldSeconds[i];
+            rests[slot] = oldRests[i];
+            values[slot] = oldValues[i];
+            stamps[slot] = generation;
+        }
+    }
+
+    int capacity() {
+        return stamps.length;
+    }
+
+    void skipTo(int generation) {
+        this.generation = generation;
+        count = 0;
+    }
+}
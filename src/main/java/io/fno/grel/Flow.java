@@ -0,0 +1,91 @@
+package io.fno.grel;
+
+/**
+ * The interfaces of demand-driven streams, with the same methods and rules as {@code java.util.concurrent.Flow}
+ * (and the Reactive Streams specification), for Java 8, where that class does not exist yet.
+ * <p>
+ * On Java 9 and later, a {@code java.util.concurrent.Flow} publisher or subscriber is adapted to these interfaces
+ * by small classes that forward each method, since the methods are the same. A publisher is the only functional
+ * interface, and can be adapted with a lambda; subscribers (four methods) and subscriptions (two) need a class each.
+ * This library targets Java 8, so it does not include these adapters.
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * A producer of items that subscribers receive as they ask for them.
+     *
+     * @param <T> type of the items
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+        /**
+         * Adds `subscriber`, which then receives {@link Subscriber#onSubscribe(Subscription)}, and later, as it
+         * requests them, its items.
+         *
+         * @param subscriber subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. Its methods are called one at a time, in order.
+     *
+     * @param <T> type of the items
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called first, with the subscription through which to ask for items.
+         *
+         * @param subscription subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with each item, never more often than the items requested.
+         *
+         * @param item item
+         */
+        void onNext(T item);
+
+        /**
+         * Called when the publisher fails; no more calls follow.
+         *
+         * @param throwable the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called after the last item; no more calls follow.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between one publisher and one subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Asks for up to `n` more items.
+         *
+         * @param n number of items, more than zero
+         */
+        void request(long n);
+
+        /**
+         * Asks the publisher to stop sending items.
+         */
+        void cancel();
+    }
+
+    /**
+     * A stage that is both a subscriber and a publisher.
+     *
+     * @param <T> type of the items it receives
+     * @param <R> type of the items it publishes
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
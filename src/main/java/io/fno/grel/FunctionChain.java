@@ -0,0 +1,310 @@
+package io.fno.grel;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chain of GREL function calls in GREL's method syntax, such as {@code value.trim().toLowercase().replace(" ", "-")},
+ * compiled once and applied to many values.
+ * <p>
+ * The chain starts with {@code value}, the value it is applied to, or with {@code cells["name"].value}, which names
+ * the column to take the value from (see {@link #column()}). Each call passes the result so far as the first argument
+ * of the function, followed by its own arguments: strings in double or single quotes (with backslash escapes),
+ * numbers, {@code true}, {@code false} and {@code null}. Functions are looked up by name among the public static
+ * methods of the function classes of this library, and the overload is chosen by the types of the arguments. When no
+ * overload takes the arguments as they are, numbers are converted to the numeric type of the parameter, as long as
+ * their value stays the same: {@code value.pow(2)} calls {@code pow(Double, Double)}.
+ * <p>
+ * Chains are immutable and safe to apply from many threads.
+ */
+public final class FunctionChain {
+
+    private static final Class<?>[] FUNCTIONS = {
+            StringFunctions.class, ArrayFunctions.class, MathFunctions.class, DateFunctions.class,
+            BooleanFunctions.class, OtherFunctions.class, ControlsFunctions.class
+    };
+
+    private final String expression;
+    private final String column;
+    private final List<Step> steps;
+
+    private FunctionChain(String expression, String column, List<Step> steps) {
+        this.expression = expression;
+        this.column = column;
+        this.steps = steps;
+    }
+
+    /**
+     * @param expression chain of function calls, such as {@code value.trim().toLowercase()}
+     * @return the compiled chain
+     * @throws IllegalArgumentException when `expression` is not a chain of calls to known functions
+     */
+    public static FunctionChain parse(String expression) {
+        return new Parser(expression).chain();
+    }
+
+    /**
+     * Applies the chain to `value`. A null value, or a function returning null, ends the chain with null.
+     *
+     * @param value value
+     * @return result of the last function
+     */
+    public Object apply(Object value) {
+        for (int i = 0; i < steps.size() && value != null; i++) {
+            value = steps.get(i).apply(value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the column named by {@code cells["name"].value}, or null when the chain starts with {@code value}
+     */
+    public String column() {
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static final class Step {
+        private final String name;
+        private final Method[] methods;
+        private final Object[] args;
+
+        Step(String name, Method[] methods, Object[] args) {
+            this.name = name;
+            this.methods = methods;
+            this.args = args;
+        }
+
+        Object apply(Object value) {
+            Object[] call = new Object[args.length + 1];
+            call[0] = value;
+            System.arraycopy(args, 0, call, 1, args.length);
+            for (Method method : methods) {
+                if (Deferred.accepts(method, call)) {
+                    return Deferred.invoke(method, call);
+                }
+            }
+            // such as floor(Double) for an Integer, or pow(Double, Double) for value.pow(2)
+            for (Method method : methods) {
+                Object[] converted = Deferred.convertNumbers(method, call);
+                if (converted != null) {
+                    return Deferred.invoke(method, converted);
+                }
+            }
+            throw new IllegalArgumentException("No function " + name + " for a " + value.getClass().getSimpleName()
+                    + " and " + Arrays.toString(args));
+        }
+    }
+
+    private static final class Parser {
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        FunctionChain chain() {
+            skipSpaces();
+            String column = null;
+            String receiver = identifier();
+            if (receiver.equals("cells")) {
+                expect('[');
+                column = string();
+                expect(']');
+                expect('.');
+                if (!identifier().equals("value")) {
+                    throw error("Expected value");
+                }
+            } else if (!receiver.equals("value")) {
+                throw error("Expected value or cells[\"name\"].value");
+            }
+            List<Step> steps = new ArrayList<>();
+            while (peek() == '.') {
+                pos++;
+                steps.add(step());
+            }
+            if (pos < s.length()) {
+                throw error("Unexpected " + s.charAt(pos));
+            }
+            return new FunctionChain(s, column, Collections.unmodifiableList(steps));
+        }
+
+        private Step step() {
+            int start = pos;
+            String name = identifier();
+            expect('(');
+            List<Object> args = new ArrayList<>();
+            if (peek() != ')') {
+                do {
+                    args.add(literal());
+                } while (accept(','));
+            }
+            expect(')');
+            List<Method> methods = new ArrayList<>();
+            for (Class<?> functions : FUNCTIONS) {
+                for (Method method : functions.getMethods()) {
+                    if (method.getName().equals(name) && Modifier.isStatic(method.getModifiers())
+                            && method.getParameterCount() == args.size() + 1) {
+                        methods.add(method);
+                    }
+                }
+            }
+            methods.sort(Deferred.MOST_SPECIFIC_FIRST);
+            if (methods.isEmpty()) {
+                pos = start;
+                throw error("Unknown function " + name + " with " + (args.size() + 1) + " arguments");
+            }
+            return new Step(name, methods.toArray(new Method[0]), args.toArray());
+        }
+
+        private Object literal() {
+            char c = peek();
+            if (c == '"' || c == '\'') {
+                return string();
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return number();
+            }
+            String word = identifier();
+            switch (word) {
+                case "true":
+                    return Boolean.TRUE;
+                case "false":
+                    return Boolean.FALSE;
+                case "null":
+                    return null;
+                default:
+                    throw error("Unexpected " + word);
+            }
+        }
+
+        private Object number() {
+            int start = pos;
+            if (s.charAt(pos) == '-') {
+                pos++;
+            }
+            boolean decimal = false;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E' || ((c == '+' || c == '-') && decimal)) {
+                    decimal = true;
+                } else if (c < '0' || c > '9') {
+                    break;
+                }
+                pos++;
+            }
+            String number = s.substring(start, pos);
+            try {
+                if (decimal) {
+                    return Double.valueOf(number);
+                }
+                long value = Long.parseLong(number);
+                return value == (int) value ? (Object) (int) value : (Object) value;
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("Invalid number " + number);
+            }
+        }
+
+        private String string() {
+            char quote = peek();
+            if (quote != '"' && quote != '\'') {
+                throw error("Expected a string");
+            }
+            pos++;
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= s.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = s.charAt(pos++);
+                if (c == quote) {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= s.length()) {
+                    throw error("Unterminated string");
+                }
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 'u':
+                        if (pos + 4 > s.length()) {
+                            throw error("Invalid escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("Invalid escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+            }
+        }
+
+        private String identifier() {
+            skipSpaces();
+            int start = pos;
+            while (pos < s.length() && Character.isJavaIdentifierPart(s.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos || !Character.isJavaIdentifierStart(s.charAt(start))) {
+                pos = start;
+                throw error("Expected a name");
+            }
+            return s.substring(start, pos);
+        }
+
+        private char peek() {
+            skipSpaces();
+            return pos < s.length() ? s.charAt(pos) : '\0';
+        }
+
+        private boolean accept(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw error("Expected " + c);
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " of " + s);
+        }
+    }
+}
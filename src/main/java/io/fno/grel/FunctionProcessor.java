@@ -0,0 +1,435 @@
+package io.fno.grel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A stream stage that applies a function, such as a {@link FunctionChain} or {@link #records(Map)}, to every item that
+ * passes through it, on the threads of an executor.
+ * <p>
+ * The stage holds at most `bufferSize` items: it asks its publisher for that many, and only asks for more once items
+ * have left, so a slow subscriber slows the publisher down instead of filling the heap. Up to `parallelism` items are
+ * processed at once. Results are published in the order the items arrived, unless the stage is unordered, in which
+ * case they are published as soon as they are ready. Null results are skipped.
+ * <p>
+ * When the function throws, the stage cancels its publisher and passes the exception on with
+ * {@link Flow.Subscriber#onError(Throwable)}, after the results of the items before it (when ordered). When the
+ * publisher completes or fails, the stage does the same once its buffered items are published.
+ * A stage has one subscriber; later ones are refused with an {@link IllegalStateException}.
+ * <p>
+ * The counters ({@link #received()}, {@link #emitted()}, ...) can be read at any time, from any thread.
+ *
+ * @param <T> type of the items
+ * @param <R> type of the results
+ */
+public final class FunctionProcessor<T, R> implements Flow.Processor<T, R> {
+
+    private final Function<? super T, ? extends R> function;
+    private final Executor executor;
+    private final int parallelism;
+    private final int bufferSize;
+    private final boolean ordered;
+    private final int replenish;
+
+    private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+    private final AtomicReference<Flow.Subscriber<? super R>> downstream = new AtomicReference<>();
+    private volatile boolean subscribed;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // guarded by this
+    private final ArrayDeque<Slot<T, R>> waiting = new ArrayDeque<>();
+    private final ArrayDeque<Slot<T, R>> output = new ArrayDeque<>();
+    private int buffered;
+    private int running;
+    private long demand;
+    private int consumed;
+    private boolean done;
+    private Throwable error;
+    private Throwable invalidRequest;
+    private boolean cancelled;
+    private boolean terminated;
+    private long received;
+    private long emitted;
+    private long skipped;
+    private long failed;
+    private int maxBuffered;
+
+    private final LongAdder busyNanos = new LongAdder();
+
+    /**
+     * Creates an ordered stage with a buffer of 256 items, running on the common fork-join pool with one item per
+     * processor at a time.
+     *
+     * @param function function to apply
+     */
+    public FunctionProcessor(Function<? super T, ? extends R> function) {
+        this(function, ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors(), 256, true);
+    }
+
+    /**
+     * @param function    function to apply
+     * @param executor    executor to apply the function on
+     * @param parallelism maximum number of items processed at once
+     * @param bufferSize  maximum number of items held by the stage, at least `parallelism`
+     * @param ordered     whether results are published in the order of the items
+     */
+    public FunctionProcessor(Function<? super T, ? extends R> function, Executor executor, int parallelism,
+                             int bufferSize, boolean ordered) {
+        if (parallelism < 1 || bufferSize < parallelism) {
+            throw new IllegalArgumentException("Expected 0 < parallelism <= bufferSize, not parallelism "
+                    + parallelism + " and buffer size " + bufferSize);
+        }
+        this.function = Objects.requireNonNull(function);
+        this.executor = Objects.requireNonNull(executor);
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.ordered = ordered;
+        // asks for more once a quarter of the buffer is free, rather than one item at a time
+        this.replenish = Math.max(1, bufferSize >> 2);
+    }
+
+    /**
+     * Returns a function that applies `chains` to records: each entry sets the field named by its key to the result of
+     * its chain, applied to the field the chain names with {@code cells["name"].value}, or else to the field it sets.
+     * The chains are applied in order, to a copy of the record.
+     *
+     * @param chains chains, by the field they set
+     * @return a function from records to records
+     */
+    public static Function<Map<String, Object>, Map<String, Object>> records(Map<String, FunctionChain> chains) {
+        Map<String, FunctionChain> copy = new LinkedHashMap<>(chains);
+        return record -> {
+            Map<String, Object> result = new LinkedHashMap<>(record);
+            for (Map.Entry<String, FunctionChain> entry : copy.entrySet()) {
+                FunctionChain chain = entry.getValue();
+                String source = chain.column() != null ? chain.column() : entry.getKey();
+                result.put(entry.getKey(), chain.apply(result.get(source)));
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A FunctionProcessor has only one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (FunctionProcessor.this) {
+                    if (n <= 0) {
+                        invalidRequest = new IllegalArgumentException("Requested " + n + " items, must be > 0");
+                    } else {
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    }
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (FunctionProcessor.this) {
+                    cancelled = true;
+                    clear();
+                }
+                cancelUpstream();
+            }
+        });
+        // signals are only sent once onSubscribe has returned
+        subscribed = true;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (!upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        boolean cancel;
+        synchronized (this) {
+            cancel = cancelled || terminated;
+        }
+        if (cancel) {
+            subscription.cancel();
+        } else {
+            subscription.request(bufferSize);
+        }
+    }
+
+    @Override
+    public void onNext(T item) {
+        Objects.requireNonNull(item);
+        synchronized (this) {
+            if (cancelled || terminated) {
+                return;
+            }
+            Slot<T, R> slot = new Slot<>(item);
+            received++;
+            maxBuffered = Math.max(maxBuffered, ++buffered);
+            waiting.add(slot);
+            if (ordered) {
+                output.add(slot);
+            }
+        }
+        start();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable);
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            error = throwable;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            done = true;
+        }
+        drain();
+    }
+
+    /**
+     * Hands waiting items to the executor, as long as fewer than `parallelism` are running.
+     */
+    private void start() {
+        List<Slot<T, R>> started = null;
+        synchronized (this) {
+            while (running < parallelism && !waiting.isEmpty()) {
+                running++;
+                if (started == null) {
+                    started = new ArrayList<>();
+                }
+                started.add(waiting.poll());
+            }
+        }
+        if (started == null) {
+            return;
+        }
+        for (Slot<T, R> slot : started) {
+            try {
+                executor.execute(() -> run(slot));
+            } catch (RejectedExecutionException e) {
+                finish(slot, null, e);
+            }
+        }
+    }
+
+    private void run(Slot<T, R> slot) {
+        long start = System.nanoTime();
+        R result = null;
+        Throwable failure = null;
+        try {
+            result = function.apply(slot.item);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        busyNanos.add(System.nanoTime() - start);
+        finish(slot, result, failure);
+    }
+
+    private void finish(Slot<T, R> slot, R result, Throwable failure) {
+        synchronized (this) {
+            slot.result = result;
+            slot.error = failure;
+            slot.done = true;
+            running--;
+            if (failure != null) {
+                failed++;
+            }
+            if (!ordered && !cancelled && !terminated) {
+                output.add(slot);
+            }
+        }
+        start();
+        drain();
+    }
+
+    /**
+     * Publishes what can be published. Only one thread drains at a time; calls while another thread drains make that
+     * thread drain once more.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super R> subscriber = downstream.get();
+            if (subscriber != null && subscribed) {
+                drain(subscriber);
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drain(Flow.Subscriber<? super R> subscriber) {
+        while (true) {
+            R next = null;
+            Throwable terminal = null;
+            boolean complete = false;
+            boolean cancel = false;
+            long request = 0;
+            synchronized (this) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                Slot<T, R> head = output.peek();
+                if (invalidRequest != null) {
+                    terminal = invalidRequest;
+                    cancel = true;
+                } else if (head != null && head.done && head.error != null) {
+                    terminal = head.error;
+                    cancel = true;
+                } else if (head != null && head.done && (demand > 0 || head.result == null)) {
+                    output.poll();
+                    buffered--;
+                    next = head.result;
+                    if (next != null) {
+                        demand--;
+                        emitted++;
+                    } else {
+                        skipped++;
+                    }
+                    if (++consumed == replenish) {
+                        request = consumed;
+                        consumed = 0;
+                    }
+                } else if (buffered == 0 && done) {
+                    terminal = error;
+                    complete = error == null;
+                } else {
+                    return;
+                }
+                if (terminal != null || complete) {
+                    terminated = true;
+                    clear();
+                }
+            }
+            if (request > 0) {
+                upstream.get().request(request);
+            }
+            if (cancel) {
+                cancelUpstream();
+            }
+            if (complete) {
+                subscriber.onComplete();
+            } else if (terminal != null) {
+                subscriber.onError(terminal);
+            } else if (next != null) {
+                subscriber.onNext(next);
+            }
+        }
+    }
+
+    private void clear() {
+        waiting.clear();
+        output.clear();
+        buffered = 0;
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription = upstream.get();
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * @return number of items received
+     */
+    public synchronized long received() {
+        return received;
+    }
+
+    /**
+     * @return number of results published
+     */
+    public synchronized long emitted() {
+        return emitted;
+    }
+
+    /**
+     * @return number of null results, which are not published
+     */
+    public synchronized long skipped() {
+        return skipped;
+    }
+
+    /**
+     * @return number of items the function threw for
+     */
+    public synchronized long failed() {
+        return failed;
+    }
+
+    /**
+     * @return number of items held by the stage: waiting, being processed, or waiting to be published
+     */
+    public synchronized int buffered() {
+        return buffered;
+    }
+
+    /**
+     * @return the largest number of items the stage has held at once
+     */
+    public synchronized int maxBuffered() {
+        return maxBuffered;
+    }
+
+    /**
+     * @return number of items being processed
+     */
+    public synchronized int running() {
+        return running;
+    }
+
+    /**
+     * @return total time spent in the function, over all threads, in nanoseconds
+     */
+    public long busyNanos() {
+        return busyNanos.sum();
+    }
+
+    private static final class Slot<T, R> {
+        private final T item;
+        private R result;
+        private Throwable error;
+        private boolean done;
+
+        Slot(T item) {
+            this.item = item;
+        }
+    }
+}
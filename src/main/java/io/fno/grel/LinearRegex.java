@@ -0,0 +1,1161 @@
+package io.fno.grel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.MatchResult;
+
+/**
+ * Regular expressions compiled to a program for a Pike VM, a simulation of the pattern's NFA that runs all
+ * alternatives side by side. Finding a match takes time linear in the length of the input, whatever the pattern,
+ * where {@code java.util.regex} backtracks and can take exponential time.
+ * <p>
+ * Threads are kept in priority order, so the match and groups found are the same as those of {@code java.util.regex}:
+ * the leftmost match, preferring earlier alternatives and, for greedy quantifiers, more repetitions. Only the values
+ * of groups nested in repeated groups, such as the inner groups of {@code ((a))+} and {@code (())*}, can differ.
+ * <p>
+ * Supported are literals and escapes (including {@code \Q...\E}), {@code .}, character classes without nesting or
+ * intersection, the predefined classes {@code \d \D \s \S \w \W}, the anchors {@code ^ $ \A \z \Z \b \B},
+ * capturing, named and non-capturing groups, alternation, greedy and lazy quantifiers, and the flags
+ * {@code i}, {@code m} and {@code s}. Patterns using anything else (backreferences, lookaround, possessive quantifiers,
+ * Unicode properties, ...) or that are invalid are not compiled: {@link #compile(String)} returns null for them.
+ * <p>
+ * Compiled regexes are immutable and thread-safe; a {@link Search} is not.
+ */
+final class LinearRegex {
+
+    private static final int CHAR = 0;
+    private static final int CHAR_FOLD = 1;
+    private static final int CLASS = 2;
+    private static final int ANY = 3;
+    private static final int ANY_ALL = 4;
+    private static final int SPLIT = 5;
+    private static final int JMP = 6;
+    private static final int SAVE = 7;
+    private static final int ASSERT = 8;
+    private static final int MATCH = 9;
+    private static final int PROGRESS = 10;
+
+    private static final int BEGIN_TEXT = 0;
+    private static final int END_TEXT = 1;
+    private static final int BEGIN_LINE = 2;
+    private static final int END_LINE = 3;
+    private static final int END_TEXT_OR_FINAL_LINE = 4;
+    private static final int WORD_BOUNDARY = 5;
+    private static final int NOT_WORD_BOUNDARY = 6;
+
+    private static final int CASE_INSENSITIVE = 1;
+    private static final int MULTILINE = 2;
+    private static final int DOTALL = 4;
+
+    /**
+     * Largest program compiled; counted repetitions such as {@code (a|b){1000}} are expanded.
+     */
+    private static final int MAX_PROGRAM = 10_000;
+
+    private static final int[] DIGITS = {'0', '9'};
+    private static final int[] WORDS = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+    private static final int[] SPACES = {'\t', '\r', ' ', ' '};
+
+    private final int[] ops;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[][] classes;
+    private final boolean[] negated;
+    private final boolean[] folded;
+    private final int groupCount;
+    private final int slots;
+    private final Map<String, Integer> names;
+
+    private LinearRegex(Compiler compiler, int groupCount, Map<String, Integer> names) {
+        int size = compiler.size;
+        this.ops = Arrays.copyOf(compiler.ops, size);
+        this.xs = Arrays.copyOf(compiler.xs, size);
+        this.ys = Arrays.copyOf(compiler.ys, size);
+        this.classes = compiler.classes.toArray(new int[0][]);
+        this.negated = new boolean[classes.length];
+        this.folded = new boolean[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            negated[i] = compiler.negated.get(i);
+            folded[i] = compiler.folded.get(i);
+        }
+        this.groupCount = groupCount;
+        this.slots = compiler.base + compiler.loops;
+        this.names = names;
+    }
+
+    /**
+     * @param regex regular expression, in {@code java.util.regex} syntax
+     * @return the compiled regex, or null when it uses features that are not supported or is invalid
+     */
+    static LinearRegex compile(String regex) {
+        Parser parser = new Parser(regex);
+        Node root;
+        try {
+            root = parser.parseAlternation();
+            if (parser.pos < regex.length()) {
+                return null;
+            }
+        } catch (Unsupported e) {
+            return null;
+        }
+        Compiler compiler = new Compiler(2 * (parser.groupCount + 1));
+        compiler.emit(SAVE, 0, 0);
+        if (!compiler.compile(root)) {
+            return null;
+        }
+        compiler.emit(SAVE, 1, 0);
+        compiler.emit(MATCH, 0, 0);
+        return new LinearRegex(compiler, parser.groupCount, parser.names);
+    }
+
+    /**
+     * @return number of capturing groups
+     */
+    int groupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @return index of the group named `name`, or -1
+     */
+    int group(String name) {
+        Integer index = names.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param s      input
+     * @param groups whether the positions of the groups are needed, and not only those of the whole match
+     * @return a search through `s`
+     */
+    Search search(CharSequence s, boolean groups) {
+        return new Search(s, groups ? 2 * (groupCount + 1) : 2);
+    }
+
+    /**
+     * Finds the successive matches of the regex in one input, reusing its thread lists from one match to the next.
+     * The last match found is available through the methods of {@link MatchResult}.
+     */
+    final class Search implements MatchResult {
+        private final CharSequence s;
+        private final int groupSlots;
+        private final Threads current;
+        private final Threads next;
+        private final int[] stack;
+        private final int[][] stackCaptures;
+        private int[] match;
+        private int nextFrom;
+
+        private Search(CharSequence s, int groupSlots) {
+            this.s = s;
+            this.groupSlots = groupSlots;
+            current = new Threads(ops.length);
+            next = new Threads(ops.length);
+            stack = new int[ops.length * 2 + 2];
+            stackCaptures = new int[stack.length][];
+        }
+
+        /**
+         * Finds the first match starting at or after `from`.
+         *
+         * @return whether there is one
+         */
+        boolean find(int from) {
+            int n = s.length();
+            int[] matched = null;
+            Threads clist = current;
+            Threads nlist = next;
+            clist.clear();
+            for (int i = from; ; ) {
+                if (matched == null) {
+                    int[] captures = new int[slots];
+                    Arrays.fill(captures, -1);
+                    add(clist, 0, i, captures);
+                }
+                if (clist.size == 0) {
+                    break;
+                }
+                int cp = i < n ? Character.codePointAt(s, i) : -1;
+                int after = i < n ? i + Character.charCount(cp) : i;
+                nlist.clear();
+                for (int k = 0; k < clist.size; k++) {
+                    int pc = clist.pcs[k];
+                    int[] captures = clist.captures[k];
+                    boolean step;
+                    switch (ops[pc]) {
+                        case MATCH:
+                            matched = captures;
+                            // threads after this one have a lower priority
+                            k = clist.size;
+                            continue;
+                        case CHAR:
+                            step = cp == xs[pc];
+                            break;
+                        case CHAR_FOLD:
+                            step = cp == xs[pc] || (isAsciiLetter(cp) && (cp ^ 0x20) == xs[pc]);
+                            break;
+                        case CLASS:
+                            step = cp >= 0 && inClass(xs[pc], cp);
+                            break;
+                        case ANY:
+                            step = cp >= 0 && !isLineTerminator(cp);
+                            break;
+                        case ANY_ALL:
+                            step = cp >= 0;
+                            break;
+                        default:
+                            continue;
+                    }
+                    if (step) {
+                        add(nlist, pc + 1, after, captures);
+                    }
+                }
+                if (i >= n) {
+                    break;
+                }
+                Threads swap = clist;
+                clist = nlist;
+                nlist = swap;
+                i = after;
+            }
+            match = matched;
+            return matched != null;
+        }
+
+        /**
+         * Finds the next match, the same way as {@link java.util.regex.Matcher#find()}: after an empty match,
+         * the search goes on from the next character.
+         *
+         * @return whether there is one
+         */
+        boolean find() {
+            if (nextFrom > s.length() || !find(nextFrom)) {
+                nextFrom = s.length() + 1;
+                return false;
+            }
+            nextFrom = end() == start() ? end() + 1 : end();
+            return true;
+        }
+
+        @Override
+        public int start() {
+            return match[0];
+        }
+
+        @Override
+        public int start(int group) {
+            return match[2 * group];
+        }
+
+        @Override
+        public int end() {
+            return match[1];
+        }
+
+        @Override
+        public int end(int group) {
+            return match[2 * group + 1];
+        }
+
+        @Override
+        public String group() {
+            return group(0);
+        }
+
+        @Override
+        public String group(int group) {
+            int start = match[2 * group];
+            return start < 0 ? null : s.subSequence(start, match[2 * group + 1]).toString();
+        }
+
+        @Override
+        public int groupCount() {
+            return groupSlots / 2 - 1;
+        }
+
+        /**
+         * Adds the thread at `pc`, and those reached from it without consuming input, to `list`, in priority order.
+         */
+        private void add(Threads list, int pc0, int pos, int[] captures0) {
+            int top = 0;
+            stack[top] = pc0;
+            stackCaptures[top++] = captures0;
+            while (top > 0) {
+                int pc = stack[--top];
+                int[] captures = stackCaptures[top];
+                stackCaptures[top] = null;
+                while (!list.contains(pc)) {
+                    list.add(pc, captures);
+                    int op = ops[pc];
+                    if (op == JMP) {
+                        pc = xs[pc];
+                    } else if (op == SPLIT) {
+                        stack[top] = ys[pc];
+                        stackCaptures[top++] = captures;
+                        pc = xs[pc];
+                    } else if (op == SAVE) {
+                        int slot = xs[pc];
+                        // the positions of groups that are not asked for are not kept
+                        if (slot < groupSlots || slot >= 2 * (groupCount + 1)) {
+                            captures = captures.clone();
+                            captures[slot] = pos;
+                        }
+                        pc++;
+                    } else if (op == PROGRESS) {
+                        // like java.util.regex, a loop stops after an iteration that matched the empty string
+                        pc = captures[xs[pc]] == pos ? pc + 1 : ys[pc];
+                    } else if (op == ASSERT) {
+                        if (!holds(xs[pc], pos)) {
+                            break;
+                        }
+                        pc++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+        }
+
+        private boolean holds(int assertion, int pos) {
+            int n = s.length();
+            switch (assertion) {
+                case BEGIN_TEXT:
+                    return pos == 0;
+                case END_TEXT:
+                    return pos == n;
+                case BEGIN_LINE:
+                    // like java.util.regex, never at the end of the input, even after a line terminator
+                    if (pos == n) {
+                        return false;
+                    }
+                    if (pos == 0) {
+                        return true;
+                    }
+                    char before = s.charAt(pos - 1);
+                    return isLineTerminator(before) && !(before == '\r' && s.charAt(pos) == '\n');
+                case END_LINE:
+                    if (pos == n) {
+                        return true;
+                    }
+                    char c = s.charAt(pos);
+                    return isLineTerminator(c) && !(c == '\n' && pos > 0 && s.charAt(pos - 1) == '\r');
+                case END_TEXT_OR_FINAL_LINE:
+                    if (pos == n) {
+                        return true;
+                    }
+                    if (pos == n - 2) {
+                        return s.charAt(pos) == '\r' && s.charAt(pos + 1) == '\n';
+                    }
+                    if (pos == n - 1) {
+                        char last = s.charAt(pos);
+                        return last == '\n' ? pos == 0 || s.charAt(pos - 1) != '\r' : isLineTerminator(last);
+                    }
+                    return false;
+                case WORD_BOUNDARY:
+                case NOT_WORD_BOUNDARY:
+                    boolean left = pos > 0 && isWord(Character.codePointBefore(s, pos));
+                    boolean right = pos < n && isWord(Character.codePointAt(s, pos));
+                    return (left != right) == (assertion == WORD_BOUNDARY);
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private boolean inClass(int index, int cp) {
+        boolean in = inRanges(classes[index], cp)
+                || (folded[index] && isAsciiLetter(cp) && inRanges(classes[index], cp ^ 0x20));
+        return in != negated[index];
+    }
+
+    private static boolean inRanges(int[] ranges, int cp) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (cp >= ranges[i] && cp <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAsciiLetter(int cp) {
+        return (cp >= 'a' && cp <= 'z') || (cp >= 'A' && cp <= 'Z');
+    }
+
+    private static boolean isLineTerminator(int c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isWord(int cp) {
+        return cp == '_' || Character.isLetterOrDigit(cp);
+    }
+
+    /**
+     * Set of program counters, in the order they were added, with constant-time membership and clearing.
+     */
+    private static final class Threads {
+        final int[] pcs;
+        final int[][] captures;
+        final int[] sparse;
+        int size;
+
+        Threads(int capacity) {
+            pcs = new int[capacity];
+            captures = new int[capacity][];
+            sparse = new int[capacity];
+        }
+
+        boolean contains(int pc) {
+            int i = sparse[pc];
+            return i < size && pcs[i] == pc;
+        }
+
+        void add(int pc, int[] threadCaptures) {
+            sparse[pc] = size;
+            pcs[size] = pc;
+            captures[size++] = threadCaptures;
+        }
+
+        void clear() {
+            Arrays.fill(captures, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private static final class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private abstract static class Node {
+    }
+
+    private static final class Char extends Node {
+        final int cp;
+        final boolean fold;
+
+        Char(int cp, boolean fold) {
+            this.cp = cp;
+            this.fold = fold;
+        }
+    }
+
+    private static final class Class extends Node {
+        final int[] ranges;
+        final boolean negated;
+        final boolean fold;
+
+        Class(int[] ranges, boolean negated, boolean fold) {
+            this.ranges = ranges;
+            this.negated = negated;
+            this.fold = fold;
+        }
+    }
+
+    private static final class Any extends Node {
+        final boolean all;
+
+        Any(boolean all) {
+            this.all = all;
+        }
+    }
+
+    private static final class Assertion extends Node {
+        final int kind;
+
+        Assertion(int kind) {
+            this.kind = kind;
+        }
+    }
+
+    private static final class Group extends Node {
+        final Node body;
+        final int index;
+
+        Group(Node body, int index) {
+            this.body = body;
+            this.index = index;
+        }
+    }
+
+    private static final class Sequence extends Node {
+        final List<Node> items;
+
+        Sequence(List<Node> items) {
+            this.items = items;
+        }
+    }
+
+    private static final class Alternation extends Node {
+        final List<Node> items;
+
+        Alternation(List<Node> items) {
+            this.items = items;
+        }
+    }
+
+    private static final class Repeat extends Node {
+        final Node body;
+        final int min;
+        final int max;
+        final boolean greedy;
+
+        Repeat(Node body, int min, int max, boolean greedy) {
+            this.body = body;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of the {@code java.util.regex} syntax.
+     */
+    private static final class Parser {
+        final String regex;
+        final Map<String, Integer> names = new HashMap<>();
+        int pos;
+        int flags;
+        int groupCount;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        private boolean more() {
+            return pos < regex.length();
+        }
+
+        private int peek() {
+            return regex.codePointAt(pos);
+        }
+
+        private int next() throws Unsupported {
+            if (!more()) {
+                throw new Unsupported();
+            }
+            int cp = regex.codePointAt(pos);
+            pos += Character.charCount(cp);
+            return cp;
+        }
+
+        private boolean consume(String s) {
+            if (regex.startsWith(s, pos)) {
+                pos += s.length();
+                return true;
+            }
+            return false;
+        }
+
+        Node parseAlternation() throws Unsupported {
+            List<Node> items = new ArrayList<>();
+            items.add(parseSequence());
+            while (consume("|")) {
+                items.add(parseSequence());
+            }
+            return items.size() == 1 ? items.get(0) : new Alternation(items);
+        }
+
+        private Node parseSequence() throws Unsupported {
+            List<Node> items = new ArrayList<>();
+            while (more() && peek() != '|' && peek() != ')') {
+                if (consume("\\Q")) {
+                    int end = regex.indexOf("\\E", pos);
+                    String quoted = regex.substring(pos, end < 0 ? regex.length() : end);
+                    pos = end < 0 ? regex.length() : end + 2;
+                    for (int i = 0; i < quoted.length(); ) {
+                        int cp = quoted.codePointAt(i);
+                        items.add(literal(cp));
+                        i += Character.charCount(cp);
+                    }
+                    continue;
+                }
+                Node atom = parseAtom();
+                if (atom != null) {
+                    items.add(parseQuantifier(atom));
+                }
+            }
+            return items.size() == 1 ? items.get(0) : new Sequence(items);
+        }
+
+        private Node parseQuantifier(Node atom) throws Unsupported {
+            if (!more()) {
+                return atom;
+            }
+            int min;
+            int max;
+            int c = peek();
+            if (c == '*') {
+                min = 0;
+                max = -1;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+            } else if (c == '{') {
+                int close = regex.indexOf('}', pos);
+                if (close < 0) {
+                    throw new Unsupported();
+                }
+                String bounds = regex.substring(pos + 1, close);
+                int comma = bounds.indexOf(',');
+                try {
+                    min = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+                    max = comma < 0 ? min : comma == bounds.length() - 1 ? -1 : Integer.parseInt(bounds.substring(comma + 1));
+                } catch (NumberFormatException e) {
+                    throw new Unsupported();
+                }
+                if (min < 0 || (max >= 0 && max < min)) {
+                    throw new Unsupported();
+                }
+                pos = close;
+            } else {
+                return atom;
+            }
+            pos++;
+            boolean greedy = true;
+            if (more() && peek() == '?') {
+                greedy = false;
+                pos++;
+            }
+            if (more() && (peek() == '+' || peek() == '*' || peek() == '?' || peek() == '{')) {
+                // possessive quantifiers, or quantifiers in a row, which java.util.regex rejects
+                throw new Unsupported();
+            }
+            if (atom instanceof Assertion) {
+                throw new Unsupported();
+            }
+            return new Repeat(atom, min, max, greedy);
+        }
+
+        /**
+         * @return the next atom, or null for a group that only sets flags
+         */
+        private Node parseAtom() throws Unsupported {
+            int c = next();
+            switch (c) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    return parseClass();
+                case '.':
+                    return new Any((flags & DOTALL) != 0);
+                case '^':
+                    return new Assertion((flags & MULTILINE) != 0 ? BEGIN_LINE : BEGIN_TEXT);
+                case '$':
+                    return new Assertion((flags & MULTILINE) != 0 ? END_LINE : END_TEXT_OR_FINAL_LINE);
+                case '\\':
+                    return parseEscape();
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new Unsupported();
+                default:
+                    return literal(c);
+            }
+        }
+
+        private Node literal(int cp) {
+            boolean fold = (flags & CASE_INSENSITIVE) != 0 && isAsciiLetter(cp);
+            return new Char(fold ? cp | 0x20 : cp, fold);
+        }
+
+        private Node parseGroup() throws Unsupported {
+            int saved = flags;
+            int index = -1;
+            if (consume("?")) {
+                if (consume(":")) {
+                    index = -2;
+                } else if (more() && peek() == '<' && regex.length() > pos + 1
+                        && isAsciiLetter(regex.charAt(pos + 1))) {
+                    pos++;
+                    int start = pos;
+                    while (more() && (isAsciiLetter(peek()) || (peek() >= '0' && peek() <= '9'))) {
+                        pos++;
+                    }
+                    String name = regex.substring(start, pos);
+                    if (!consume(">") || names.containsKey(name)) {
+                        throw new Unsupported();
+                    }
+                    index = ++groupCount;
+                    names.put(name, index);
+                } else {
+                    boolean on = true;
+                    while (more() && peek() != ')' && peek() != ':') {
+                        int f = next();
+                        int flag = f == 'i' ? CASE_INSENSITIVE : f == 'm' ? MULTILINE : f == 's' ? DOTALL : 0;
+                        if (f == '-' && on) {
+                            on = false;
+                        } else if (flag == 0) {
+                            // lookaround, atomic groups and the other flags
+                            throw new Unsupported();
+                        } else if (on) {
+                            flags |= flag;
+                        } else {
+                            flags &= ~flag;
+                        }
+                    }
+                    if (consume(")")) {
+                        // the flags apply to the rest of the enclosing group
+                        return null;
+                    }
+                    if (!consume(":")) {
+                        throw new Unsupported();
+                    }
+                    index = -2;
+                }
+            } else {
+                index = ++groupCount;
+            }
+            Node body = parseAlternation();
+            if (!consume(")")) {
+                throw new Unsupported();
+            }
+            flags = saved;
+            return new Group(body, index);
+        }
+
+        private Node parseEscape() throws Unsupported {
+            int c = next();
+            switch (c) {
+                case 'd':
+                    return predefined(DIGITS, false);
+                case 'D':
+                    return predefined(DIGITS, true);
+                case 'w':
+                    return predefined(WORDS, false);
+                case 'W':
+                    return predefined(WORDS, true);
+                case 's':
+                    return predefined(SPACES, false);
+                case 'S':
+                    return predefined(SPACES, true);
+                case 'b':
+                    return new Assertion(WORD_BOUNDARY);
+                case 'B':
+                    return new Assertion(NOT_WORD_BOUNDARY);
+                case 'A':
+                    return new Assertion(BEGIN_TEXT);
+                case 'z':
+                    return new Assertion(END_TEXT);
+                case 'Z':
+                    return new Assertion(END_TEXT_OR_FINAL_LINE);
+                default:
+                    return literal(escapedChar(c));
+            }
+        }
+
+        private Node predefined(int[] ranges, boolean negated) {
+            return new Class(ranges, negated, false);
+        }
+
+        /**
+         * @return the character an escape sequence stands for, `c` being the character after the backslash
+         */
+        private int escapedChar(int c) throws Unsupported {
+            switch (c) {
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return '\u0007';
+                case 'e':
+                    return '\u001B';
+                case '0': {
+                    int value = 0;
+                    int digits = 0;
+                    while (more() && digits < 3 && peek() >= '0' && peek() <= '7' && value * 8 + peek() - '0' <= 0377) {
+                        value = value * 8 + next() - '0';
+                        digits++;
+                    }
+                    if (digits == 0) {
+                        throw new Unsupported();
+                    }
+                    return value;
+                }
+                case 'x':
+                    if (consume("{")) {
+                        int close = regex.indexOf('}', pos);
+                        if (close < 0) {
+                            throw new Unsupported();
+                        }
+                        int value = hex(close - pos);
+                        pos++;
+                        if (value > Character.MAX_CODE_POINT) {
+                            throw new Unsupported();
+                        }
+                        return value;
+                    }
+                    return hex(2);
+                case 'u':
+                    return hex(4);
+                case 'c':
+                    return next() ^ 64;
+                default:
+                    if (c < 128 && !Character.isLetterOrDigit(c)) {
+                        return c;
+                    }
+                    // backreferences, Unicode properties, \G, \R, \X, \h, \v, \k and unknown escapes
+                    throw new Unsupported();
+            }
+        }
+
+        private int hex(int digits) throws Unsupported {
+            if (digits <= 0 || digits > 8 || pos + digits > regex.length()) {
+                throw new Unsupported();
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int d = Character.digit(regex.charAt(pos++), 16);
+                if (d < 0) {
+                    throw new Unsupported();
+                }
+                value = value * 16 + d;
+            }
+            return value;
+        }
+
+        private Node parseClass() throws Unsupported {
+            boolean negate = consume("^");
+            List<Integer> ranges = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                int c = next();
+                if (c == ']' && !first) {
+                    break;
+                }
+                if (c == '[' || c == ']' || (c == '&' && more() && peek() == '&')) {
+                    // nested classes, intersections, and an empty class, which java.util.regex treat specially
+                    throw new Unsupported();
+                }
+                first = false;
+                int low;
+                if (c == '\\') {
+                    int e = next();
+                    int[] set = e == 'd' ? DIGITS : e == 'w' ? WORDS : e == 's' ? SPACES : null;
+                    int[] complement = e == 'D' ? DIGITS : e == 'W' ? WORDS : e == 'S' ? SPACES : null;
+                    if (set != null) {
+                        addAll(ranges, set);
+                        continue;
+                    }
+                    if (complement != null) {
+                        addAll(ranges, complement(complement));
+                        continue;
+                    }
+                    if (e == 'Q') {
+                        int end = regex.indexOf("\\E", pos);
+                        String quoted = regex.substring(pos, end < 0 ? regex.length() : end);
+                        pos = end < 0 ? regex.length() : end + 2;
+                        for (int i = 0; i < quoted.length(); ) {
+                            int cp = quoted.codePointAt(i);
+                            ranges.add(cp);
+                            ranges.add(cp);
+                            i += Character.charCount(cp);
+                        }
+                        continue;
+                    }
+                    low = escapedChar(e);
+                } else {
+                    low = c;
+                }
+                int high = low;
+                if (more() && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    int h = next();
+                    if (h == '[') {
+                        throw new Unsupported();
+                    }
+                    high = h == '\\' ? escapedChar(next()) : h;
+                    if (high < low) {
+                        throw new Unsupported();
+                    }
+                }
+                ranges.add(low);
+                ranges.add(high);
+            }
+            int[] array = new int[ranges.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ranges.get(i);
+            }
+            return new Class(array, negate, (flags & CASE_INSENSITIVE) != 0);
+        }
+
+        private static void addAll(List<Integer> ranges, int[] set) {
+            for (int value : set) {
+                ranges.add(value);
+            }
+        }
+
+        /**
+         * @return the ranges of all code points outside the sorted ranges `set`
+         */
+        private static int[] complement(int[] set) {
+            List<Integer> ranges = new ArrayList<>();
+            int low = 0;
+            for (int i = 0; i < set.length; i += 2) {
+                if (set[i] > low) {
+                    ranges.add(low);
+                    ranges.add(set[i] - 1);
+                }
+                low = set[i + 1] + 1;
+            }
+            ranges.add(low);
+            ranges.add(Character.MAX_CODE_POINT);
+            int[] array = new int[ranges.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ranges.get(i);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Translates the syntax tree into the program of the VM.
+     */
+    private static final class Compiler {
+        int[] ops = new int[64];
+        int[] xs = new int[64];
+        int[] ys = new int[64];
+        int size;
+        /**
+         * First slot after those of the groups, and number of slots used by loops to check for empty iterations.
+         */
+        final int base;
+        int loops;
+        final List<int[]> classes = new ArrayList<>();
+        final List<Boolean> negated = new ArrayList<>();
+        final List<Boolean> folded = new ArrayList<>();
+
+        Compiler(int base) {
+            this.base = base;
+        }
+
+        int emit(int op, int x, int y) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ops[size] = op;
+            xs[size] = x;
+            ys[size] = y;
+            return size++;
+        }
+
+        /**
+         * @return false when the program gets too large
+         */
+        boolean compile(Node node) {
+            if (size > MAX_PROGRAM) {
+                return false;
+            }
+            if (node instanceof Char) {
+                Char c = (Char) node;
+                emit(c.fold ? CHAR_FOLD : CHAR, c.cp, 0);
+            } else if (node instanceof Class) {
+                Class c = (Class) node;
+                classes.add(c.ranges);
+                negated.add(c.negated);
+                folded.add(c.fold);
+                emit(CLASS, classes.size() - 1, 0);
+            } else if (node instanceof Any) {
+                emit(((Any) node).all ? ANY_ALL : ANY, 0, 0);
+            } else if (node instanceof Assertion) {
+                emit(ASSERT, ((Assertion) node).kind, 0);
+            } else if (node instanceof Group) {
+                Group group = (Group) node;
+                if (group.index >= 0) {
+                    emit(SAVE, 2 * group.index, 0);
+                }
+                if (!compile(group.body)) {
+                    return false;
+                }
+                if (group.index >= 0) {
+                    emit(SAVE, 2 * group.index + 1, 0);
+                }
+            } else if (node instanceof Sequence) {
+                for (Node item : ((Sequence) node).items) {
+                    if (!compile(item)) {
+                        return false;
+                    }
+                }
+            } else if (node instanceof Alternation) {
+                List<Node> items = ((Alternation) node).items;
+                int[] jumps = new int[items.size() - 1];
+                for (int i = 0; i < items.size() - 1; i++) {
+                    int split = emit(SPLIT, size + 1, 0);
+                    if (!compile(items.get(i))) {
+                        return false;
+                    }
+                    jumps[i] = emit(JMP, 0, 0);
+                    ys[split] = size;
+                }
+                if (!compile(items.get(items.size() - 1))) {
+                    return false;
+                }
+                for (int jump : jumps) {
+                    xs[jump] = size;
+                }
+            } else if (node instanceof Repeat) {
+                return compileRepeat((Repeat) node);
+            }
+            return size <= MAX_PROGRAM;
+        }
+
+        /**
+         * Counted repetitions are expanded: the mandatory copies of the body, then the optional ones, each guarded by
+         * a split, then a loop if there is no maximum. When the body can match the empty string, an iteration that
+         * matched it ends the repetition, like in {@code java.util.regex}, even when the minimum is not reached:
+         * each copy is followed by progress k, next copy; jmp out.
+         */
+        private boolean compileRepeat(Repeat repeat) {
+            if ((repeat.max < 0 || repeat.max > 1) && emptyOnly(repeat.body)) {
+                // java.util.regex leaves out the optional iterations of a body without alternatives or quantifiers
+                // that only matches the empty string, and runs the mandatory ones once
+                return repeat.min == 0 || compile(repeat.body);
+            }
+            boolean nullable = nullable(repeat.body);
+            boolean check = nullable && (repeat.max < 0 || repeat.max > 1);
+            int slot = check ? base + loops++ : -1;
+            int copies = repeat.max < 0 ? repeat.min : repeat.max;
+            int[] splits = new int[copies];
+            int[] exits = new int[copies];
+            for (int i = 0; i < copies; i++) {
+                splits[i] = i < repeat.min ? -1 : emit(SPLIT, 0, 0);
+                if (check) {
+                    emit(SAVE, slot, 0);
+                }
+                if (!compile(repeat.body)) {
+                    return false;
+                }
+                if (check) {
+                    emit(PROGRESS, slot, size + 2);
+                    exits[i] = emit(JMP, 0, 0);
+                }
+            }
+            if (repeat.max < 0 && !(nullable ? compileNullableLoop(repeat) : compileLoop(repeat))) {
+                return false;
+            }
+            for (int i = 0; i < copies; i++) {
+                if (splits[i] >= 0) {
+                    prefer(splits[i], splits[i] + 1, size, repeat.greedy);
+                }
+                if (check) {
+                    xs[exits[i]] = size;
+                }
+            }
+            return size <= MAX_PROGRAM;
+        }
+
+        /**
+         * L: split body, out; body; jmp L
+         */
+        private boolean compileLoop(Repeat repeat) {
+            int loop = emit(SPLIT, 0, 0);
+            if (!compile(repeat.body)) {
+                return false;
+            }
+            emit(JMP, loop, 0);
+            prefer(loop, loop + 1, size, repeat.greedy);
+            return true;
+        }
+
+        /**
+         * A loop whose body can match the empty string, which like in {@code java.util.regex} stops after an
+         * iteration that matched the empty string, keeping the groups of that iteration:
+         * A: split bodyA, out; save k; body; progress k, B; jmp out;
+         * B: split bodyB, out; save k; body; progress k, A
+         * The body is compiled twice, so that an iteration never runs into instructions that the previous iteration
+         * already went through at the same position, which would end it.
+         */
+        private boolean compileNullableLoop(Repeat repeat) {
+            int slot = base + loops++;
+            int a = emit(SPLIT, 0, 0);
+            emit(SAVE, slot, 0);
+            if (!compile(repeat.body)) {
+                return false;
+            }
+            int toB = emit(PROGRESS, slot, 0);
+            int jump = emit(JMP, 0, 0);
+            int b = emit(SPLIT, 0, 0);
+            emit(SAVE, slot, 0);
+            if (!compile(repeat.body)) {
+                return false;
+            }
+            emit(PROGRESS, slot, a);
+            ys[toB] = b;
+            xs[jump] = size;
+            prefer(a, a + 1, size, repeat.greedy);
+            prefer(b, b + 1, size, repeat.greedy);
+            return true;
+        }
+
+        private static boolean emptyOnly(Node node) {
+            if (node instanceof Assertion) {
+                return true;
+            }
+            if (node instanceof Group) {
+                return emptyOnly(((Group) node).body);
+            }
+            if (node instanceof Sequence) {
+                for (Node item : ((Sequence) node).items) {
+                    if (!emptyOnly(item)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private static boolean nullable(Node node) {
+            if (node instanceof Assertion) {
+                return true;
+            }
+            if (node instanceof Group) {
+                return nullable(((Group) node).body);
+            }
+            if (node instanceof Sequence) {
+                for (Node item : ((Sequence) node).items) {
+                    if (!nullable(item)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (node instanceof Alternation) {
+                for (Node item : ((Alternation) node).items) {
+                    if (nullable(item)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (node instanceof Repeat) {
+                return ((Repeat) node).min == 0 || nullable(((Repeat) node).body);
+            }
+            return false;
+        }
+
+        /**
+         * Makes the split at `at` prefer `body` over `out` when greedy, and the other way around when lazy.
+         */
+        private void prefer(int at, int body, int out, boolean greedy) {
+            xs[at] = greedy ? body : out;
+            ys[at] = greedy ? out : body;
+        }
+    }
+}
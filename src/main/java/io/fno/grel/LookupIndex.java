@@ -0,0 +1,569 @@
+package io.fno.grel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash index over a CSV lookup file, stored in a memory-mapped file in an index directory,
+ * behind {@link OtherFunctions#cross(Object, String, String)} and {@link OtherFunctions#lookup(Object, String, String, String)}.
+ * <p>
+ * The index file holds every row of the CSV file in a compact binary form, plus an open-addressing hash table
+ * from key to row. Lookups read straight from the mapped file: only the fields that are asked for are decoded
+ * into strings, so lookup tables of many gigabytes need no heap, and the operating system's page cache shares
+ * them between all JVMs that use the same file.
+ * <p>
+ * The index is built once per CSV file and key column, and rebuilt when the CSV file changes. Index files are written
+ * to the directory set with {@link #setIndexDirectory(Path)}, by default {@code grel-lookup} in the temporary-file
+ * directory, so that lookup files can be in read-only directories.
+ * The CSV file must have a header row, and is read as UTF-8. When several rows have the same key,
+ * lookups return the first of them.
+ * <p>
+ * Instances are immutable and safe to use from many threads.
+ */
+public final class LookupIndex {
+
+    private static final int MAGIC = 0x47524c58;
+    private static final int VERSION = 1;
+
+    // header: magic, version, CSV size, CSV modification time, key column, column count, rows, slots, table offset
+    private static final int HEADER = 64;
+    private static final int SLOT = 16;
+
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long RECHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_OPEN = 64;
+    private static final Map<String, LookupIndex> OPEN = new ConcurrentHashMap<>();
+
+    private static volatile Path indexDirectory = defaultIndexDirectory();
+
+    private static final ThreadLocal<byte[]> KEY_BYTES = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private final Path file;
+    private final MappedByteBuffer[] segments;
+    private final long csvSize;
+    private final long csvModified;
+    private final int keyColumn;
+    private final List<String> columns;
+    private final long rows;
+    private final long slotMask;
+    private final long tableOffset;
+    private final long firstRow;
+
+    private volatile long checked = System.nanoTime();
+
+    private LookupIndex(Path file, MappedByteBuffer[] segments) {
+        this.file = file;
+        this.segments = segments;
+        if (size() < HEADER || intAt(0) != MAGIC || intAt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a lookup index: " + file);
+        }
+        csvSize = longAt(8);
+        csvModified = longAt(16);
+        keyColumn = intAt(24);
+        rows = longAt(32);
+        slotMask = longAt(40) - 1;
+        tableOffset = longAt(48);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < fieldCount(HEADER); i++) {
+            names.add(field(HEADER, i));
+        }
+        columns = Collections.unmodifiableList(names);
+        firstRow = next(HEADER);
+    }
+
+    private static Path defaultIndexDirectory() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "grel-lookup");
+    }
+
+    /**
+     * Sets the directory that {@link #forFile(Path, String)} writes index files to.
+     *
+     * @param directory index directory, or null for {@code grel-lookup} in the temporary-file directory
+     */
+    public static void setIndexDirectory(Path directory) {
+        indexDirectory = directory == null ? defaultIndexDirectory() : directory;
+    }
+
+    /**
+     * @return the directory that {@link #forFile(Path, String)} writes index files to
+     */
+    public static Path getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    /**
+     * Returns the index of `csv` on the column called `keyColumn`, in the directory set with
+     * {@link #setIndexDirectory(Path)}, building it first if there is no index yet or the CSV file changed since it
+     * was built. Open indexes are cached.
+     *
+     * @param csv       CSV file with a header row
+     * @param keyColumn name of the column to look values up in
+     * @return index
+     * @throws IOException              when the CSV file or index cannot be read or written
+     * @throws IllegalArgumentException when the CSV file has no column called `keyColumn`
+     */
+    public static LookupIndex forFile(Path csv, String keyColumn) throws IOException {
+        return forFile(csv, keyColumn, indexDirectory);
+    }
+
+    /**
+     * Returns the index of `csv` on the column called `keyColumn`, in `directory`, building it first if there is no
+     * index yet or the CSV file changed since it was built. Open indexes are cached.
+     *
+     * @param csv       CSV file with a header row
+     * @param keyColumn name of the column to look values up in
+     * @param directory directory to keep the index file in, created if needed
+     * @return index
+     * @throws IOException              when the CSV file or index cannot be read or written
+     * @throws IllegalArgumentException when the CSV file has no column called `keyColumn`
+     */
+    public static LookupIndex forFile(Path csv, String keyColumn, Path directory) throws IOException {
+        String cacheKey = csv.toAbsolutePath() + "\u0000" + keyColumn + "\u0000" + directory.toAbsolutePath();
+        LookupIndex index = OPEN.get(cacheKey);
+        if (index != null && System.nanoTime() - index.checked < RECHECK_NANOS) {
+            return index;
+        }
+        synchronized (OPEN) {
+            index = OPEN.get(cacheKey);
+            if (index != null && index.isCurrent(csv)) {
+                index.checked = System.nanoTime();
+                return index;
+            }
+            int column = header(csv).indexOf(keyColumn);
+            if (column < 0) {
+                throw new IllegalArgumentException("No column '" + keyColumn + "' in " + csv);
+            }
+            Files.createDirectories(directory);
+            // CSV files of the same name in different directories get different index files
+            byte[] path = csv.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+            Path indexFile = directory.resolve(csv.getFileName() + "." + Long.toHexString(hash(path, path.length))
+                    + "." + column + ".idx");
+            index = null;
+            if (Files.exists(indexFile)) {
+                try {
+                    index = open(indexFile);
+                } catch (IllegalArgumentException e) {
+                    // written by another version, rebuilt below
+                }
+            }
+            if (index == null || index.keyColumn != column || !index.isCurrent(csv)) {
+                index = build(csv, column, indexFile);
+            }
+            if (OPEN.size() >= MAX_OPEN) {
+                OPEN.clear();
+            }
+            OPEN.put(cacheKey, index);
+            return index;
+        }
+    }
+
+    /**
+     * Opens an existing index file.
+     *
+     * @param indexFile index file
+     * @return index
+     * @throws IOException              when the file cannot be read
+     * @throws IllegalArgumentException when the file is not a lookup index
+     */
+    public static LookupIndex open(Path indexFile) throws IOException {
+        return new LookupIndex(indexFile, map(indexFile, FileChannel.MapMode.READ_ONLY));
+    }
+
+    /**
+     * Builds an index of `csv` on the column at position `keyColumn` into `indexFile`, replacing it atomically,
+     * so that other processes only ever see a complete index.
+     *
+     * @param csv       CSV file with a header row
+     * @param keyColumn position of the column to look values up in
+     * @param indexFile file to write the index to
+     * @return the new index
+     * @throws IOException when the CSV file cannot be read or the index cannot be written
+     */
+    public static LookupIndex build(Path csv, int keyColumn, Path indexFile) throws IOException {
+        Path dir = indexFile.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, indexFile.getFileName().toString(), ".tmp");
+        try {
+            long csvSize = Files.size(csv);
+            long csvModified = Files.getLastModifiedTime(csv).toMillis();
+            // first pass: copy the rows, header row first, into the data region
+            long rows = 0;
+            long end;
+            try (CsvTokenizer.Records in = records(csv);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.write(new byte[HEADER]);
+                end = HEADER;
+                List<String> fields = new ArrayList<>();
+                boolean header = true;
+                while (in.next(fields)) {
+                    if (header && fields.size() <= keyColumn) {
+                        throw new IllegalArgumentException("No column " + keyColumn + " in " + csv);
+                    }
+                    if (!header && fields.size() <= keyColumn) {
+                        continue;
+                    }
+                    end += writeRecord(out, fields);
+                    if (!header) {
+                        rows++;
+                    }
+                    header = false;
+                }
+                if (header) {
+                    throw new IllegalArgumentException("No header row in " + csv);
+                }
+            }
+            long slots = Long.highestOneBit(Math.max(2, rows * 2) - 1) << 1;
+            long tableOffset = (end + SLOT - 1) & -SLOT;
+            try (RandomAccessFile raf = new RandomAccessFile(tmp.toFile(), "rw")) {
+                raf.setLength(tableOffset + slots * SLOT);
+            }
+            // second pass: hash the key of every row into the table
+            LookupIndex index = new LookupIndex(tmp, map(tmp, FileChannel.MapMode.READ_WRITE), csvSize, csvModified,
+                    keyColumn, rows, slots, tableOffset);
+            index.fillTable();
+            index.force();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return open(indexFile);
+    }
+
+    // writable index under construction: only the header and data region are valid
+    private LookupIndex(Path file, MappedByteBuffer[] segments, long csvSize, long csvModified,
+                        int keyColumn, long rows, long slots, long tableOffset) {
+        this.file = file;
+        this.segments = segments;
+        this.csvSize = csvSize;
+        this.csvModified = csvModified;
+        this.keyColumn = keyColumn;
+        this.rows = rows;
+        this.slotMask = slots - 1;
+        this.tableOffset = tableOffset;
+        this.columns = Collections.emptyList();
+        this.firstRow = next(HEADER);
+    }
+
+    private void fillTable() {
+        long record = firstRow;
+        for (long r = 0; r < rows; r++) {
+            long start = fieldStart(record, keyColumn);
+            long hash = FNV_OFFSET;
+            for (long p = start, end = fieldEnd(record, keyColumn); p < end; p++) {
+                hash = (hash ^ (byteAt(p) & 0xff)) * FNV_PRIME;
+            }
+            long slot = slot(hash);
+            while (longAt(tableOffset + slot * SLOT + 8) != 0) {
+                slot = (slot + 1) & slotMask;
+            }
+            putLong(tableOffset + slot * SLOT, hash);
+            putLong(tableOffset + slot * SLOT + 8, record);
+            record = next(record);
+        }
+    }
+
+    private void force() {
+        putInt(0, MAGIC);
+        putInt(4, VERSION);
+        putLong(8, csvSize);
+        putLong(16, csvModified);
+        putInt(24, keyColumn);
+        putInt(28, fieldCount(HEADER));
+        putLong(32, rows);
+        putLong(40, slotMask + 1);
+        putLong(48, tableOffset);
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * @return index file
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * @return column names, from the header row of the CSV file
+     */
+    public List<String> columns() {
+        return columns;
+    }
+
+    /**
+     * @return number of rows, not counting the header row
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * @param key key
+     * @return whether a row has `key` in the key column
+     */
+    public boolean contains(CharSequence key) {
+        return find(key) != 0;
+    }
+
+    /**
+     * Returns the value in `column` of the first row that has `key` in the key column.
+     *
+     * @param key    key
+     * @param column column name
+     * @return value, or null when no row has `key` or the row has no such column
+     */
+    public String get(CharSequence key, String column) {
+        int c = columns.indexOf(column);
+        if (c < 0) {
+            throw new IllegalArgumentException("No column '" + column + "' in " + file);
+        }
+        return get(key, c);
+    }
+
+    /**
+     * Returns the value in the column at position `column` of the first row that has `key` in the key column.
+     *
+     * @param key    key
+     * @param column column position
+     * @return value, or null when no row has `key` or the row has no such column
+     */
+    public String get(CharSequence key, int column) {
+        long record = find(key);
+        if (record == 0 || column >= fieldCount(record)) {
+            return null;
+        }
+        return field(record, column);
+    }
+
+    /**
+     * Returns all rows that have `key` in the key column, in the order of the CSV file.
+     *
+     * @param key key
+     * @return rows, possibly none
+     */
+    public List<String[]> rows(CharSequence key) {
+        List<String[]> found = new ArrayList<>(1);
+        int length = encode(key);
+        byte[] bytes = KEY_BYTES.get();
+        long hash = hash(bytes, length);
+        // rows with the same key are inserted, and so found, in file order
+        for (long slot = slot(hash); ; slot = (slot + 1) & slotMask) {
+            long record = longAt(tableOffset + slot * SLOT + 8);
+            if (record == 0) {
+                return found;
+            }
+            if (longAt(tableOffset + slot * SLOT) == hash && keyEquals(record, bytes, length)) {
+                String[] row = new String[fieldCount(record)];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = field(record, i);
+                }
+                found.add(row);
+            }
+        }
+    }
+
+    private long find(CharSequence key) {
+        int length = encode(key);
+        byte[] bytes = KEY_BYTES.get();
+        long hash = hash(bytes, length);
+        for (long slot = slot(hash); ; slot = (slot + 1) & slotMask) {
+            long record = longAt(tableOffset + slot * SLOT + 8);
+            if (record == 0 || longAt(tableOffset + slot * SLOT) == hash && keyEquals(record, bytes, length)) {
+                return record;
+            }
+        }
+    }
+
+    private boolean isCurrent(Path csv) throws IOException {
+        return Files.size(csv) == csvSize && Files.getLastModifiedTime(csv).toMillis() == csvModified;
+    }
+
+    private long slot(long hash) {
+        return (hash ^ (hash >>> 32)) & slotMask;
+    }
+
+    private static long hash(byte[] bytes, int length) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Encodes `key` as UTF-8 into this thread's key buffer, and returns the number of bytes.
+     */
+    private static int encode(CharSequence key) {
+        byte[] bytes = KEY_BYTES.get();
+        int n = key.length();
+        if (bytes.length < n * 3) {
+            bytes = new byte[n * 3];
+            KEY_BYTES.set(bytes);
+        }
+        int pos = 0;
+        for (int i = 0; i < n; ) {
+            int cp = Utf8.codePointAt(key, i, n);
+            i += cp >= 0x10000 ? 2 : 1;
+            pos = Utf8.encode(cp, bytes, pos);
+        }
+        return pos;
+    }
+
+    // records: field count, end offset of every field, then the UTF-8 bytes of the fields
+
+    private static int writeRecord(DataOutputStream out, List<String> fields) throws IOException {
+        byte[][] values = new byte[fields.size()][];
+        out.writeInt(values.length);
+        int end = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields.get(i).getBytes(StandardCharsets.UTF_8);
+            end += values[i].length;
+            out.writeInt(end);
+        }
+        for (byte[] value : values) {
+            out.write(value);
+        }
+        return 4 + 4 * values.length + end;
+    }
+
+    private int fieldCount(long record) {
+        return intAt(record);
+    }
+
+    private long fieldStart(long record, int i) {
+        return record + 4 + 4L * fieldCount(record) + (i == 0 ? 0 : intAt(record + 4 * i));
+    }
+
+    private long fieldEnd(long record, int i) {
+        return record + 4 + 4L * fieldCount(record) + intAt(record + 4 + 4 * i);
+    }
+
+    private long next(long record) {
+        return fieldEnd(record, fieldCount(record) - 1);
+    }
+
+    private boolean keyEquals(long record, byte[] key, int length) {
+        long start = fieldStart(record, keyColumn);
+        if (fieldEnd(record, keyColumn) - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (byteAt(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String field(long record, int i) {
+        long start = fieldStart(record, i);
+        int length = (int) (fieldEnd(record, i) - start);
+        byte[] bytes = new byte[length];
+        for (int k = 0; k < length; k++) {
+            bytes[k] = byteAt(start + k);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // the file is mapped in segments of 1 GiB, since a single mapping cannot exceed 2 GiB
+
+    private static MappedByteBuffer[] map(Path path, FileChannel.MapMode mode) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int s = 0; s < segments.length; s++) {
+                long start = (long) s << SEGMENT_BITS;
+                segments[s] = channel.map(mode, start, Math.min(SEGMENT_MASK + 1, size - start));
+            }
+            return segments;
+        }
+    }
+
+    private long size() {
+        long size = 0;
+        for (MappedByteBuffer segment : segments) {
+            size += segment.capacity();
+        }
+        return size;
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    private int intAt(long pos) {
+        int offset = (int) (pos & SEGMENT_MASK);
+        if (offset <= SEGMENT_MASK - 3) {
+            return segments[(int) (pos >>> SEGMENT_BITS)].getInt(offset);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | (byteAt(pos + i) & 0xff);
+        }
+        return value;
+    }
+
+    private long longAt(long pos) {
+        int offset = (int) (pos & SEGMENT_MASK);
+        if (offset <= SEGMENT_MASK - 7) {
+            return segments[(int) (pos >>> SEGMENT_BITS)].getLong(offset);
+        }
+        return (long) intAt(pos) << 32 | (intAt(pos + 4) & 0xffffffffL);
+    }
+
+    // the header and table slots are aligned, so they never cross a segment boundary
+
+    private void putInt(long pos, int value) {
+        segments[(int) (pos >>> SEGMENT_BITS)].putInt((int) (pos & SEGMENT_MASK), value);
+    }
+
+    private void putLong(long pos, long value) {
+        segments[(int) (pos >>> SEGMENT_BITS)].putLong((int) (pos & SEGMENT_MASK), value);
+    }
+
+    private static List<String> header(Path csv) throws IOException {
+        try (CsvTokenizer.Records in = records(csv)) {
+            List<String> fields = new ArrayList<>();
+            return in.next(fields) ? fields : Collections.<String>emptyList();
+        }
+    }
+
+    /**
+     * Reads RFC 4180 CSV records: comma-separated fields, optionally quoted with double quotes, in which
+     * quotes are doubled and line breaks are allowed. Blank lines are skipped, and a byte order mark is ignored.
+     */
+    private static CsvTokenizer.Records records(Path csv) throws IOException {
+        return new CsvTokenizer(',').records(new InputStreamReader(Files.newInputStream(csv), StandardCharsets.UTF_8));
+    }
+}
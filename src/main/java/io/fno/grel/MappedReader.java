@@ -0,0 +1,92 @@
+package io.fno.grel;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 file by decoding it straight from memory-mapped windows, without copying it through a stream buffer
+ * first. Windows are mapped one after the other, so files of any size can be read. Malformed input is replaced with
+ * U+FFFD, as {@link java.io.InputStreamReader} does.
+ */
+final class MappedReader extends Reader {
+
+    private static final long WINDOW = 1L << 26;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // chars decoded but not returned yet, when reading one char at a time
+    private final CharBuffer spill = (CharBuffer) CharBuffer.allocate(2).flip();
+    private ByteBuffer window;
+    private long windowStart;
+    private boolean flushed;
+
+    MappedReader(Path file) throws IOException {
+        this(file, WINDOW);
+    }
+
+    MappedReader(Path file, long windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        // a window must hold the longest character, or a character split across windows would never be decoded
+        this.windowSize = Math.max(4, windowSize);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (spill.hasRemaining()) {
+            cbuf[off] = spill.get();
+            return 1;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !flushed) {
+            long next = window == null ? 0 : windowStart + window.position();
+            if (window == null || window.remaining() < 4 && windowStart + window.limit() < size) {
+                // maps the next window from the first byte not decoded yet, which may start a split character
+                window = channel.map(FileChannel.MapMode.READ_ONLY, next, Math.min(windowSize, size - next));
+                windowStart = next;
+            }
+            boolean last = windowStart + window.limit() == size;
+            // one char cannot take a surrogate pair, so a single char is decoded through spill, which keeps the rest
+            CharBuffer target = len < 2 ? spill : out;
+            if (target == spill) {
+                spill.clear();
+            }
+            CoderResult result = decoder.decode(window, target, last);
+            if (last && !window.hasRemaining()) {
+                decoder.flush(target);
+                flushed = true;
+            }
+            if (target == spill) {
+                spill.flip();
+                if (spill.hasRemaining()) {
+                    out.put(spill.get());
+                }
+            }
+            if (result.isOverflow()) {
+                break;
+            }
+        }
+        return out.position() == off ? -1 : out.position() - off;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -4,6 +4,12 @@ package io.fno.grel;
  * NOTE: brought over from commit f598c20470abdc7b30b444a1f3a382ab310c551d,
  *       has not been tested
  */
+
+/**
+ * GREL math functions.
+ * <p>
+ * Thread safety: all functions are stateless and safe to call concurrently.
+ */
 public class MathFunctions {
     public static Double floor(Double d) {
         return Math.floor(d);
@@ -0,0 +1,100 @@
+package io.fno.grel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Membership test compiled from an array, behind {@link ArrayFunctions#inArray(List, Object)}.
+ * <p>
+ * Small arrays are scanned, which is faster than hashing for a handful of elements;
+ * larger ones are put in a hash set. Very large arrays also get a Bloom filter, which rejects most values
+ * that are not in the array without touching the (much larger, and likely not cached) hash set.
+ */
+final class Membership {
+
+    private static final int MAX_SCANNED = 8;
+    private static final int MIN_FILTERED = 1 << 12;
+
+    private static final CompiledCache<List<?>, Membership> CACHE =
+            new CompiledCache<>(64, l -> Collections.unmodifiableList(new ArrayList<>(l)));
+
+    private final Object[] scanned;
+    private final Set<Object> set;
+    private final long[] filter;
+    private final int filterMask;
+
+    private Membership(List<?> values) {
+        if (values.size() <= MAX_SCANNED) {
+            scanned = values.toArray();
+            set = null;
+            filter = null;
+            filterMask = 0;
+            return;
+        }
+        scanned = null;
+        set = new HashSet<>(values);
+        if (set.size() < MIN_FILTERED) {
+            filter = null;
+            filterMask = 0;
+            return;
+        }
+        // about 16 bits per value and 3 probes: around 0.5% false positives
+        int bits = Integer.highestOneBit(set.size() * 16 - 1) << 1;
+        filter = new long[bits >>> 6];
+        filterMask = bits - 1;
+        for (Object value : set) {
+            int h = hash(value);
+            for (int k = 0; k < 3; k++) {
+                int bit = h & filterMask;
+                filter[bit >>> 6] |= 1L << bit;
+                h = Integer.rotateLeft(h, 11) * 0x9E3779B1;
+            }
+        }
+    }
+
+    /**
+     * Returns the membership test for `values`, compiled once per distinct array.
+     */
+    static Membership of(List<?> values) {
+        return CACHE.get(values, Membership::new);
+    }
+
+    /**
+     * Same as {@link #of(List)}, for an array; passing the same array again costs no hashing of its elements.
+     */
+    static Membership of(Object[] values) {
+        return CACHE.get(values, Arrays.asList(values), Membership::new);
+    }
+
+    boolean contains(Object value) {
+        if (scanned != null) {
+            for (Object candidate : scanned) {
+                if (Objects.equals(candidate, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (filter != null) {
+            int h = hash(value);
+            for (int k = 0; k < 3; k++) {
+                int bit = h & filterMask;
+                if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+                h = Integer.rotateLeft(h, 11) * 0x9E3779B1;
+            }
+        }
+        return set.contains(value);
+    }
+
+    private static int hash(Object value) {
+        int h = Objects.hashCode(value) * 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,335 @@
+package io.fno.grel;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Number to string conversion for {@link StringFunctions#toString(Object)} and
+ * {@link StringFunctions#toString(Object, String)}, appending to a caller's {@link StringBuilder} so that a buffer can
+ * be reused from one value to the next.
+ * <p>
+ * Doubles are written with the fewest digits that read back as the same double (see {@link #append(StringBuilder,
+ * double)}). Formats are compiled once and cached:
+ * <ul>
+ * <li>{@link java.util.Formatter} formats such as {@code %.2f} or {@code %08d} are passed to
+ * {@link String#format(Locale, String, Object...)};</li>
+ * <li>{@link DecimalFormat} patterns made of {@code #}, {@code 0}, {@code ,} and {@code .}, such as {@code #,##0.00},
+ * are applied by a compiled formatter that gives the same result as {@link DecimalFormat}, rounding half-even, but
+ * rounds the shortest digits of the number, and only needs exact arithmetic when those look halfway;</li>
+ * <li>any other {@link DecimalFormat} pattern goes to a {@link DecimalFormat} made once per thread.</li>
+ * </ul>
+ * Formats do not depend on the default locale: they always use {@code .} as the decimal separator and {@code ,} for
+ * grouping.
+ * <p>
+ * Thread safety: all methods are safe to call concurrently.
+ */
+public final class NumberFormats {
+
+    private static final DecimalFormatSymbols SYMBOLS = DecimalFormatSymbols.getInstance(Locale.ROOT);
+
+    private static final Pattern PRINTF = Pattern.compile("%[-#+ 0,(<]*\\d*(\\.\\d+)?[a-zA-Z]");
+
+    private static final Map<String, Format> FORMATS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    private NumberFormats() {
+    }
+
+    private static final class Buffer {
+        final char[] chars = new char[32];
+        final Ryu.Decimal decimal = new Ryu.Decimal();
+        StringBuilder builder = new StringBuilder();
+
+        StringBuilder builder() {
+            if (builder.capacity() > 1024) {
+                builder = new StringBuilder();
+            }
+            builder.setLength(0);
+            return builder;
+        }
+    }
+
+    /**
+     * Returns the shortest string that reads back as `d`, as {@link #append(StringBuilder, double)} writes it.
+     *
+     * @param d number
+     * @return string
+     */
+    public static String toString(double d) {
+        Buffer buffer = BUFFER.get();
+        return new String(buffer.chars, 0, Ryu.write(d, buffer.decimal, buffer.chars, 0));
+    }
+
+    /**
+     * Appends `d` to `sb` in the layout of {@link Double#toString(double)}, with the fewest digits that read back as
+     * `d` and, of those, the closest to `d`. These are the digits {@link Double#toString(double)} gives since Java 19;
+     * older versions sometimes give more, such as {@code 9.999999999999999E22} for {@code 1.0E23}.
+     *
+     * @param sb buffer to append to
+     * @param d  number
+     * @return `sb`
+     */
+    public static StringBuilder append(StringBuilder sb, double d) {
+        Buffer buffer = BUFFER.get();
+        return sb.append(buffer.chars, 0, Ryu.write(d, buffer.decimal, buffer.chars, 0));
+    }
+
+    /**
+     * Formats `n` with `format`.
+     *
+     * @param n      number
+     * @param format {@link java.util.Formatter} format or {@link DecimalFormat} pattern
+     * @return formatted number
+     * @throws IllegalArgumentException when `format` is invalid, or does not apply to `n`
+     */
+    public static String format(Number n, String format) {
+        return format(BUFFER.get().builder(), n, format).toString();
+    }
+
+    /**
+     * Appends `n`, formatted with `format`, to `sb`.
+     *
+     * @param sb     buffer to append to
+     * @param n      number
+     * @param format {@link java.util.Formatter} format or {@link DecimalFormat} pattern
+     * @return `sb`
+     * @throws IllegalArgumentException when `format` is invalid, or does not apply to `n`
+     */
+    public static StringBuilder format(StringBuilder sb, Number n, String format) {
+        compile(format).format(sb, n);
+        return sb;
+    }
+
+    private static Format compile(String format) {
+        Format compiled = FORMATS.get(format);
+        if (compiled == null) {
+            if (PRINTF.matcher(format).find()) {
+                compiled = new PrintfFormat(format);
+            } else {
+                compiled = DecimalPattern.compile(format);
+                if (compiled == null) {
+                    compiled = new FallbackFormat(format);
+                }
+            }
+            if (FORMATS.size() < 256) {
+                FORMATS.put(format, compiled);
+            }
+        }
+        return compiled;
+    }
+
+    private interface Format {
+        void format(StringBuilder sb, Number n);
+    }
+
+    private static final class PrintfFormat implements Format {
+        private final String format;
+
+        PrintfFormat(String format) {
+            this.format = format;
+        }
+
+        @Override
+        public void format(StringBuilder sb, Number n) {
+            sb.append(String.format(Locale.ROOT, format, n));
+        }
+    }
+
+    private static final class FallbackFormat implements Format {
+        private final ThreadLocal<DecimalFormat> formats;
+
+        FallbackFormat(String pattern) {
+            // fails here, before it is cached, when the pattern is invalid
+            DecimalFormat prototype = new DecimalFormat(pattern, SYMBOLS);
+            this.formats = ThreadLocal.withInitial(() -> (DecimalFormat) prototype.clone());
+        }
+
+        @Override
+        public void format(StringBuilder sb, Number n) {
+            sb.append(formats.get().format(n));
+        }
+    }
+
+    /**
+     * A {@link DecimalFormat} pattern of the form {@code [#,]*[0,]*(.0*#*)?}.
+     */
+    private static final class DecimalPattern implements Format {
+        private final int minInt;
+        private final int grouping;
+        private final int minFrac;
+        private final int maxFrac;
+        private final boolean fastPath;
+        private final FallbackFormat fallback;
+
+        private DecimalPattern(String pattern, int zeros, int grouping, int minFrac, int maxFrac) {
+            // DecimalFormat shows a zero before the point even for "#.##"
+            this.minInt = Math.max(1, zeros);
+            this.grouping = grouping;
+            this.minFrac = minFrac;
+            this.maxFrac = maxFrac;
+            // the patterns DecimalFormat formats doubles with its own fast path, such as "#,##0.###"
+            this.fastPath = grouping == 3 && zeros <= 1
+                    && (minFrac == 0 && maxFrac == 3 || minFrac == 2 && maxFrac == 2);
+            // for Long.MIN_VALUE and numbers that are neither integers nor doubles
+            this.fallback = new FallbackFormat(pattern);
+        }
+
+        /**
+         * @return the compiled pattern, or null when it is not of the supported form
+         */
+        static DecimalPattern compile(String pattern) {
+            int i = 0;
+            int zeros = 0;
+            int digits = 0;
+            int lastComma = -1;
+            for (; i < pattern.length() && pattern.charAt(i) != '.'; i++) {
+                char c = pattern.charAt(i);
+                if (c == '#' && zeros == 0) {
+                    digits++;
+                } else if (c == '0') {
+                    digits++;
+                    zeros++;
+                } else if (c == ',') {
+                    lastComma = i;
+                } else {
+                    return null;
+                }
+            }
+            int grouping = lastComma < 0 ? 0 : i - lastComma - 1;
+            if (digits == 0 || lastComma >= 0 && grouping == 0) {
+                return null;
+            }
+            int minFrac = 0;
+            int maxFrac = 0;
+            if (i < pattern.length()) {
+                for (i++; i < pattern.length(); i++) {
+                    char c = pattern.charAt(i);
+                    if (c == '0' && maxFrac == minFrac) {
+                        minFrac++;
+                    } else if (c != '#') {
+                        return null;
+                    }
+                    maxFrac++;
+                }
+                if (maxFrac == 0) {
+                    // "0." always shows the point
+                    return null;
+                }
+            }
+            return new DecimalPattern(pattern, zeros, grouping, minFrac, maxFrac);
+        }
+
+        @Override
+        public void format(StringBuilder sb, Number n) {
+            if (n instanceof Double || n instanceof Float) {
+                format(sb, n.doubleValue());
+            } else if ((n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte)
+                    && n.longValue() != Long.MIN_VALUE) {
+                long value = n.longValue();
+                write(sb, value < 0, Math.abs(value), 0, BUFFER.get().chars);
+            } else {
+                fallback.format(sb, n);
+            }
+        }
+
+        private void format(StringBuilder sb, double d) {
+            if (Double.isNaN(d)) {
+                sb.append(SYMBOLS.getNaN());
+                return;
+            }
+            boolean negative = Double.doubleToRawLongBits(d) < 0;
+            if (Double.isInfinite(d)) {
+                sb.append(negative ? "-" : "").append(SYMBOLS.getInfinity());
+                return;
+            }
+            Buffer buffer = BUFFER.get();
+            double abs = Math.abs(d);
+            long digits = 0;
+            int exponent = 0;
+            if (abs != 0) {
+                Ryu.shortest(abs, buffer.decimal);
+                digits = buffer.decimal.digits;
+                exponent = buffer.decimal.exponent;
+            }
+            int drop = -exponent - maxFrac;
+            if (drop > 0) {
+                if (drop >= Ryu.POW10.length - 1) {
+                    // more than 17 digits past the last one kept: less than half a unit
+                    digits = 0;
+                } else {
+                    long unit = Ryu.POW10[drop];
+                    long kept = digits / unit;
+                    long rest = digits % unit;
+                    long half = unit / 2;
+                    if (rest > half || rest == half && halfwayRoundsUp(abs, kept, exponent + drop)) {
+                        kept++;
+                    }
+                    digits = kept;
+                }
+                exponent += drop;
+            }
+            write(sb, negative, digits, exponent, buffer.chars);
+        }
+
+        /**
+         * The shortest digits are exactly halfway between `kept` and `kept + 1` units of 10^`exponent`, but the
+         * double itself may not be, so it is compared with the halfway point, as {@link DecimalFormat} does. The
+         * exception is a lone 5 below {@code 0.001}, such as {@code 0.0005} with {@code 0.###}: outside its fast path,
+         * {@link DecimalFormat} always rounds that down to zero.
+         */
+        private boolean halfwayRoundsUp(double abs, long kept, int exponent) {
+            if (kept == 0 && exponent <= -3 && !fastPath) {
+                return false;
+            }
+            int cmp = new BigDecimal(abs).compareTo(BigDecimal.valueOf(kept * 10 + 5, 1 - exponent));
+            return cmp > 0 || cmp == 0 && (kept & 1) == 1;
+        }
+
+        /**
+         * Appends `digits` × 10^`exponent`, where `exponent` >= -`maxFrac`.
+         */
+        private void write(StringBuilder sb, boolean negative, long digits, int exponent, char[] chars) {
+            if (digits == 0) {
+                exponent = 0;
+            }
+            while (exponent < 0 && -exponent > minFrac && digits % 10 == 0) {
+                digits /= 10;
+                exponent++;
+            }
+            int length = digits == 0 ? 0 : Ryu.length(digits);
+            Ryu.writeDigits(digits, length, chars, 0);
+            int fracDigits = Math.max(0, -exponent);
+            int intDigits = exponent >= 0 ? (length == 0 ? 0 : length + exponent) : Math.max(0, length + exponent);
+            // zeros between the point and the digits, as in 0.05
+            int leadingZeros = Math.max(0, fracDigits - length);
+
+            if (negative) {
+                sb.append('-');
+            }
+            int intLength = Math.max(intDigits, minInt);
+            for (int i = 0; i < intLength; i++) {
+                if (grouping > 0 && i > 0 && (intLength - i) % grouping == 0) {
+                    sb.append(',');
+                }
+                int digit = i - (intLength - intDigits);
+                sb.append(digit < 0 || digit >= length ? '0' : chars[digit]);
+            }
+            int fracLength = Math.max(fracDigits, minFrac);
+            if (fracLength > 0) {
+                sb.append('.');
+                for (int i = 0; i < fracDigits; i++) {
+                    sb.append(i < leadingZeros ? '0' : chars[intDigits + i - leadingZeros]);
+                }
+                for (int i = fracDigits; i < fracLength; i++) {
+                    sb.append('0');
+                }
+            }
+        }
+    }
+}
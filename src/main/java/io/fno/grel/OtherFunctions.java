@@ -1,12 +1,27 @@
 package io.fno.grel;
 
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Field;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /*
  * NOTE: brought over from commit 91a2defcdbc1f5fffffe95ce3e1e823fce91a7e7,
  *       has not been tested
  */
+
+/**
+ * Other GREL functions.
+ * <p>
+ * Thread safety: all functions are safe to call concurrently; the lookup indexes behind {@link #cross} and
+ * {@link #lookup} are immutable once built.
+ */
 public class OtherFunctions {
 
     // https://docs.openrefine.org/manual/grelfunctions#typeo
@@ -34,4 +49,73 @@ public class OtherFunctions {
         }
         return null;
     }
+
+    /**
+     * Same as {@link #coalesce(Object...)}, but the alternatives are evaluated in order, and only until one is not null.
+     *
+     * @param objects alternatives
+     * @return the first alternative that is not null, or null
+     */
+    public static Object coalesceLazy(Supplier<?>... objects) {
+        for (Supplier<?> object : objects) {
+            Object value = object.get();
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#crosscell-s-projectname-s-columnname
+     * Returns the rows of the CSV file `file` whose `keyColumn` equals `value`, as maps from column name to value.
+     * Instead of another project, the lookup table is a CSV file with a header row; it is indexed once,
+     * see {@link LookupIndex}.
+     *
+     * @param value     value to look up
+     * @param file      path of the CSV file
+     * @param keyColumn name of the column to look `value` up in
+     * @return matching rows, in file order
+     */
+    public static List<Map<String, String>> cross(Object value, String file, String keyColumn) {
+        List<Map<String, String>> rows = new ArrayList<>();
+        if (value == null) {
+            return rows;
+        }
+        LookupIndex index = lookupIndex(file, keyColumn);
+        List<String> columns = index.columns();
+        for (String[] fields : index.rows(value.toString())) {
+            Map<String, String> row = new LinkedHashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                row.put(columns.get(i), i < fields.length ? fields[i] : null);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the `valueColumn` of the first row of the CSV file `file` whose `keyColumn` equals `value`.
+     * Only that one value is read from the index, see {@link LookupIndex}.
+     *
+     * @param value       value to look up
+     * @param file        path of the CSV file
+     * @param keyColumn   name of the column to look `value` up in
+     * @param valueColumn name of the column to return
+     * @return the value, or null when no row matches
+     */
+    public static String lookup(Object value, String file, String keyColumn, String valueColumn) {
+        if (value == null) {
+            return null;
+        }
+        return lookupIndex(file, keyColumn).get(value.toString(), valueColumn);
+    }
+
+    private static LookupIndex lookupIndex(String file, String keyColumn) {
+        try {
+            return LookupIndex.forFile(Paths.get(file), keyColumn);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
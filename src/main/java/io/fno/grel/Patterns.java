@@ -0,0 +1,85 @@
+package io.fno.grel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Shared cache of compiled separator and search patterns, so functions that are called with the same
+ * pattern for every record only compile it once.
+ */
+final class Patterns {
+
+    private static final int MAX_SIZE = 512;
+
+    private static final String METACHARS = ".$|()[{^?*+\\";
+
+    private static final Map<String, Pattern> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Cached {@link LinearRegex}es, or {@link #UNSUPPORTED} for patterns it cannot compile.
+     */
+    private static final Map<String, Object> LINEAR_CACHE = new ConcurrentHashMap<>();
+
+    private static final Object UNSUPPORTED = new Object();
+
+    private Patterns() {
+    }
+
+    /**
+     * Returns the compiled form of `regex`, compiling it only if it is not cached yet.
+     */
+    static Pattern compile(String regex) {
+        Pattern pattern = CACHE.get(regex);
+        if (pattern == null) {
+            if (CACHE.size() >= MAX_SIZE) {
+                CACHE.clear();
+            }
+            pattern = Pattern.compile(regex);
+            CACHE.put(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Returns `regex` compiled by {@link LinearRegex}, compiling it only if it is not cached yet,
+     * or null when it uses features that {@code LinearRegex} does not support.
+     */
+    static LinearRegex linear(String regex) {
+        Object compiled = LINEAR_CACHE.get(regex);
+        if (compiled == null) {
+            if (LINEAR_CACHE.size() >= MAX_SIZE) {
+                LINEAR_CACHE.clear();
+            }
+            LinearRegex linear = LinearRegex.compile(regex);
+            compiled = linear == null ? UNSUPPORTED : linear;
+            LINEAR_CACHE.put(regex, compiled);
+        }
+        return compiled == UNSUPPORTED ? null : (LinearRegex) compiled;
+    }
+
+    /**
+     * If `regex` only matches one fixed, non-empty string, returns that string; otherwise returns null.
+     * Recognizes the same cases as the fast path of {@link String#split(String)}: strings without
+     * metacharacters, and a single escaped non-alphanumeric character.
+     */
+    static String literal(String regex) {
+        int n = regex.length();
+        if (n == 0) {
+            return null;
+        }
+        if (n == 2 && regex.charAt(0) == '\\') {
+            char c = regex.charAt(1);
+            if (c < 128 && !Character.isLetterOrDigit(c)) {
+                return String.valueOf(c);
+            }
+            return null;
+        }
+        for (int i = 0; i < n; i++) {
+            if (METACHARS.indexOf(regex.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return regex;
+    }
+}
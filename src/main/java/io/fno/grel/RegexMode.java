@@ -0,0 +1,34 @@
+package io.fno.grel;
+
+import java.util.Locale;
+
+/**
+ * How {@link StringFunctions#replace}, {@link StringFunctions#match}, {@link StringFunctions#split} and
+ * {@link StringFunctions#smartSplit} run regular expressions; see {@link StringFunctions#setRegexMode(RegexMode)}.
+ */
+public enum RegexMode {
+
+    /**
+     * With {@code java.util.regex}, which supports all of its syntax but backtracks: some patterns take exponential
+     * time on some inputs.
+     */
+    JAVA,
+
+    /**
+     * With an engine that takes time linear in the length of the input for any pattern, and gives the same results,
+     * except that the values of groups nested in repeated groups, such as the inner group of {@code ((a))+}, can
+     * differ. Patterns using features it does not support, such as backreferences and lookaround, run with
+     * {@code java.util.regex} instead, which is stopped when it exceeds the step budget
+     * ({@link StringFunctions#setRegexStepBudget(long)}).
+     */
+    LINEAR;
+
+    /**
+     * @param name `java` or `linear`, in any case
+     * @return the mode with that name
+     * @throws IllegalArgumentException for other names
+     */
+    public static RegexMode of(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,217 @@
+package io.fno.grel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+
+/**
+ * The regular expression operations behind `replace`, `match`, `split` and `smartSplit`, in each {@link RegexMode}.
+ * All modes give the same results as {@link String#replaceAll}, {@link Matcher#find()} and {@link String#split};
+ * only how long they may take differs.
+ */
+final class Regexes {
+
+    private Regexes() {
+    }
+
+    /**
+     * Same as `s.replaceAll(regex, replacement)`.
+     */
+    static String replace(String s, String regex, String replacement, RegexMode mode, long budget) {
+        if (mode == RegexMode.JAVA) {
+            return s.replaceAll(regex, replacement);
+        }
+        LinearRegex linear = Patterns.linear(regex);
+        if (linear == null) {
+            return Patterns.compile(regex).matcher(new Budgeted(s, regex, budget)).replaceAll(replacement);
+        }
+        LinearRegex.Search search = linear.search(s, true);
+        if (!search.find()) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        int last = 0;
+        do {
+            sb.append(s, last, search.start());
+            appendReplacement(sb, s, replacement, linear, search);
+            last = search.end();
+        } while (search.find());
+        return sb.append(s, last, s.length()).toString();
+    }
+
+    /**
+     * Appends `replacement` with its group references replaced, the same way as
+     * {@link Matcher#appendReplacement(StringBuffer, String)}.
+     */
+    private static void appendReplacement(StringBuilder sb, String s, String replacement, LinearRegex regex,
+                                          MatchResult m) {
+        int n = replacement.length();
+        for (int cursor = 0; cursor < n; ) {
+            char c = replacement.charAt(cursor++);
+            if (c == '\\') {
+                if (cursor == n) {
+                    throw new IllegalArgumentException("character to be escaped is missing");
+                }
+                sb.append(replacement.charAt(cursor++));
+                continue;
+            }
+            if (c != '$') {
+                sb.append(c);
+                continue;
+            }
+            if (cursor == n) {
+                throw new IllegalArgumentException("Illegal group reference: group index is missing");
+            }
+            int group;
+            if (replacement.charAt(cursor) == '{') {
+                int start = ++cursor;
+                while (cursor < n && isNameChar(replacement.charAt(cursor))) {
+                    cursor++;
+                }
+                if (cursor == start) {
+                    throw new IllegalArgumentException("named capturing group has 0 length name");
+                }
+                if (cursor == n || replacement.charAt(cursor) != '}') {
+                    throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+                }
+                String name = replacement.substring(start, cursor++);
+                group = regex.group(name);
+                if (group < 0) {
+                    throw new IllegalArgumentException("No group with name {" + name + "}");
+                }
+            } else {
+                group = replacement.charAt(cursor) - '0';
+                if (group < 0 || group > 9) {
+                    throw new IllegalArgumentException("Illegal group reference");
+                }
+                cursor++;
+                // takes as many digits as still make a group number that exists
+                while (cursor < n) {
+                    int digit = replacement.charAt(cursor) - '0';
+                    if (digit < 0 || digit > 9 || group * 10 + digit > regex.groupCount()) {
+                        break;
+                    }
+                    group = group * 10 + digit;
+                    cursor++;
+                }
+                if (group > regex.groupCount()) {
+                    throw new IndexOutOfBoundsException("No group " + group);
+                }
+            }
+            if (m.start(group) >= 0) {
+                sb.append(s, m.start(group), m.end(group));
+            }
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * @return all matches of `regex` in `s`, in order
+     */
+    static String[] match(String s, String regex, RegexMode mode, long budget) {
+        if (mode == RegexMode.JAVA) {
+            Matcher m = Patterns.compile(regex).matcher(s);
+            return match(m, m::find);
+        }
+        LinearRegex linear = Patterns.linear(regex);
+        if (linear == null) {
+            Matcher m = Patterns.compile(regex).matcher(new Budgeted(s, regex, budget));
+            return match(m, m::find);
+        }
+        LinearRegex.Search search = linear.search(s, false);
+        return match(search, search::find);
+    }
+
+    private static String[] match(MatchResult m, BooleanSupplier find) {
+        List<String> matches = new ArrayList<>();
+        while (find.getAsBoolean()) {
+            matches.add(m.group());
+        }
+        return matches.toArray(new String[0]);
+    }
+
+    /**
+     * Same as `s.split(regex)`.
+     */
+    static String[] split(String s, String regex, RegexMode mode, long budget) {
+        if (mode == RegexMode.JAVA || Patterns.literal(regex) != null) {
+            // String.split does not use a regex for literal separators
+            return s.split(regex);
+        }
+        LinearRegex linear = Patterns.linear(regex);
+        if (linear == null) {
+            Matcher m = Patterns.compile(regex).matcher(new Budgeted(s, regex, budget));
+            return split(s, m, m::find);
+        }
+        LinearRegex.Search search = linear.search(s, false);
+        return split(s, search, search::find);
+    }
+
+    private static String[] split(String s, MatchResult m, BooleanSupplier find) {
+        List<String> parts = new ArrayList<>();
+        int index = 0;
+        while (find.getAsBoolean()) {
+            // like String.split, a zero-width match at the beginning never produces an empty leading part
+            if (m.end() == 0) {
+                continue;
+            }
+            parts.add(s.substring(index, m.start()));
+            index = m.end();
+        }
+        if (index == 0) {
+            return new String[]{s};
+        }
+        parts.add(s.substring(index));
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return parts.subList(0, size).toArray(new String[0]);
+    }
+
+    /**
+     * The input of a {@code java.util.regex} matcher, which stops the matcher by throwing once it has read more than
+     * `budget` characters: reading a character is the one step all of its backtracking goes through.
+     */
+    private static final class Budgeted implements CharSequence {
+        private final String s;
+        private final String regex;
+        private final long budget;
+        private long steps;
+
+        Budgeted(String s, String regex, long budget) {
+            this.s = s;
+            this.regex = regex;
+            this.budget = budget;
+        }
+
+        @Override
+        public int length() {
+            return s.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++steps > budget) {
+                throw new IllegalArgumentException("The regular expression " + regex
+                        + " exceeded the step budget of " + budget + " steps on an input of length " + s.length());
+            }
+            return s.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return s.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return s;
+        }
+    }
+}
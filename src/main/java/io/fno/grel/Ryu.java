@@ -0,0 +1,369 @@
+package io.fno.grel;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Shortest decimal representation of doubles, with Ulf Adams' Ryū algorithm: the fewest significant digits that
+ * read back as the same double, and of those the closest to it, computed with 64-bit integer arithmetic only.
+ * <p>
+ * The digits are those of {@link Double#toString(double)} as specified since Java 19, which also asks, when a single
+ * digit suffices, for the closest of the one- and two-digit decimals (so {@link Double#MIN_VALUE} is 4.9E-324, not
+ * 5E-324). Older Java versions sometimes print more digits than needed, such as 9.999999999999999E22 for 1.0E23.
+ */
+final class Ryu {
+
+    private static final int POW5_BITCOUNT = 125;
+    private static final int POW5_INV_BITCOUNT = 125;
+    private static final int POW5_TABLE_SIZE = 326;
+    private static final int POW5_INV_TABLE_SIZE = 342;
+
+    // 125-bit approximations of 5^i and 2^k / 5^i, as pairs of high and low 64 bits
+    private static final long[] POW5_SPLIT = new long[2 * POW5_TABLE_SIZE];
+    private static final long[] POW5_INV_SPLIT = new long[2 * POW5_INV_TABLE_SIZE];
+
+    static final long[] POW10 = new long[19];
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int i = 0; i < POW5_INV_TABLE_SIZE; i++) {
+            BigInteger pow = BigInteger.valueOf(5).pow(i);
+            int length = pow.bitLength();
+            if (i < POW5_TABLE_SIZE) {
+                int shift = length - POW5_BITCOUNT;
+                BigInteger split = shift >= 0 ? pow.shiftRight(shift) : pow.shiftLeft(-shift);
+                POW5_SPLIT[2 * i] = split.shiftRight(64).longValue();
+                POW5_SPLIT[2 * i + 1] = split.and(mask).longValue();
+            }
+            BigInteger inverse = BigInteger.ONE.shiftLeft(length - 1 + POW5_INV_BITCOUNT).divide(pow)
+                    .add(BigInteger.ONE);
+            POW5_INV_SPLIT[2 * i] = inverse.shiftRight(64).longValue();
+            POW5_INV_SPLIT[2 * i + 1] = inverse.and(mask).longValue();
+        }
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private Ryu() {
+    }
+
+    /**
+     * A decimal `digits` × 10^`exponent`, with no trailing zeros in `digits`.
+     */
+    static final class Decimal {
+        long digits;
+        int exponent;
+    }
+
+    /**
+     * Sets `out` to the shortest decimal that reads back as `value`.
+     *
+     * @param value finite, positive double
+     * @param out   decimal to set
+     */
+    static void shortest(double value, Decimal out) {
+        long bits = Double.doubleToRawLongBits(value);
+        long ieeeMantissa = bits & ((1L << 52) - 1);
+        int ieeeExponent = (int) (bits >>> 52) & 0x7ff;
+
+        int e2;
+        long m2;
+        if (ieeeExponent == 0) {
+            e2 = 1 - 1023 - 52 - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - 1023 - 52 - 2;
+            m2 = ieeeMantissa | (1L << 52);
+        }
+        // the interval of decimals that read back as value is inclusive when the mantissa is even
+        boolean even = (m2 & 1) == 0;
+
+        // value, and the halfway points to its neighbours, times 4 so that they are integers
+        long mv = 4 * m2;
+        int mmShift = ieeeMantissa != 0 || ieeeExponent <= 1 ? 1 : 0;
+        long mp = mv + 2;
+        long mm = mv - 1 - mmShift;
+
+        long vr;
+        long vp;
+        long vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        if (e2 >= 0) {
+            int q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            vr = mulShift(mv, POW5_INV_SPLIT, q, i);
+            vp = mulShift(mp, POW5_INV_SPLIT, q, i);
+            vm = mulShift(mm, POW5_INV_SPLIT, q, i);
+            if (q <= 21) {
+                // only one of mp, mv and mm can be a multiple of 5, if any
+                if (mv % 5 == 0) {
+                    vrIsTrailingZeros = multipleOfPowerOf5(mv, q);
+                } else if (even) {
+                    vmIsTrailingZeros = multipleOfPowerOf5(mm, q);
+                } else if (multipleOfPowerOf5(mp, q)) {
+                    vp--;
+                }
+            }
+        } else {
+            int q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+            vr = mulShift(mv, POW5_SPLIT, i, j);
+            vp = mulShift(mp, POW5_SPLIT, i, j);
+            vm = mulShift(mm, POW5_SPLIT, i, j);
+            if (q <= 1) {
+                // mv has at least q trailing zero bits, since it is a multiple of 4
+                vrIsTrailingZeros = true;
+                if (even) {
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    vp--;
+                }
+            } else if (q < 63) {
+                vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+            }
+        }
+
+        // removes digits while the interval still holds a shorter decimal, rounding the last one removed
+        int removed = 0;
+        int lastRemovedDigit = 0;
+        long output;
+        if (vmIsTrailingZeros || vrIsTrailingZeros) {
+            while (vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int) (vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if (vmIsTrailingZeros) {
+                while (vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int) (vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+                // exactly halfway: rounds to even
+                lastRemovedDigit = 4;
+            }
+            output = vr + ((vr == vm && (!even || !vmIsTrailingZeros)) || lastRemovedDigit >= 5 ? 1 : 0);
+        } else {
+            boolean roundUp = false;
+            while (vp / 10 > vm / 10) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + (vr == vm || roundUp ? 1 : 0);
+        }
+        int exponent = e10 + removed;
+        while (output % 10 == 0) {
+            output /= 10;
+            exponent++;
+        }
+
+        if (ieeeExponent == 0 && output < 10) {
+            // only subnormals are so imprecise that a two-digit decimal can be closer than the one-digit one
+            closestOfTwoDigits(value, output, exponent, out);
+            return;
+        }
+        out.digits = output;
+        out.exponent = exponent;
+    }
+
+    /**
+     * Sets `out` to the closest decimal of at most two digits that reads back as `value`, given the one-digit decimal
+     * `digit` × 10^`exponent` that does.
+     */
+    private static void closestOfTwoDigits(double value, long digit, int exponent, Decimal out) {
+        BigDecimal exact = new BigDecimal(value);
+        BigDecimal best = BigDecimal.valueOf(digit, -exponent);
+        BigDecimal bestDistance = best.subtract(exact).abs();
+        // two digits in the decade of value, which may be below that of the one-digit decimal
+        int scale = exact.scale() - exact.precision() + 2;
+        for (RoundingMode mode : new RoundingMode[]{RoundingMode.FLOOR, RoundingMode.CEILING}) {
+            BigDecimal candidate = exact.setScale(scale, mode);
+            if (Double.parseDouble(candidate.toString()) != value) {
+                continue;
+            }
+            int cmp = candidate.subtract(exact).abs().compareTo(bestDistance);
+            if (cmp < 0 || cmp == 0 && !candidate.unscaledValue().testBit(0)) {
+                best = candidate;
+                bestDistance = candidate.subtract(exact).abs();
+            }
+        }
+        best = best.stripTrailingZeros();
+        out.digits = best.unscaledValue().longValue();
+        out.exponent = -best.scale();
+    }
+
+    /**
+     * Writes `value` to `buf` at `pos` in the layout of {@link Double#toString(double)}: plain from 10^-3 up to (but
+     * not including) 10^7, in computerized scientific notation otherwise, with at least one digit after the point.
+     * `buf` needs room for 24 characters.
+     *
+     * @return the position after the last character written
+     */
+    static int write(double value, Decimal scratch, char[] buf, int pos) {
+        if (Double.isNaN(value)) {
+            return copy("NaN", buf, pos);
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            return copy("Infinity", buf, pos);
+        }
+        if (value == 0) {
+            return copy("0.0", buf, pos);
+        }
+        shortest(value, scratch);
+        long digits = scratch.digits;
+        int length = length(digits);
+        // decimal exponent of the first digit
+        int e = scratch.exponent + length - 1;
+        if (e >= -3 && e < 7) {
+            if (e >= 0) {
+                int intDigits = e + 1;
+                if (length <= intDigits) {
+                    writeDigits(digits, length, buf, pos);
+                    pos += length;
+                    for (int i = length; i < intDigits; i++) {
+                        buf[pos++] = '0';
+                    }
+                    buf[pos++] = '.';
+                    buf[pos++] = '0';
+                } else {
+                    writeDigits(digits / POW10[length - intDigits], intDigits, buf, pos);
+                    pos += intDigits;
+                    buf[pos++] = '.';
+                    writeDigits(digits % POW10[length - intDigits], length - intDigits, buf, pos);
+                    pos += length - intDigits;
+                }
+            } else {
+                buf[pos++] = '0';
+                buf[pos++] = '.';
+                for (int i = -1; i > e; i--) {
+                    buf[pos++] = '0';
+                }
+                writeDigits(digits, length, buf, pos);
+                pos += length;
+            }
+            return pos;
+        }
+        writeDigits(digits / POW10[length - 1], 1, buf, pos++);
+        buf[pos++] = '.';
+        if (length == 1) {
+            buf[pos++] = '0';
+        } else {
+            writeDigits(digits % POW10[length - 1], length - 1, buf, pos);
+            pos += length - 1;
+        }
+        buf[pos++] = 'E';
+        if (e < 0) {
+            buf[pos++] = '-';
+            e = -e;
+        }
+        if (e >= 100) {
+            buf[pos++] = (char) ('0' + e / 100);
+            buf[pos++] = (char) ('0' + e / 10 % 10);
+        } else if (e >= 10) {
+            buf[pos++] = (char) ('0' + e / 10);
+        }
+        buf[pos++] = (char) ('0' + e % 10);
+        return pos;
+    }
+
+    /**
+     * Writes the last `count` digits of `value` to `buf` at `pos`, with leading zeros if needed.
+     */
+    static void writeDigits(long value, int count, char[] buf, int pos) {
+        for (int i = pos + count - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * @return number of decimal digits of `value`, which is at least 1
+     */
+    static int length(long value) {
+        int length = 1;
+        while (length < POW10.length && value >= POW10[length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int copy(String s, char[] buf, int pos) {
+        s.getChars(0, s.length(), buf, pos);
+        return pos + s.length();
+    }
+
+    /**
+     * @return (`m` × the 128-bit table entry at `index`) >> `j`, for `m` below 2^55 and 64 <= `j` < 128
+     */
+    private static long mulShift(long m, long[] table, int index, int j) {
+        long high = table[2 * index];
+        long low = table[2 * index + 1];
+        long carry = multiplyHigh(m, low);
+        long sumLow = m * high + carry;
+        long sumHigh = multiplyHigh(m, high) + (Long.compareUnsigned(sumLow, carry) < 0 ? 1 : 0);
+        int shift = j - 64;
+        return shift == 0 ? sumLow : (sumHigh << (64 - shift)) | (sumLow >>> shift);
+    }
+
+    /**
+     * @return the high 64 bits of the unsigned 128-bit product of `a` and `b`
+     */
+    private static long multiplyHigh(long a, long b) {
+        long aLow = a & 0xffffffffL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xffffffffL;
+        long bHigh = b >>> 32;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long cross = (lowLow >>> 32) + (highLow & 0xffffffffL) + lowHigh;
+        return aHigh * bHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    private static int pow5bits(int e) {
+        return ((e * 1217359) >>> 19) + 1;
+    }
+
+    private static int log10Pow2(int e) {
+        return (e * 78913) >>> 18;
+    }
+
+    private static int log10Pow5(int e) {
+        return (e * 732923) >>> 20;
+    }
+
+    private static boolean multipleOfPowerOf5(long value, int p) {
+        int count = 0;
+        while (value % 5 == 0 && count < p) {
+            value /= 5;
+            count++;
+        }
+        return count >= p;
+    }
+}
@@ -0,0 +1,362 @@
+package io.fno.grel;
+
+import java.util.Arrays;
+
+/**
+ * String distance and similarity measures behind {@link StringFunctions#levenshtein(String, String, int)},
+ * {@link StringFunctions#jaroWinkler(String, String)} and {@link StringFunctions#ngramSimilarity(String, String, int)}.
+ * <p>
+ * Every thread reuses its own work arrays, so comparing two strings allocates nothing.
+ */
+final class Similarity {
+
+    private static final int MAX_RETAINED = 1 << 16;
+
+    private static final int FAR = Integer.MAX_VALUE / 2;
+
+    private static final class Work {
+        // pattern bit masks for the bit-parallel algorithm, in an open-addressing table keyed by character
+        final char[] peqKeys = new char[128];
+        final long[] peqMasks = new long[128];
+
+        int[] previous = new int[64];
+        int[] current = new int[64];
+
+        boolean[] matchedA = new boolean[64];
+        boolean[] matchedB = new boolean[64];
+
+        int[] grams = new int[64];
+
+        int[] rows(int size) {
+            if (previous.length < size) {
+                previous = new int[size];
+                current = new int[size];
+            }
+            return previous;
+        }
+
+        void release() {
+            if (previous.length > MAX_RETAINED) {
+                previous = new int[64];
+                current = new int[64];
+            }
+            if (matchedA.length > MAX_RETAINED) {
+                matchedA = new boolean[64];
+                matchedB = new boolean[64];
+            }
+            if (grams.length > MAX_RETAINED) {
+                grams = new int[64];
+            }
+        }
+    }
+
+    private static final ThreadLocal<Work> WORK = ThreadLocal.withInitial(Work::new);
+
+    private Similarity() {
+    }
+
+    /**
+     * Levenshtein distance between `a` and `b`, or -1 when it is larger than `max`.
+     */
+    static int levenshtein(CharSequence a, CharSequence b, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("max must not be negative: " + max);
+        }
+        // the common prefix and suffix do not change the distance
+        int start = 0;
+        int endA = a.length();
+        int endB = b.length();
+        while (start < endA && start < endB && a.charAt(start) == b.charAt(start)) {
+            start++;
+        }
+        while (endA > start && endB > start && a.charAt(endA - 1) == b.charAt(endB - 1)) {
+            endA--;
+            endB--;
+        }
+        int lengthA = endA - start;
+        int lengthB = endB - start;
+        if (Math.abs(lengthA - lengthB) > max) {
+            return -1;
+        }
+        if (lengthA == 0 || lengthB == 0) {
+            return Math.max(lengthA, lengthB);
+        }
+        max = Math.min(max, Math.max(lengthA, lengthB));
+        Work work = WORK.get();
+        try {
+            if (lengthA <= 64 && lengthA <= lengthB) {
+                return myers(work, a, start, endA, b, start, endB, max);
+            }
+            if (lengthB <= 64) {
+                return myers(work, b, start, endB, a, start, endA, max);
+            }
+            return banded(work, a, start, endA, b, start, endB, max);
+        } finally {
+            work.release();
+        }
+    }
+
+    /**
+     * Bit-parallel edit distance (Myers, in Hyyrö's formulation for global distance),
+     * for a pattern of at most 64 characters: each column of the dynamic programming matrix is computed
+     * with a handful of operations on one {@code long}.
+     */
+    private static int myers(Work work, CharSequence pattern, int pFrom, int pTo,
+                             CharSequence text, int tFrom, int tTo, int max) {
+        char[] keys = work.peqKeys;
+        long[] masks = work.peqMasks;
+        int m = pTo - pFrom;
+        for (int i = 0; i < m; i++) {
+            char c = pattern.charAt(pFrom + i);
+            masks[slot(keys, masks, c)] |= 1L << i;
+        }
+        try {
+            long last = 1L << (m - 1);
+            long pv = -1L;
+            long mv = 0L;
+            int score = m;
+            for (int j = tFrom; j < tTo; j++) {
+                char c = text.charAt(j);
+                long eq = masks[slot(keys, masks, c)];
+                long xv = eq | mv;
+                long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+                if ((ph & last) != 0) {
+                    score++;
+                } else if ((mh & last) != 0) {
+                    score--;
+                }
+                // the score can drop by at most one per remaining column
+                if (score - (tTo - j - 1) > max) {
+                    return -1;
+                }
+                ph = (ph << 1) | 1L;
+                mh <<= 1;
+                pv = mh | ~(xv | ph);
+                mv = ph & xv;
+            }
+            return score <= max ? score : -1;
+        } finally {
+            Arrays.fill(masks, 0L);
+        }
+    }
+
+    private static int slot(char[] keys, long[] masks, char c) {
+        int i = (c * 0x9E3779B1) >>> 25;
+        while (masks[i] != 0L && keys[i] != c) {
+            i = (i + 1) & 127;
+        }
+        keys[i] = c;
+        return i;
+    }
+
+    /**
+     * Two-row dynamic programming, restricted to the diagonal band of cells that can stay within `max`.
+     */
+    private static int banded(Work work, CharSequence a, int aFrom, int aTo,
+                              CharSequence b, int bFrom, int bTo, int max) {
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        work.rows(n + 2);
+        int[] previous = work.previous;
+        int[] current = work.current;
+        int boundary = Math.min(n, max) + 1;
+        for (int i = 0; i < boundary; i++) {
+            previous[i] = i;
+        }
+        Arrays.fill(previous, boundary, n + 2, FAR);
+        Arrays.fill(current, 0, n + 2, FAR);
+        for (int j = 1; j <= m; j++) {
+            char c = b.charAt(bFrom + j - 1);
+            current[0] = j;
+            int from = Math.max(1, j - max);
+            int to = Math.min(n, j + max);
+            if (from > 1) {
+                current[from - 1] = FAR;
+            }
+            int rowMin = from == 1 ? j : FAR;
+            for (int i = from; i <= to; i++) {
+                int d;
+                if (a.charAt(aFrom + i - 1) == c) {
+                    d = previous[i - 1];
+                } else {
+                    d = 1 + Math.min(Math.min(current[i - 1], previous[i]), previous[i - 1]);
+                }
+                current[i] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            current[to + 1] = FAR;
+            if (rowMin > max) {
+                return -1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[n] <= max ? previous[n] : -1;
+    }
+
+    /**
+     * Jaro-Winkler similarity between `a` and `b`, from 0 (nothing in common) to 1 (equal).
+     */
+    static double jaroWinkler(CharSequence a, CharSequence b) {
+        int lengthA = a.length();
+        int lengthB = b.length();
+        if (lengthA == 0 && lengthB == 0) {
+            return 1.0;
+        }
+        if (lengthA == 0 || lengthB == 0) {
+            return 0.0;
+        }
+        Work work = WORK.get();
+        if (work.matchedA.length < lengthA) {
+            work.matchedA = new boolean[lengthA];
+        }
+        if (work.matchedB.length < lengthB) {
+            work.matchedB = new boolean[lengthB];
+        }
+        boolean[] matchedA = work.matchedA;
+        boolean[] matchedB = work.matchedB;
+        try {
+            int window = Math.max(0, Math.max(lengthA, lengthB) / 2 - 1);
+            int matches = 0;
+            for (int i = 0; i < lengthA; i++) {
+                char c = a.charAt(i);
+                int to = Math.min(lengthB, i + window + 1);
+                for (int j = Math.max(0, i - window); j < to; j++) {
+                    if (!matchedB[j] && b.charAt(j) == c) {
+                        matchedA[i] = true;
+                        matchedB[j] = true;
+                        matches++;
+                        break;
+                    }
+                }
+            }
+            if (matches == 0) {
+                return 0.0;
+            }
+            int halfTranspositions = 0;
+            for (int i = 0, j = 0; i < lengthA; i++) {
+                if (matchedA[i]) {
+                    while (!matchedB[j]) {
+                        j++;
+                    }
+                    if (a.charAt(i) != b.charAt(j)) {
+                        halfTranspositions++;
+                    }
+                    j++;
+                }
+            }
+            double m = matches;
+            double jaro = (m / lengthA + m / lengthB + (m - halfTranspositions / 2) / m) / 3.0;
+            if (jaro < 0.7) {
+                return jaro;
+            }
+            int prefix = 0;
+            int maxPrefix = Math.min(4, Math.min(lengthA, lengthB));
+            while (prefix < maxPrefix && a.charAt(prefix) == b.charAt(prefix)) {
+                prefix++;
+            }
+            return jaro + prefix * 0.1 * (1.0 - jaro);
+        } finally {
+            Arrays.fill(matchedA, 0, lengthA, false);
+            Arrays.fill(matchedB, 0, lengthB, false);
+            work.release();
+        }
+    }
+
+    // n-gram table entries: offset of the n-gram in its string, shifted, with one of these states
+    private static final int IN_A = 0;
+    private static final int IN_BOTH = 1;
+    private static final int IN_B = 2;
+
+    /**
+     * Jaccard similarity between the sets of character n-grams of `a` and `b`, from 0 to 1.
+     * A non-empty string shorter than `n` counts as a single n-gram.
+     */
+    static double ngramJaccard(CharSequence a, CharSequence b, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        int gramsA = grams(a, n);
+        int gramsB = grams(b, n);
+        if (gramsA == 0 && gramsB == 0) {
+            return 1.0;
+        }
+        if (gramsA == 0 || gramsB == 0) {
+            return 0.0;
+        }
+        int capacity = Integer.highestOneBit((gramsA + gramsB) * 2 - 1) << 1;
+        Work work = WORK.get();
+        if (work.grams.length < capacity) {
+            work.grams = new int[capacity];
+        }
+        int[] table = work.grams;
+        int mask = capacity - 1;
+        try {
+            int distinctA = 0;
+            for (int i = 0; i < gramsA; i++) {
+                int slot = find(table, mask, a, b, i, a, n);
+                if (table[slot] == 0) {
+                    table[slot] = entry(i, IN_A);
+                    distinctA++;
+                }
+            }
+            int shared = 0;
+            int onlyB = 0;
+            for (int i = 0; i < gramsB; i++) {
+                int slot = find(table, mask, a, b, i, b, n);
+                int e = table[slot];
+                if (e == 0) {
+                    table[slot] = entry(i, IN_B);
+                    onlyB++;
+                } else if (((e - 1) & 3) == IN_A) {
+                    table[slot] = e + IN_BOTH;
+                    shared++;
+                }
+            }
+            return shared / (double) (distinctA + onlyB);
+        } finally {
+            Arrays.fill(table, 0, capacity, 0);
+            work.release();
+        }
+    }
+
+    private static int grams(CharSequence s, int n) {
+        return s.length() == 0 ? 0 : Math.max(1, s.length() - n + 1);
+    }
+
+    private static int entry(int offset, int state) {
+        return (offset << 2 | state) + 1;
+    }
+
+    /**
+     * Slot of the n-gram at `offset` in `s`: the slot holding an equal n-gram, or the empty slot to put it in.
+     */
+    private static int find(int[] table, int mask, CharSequence a, CharSequence b, int offset, CharSequence s, int n) {
+        int length = Math.min(n, s.length());
+        int h = 0;
+        for (int k = 0; k < length; k++) {
+            h = 31 * h + s.charAt(offset + k);
+        }
+        int slot = (h * 0x9E3779B1 >>> 16) & mask;
+        for (int e; (e = table[slot]) != 0; slot = (slot + 1) & mask) {
+            int otherOffset = (e - 1) >>> 2;
+            CharSequence other = ((e - 1) & 3) == IN_B ? b : a;
+            if (Math.min(n, other.length()) == length && regionEquals(s, offset, other, otherOffset, length)) {
+                return slot;
+            }
+        }
+        return slot;
+    }
+
+    private static boolean regionEquals(CharSequence s, int offset, CharSequence other, int otherOffset, int length) {
+        for (int k = 0; k < length; k++) {
+            if (s.charAt(offset + k) != other.charAt(otherOffset + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,228 @@
+package io.fno.grel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+
+/**
+ * The parts of a string split at a separator, found lazily.
+ * <p>
+ * The parts are the same as those of {@link String#split(String)}, including the removal of trailing empty parts,
+ * but the string is only scanned as far as needed: {@link #get(int)} stops at the requested part,
+ * and {@link #count()} and {@link #join(String)} never create the individual part strings.
+ * A {@code SplitResult} can be iterated any number of times; every iteration scans the string again.
+ */
+public final class SplitResult implements Iterable<String> {
+
+    private final String s;
+    private final String sep;
+
+    private SplitResult(String s, String sep) {
+        this.s = s;
+        this.sep = sep;
+    }
+
+    /**
+     * Returns the lazy parts of `s` split at `sep`, which can be either a string or a regular expression.
+     *
+     * @param s   string
+     * @param sep separator
+     * @return parts
+     */
+    public static SplitResult of(String s, String sep) {
+        return new SplitResult(s, sep);
+    }
+
+    /**
+     * Returns part `index`, scanning no further than needed.
+     *
+     * @param index part index, starting from zero
+     * @return part
+     * @throws IndexOutOfBoundsException when there are not that many parts
+     */
+    public String get(int index) {
+        if (index >= 0) {
+            Parts parts = new Parts();
+            for (int i = 0; parts.next(); i++) {
+                if (i == index) {
+                    return parts.current();
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException("Index: " + index);
+    }
+
+    /**
+     * Returns the number of parts.
+     *
+     * @return number of parts
+     */
+    public int count() {
+        Parts parts = new Parts();
+        int count = 0;
+        while (parts.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the parts joined with `newSep`, built in one pass without intermediate part strings.
+     *
+     * @param newSep separator to join with
+     * @return joined string
+     */
+    public String join(String newSep) {
+        StringBuilder o = new StringBuilder(s.length());
+        Parts parts = new Parts();
+        boolean first = true;
+        while (parts.next()) {
+            if (!first) {
+                o.append(newSep);
+            }
+            o.append(s, parts.start, parts.end);
+            first = false;
+        }
+        return o.toString();
+    }
+
+    /**
+     * Returns all parts as a list.
+     *
+     * @return parts
+     */
+    public List<String> toList() {
+        List<String> output = new ArrayList<>();
+        for (String part : this) {
+            output.add(part);
+        }
+        return output;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private final Parts parts = new Parts();
+            private boolean ready;
+            private boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    hasNext = parts.next();
+                    ready = true;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return parts.current();
+            }
+        };
+    }
+
+    /**
+     * Cursor over the visible parts: the raw fields between separators, minus the trailing empty ones.
+     * Empty fields are held back until a non-empty field shows they are not trailing.
+     */
+    private final class Parts {
+        private final String literal = Patterns.literal(sep);
+        private final Matcher matcher = literal == null ? Patterns.compile(sep).matcher(s) : null;
+
+        // raw field cursor
+        private int pos;
+        private boolean finished;
+        private boolean matched;
+        private int fieldStart;
+        private int fieldEnd;
+
+        // held back fields
+        private int pendingEmpty;
+        private boolean pendingField;
+        private int pendingStart;
+        private int pendingEnd;
+
+        // current visible part
+        int start;
+        int end;
+
+        boolean next() {
+            if (pendingEmpty > 0) {
+                pendingEmpty--;
+                start = end = 0;
+                return true;
+            }
+            if (pendingField) {
+                pendingField = false;
+                start = pendingStart;
+                end = pendingEnd;
+                return true;
+            }
+            if (!nextField()) {
+                return false;
+            }
+            if (fieldEnd > fieldStart || !matched) {
+                start = fieldStart;
+                end = fieldEnd;
+                return true;
+            }
+            int empties = 1;
+            while (nextField()) {
+                if (fieldEnd > fieldStart) {
+                    pendingEmpty = empties - 1;
+                    pendingField = true;
+                    pendingStart = fieldStart;
+                    pendingEnd = fieldEnd;
+                    start = end = 0;
+                    return true;
+                }
+                empties++;
+            }
+            return false;
+        }
+
+        String current() {
+            return start == end ? "" : s.substring(start, end);
+        }
+
+        private boolean nextField() {
+            if (finished) {
+                return false;
+            }
+            int from;
+            int to;
+            if (literal != null) {
+                from = s.indexOf(literal, pos);
+                to = from + literal.length();
+            } else {
+                from = -1;
+                to = -1;
+                while (matcher.find()) {
+                    // like String.split, a zero-width match at the beginning never produces an empty leading part
+                    if (matcher.end() != 0) {
+                        from = matcher.start();
+                        to = matcher.end();
+                        break;
+                    }
+                }
+            }
+            fieldStart = pos;
+            if (from < 0) {
+                fieldEnd = s.length();
+                finished = true;
+            } else {
+                fieldEnd = from;
+                pos = to;
+                matched = true;
+            }
+            return true;
+        }
+    }
+}
@@ -2,26 +2,108 @@ package io.fno.grel;
 
 import org.apache.commons.codec.Encoder;
 import org.apache.commons.codec.EncoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.codec.language.ColognePhonetic;
 import org.apache.commons.codec.language.DoubleMetaphone;
 import org.apache.commons.codec.language.Metaphone;
 import org.apache.commons.codec.language.Soundex;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.WordUtils;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * GREL string functions.
+ * <p>
+ * Thread safety: all functions are safe to call concurrently and never modify their arguments.
+ * The caches they share (compiled patterns, translation tables, dictionaries, charsets) are thread-safe,
+ * and the canonicalization pool set with {@link #setCanonicalPool(CanonicalPool)} and the regex mode set with
+ * {@link #setRegexMode(RegexMode)} apply to all threads.
+ */
 public class StringFunctions {
 
+    private static volatile CanonicalPool canonicalPool;
+    private static volatile RegexMode regexMode = RegexMode.JAVA;
+    private static volatile long regexStepBudget = 10_000_000L;
+
+    private static final ThreadLocal<CsvTokenizer> GUESSING_TOKENIZER = ThreadLocal.withInitial(CsvTokenizer::new);
+    /**
+     * Tokenizer for the separator last passed to `smartSplit` on each thread.
+     */
+    private static final ThreadLocal<CsvTokenizer> TOKENIZER = ThreadLocal.withInitial(() -> new CsvTokenizer(','));
+
+    /**
+     * Installs a pool that the results of `toLowercase`, `trim`, `replace` and `escape` are canonicalized through,
+     * so that equal results share one instance; pass null to stop canonicalizing, which is the default.
+     *
+     * @param pool pool to use, or null
+     */
+    public static void setCanonicalPool(CanonicalPool pool) {
+        canonicalPool = pool;
+    }
+
+    /**
+     * Returns the installed canonicalization pool, or null.
+     *
+     * @return pool
+     */
+    public static CanonicalPool getCanonicalPool() {
+        return canonicalPool;
+    }
+
+    /**
+     * Sets how `replace`, `match`, `split` and `smartSplit` run regular expressions, unless a mode is passed to them;
+     * the default is {@link RegexMode#JAVA}.
+     *
+     * @param mode regex mode
+     */
+    public static void setRegexMode(RegexMode mode) {
+        regexMode = mode;
+    }
+
+    /**
+     * @return the regex mode used when none is passed
+     */
+    public static RegexMode getRegexMode() {
+        return regexMode;
+    }
+
+    /**
+     * Sets the maximum number of characters that {@code java.util.regex} may read in one call, in
+     * {@link RegexMode#LINEAR} mode, for the patterns that fall back to it; a call that exceeds it throws an
+     * {@code IllegalArgumentException} instead of running on. The default is ten million.
+     *
+     * @param budget number of characters read, counting every time a character is read again when backtracking
+     */
+    public static void setRegexStepBudget(long budget) {
+        regexStepBudget = budget;
+    }
+
+    /**
+     * @return the step budget of patterns that fall back to {@code java.util.regex}
+     */
+    public static long getRegexStepBudget() {
+        return regexStepBudget;
+    }
+
+    private static String canonical(String s) {
+        CanonicalPool pool = canonicalPool;
+        return pool == null ? s : pool.canonical(s);
+    }
+
     /**
      * Returns the length of `s` as a number.
      *
@@ -32,20 +114,61 @@ public class StringFunctions {
         return s.length();
     }
 
-    // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#tostringvalue
+    /**
+     * Returns the length of `s` as a number, for string views such as {@link CharSlice}.
+     *
+     * @param s character sequence
+     * @return length
+     */
+    public static Integer length(CharSequence s) {
+        return s.length();
+    }
 
     /**
      * Takes any value type (string, number, date, boolean, error, null) and gives a string version of that value.
+     * Doubles are written with the fewest digits that read back as the same double, in the layout of
+     * {@link Double#toString(double)} (see {@link NumberFormats#append(StringBuilder, double)}).
      * https://docs.openrefine.org/manual/grelfunctions#tostringo-string-format-optional
      */
     public static String toString(Object valueParameter) {
         if (valueParameter == null) {
             return "null";
+        } else if (valueParameter instanceof Double) {
+            return NumberFormats.toString((Double) valueParameter);
         } else {
             return valueParameter.toString();
         }
     }
 
+    /**
+     * Gives a string version of `o`, formatted with `format`: numbers with a {@link java.util.Formatter} format such
+     * as `%.2f` or a {@link java.text.DecimalFormat} pattern such as `#,##0.00` (see {@link NumberFormats}), and dates
+     * with a {@link DateTimeFormatter} pattern such as `dd/MM/yyyy`. Other values are converted as by
+     * {@link #toString(Object)}. For example, `toString(1234.5, "#,##0.00")` returns `1,234.50`.
+     * https://docs.openrefine.org/manual/grelfunctions#tostringo-string-format-optional
+     *
+     * @param o      value
+     * @param format number or date format, or null
+     * @return string version of `o`
+     * @throws IllegalArgumentException when `format` is invalid for `o`
+     */
+    public static String toString(Object o, String format) {
+        if (format == null) {
+            return toString(o);
+        }
+        if (o instanceof Number) {
+            return NumberFormats.format((Number) o, format);
+        }
+        if (o instanceof TemporalAccessor) {
+            return DateFunctions.formatter(format).format((TemporalAccessor) o);
+        }
+        if (o instanceof Date) {
+            ZonedDateTime date = ((Date) o).toInstant().atZone(DateFunctions.getClock().getZone());
+            return DateFunctions.formatter(format).format(date);
+        }
+        return toString(o);
+    }
+
     /**
      * Returns boolean indicating whether `s` starts with `sub`.
      * For example, `startsWith("food", "foo")` returns `true`, whereas `startsWith("food", "bar")` returns `false`.
@@ -58,6 +181,17 @@ public class StringFunctions {
         return s.startsWith(sub);
     }
 
+    /**
+     * Returns boolean indicating whether `s` starts with `sub`, without copying either of them.
+     *
+     * @param s   character sequence
+     * @param sub prefix
+     * @return boolean
+     */
+    public static Boolean startsWith(CharSequence s, CharSequence sub) {
+        return CharSlice.of(s).startsWith(sub);
+    }
+
     /**
      * Returns boolean indicating whether `s` ends with `sub`.
      * For example, `endsWith("food", "ood")` returns `true`, whereas `endsWith("food", "odd")` returns `false`.
@@ -83,39 +217,253 @@ public class StringFunctions {
         return s.contains(sub);
     }
 
+    /**
+     * Returns boolean indicating whether `s` contains `sub`, without copying either of them.
+     *
+     * @param s   character sequence
+     * @param sub sequence to look for
+     * @return boolean
+     */
+    public static Boolean contains(CharSequence s, CharSequence sub) {
+        return CharSlice.of(s).indexOf(sub) >= 0;
+    }
+
+    /**
+     * Returns boolean indicating whether `s` contains any of the strings in `dictionary`.
+     * All entries are matched in a single pass over `s`, however many there are:
+     * the dictionary is compiled once into an automaton, which is cached (see {@link ArrayFunctions#inArray(List, Object)}
+     * for dictionaries that are changed between calls).
+     *
+     * @param s          string
+     * @param dictionary strings to look for
+     * @return boolean
+     */
+    public static Boolean containsAny(String s, List<String> dictionary) {
+        return AhoCorasick.forContains(dictionary).containsAny(s);
+    }
+
     // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#indexofstring-s-string-sub
 
     /**
-     * Returns `s` converted to lowercase.
+     * Returns `s` converted to lowercase, independently of the default locale.
+     * If `s` is already in lowercase, `s` itself is returned.
      *
      * @param s string
      * @return lowercase
      */
     public static String toLowercase(String s) {
-        return s.toLowerCase();
+        return canonical(toLowercase(s, Locale.ROOT));
     }
 
     /**
-     * Returns `s` converted to uppercase.
+     * Returns `s` converted to lowercase using the case mapping rules of the given locale,
+     * for example `tr` for Turkish, which lowercases `I` to a dotless `ı`.
+     *
+     * @param s      string
+     * @param locale IETF BCP 47 language tag
+     * @return lowercase
+     */
+    public static String toLowercase(String s, String locale) {
+        return canonical(toLowercase(s, locale(locale)));
+    }
+
+    private static String toLowercase(String s, Locale locale) {
+        if (hasSpecialAsciiCasing(locale)) {
+            return s.toLowerCase(locale);
+        }
+        int n = s.length();
+        int i = 0;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return s.toLowerCase(locale);
+            }
+            if (c >= 'A' && c <= 'Z') {
+                break;
+            }
+        }
+        if (i == n) {
+            return s;
+        }
+        char[] out = new char[n];
+        s.getChars(0, i, out, 0);
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return s.toLowerCase(locale);
+            }
+            // sets the 0x20 bit of A-Z only
+            out[i] = (char) (c | (((('A' - 1 - c) & (c - 'Z' - 1)) >>> 31) << 5));
+        }
+        return new String(out);
+    }
+
+    /**
+     * Returns `s` converted to uppercase, independently of the default locale.
+     * If `s` is already in uppercase, `s` itself is returned.
      *
      * @param s string
      * @return uppercase
      */
     public static String toUppercase(String s) {
-        return s.toUpperCase();
+        return toUppercase(s, Locale.ROOT);
     }
 
-    // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#totitlecasestring-s
+    /**
+     * Returns `s` converted to uppercase using the case mapping rules of the given locale,
+     * for example `tr` for Turkish, which uppercases `i` to a dotted `İ`.
+     *
+     * @param s      string
+     * @param locale IETF BCP 47 language tag
+     * @return uppercase
+     */
+    public static String toUppercase(String s, String locale) {
+        return toUppercase(s, locale(locale));
+    }
+
+    private static String toUppercase(String s, Locale locale) {
+        if (hasSpecialAsciiCasing(locale)) {
+            return s.toUpperCase(locale);
+        }
+        int n = s.length();
+        int i = 0;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return s.toUpperCase(locale);
+            }
+            if (c >= 'a' && c <= 'z') {
+                break;
+            }
+        }
+        if (i == n) {
+            return s;
+        }
+        char[] out = new char[n];
+        s.getChars(0, i, out, 0);
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return s.toUpperCase(locale);
+            }
+            // clears the 0x20 bit of a-z only
+            out[i] = (char) (c & ~(((('a' - 1 - c) & (c - 'z' - 1)) >>> 31) << 5));
+        }
+        return new String(out);
+    }
 
     /**
      * https://docs.openrefine.org/manual/grelfunctions/#totitlecases
      * Returns string s converted into titlecase: a capital letter starting each word, and the rest of the letters lowercase.
+     * Words are separated by whitespace. The conversion does not depend on the default locale,
+     * and if s is already in titlecase, s itself is returned.
      *
      * @param s
      * @return capitalized string
      */
     public static String toTitlecase(String s) {
-        return WordUtils.capitalizeFully(s);
+        return toTitlecase(s, Locale.ROOT);
+    }
+
+    /**
+     * Returns string s converted into titlecase using the case mapping rules of the given locale.
+     *
+     * @param s      string
+     * @param locale IETF BCP 47 language tag
+     * @return capitalized string
+     */
+    public static String toTitlecase(String s, String locale) {
+        return toTitlecase(s, locale(locale));
+    }
+
+    private static String toTitlecase(String s, Locale locale) {
+        if (hasSpecialAsciiCasing(locale)) {
+            return toTitlecaseUnicode(s, locale);
+        }
+        int n = s.length();
+        int i = 0;
+        boolean wordStart = true;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return toTitlecaseUnicode(s, locale);
+            }
+            if (wordStart ? (c >= 'a' && c <= 'z') : (c >= 'A' && c <= 'Z')) {
+                break;
+            }
+            wordStart = isAsciiWhitespace(c);
+        }
+        if (i == n) {
+            return s;
+        }
+        char[] out = new char[n];
+        s.getChars(0, i, out, 0);
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return toTitlecaseUnicode(s, locale);
+            }
+            if (wordStart) {
+                out[i] = c >= 'a' && c <= 'z' ? (char) (c - 32) : c;
+            } else {
+                out[i] = c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+            }
+            wordStart = isAsciiWhitespace(c);
+        }
+        return new String(out);
+    }
+
+    private static String toTitlecaseUnicode(String s, Locale locale) {
+        String lower = s.toLowerCase(locale);
+        StringBuilder o = null;
+        boolean wordStart = true;
+        for (int i = 0; i < lower.length(); ) {
+            int cp = lower.codePointAt(i);
+            int n = Character.charCount(cp);
+            if (wordStart && !Character.isWhitespace(cp)) {
+                int title = Character.toTitleCase(cp);
+                if (hasSpecialAsciiCasing(locale) && cp == 'i') {
+                    title = '\u0130';
+                }
+                if (title != cp && o == null) {
+                    o = new StringBuilder(lower.length()).append(lower, 0, i);
+                }
+                if (o != null) {
+                    o.appendCodePoint(title);
+                }
+            } else if (o != null) {
+                o.append(lower, i, i + n);
+            }
+            wordStart = Character.isWhitespace(cp);
+            i += n;
+        }
+        String result = o == null ? lower : o.toString();
+        return result.equals(s) ? s : result;
+    }
+
+    private static boolean isAsciiWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r') || (c >= '\u001C' && c <= '\u001F');
+    }
+
+    private static final Map<String, Locale> LOCALES = new ConcurrentHashMap<>();
+
+    private static Locale locale(String languageTag) {
+        Locale locale = LOCALES.get(languageTag);
+        if (locale == null) {
+            locale = Locale.forLanguageTag(languageTag);
+            if (LOCALES.size() < 256) {
+                LOCALES.put(languageTag, locale);
+            }
+        }
+        return locale;
+    }
+
+    /**
+     * Turkish and Azerbaijani map ASCII `i` and `I` to non-ASCII letters, so they cannot use the ASCII fast paths.
+     */
+    private static boolean hasSpecialAsciiCasing(Locale locale) {
+        String language = locale.getLanguage();
+        return "tr".equals(language) || "az".equals(language);
     }
 
     /**
@@ -127,7 +475,7 @@ public class StringFunctions {
      * @return a copy of the string, with leading and trailing whitespace removed
      */
     public static String trim(String s) {
-        return s.trim();
+        return canonical(s.trim());
     }
 
     /**
@@ -233,6 +581,31 @@ public class StringFunctions {
         return substring(s, from);
     }
 
+    /**
+     * Same as {@link #substring(String, Integer)}, but returns a view on `s` instead of copying the characters.
+     *
+     * @param s    character sequence
+     * @param from character index from
+     * @return view of the substring
+     */
+    public static CharSlice substringView(CharSequence s, Integer from) {
+        return CharSlice.of(s, from, s.length());
+    }
+
+    /**
+     * Same as {@link #substring(String, Integer, Integer)}, but returns a view on `s` instead of copying the characters.
+     * Views can be sliced again, and passed to the `CharSequence` variants of `length`, `startsWith`, `contains`,
+     * `md5` and `escape`, without copying.
+     *
+     * @param s    character sequence
+     * @param from character index from
+     * @param to   character index upto
+     * @return view of the substring
+     */
+    public static CharSlice substringView(CharSequence s, Integer from, Integer to) {
+        return CharSlice.of(s, from, to);
+    }
+
     /**
      * https://docs.openrefine.org/manual/grelfunctions#indexofs-sub
      * Returns the first character index of sub as it first occurs in s; or, returns -1 if s does not contain sub.
@@ -266,10 +639,40 @@ public class StringFunctions {
      * @return s with substring f replaced by string r
      */
     public static String replace(String s, String f, String r) {
-        return s.replaceAll(f, r);
+        return canonical(Regexes.replace(s, f, r, regexMode, regexStepBudget));
+    }
+
+    /**
+     * Same as {@link #replace(String, String, String)}, running the regex in the given mode.
+     *
+     * @param s    string to replace in
+     * @param f    target substring to replace
+     * @param r    string to replace target substring with
+     * @param mode `java` or `linear`, see {@link RegexMode}
+     * @return s with substring f replaced by string r
+     */
+    public static String replace(String s, String f, String r, String mode) {
+        return canonical(Regexes.replace(s, f, r, RegexMode.of(mode), regexStepBudget));
+    }
+
+    /**
+     * Returns the string obtained by replacing every key of `dictionary` that occurs in `s` by its value.
+     * All keys are matched literally in a single pass over `s`, however many there are:
+     * the dictionary is compiled once into an automaton, which is cached (see {@link ArrayFunctions#inArray(List, Object)}
+     * for dictionaries that are changed between calls).
+     * Where keys overlap, the one starting first is replaced, and the longest of those starting at the same position.
+     * <p>
+     * For example, `replaceAll("St. Peter's Blvd.", {"St.": "Saint", "Blvd.": "Boulevard"})`
+     * returns the string `Saint Peter's Boulevard`.
+     *
+     * @param s          string to replace in
+     * @param dictionary substrings to replace, mapped to the strings to replace them with
+     * @return s with all dictionary keys replaced; s itself if none occurs
+     */
+    public static String replaceAll(String s, Map<String, String> dictionary) {
+        return AhoCorasick.forReplace(dictionary).replaceAll(s);
     }
 
-    // TODO add unit test for this function
     /**
      * https://docs.openrefine.org/manual/grelfunctions#replacecharss-s-find-s-replace
      * Returns the string obtained by replacing a character in s, identified by find,
@@ -282,6 +685,8 @@ public class StringFunctions {
      * @param f A string containing all the chars to replace
      * @param r A string containing all the chars to replace with. The ordering should be
      *          matched with the ordering in argument f
+     * The translation table for f and r is compiled once and cached, and s is rewritten in a single pass;
+     * if none of its characters is in f, s itself is returned.
      * @throws Exception when the string of replacement chars is shorter than the string of
      *         characters to replace.
      */
@@ -289,12 +694,7 @@ public class StringFunctions {
         if (f.length() > r.length()) {
             throw new Exception("You must provide as many replacement characters as target characters.");
         }
-        for (int i=0; i<f.length(); i++) {
-            char find = f.charAt(i);
-            char replace = r.charAt(i);
-            s = s.replace(find, replace);
-        }
-        return s;
+        return CharTranslator.of(f, r).translate(s);
     }
 
     /**
@@ -306,13 +706,19 @@ public class StringFunctions {
      * @return Array of pattern matches
      */
     public static String[] match(String s, String p) {
-        List<String> allMatches = new ArrayList<String>();
-        Matcher m = Pattern.compile(p)
-                .matcher(s);
-        while (m.find()) {
-            allMatches.add(m.group());
-        }
-        return (String[]) allMatches.toArray();
+        return Regexes.match(s, p, regexMode, regexStepBudget);
+    }
+
+    /**
+     * Same as {@link #match(String, String)}, running the regex in the given mode.
+     *
+     * @param s    string
+     * @param p    regex pattern
+     * @param mode `java` or `linear`, see {@link RegexMode}
+     * @return Array of pattern matches
+     */
+    public static String[] match(String s, String p, String mode) {
+        return Regexes.match(s, p, RegexMode.of(mode), regexStepBudget);
     }
 
     // NOTE: this was implemented in commit 5161c959985daabc90a53520b00752cc9c69b94d,
@@ -347,7 +753,101 @@ public class StringFunctions {
      * @return the array of strings obtained by splitting `s` at wherever `sep` is found in it
      */
     public static List<String> split(String s, String sep) {
-        return Arrays.asList(s.split(sep));
+        return Arrays.asList(Regexes.split(s, sep, regexMode, regexStepBudget));
+    }
+
+    /**
+     * Same as {@link #split(String, String)}, running the regex in the given mode.
+     *
+     * @param s    string
+     * @param sep  separator
+     * @param mode `java` or `linear`, see {@link RegexMode}
+     * @return the array of strings obtained by splitting `s` at wherever `sep` is found in it
+     */
+    public static List<String> split(String s, String sep, String mode) {
+        return Arrays.asList(Regexes.split(s, sep, RegexMode.of(mode), regexStepBudget));
+    }
+
+    /**
+     * Same as {@link #split(String, String)}, but the parts are only found when they are asked for.
+     *
+     * @param s   string
+     * @param sep separator
+     * @return lazy parts of `s`
+     */
+    public static SplitResult splitLazy(String s, String sep) {
+        return SplitResult.of(s, sep);
+    }
+
+    /**
+     * Returns part `i` of `s` split at `sep`, the same as `split(s, sep)[i]`, but scanning `s` only up to that part
+     * and without creating the other parts.
+     * For example, `splitGet("fire,water,earth,air", ",", 2)` returns the string `earth`.
+     *
+     * @param s   string
+     * @param sep separator
+     * @param i   part index, starting from zero
+     * @return part `i`
+     */
+    public static String splitGet(String s, String sep, Integer i) {
+        return SplitResult.of(s, sep).get(i);
+    }
+
+    /**
+     * Returns the number of parts of `s` split at `sep`, the same as `length(split(s, sep))`,
+     * without creating the parts.
+     *
+     * @param s   string
+     * @param sep separator
+     * @return number of parts
+     */
+    public static Integer splitCount(String s, String sep) {
+        return SplitResult.of(s, sep).count();
+    }
+
+    /**
+     * Returns the parts of `s` split at `sep`, joined again with `newSep`, the same as `join(split(s, sep), newSep)`,
+     * in one pass without creating the parts.
+     * For example, `splitJoin("fire, water, earth", ", ", ";")` returns the string `fire;water;earth`.
+     *
+     * @param s      string
+     * @param sep    separator
+     * @param newSep separator to join with
+     * @return joined string
+     */
+    public static String splitJoin(String s, String sep, String newSep) {
+        return SplitResult.of(s, sep).join(newSep);
+    }
+
+    /**
+     * Same as {@link #split(String, String)}, but returns views on `s` instead of copying every part.
+     *
+     * @param s   character sequence
+     * @param sep separator
+     * @return views of the parts of `s` between the separators
+     */
+    public static List<CharSlice> splitView(CharSequence s, String sep) {
+        List<CharSlice> output = new ArrayList<>();
+        Matcher m = Patterns.compile(sep).matcher(s);
+        int index = 0;
+        while (m.find()) {
+            // like String.split, a zero-width match at the beginning never produces an empty leading part
+            if (m.end() == 0) {
+                continue;
+            }
+            output.add(CharSlice.of(s, index, m.start()));
+            index = m.end();
+        }
+        if (index == 0 && output.isEmpty()) {
+            output.add(CharSlice.of(s));
+            return output;
+        }
+        output.add(CharSlice.of(s, index, s.length()));
+        int size = output.size();
+        while (size > 0 && output.get(size - 1).length() == 0) {
+            output.remove(--size);
+        }
+        return output;
     }
 
     /**
@@ -369,6 +869,23 @@ public class StringFunctions {
         return output.toArray(new String[0]);
     }
 
+    /**
+     * Same as {@link #splitByLengths(String, int...)}, but returns views on `s` instead of copying every part.
+     *
+     * @param s       character sequence
+     * @param numbers lengths of subsequent substrings to be extracted
+     * @return views of the substrings
+     */
+    public static CharSlice[] splitByLengthsView(CharSequence s, int... numbers) {
+        CharSlice[] output = new CharSlice[numbers.length];
+        int i = 0;
+        for (int k = 0; k < numbers.length; k++) {
+            output[k] = CharSlice.of(s, i, i + numbers[k]);
+            i += numbers[k];
+        }
+        return output;
+    }
+
     // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#splitbylengthsstring-s-number-n1-number-n2-
 
     /**
@@ -376,19 +893,44 @@ public class StringFunctions {
      * Returns the array of strings obtained by splitting s by the separator sep. Handles quotes properly.
      * Guesses tab or comma separator if sep is not given.
      * Also, value.escape('javascript') is useful for previewing unprintable chars prior to using smartSplit.
+     * The separator is a comma if s has more commas than tabs, a tab otherwise; s is split in the same pass
+     * that counts them, see {@link CsvTokenizer}.
      */
     public static String[] smartSplit(String s) {
-        String sep;
-        if (StringUtils.countMatches(s, "\t") < StringUtils.countMatches(s, ",")) {
-            sep = ",";
-        } else {
-            sep = "\t";
-        }
-        return smartSplit(s, sep);
+        return GUESSING_TOKENIZER.get().split(s);
     }
 
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#smartsplits-s-or-p-sep-optional
+     * Returns the array of strings obtained by splitting s by the separator sep, handling quoted fields as in CSV.
+     * A separator that is a regular expression rather than a plain string is split at without handling quotes.
+     *
+     * @param s   string
+     * @param sep separator
+     * @return fields
+     */
     public static String[] smartSplit(String s, String sep) {
-        return s.split(sep);
+        return smartSplit(s, sep, regexMode);
+    }
+
+    /**
+     * Same as {@link #smartSplit(String, String)}, running a regex separator in the given mode.
+     */
+    public static String[] smartSplit(String s, String sep, String mode) {
+        return smartSplit(s, sep, RegexMode.of(mode));
+    }
+
+    private static String[] smartSplit(String s, String sep, RegexMode mode) {
+        String literal = Patterns.literal(sep);
+        if (literal == null) {
+            return Regexes.split(s, sep, mode, regexStepBudget);
+        }
+        CsvTokenizer tokenizer = TOKENIZER.get();
+        if (!literal.equals(tokenizer.separator())) {
+            tokenizer = new CsvTokenizer(literal);
+            TOKENIZER.set(tokenizer);
+        }
+        return tokenizer.split(s);
     }
 
     /**
@@ -399,28 +941,54 @@ public class StringFunctions {
      * and numbers: "BE1A3E".splitByCharType() will result in [ "BE", "1", "A", "3", "E" ].
      */
     public static String[] splitByCharType(String value) {
-        return StringUtils.splitByCharacterType(value);
+        List<String> output = new ArrayList<>();
+        int n = value.length();
+        int start = 0;
+        int previous = -1;
+        for (int i = 0; i < n; ) {
+            int cp = value.codePointAt(i);
+            int type = CharCategories.type(cp);
+            if (type != previous && i > 0) {
+                output.add(value.substring(start, i));
+                start = i;
+            }
+            previous = type;
+            i += Character.charCount(cp);
+        }
+        if (n > 0) {
+            output.add(value.substring(start));
+        }
+        return output.toArray(new String[0]);
     }
 
     public static String[] _partition(String s, String frag, Boolean omitFragment, Boolean last) {
-        List<String> output = new ArrayList<>();
-        int offset = 0;
+        CharSlice[] views = _partitionView(s, frag, omitFragment, last);
+        String[] output = new String[views.length];
+        for (int i = 0; i < views.length; i++) {
+            output[i] = views[i].toString();
+        }
+        return output;
+    }
+
+    public static CharSlice[] _partitionView(CharSequence s, String frag, Boolean omitFragment, Boolean last) {
+        CharSlice view = CharSlice.of(s);
         int index;
         if (last) {
-            index = s.indexOf(frag);
+            index = view.lastIndexOf(frag);
         } else {
-            index = s.lastIndexOf(frag);
+            index = view.indexOf(frag);
         }
         if (index == -1) {
-            return new String[]{s, "", ""};
+            CharSlice empty = CharSlice.of(view, 0, 0);
+            return new CharSlice[]{view, empty, empty};
         }
-        output.add(s.substring(0, index));
-        if (! omitFragment) {
-            output.add(frag);
-            offset += frag.length();
+        int end = index + frag.length();
+        CharSlice before = view.subSequence(0, index);
+        CharSlice after = view.subSequence(end, view.length());
+        if (omitFragment) {
+            return new CharSlice[]{before, after};
         }
-        output.add(s.substring(index + offset));
-        return output.toArray(new String[0]);
+        return new CharSlice[]{before, view.subSequence(index, end), after};
     }
 
     /**
@@ -454,6 +1022,13 @@ public class StringFunctions {
         return _partition(s, frag, omitFragment, false);
     }
 
+    /**
+     * Same as {@link #partition(String, String, Boolean)}, but returns views on `s` instead of copying every part.
+     */
+    public static CharSlice[] partitionView(CharSequence s, String frag, Boolean omitFragment) {
+        return _partitionView(s, frag, omitFragment, false);
+    }
+
     /**
      * https://docs.openrefine.org/manual/grelfunctions#rpartitions-s-or-p-fragment-b-omitfragment-optional
      * Returns an array of strings [ a, fragment, z ] where a is the substring within s before
@@ -480,6 +1055,13 @@ public class StringFunctions {
         return _partition(s, frag, omitFragment, true);
     }
 
+    /**
+     * Same as {@link #rpartition(String, String, Boolean)}, but returns views on `s` instead of copying every part.
+     */
+    public static CharSlice[] rpartitionView(CharSequence s, String frag, Boolean omitFragment) {
+        return _partitionView(s, frag, omitFragment, true);
+    }
+
 
     /**
      * https://docs.openrefine.org/manual/grelfunctions#diffs1-s2-s-timeunit-optional
@@ -492,6 +1074,59 @@ public class StringFunctions {
         return StringUtils.difference(o1, o2);
     }
 
+    /**
+     * Returns the Levenshtein distance between `s1` and `s2`: the smallest number of characters to insert,
+     * delete or replace to turn one into the other.
+     * For example, `levenshtein("kitten", "sitting")` returns 3.
+     *
+     * @param s1 string
+     * @param s2 string
+     * @return Levenshtein distance
+     */
+    public static int levenshtein(String s1, String s2) {
+        return Similarity.levenshtein(s1, s2, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the Levenshtein distance between `s1` and `s2`, or -1 as soon as it is known to be larger than `max`.
+     * A small `max` makes comparing dissimilar strings much cheaper.
+     *
+     * @param s1  string
+     * @param s2  string
+     * @param max maximum distance of interest
+     * @return Levenshtein distance, or -1 when it is larger than `max`
+     */
+    public static int levenshtein(String s1, String s2, int max) {
+        return Similarity.levenshtein(s1, s2, max);
+    }
+
+    /**
+     * Returns the Jaro-Winkler similarity between `s1` and `s2`, from 0 (nothing in common) to 1 (equal).
+     * Strings that share a prefix of up to 4 characters score higher.
+     *
+     * @param s1 string
+     * @param s2 string
+     * @return similarity between 0 and 1
+     */
+    public static double jaroWinkler(String s1, String s2) {
+        return Similarity.jaroWinkler(s1, s2);
+    }
+
+    /**
+     * Returns the Jaccard similarity between the sets of character n-grams of `s1` and `s2`:
+     * the number of n-grams they share divided by the number of distinct n-grams in either.
+     * A non-empty string shorter than `n` counts as a single n-gram.
+     * For example, `ngramSimilarity("night", "nacht", 2)` returns 1/7.
+     *
+     * @param s1 string
+     * @param s2 string
+     * @param n  n-gram length
+     * @return similarity between 0 and 1
+     */
+    public static double ngramSimilarity(String s1, String s2, int n) {
+        return Similarity.ngramJaccard(s1, s2, n);
+    }
+
     /**
      * Escapes `s` in the given escaping mode: `html`, `xml`, `csv`, `url`, `javascript`.
      *
@@ -500,6 +1135,10 @@ public class StringFunctions {
      * @return escaped
      */
     public static String escape(String s, String mode) {
+        return canonical(escapeValue(s, mode));
+    }
+
+    private static String escapeValue(String s, String mode) {
         String lMode = mode.toLowerCase();
         switch (lMode) {
             case "html":
@@ -516,6 +1155,24 @@ public class StringFunctions {
         return s;
     }
 
+    /**
+     * Escapes `s` in the given escaping mode: `html`, `xml`, `csv`, `url`, `javascript`.
+     * The `url` mode works directly on the character sequence; the other modes materialize it first.
+     *
+     * @param s    character sequence
+     * @param mode mode
+     * @return escaped
+     */
+    public static String escape(CharSequence s, String mode) {
+        if (s instanceof String) {
+            return escape((String) s, mode);
+        }
+        if ("url".equalsIgnoreCase(mode)) {
+            return encodeURIComponent(s);
+        }
+        return escape(s.toString(), mode);
+    }
+
     /**
      * https://docs.openrefine.org/manual/grelfunctions#unescapes-s-mode
      * Unescapes s in the given escaping mode. The mode can be one of: "html", "xml",
@@ -548,6 +1205,22 @@ public class StringFunctions {
         return DigestUtils.md5Hex(s);
     }
 
+    /**
+     * Returns the MD5 hash of the UTF-8 encoding of `s`, the same as {@link #md5(String)} of its string value,
+     * without copying the characters into a string first.
+     *
+     * @param s character sequence
+     * @return MD5 hash as hex string
+     */
+    public static String md5(CharSequence s) {
+        if (s instanceof String) {
+            return md5((String) s);
+        }
+        MessageDigest digest = DigestUtils.getMd5Digest();
+        Utf8.update(digest, s);
+        return Hex.encodeHexString(digest.digest());
+    }
+
     /**
      * Returns the SHA-1 hash of an object. If fed something other than a string (array, number, date, etc.), sha1() will convert it to a string and deliver the hash of the string.
      *
@@ -574,28 +1247,54 @@ public class StringFunctions {
         Encoder encoder;
         switch (mode) {
             case "doublemetaphone":
-                encoder = new DoubleMetaphone();
+                encoder = DOUBLE_METAPHONE;
                 break;
             case "metaphone":
-                encoder = new Metaphone();
+                encoder = METAPHONE;
+                break;
             case "metaphone3":
                 // TODO Find Metaphone 3
-                encoder = new Metaphone();
+                encoder = METAPHONE;
+                break;
             case "soundex":
-                encoder = new Soundex();
+                encoder = SOUNDEX;
+                break;
             case "cologne":
-                encoder = new ColognePhonetic();
+                encoder = COLOGNE;
+                break;
             default:
                 throw new IllegalStateException("Unexpected value: " + mode);
         }
         return encoder.encode(s).toString();
     }
 
+    // the encoders are thread-safe as long as they are not reconfigured, so they are shared
+    private static final Encoder DOUBLE_METAPHONE = new DoubleMetaphone();
+    private static final Encoder METAPHONE = new Metaphone();
+    private static final Encoder SOUNDEX = new Soundex();
+    private static final Encoder COLOGNE = new ColognePhonetic();
+
     /**
      * https://docs.openrefine.org/manual/grelfunctions#reinterprets-s-encodertarget-s-encodersource
+     * Returns s, encoded with the platform's default encoding, reinterpreted with the given encoding.
      */
     public static String reinterpret(String s, String encoder) {
-        return new String(s.getBytes(), Charset.forName(encoder));
+        return Transcoder.reinterpret(s, Charset.defaultCharset(), Transcoder.charset(encoder));
+    }
+
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#reinterprets-s-encodertarget-s-encodersource
+     * Returns s reinterpreted through the given character encodings: s is encoded with encoderSource,
+     * and the resulting bytes are read with encoderTarget.
+     * For example, reinterpret("CafÃ©", "UTF-8", "ISO-8859-1") returns the string "Café".
+     *
+     * @param s             string
+     * @param encoderTarget encoding to read the bytes with
+     * @param encoderSource encoding to turn s into bytes with
+     * @return reinterpreted string
+     */
+    public static String reinterpret(String s, String encoderTarget, String encoderSource) {
+        return Transcoder.reinterpret(s, Transcoder.charset(encoderSource), Transcoder.charset(encoderTarget));
     }
 
     // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#fingerprintstring-s
@@ -604,16 +1303,47 @@ public class StringFunctions {
 
     // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#ngramfingerprintstring-s-number-n
 
-    // https://docs.openrefine.org/manual/grelfunctions#unicodes
-    // TODO add docstring and write unit test
-    public static String[] unicode(String s) {
-        return s.chars()
-                .mapToObj(c -> (char) c)
-                .map(c -> encodeURIComponent(String.valueOf(c)))
-                .toArray(String[]::new);
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#unicodes
+     * Returns an array of the Unicode code points of the characters of s, as numbers.
+     * For example, unicode("Bernice Rubens") returns [ 66, 101, 114, 110, 105, 99, 101, 32, 82, 117, 98, 101, 110, 115 ].
+     * Characters outside the Basic Multilingual Plane give one code point, not two surrogates.
+     *
+     * @param s string
+     * @return code points
+     */
+    public static int[] unicode(String s) {
+        int n = s.length();
+        int[] codePoints = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; ) {
+            int cp = s.codePointAt(i);
+            codePoints[count++] = cp;
+            i += Character.charCount(cp);
+        }
+        return count == n ? codePoints : Arrays.copyOf(codePoints, count);
     }
 
-    // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#unicodetypestring-s
+    /**
+     * https://docs.openrefine.org/manual/grelfunctions#unicodetypes
+     * Returns an array of strings giving the Unicode character category of each character of s,
+     * such as "uppercase letter", "decimal digit number" or "space separator".
+     * For example, unicodeType("Ab1") returns [ "uppercase letter", "lowercase letter", "decimal digit number" ].
+     *
+     * @param s string
+     * @return categories of the code points of s
+     */
+    public static String[] unicodeType(String s) {
+        int n = s.length();
+        String[] types = new String[n];
+        int count = 0;
+        for (int i = 0; i < n; ) {
+            int cp = s.codePointAt(i);
+            types[count++] = CharCategories.name(CharCategories.type(cp));
+            i += Character.charCount(cp);
+        }
+        return count == n ? types : Arrays.copyOf(types, count);
+    }
 
     // TODO https://github.com/OpenRefine/OpenRefine/wiki/GREL-String-Functions#mqlkeyquotestring-s
 
@@ -621,28 +1351,40 @@ public class StringFunctions {
 
     private static final String ALLOWED_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_.!~*'()";
 
-    private static String encodeURIComponent(String input) {
-        if (StringUtils.isEmpty(input)) {
-            return input;
+    // characters that `escape(s, "url")` keeps as they are, also used by ColumnFunctions
+    static final boolean[] ALLOWED = new boolean[128];
+
+    static {
+        for (int i = 0; i < ALLOWED_CHARS.length(); i++) {
+            ALLOWED[ALLOWED_CHARS.charAt(i)] = true;
+        }
+    }
+
+    static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static String encodeURIComponent(CharSequence input) {
+        if (input == null || input.length() == 0) {
+            return input == null ? null : input.toString();
         }
 
         int l = input.length();
         StringBuilder o = new StringBuilder(l * 3);
-        try {
-            for (int i = 0; i < l; i++) {
-                String e = input.substring(i, i + 1);
-                if (!ALLOWED_CHARS.contains(e)) {
-                    Byte[] b = ArrayUtils.toObject(e.getBytes("utf-8"));
-                    o.append(getHex(b));
-                    continue;
-                }
-                o.append(e);
+        byte[] b = new byte[4];
+        for (int i = 0; i < l; ) {
+            char c = input.charAt(i);
+            if (c < 128 && ALLOWED[c]) {
+                o.append(c);
+                i++;
+                continue;
+            }
+            int cp = Utf8.codePointAt(input, i, l);
+            i += cp >= 0x10000 ? 2 : 1;
+            int n = Utf8.encode(cp, b, 0);
+            for (int k = 0; k < n; k++) {
+                o.append('%').append(HEX[(b[k] >> 4) & 0xf]).append(HEX[b[k] & 0xf]);
             }
-            return o.toString();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
         }
-        return input;
+        return o.toString();
     }
 
     private static String decodeURIComponent(String encodedURI) {
@@ -701,17 +1443,4 @@ public class StringFunctions {
         return buffer.toString();
     }
 
-    private static String getHex(Byte[] buf) {
-        StringBuilder o = new StringBuilder(buf.length * 3);
-        for (byte b : buf) {
-            int n = (int) b & 0xff;
-            o.append("%");
-            if (n < 0x10) {
-                o.append("0");
-            }
-            o.append(Long.toString(n, 16).toUpperCase());
-        }
-        return o.toString();
-    }
-
 }
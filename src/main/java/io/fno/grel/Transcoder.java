@@ -0,0 +1,237 @@
+package io.fno.grel;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reinterprets strings through character encodings, as {@link StringFunctions#reinterpret(String, String, String)} does,
+ * for use over whole columns.
+ * <p>
+ * Charset lookups are cached, and every thread reuses its own encoders, decoders and buffers, so reinterpreting
+ * a value costs no allocations besides the resulting string.
+ * Malformed input and unmappable characters are replaced, the same way {@link String#getBytes(Charset)}
+ * and {@link String#String(byte[], Charset)} do.
+ */
+public final class Transcoder {
+
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private static final Map<String, Charset> CHARSETS = new ConcurrentHashMap<>();
+
+    private static final class Codec {
+        final CharsetEncoder encoder;
+        final CharsetDecoder decoder;
+
+        Codec(Charset charset) {
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    }
+
+    private static final class State {
+        final Map<Charset, Codec> codecs = new HashMap<>();
+        ByteBuffer bytes = ByteBuffer.allocate(1024);
+        CharBuffer chars = CharBuffer.allocate(1024);
+
+        Codec codec(Charset charset) {
+            return codecs.computeIfAbsent(charset, Codec::new);
+        }
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private Transcoder() {
+    }
+
+    /**
+     * Returns the charset called `name` (a canonical name or an alias), looking it up only once.
+     *
+     * @param name charset name
+     * @return charset
+     * @throws java.nio.charset.UnsupportedCharsetException when no such charset is available
+     */
+    public static Charset charset(String name) {
+        Charset charset = CHARSETS.get(name);
+        if (charset == null) {
+            charset = Charset.forName(name);
+            if (CHARSETS.size() < 256) {
+                CHARSETS.put(name, charset);
+            }
+        }
+        return charset;
+    }
+
+    /**
+     * Returns `s` encoded with `source` and decoded again with `target`.
+     * For example, reinterpreting `CafÃ©` from ISO-8859-1 to UTF-8 gives `Café`.
+     *
+     * @param s      string
+     * @param source encoding to turn `s` into bytes with
+     * @param target encoding to read those bytes with
+     * @return reinterpreted string
+     */
+    public static String reinterpret(CharSequence s, Charset source, Charset target) {
+        State state = STATE.get();
+        return reinterpret(state, state.codec(source), state.codec(target), s);
+    }
+
+    /**
+     * Reinterprets all `values` from `source` to `target`, looking up the encoder and decoder only once.
+     *
+     * @param values strings
+     * @param source encoding to turn the strings into bytes with
+     * @param target encoding to read those bytes with
+     * @return reinterpreted strings, in the same order
+     */
+    public static List<String> reinterpretAll(List<? extends CharSequence> values, Charset source, Charset target) {
+        State state = STATE.get();
+        Codec from = state.codec(source);
+        Codec to = state.codec(target);
+        List<String> output = new ArrayList<>(values.size());
+        for (CharSequence value : values) {
+            output.add(value == null ? null : reinterpret(state, from, to, value));
+        }
+        return output;
+    }
+
+    private static String reinterpret(State state, Codec from, Codec to, CharSequence s) {
+        CharsetEncoder encoder = from.encoder;
+        int byteCapacity = (int) Math.ceil(s.length() * (double) encoder.maxBytesPerChar()) + 16;
+        ByteBuffer bytes = state.bytes.capacity() >= byteCapacity ? state.bytes : ByteBuffer.allocate(byteCapacity);
+        bytes.clear();
+        encoder.reset();
+        code(encoder.encode(CharBuffer.wrap(s), bytes, true));
+        code(encoder.flush(bytes));
+        bytes.flip();
+
+        CharsetDecoder decoder = to.decoder;
+        int charCapacity = (int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()) + 16;
+        CharBuffer chars = state.chars.capacity() >= charCapacity ? state.chars : CharBuffer.allocate(charCapacity);
+        chars.clear();
+        decoder.reset();
+        code(decoder.decode(bytes, chars, true));
+        code(decoder.flush(chars));
+        chars.flip();
+        String result = chars.toString();
+
+        if (bytes.capacity() <= MAX_RETAINED_BUFFER) {
+            state.bytes = bytes;
+        }
+        if (chars.capacity() <= MAX_RETAINED_BUFFER) {
+            state.chars = chars;
+        }
+        return result;
+    }
+
+    private static void code(CoderResult result) {
+        // buffers are sized for the worst case, and errors are replaced, so this only fails on a broken charset
+        if (result.isError() || result.isOverflow()) {
+            try {
+                result.throwException();
+            } catch (CharacterCodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // byte value of every character that windows-1252 or ISO-8859-1 decodes a single byte to, or -1
+    private static final short[] SINGLE_BYTE = new short[0x2200];
+
+    static {
+        Arrays.fill(SINGLE_BYTE, (short) -1);
+        for (int b = 0; b < 0x100; b++) {
+            SINGLE_BYTE[b] = (short) b;
+        }
+        byte[] high = new byte[0x20];
+        for (int b = 0; b < high.length; b++) {
+            high[b] = (byte) (0x80 + b);
+        }
+        if (Charset.isSupported("windows-1252")) {
+            String decoded = new String(high, Charset.forName("windows-1252"));
+            for (int b = 0; b < decoded.length(); b++) {
+                char c = decoded.charAt(b);
+                if (c != '\uFFFD' && c < SINGLE_BYTE.length) {
+                    SINGLE_BYTE[c] = (short) (0x80 + b);
+                }
+            }
+        }
+    }
+
+    private static int singleByte(char c) {
+        return c < SINGLE_BYTE.length ? SINGLE_BYTE[c] : -1;
+    }
+
+    /**
+     * Returns whether `s` looks like UTF-8 text that was wrongly decoded as windows-1252 or ISO-8859-1,
+     * such as `CafÃ©` for `Café`: all of its characters come from single bytes in those encodings,
+     * and those bytes form valid UTF-8 with at least one multi-byte sequence.
+     * Runs in one pass without allocating.
+     *
+     * @param s string
+     * @return boolean
+     */
+    public static boolean looksMisdecodedUtf8(CharSequence s) {
+        int n = s.length();
+        int expectedContinuations = 0;
+        boolean multiByte = false;
+        for (int i = 0; i < n; i++) {
+            int b = singleByte(s.charAt(i));
+            if (b < 0) {
+                return false;
+            }
+            if (expectedContinuations > 0) {
+                if ((b & 0xc0) != 0x80) {
+                    return false;
+                }
+                expectedContinuations--;
+            } else if (b >= 0x80) {
+                if (b >= 0xc2 && b <= 0xdf) {
+                    expectedContinuations = 1;
+                } else if (b >= 0xe0 && b <= 0xef) {
+                    expectedContinuations = 2;
+                } else if (b >= 0xf0 && b <= 0xf4) {
+                    expectedContinuations = 3;
+                } else {
+                    return false;
+                }
+                multiByte = true;
+            }
+        }
+        return multiByte && expectedContinuations == 0;
+    }
+
+    /**
+     * If `s` {@link #looksMisdecodedUtf8(CharSequence) looks like misdecoded UTF-8}, returns it decoded correctly;
+     * otherwise returns `s` itself.
+     *
+     * @param s string
+     * @return repaired string
+     */
+    public static String repairUtf8(String s) {
+        if (!looksMisdecodedUtf8(s)) {
+            return s;
+        }
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) singleByte(s.charAt(i));
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,71 @@
+package io.fno.grel;
+
+import java.security.MessageDigest;
+
+/**
+ * UTF-8 encoding helpers that work on any {@link CharSequence} without first copying it into a {@code String}.
+ * Unpaired surrogates are encoded as {@code '?'}, the same way {@link String#getBytes(java.nio.charset.Charset)} does.
+ */
+final class Utf8 {
+
+    private static final int CHUNK = 512;
+
+    private Utf8() {
+    }
+
+    /**
+     * Returns the code point at `i` in `s`, or {@code '?'} if `i` is an unpaired surrogate.
+     */
+    static int codePointAt(CharSequence s, int i, int end) {
+        char c = s.charAt(i);
+        if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+            return Character.toCodePoint(c, s.charAt(i + 1));
+        }
+        if (Character.isSurrogate(c)) {
+            return '?';
+        }
+        return c;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of `cp` into `buf` at `pos` and returns the new position.
+     * `buf` must have room for 4 more bytes.
+     */
+    static int encode(int cp, byte[] buf, int pos) {
+        if (cp < 0x80) {
+            buf[pos++] = (byte) cp;
+        } else if (cp < 0x800) {
+            buf[pos++] = (byte) (0xc0 | (cp >> 6));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+        } else if (cp < 0x10000) {
+            buf[pos++] = (byte) (0xe0 | (cp >> 12));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+        } else {
+            buf[pos++] = (byte) (0xf0 | (cp >> 18));
+            buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+        }
+        return pos;
+    }
+
+    /**
+     * Feeds the UTF-8 encoding of `s` into `digest`, a chunk at a time.
+     */
+    static void update(MessageDigest digest, CharSequence s) {
+        byte[] buf = new byte[CHUNK + 4];
+        int pos = 0;
+        int n = s.length();
+        for (int i = 0; i < n; ) {
+            int cp = codePointAt(s, i, n);
+            i += cp >= 0x10000 ? 2 : 1;
+            pos = encode(cp, buf, pos);
+            if (pos >= CHUNK) {
+                digest.update(buf, 0, pos);
+                pos = 0;
+            }
+        }
+        digest.update(buf, 0, pos);
+    }
+}
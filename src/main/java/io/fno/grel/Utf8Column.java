@@ -0,0 +1,238 @@
+package io.fno.grel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A column of string values stored as UTF-8 bytes in one buffer, with the start and end offset of every value,
+ * for the functions in {@link ColumnFunctions}, which work on the bytes directly instead of on decoded strings.
+ * <p>
+ * The buffer can be on the heap or off-heap (a direct or memory-mapped {@link ByteBuffer}); the column never changes
+ * its position or limit. Values are expected to be valid UTF-8, as produced by {@link #of(List)} or by a
+ * UTF-8 encoder; malformed bytes are passed through as they are.
+ * Columns are immutable, so functions such as {@link ColumnFunctions#trim(Utf8Column)} return new columns that
+ * share the buffer of their input.
+ */
+public final class Utf8Column {
+
+    private final ByteBuffer data;
+    private final int[] starts;
+    private final int[] ends;
+
+    Utf8Column(ByteBuffer data, int[] starts, int[] ends) {
+        this.data = data;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * @param values strings
+     * @return a column holding the UTF-8 encoding of `values`, on the heap
+     */
+    public static Utf8Column of(List<? extends CharSequence> values) {
+        Builder builder = builder(values.size() * 16, false);
+        for (CharSequence value : values) {
+            builder.add(value);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a column on UTF-8 values laid out one after the other in `data`: value `i` starts at
+     * `offsets[i]` and ends where value `i + 1` starts. Nothing is copied.
+     *
+     * @param data    UTF-8 bytes, accessed by absolute index
+     * @param offsets `size + 1` offsets into `data`, in increasing order
+     * @return column
+     */
+    public static Utf8Column wrap(ByteBuffer data, int[] offsets) {
+        int size = offsets.length - 1;
+        for (int i = 0; i < size; i++) {
+            if (offsets[i] > offsets[i + 1] || offsets[i] < 0 || offsets[i + 1] > data.limit()) {
+                throw new IllegalArgumentException("Invalid offsets at " + i);
+            }
+        }
+        return new Utf8Column(data, Arrays.copyOfRange(offsets, 0, size), Arrays.copyOfRange(offsets, 1, size + 1));
+    }
+
+    /**
+     * @param expectedBytes expected total size of the values, in bytes
+     * @param direct        whether to keep the values off-heap, in a direct buffer
+     * @return a builder for a new column
+     */
+    public static Builder builder(int expectedBytes, boolean direct) {
+        return new Builder(expectedBytes, direct);
+    }
+
+    /**
+     * @return number of values
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * @param row index of the value
+     * @return size of the value in bytes
+     */
+    public int byteLength(int row) {
+        return ends[row] - starts[row];
+    }
+
+    /**
+     * @param row index of the value
+     * @return a read-only buffer holding the UTF-8 bytes of the value, from its position to its limit
+     */
+    public ByteBuffer bytes(int row) {
+        ByteBuffer value = data.asReadOnlyBuffer();
+        value.limit(ends[row]).position(starts[row]);
+        return value;
+    }
+
+    /**
+     * @param row index of the value
+     * @return the value, decoded
+     */
+    public String getString(int row) {
+        int start = starts[row];
+        int length = ends[row] - start;
+        if (data.hasArray()) {
+            return new String(data.array(), data.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the values, decoded on access
+     */
+    public List<String> toStrings() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getString(index);
+            }
+
+            @Override
+            public int size() {
+                return Utf8Column.this.size();
+            }
+        };
+    }
+
+    ByteBuffer data() {
+        return data;
+    }
+
+    int start(int row) {
+        return starts[row];
+    }
+
+    int end(int row) {
+        return ends[row];
+    }
+
+    /**
+     * Appends values to a new column, in a buffer that grows as needed.
+     */
+    public static final class Builder {
+        private final boolean direct;
+        private final byte[] scratch = new byte[4];
+        private ByteBuffer data;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int size;
+        private int position;
+
+        private Builder(int expectedBytes, boolean direct) {
+            this.direct = direct;
+            data = allocate(Math.max(64, expectedBytes));
+        }
+
+        private ByteBuffer allocate(int capacity) {
+            return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        /**
+         * Appends the UTF-8 encoding of `value`.
+         */
+        public Builder add(CharSequence value) {
+            int n = value.length();
+            ensure(n * 3);
+            for (int i = 0; i < n; ) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    data.put(position++, (byte) c);
+                    i++;
+                    continue;
+                }
+                int cp = Utf8.codePointAt(value, i, n);
+                i += cp >= 0x10000 ? 2 : 1;
+                int length = Utf8.encode(cp, scratch, 0);
+                for (int k = 0; k < length; k++) {
+                    data.put(position++, scratch[k]);
+                }
+            }
+            return endValue();
+        }
+
+        /**
+         * Appends a value given as `length` UTF-8 bytes of `bytes` from `offset`.
+         */
+        public Builder add(byte[] bytes, int offset, int length) {
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                data.put(position++, bytes[offset + i]);
+            }
+            return endValue();
+        }
+
+        void ensure(int bytes) {
+            if (position + bytes > data.capacity()) {
+                int capacity = Math.max(position + bytes, data.capacity() * 2);
+                ByteBuffer grown = allocate(capacity);
+                ByteBuffer used = data.duplicate();
+                used.limit(position).position(0);
+                grown.put(used);
+                data = grown;
+            }
+        }
+
+        void put(byte b) {
+            data.put(position++, b);
+        }
+
+        /**
+         * Copies the bytes from `from` to `to` of `source`, which must fit in the space reserved with {@link #ensure}.
+         */
+        void put(ByteBuffer source, int from, int to) {
+            for (int i = from; i < to; i++) {
+                data.put(position++, source.get(i));
+            }
+        }
+
+        Builder endValue() {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = size == 0 ? 0 : ends[size - 1];
+            ends[size] = position;
+            size++;
+            return this;
+        }
+
+        /**
+         * @return the column; the builder must not be used afterwards
+         */
+        public Utf8Column build() {
+            return new Utf8Column(data, Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+        }
+    }
+}
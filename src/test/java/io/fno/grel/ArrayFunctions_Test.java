@@ -5,7 +5,9 @@ import static org.junit.Assert.*;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -27,6 +29,157 @@ public class ArrayFunctions_Test {
         assertEquals(expectedList, ArrayFunctions.get(testList, 1, 3));
     }
 
+    @Test
+    public void getCallSite() {
+        Map<String, Object> testMap = new HashMap<>();
+        testMap.put("test", "testValue");
+        List<String> testList = new ArrayList<>(Arrays.asList("testValue1", "testValue2", "testValue3"));
+        ArrayGetCallSite site = new ArrayGetCallSite();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("testValue2", site.get(testList, 1));
+            assertEquals(Arrays.asList("testValue2", "testValue3"), site.get(testList, 1, 3));
+        }
+        assertEquals(1, site.shapes());
+        assertEquals("testValue", site.get(testMap, "test"));
+        assertNull(site.get(testMap, 1));
+        assertEquals("testValue1", site.get(new LinkedList<>(testList), 0));
+        assertEquals(4, site.shapes());
+        // megamorphic: calls go straight to ArrayFunctions.get
+        assertEquals("testValue3", site.get(Arrays.asList("testValue1", "testValue2", "testValue3"), 2));
+        assertEquals("testValue2", site.get(testList, 1));
+        assertEquals("testValue", site.get(testMap, "test"));
+    }
+
+    @Test
+    public void getCallSiteErrors() {
+        ArrayGetCallSite site = new ArrayGetCallSite();
+        Map<String, Object> testMap = new HashMap<>();
+        assertNull(site.get(testMap, "test"));
+        try {
+            site.get(testMap, "test", 1);
+            fail();
+        } catch (Error e) {
+            assertEquals("'a' is a Map, so no 'to' parameter is allowed", e.getMessage());
+        }
+        try {
+            site.get(new ArrayList<>(), "test");
+            fail();
+        } catch (Error e) {
+            assertEquals("'a' is a List, so 'from' parameter must be Integer", e.getMessage());
+        }
+        try {
+            site.get(null, 1);
+            fail();
+        } catch (Error e) {
+            assertEquals("'a' is not a List or a Map", e.getMessage());
+        }
+    }
+
+    @Test
+    public void inArray() {
+        List<String> small = Arrays.asList("foo", "bar", "baz");
+        assertTrue(ArrayFunctions.inArray(small, "bar"));
+        assertFalse(ArrayFunctions.inArray(small, "qux"));
+        assertFalse(ArrayFunctions.inArray(small, null));
+        assertTrue(ArrayFunctions.inArray(new Object[]{1, null, "x"}, null));
+        assertFalse(ArrayFunctions.inArray(new Object[]{1, 2, 3}, "1"));
+
+        for (int size : new int[]{100, 10000}) {
+            List<String> codes = new ArrayList<>();
+            Object[] array = new Object[size];
+            for (int i = 0; i < size; i++) {
+                codes.add("code" + i);
+                array[i] = "code" + i;
+            }
+            for (int i = 0; i < size * 2; i += 7) {
+                assertEquals(i < size, ArrayFunctions.inArray(codes, "code" + i));
+                assertEquals(i < size, ArrayFunctions.inArray(array, "code" + i));
+            }
+            // a content-equal copy gives the same answers
+            assertTrue(ArrayFunctions.inArray(new ArrayList<>(codes), "code0"));
+        }
+    }
+
+    @Test
+    public void inArraySnapshotsTheArray() {
+        List<String> codes = new ArrayList<>(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+        assertTrue(ArrayFunctions.inArray(codes, "a"));
+        List<String> modified = new ArrayList<>(codes);
+        modified.set(0, "z");
+        assertTrue(ArrayFunctions.inArray(modified, "z"));
+        assertFalse(ArrayFunctions.inArray(modified, "a"));
+        assertTrue(ArrayFunctions.inArray(codes, "a"));
+    }
+
+    @Test
+    public void inArrayNoticesAddedAndRemovedElements() {
+        List<String> codes = new ArrayList<>(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+        assertFalse(ArrayFunctions.inArray(codes, "z"));
+        codes.add("z");
+        assertTrue(ArrayFunctions.inArray(codes, "z"));
+        codes.remove("a");
+        assertFalse(ArrayFunctions.inArray(codes, "a"));
+        Map<String, String> dictionary = new HashMap<>();
+        dictionary.put("a", "1");
+        assertEquals("1b", StringFunctions.replaceAll("ab", dictionary));
+        dictionary.put("b", "2");
+        assertEquals("12", StringFunctions.replaceAll("ab", dictionary));
+    }
+
+    @Test
+    public void slice() {
+        Object[] array = new Object[]{"a", "b", "c", "d"};
+        assertEquals(Arrays.asList("b", "c"), ArrayFunctions.slice(array, 1, 3));
+        assertEquals(Arrays.asList("b", "c", "d"), ArrayFunctions.slice(array, 1));
+        assertEquals(Arrays.asList("b", "c"), ArrayFunctions.slice(array, 1, -1));
+        assertEquals(Arrays.asList("c", "d"), ArrayFunctions.slice(array, -2));
+        assertTrue(ArrayFunctions.slice(array, 3, 1).isEmpty());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ArrayFunctions.slice(array, -10, 10));
+        assertEquals(Arrays.asList("c"), ArrayFunctions.slice(ArrayFunctions.slice(array, 1, 4), 1, 2));
+    }
+
+    @Test
+    public void reverse() {
+        Object[] array = new Object[]{"a", "b", "c", "d"};
+        ArrayView<Object> reversed = ArrayFunctions.reverse(array);
+        assertEquals(Arrays.asList("d", "c", "b", "a"), reversed);
+        assertArrayEquals(new Object[]{"a", "b", "c", "d"}, array);
+        assertEquals(Arrays.asList("c", "b"), reversed.subList(1, 3));
+        assertEquals(Arrays.asList("b", "c"), ArrayFunctions.reverse(reversed.subList(1, 3)));
+        assertEquals(Arrays.asList("c", "b"), ArrayFunctions.slice(reversed, 1, 3));
+        assertArrayEquals(new Object[]{"d", "c"}, reversed.subList(0, 2).toArray());
+    }
+
+    @Test
+    public void viewsAreImmutable() {
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b", "c"));
+        @SuppressWarnings("unchecked")
+        List<Object> view = (List<Object>) ArrayFunctions.get(list, 0, 2);
+        assertTrue(view instanceof ArrayView);
+        try {
+            view.set(0, "z");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("a", list.get(0));
+        }
+        try {
+            view.add("z");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals(3, list.size());
+        }
+    }
+
+    @Test
+    public void functionsAcceptViews() {
+        ArrayView<Object> view = ArrayFunctions.reverse(new Object[]{"b", "a", "c", "a"});
+        assertEquals("a,c,a,b", ArrayFunctions.join(view, ","));
+        assertEquals(Integer.valueOf(4), ArrayFunctions.length(view));
+        assertArrayEquals(new Object[]{"a", "a", "b", "c"}, ArrayFunctions.sort(view));
+        assertArrayEquals(new Object[]{"a", "b", "c"}, ArrayFunctions.uniques(view));
+        assertTrue(ArrayFunctions.inArray(view, "c"));
+    }
+
     @Test
     public void join() {
         List<String> input = new ArrayList<>();
@@ -0,0 +1,137 @@
+package io.fno.grel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchRunner_Test {
+
+    private final List<Path> dirs = new ArrayList<>();
+
+    @After
+    public void deleteFiles() throws IOException {
+        for (Path dir : dirs) {
+            LookupIndex_Test.delete(dir);
+        }
+    }
+
+    private Path file(String name, String content) throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        dirs.add(dir);
+        Path file = dir.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String run(String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = BatchRunner.run(args, new ByteArrayInputStream(new byte[0]), out,
+                new PrintStream(err, true, "UTF-8"));
+        assertEquals(new String(err.toByteArray(), StandardCharsets.UTF_8), 0, status);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void csv() throws IOException {
+        StringBuilder csv = new StringBuilder("id,name\n");
+        StringBuilder expected = new StringBuilder("id,name,slug\n");
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append(",\" Name ").append(i).append(", Jr\"\n");
+            expected.append(i).append(",\"Name ").append(i).append(", Jr\",\"name-").append(i).append(",-jr\"\n");
+        }
+        Path input = file("people.csv", csv.toString());
+        assertEquals(expected.toString(), run(input.toString(), "--threads", "4", "--chunk", "7",
+                "-a", "name=value.trim()",
+                "-a", "slug=cells[\"name\"].value.toLowercase().replace(' ', '-')"));
+    }
+
+    @Test
+    public void errorsAndOutputFile() throws IOException {
+        Path input = file("numbers.csv", "n\n1\nx\n\n3\n");
+        Path output = input.resolveSibling("out.csv");
+        assertEquals("", run(input.toString(), "-o", output.toString(), "-a", "n=value.toNumber()"));
+        assertEquals("n\n1\nx\n3\n", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+        assertEquals("n\n1\n\n3\n", run(input.toString(), "--on-error", "null", "-a", "n=value.toNumber()"));
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = BatchRunner.run(new String[]{input.toString(), "--on-error", "fail", "-a", "n=value.toNumber()"},
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new PrintStream(err));
+        assertEquals(1, status);
+        assertTrue(err.toString(), err.toString().contains("Row 2"));
+    }
+
+    @Test
+    public void ndjson() throws IOException {
+        Path input = file("records.ndjson", "\uFEFF{\"name\":\" Ann \",\"age\":41}\n\n{\"name\":\"Bob\",\"tags\":\"a,b\"}\n");
+        assertEquals("{\"name\":\"ANN\",\"age\":41,\"tags\":null,\"next\":\"42.0\"}\n"
+                        + "{\"name\":\"BOB\",\"tags\":[\"a\",\"b\"],\"next\":null}\n",
+                run(input.toString(), "-a", "name=value.trim().toUppercase()", "-a", "tags=value.smartSplit()",
+                        "-a", "next=cells['age'].value.toString().toNumber().toString().replace('1', '2.0')"));
+    }
+
+    @Test
+    public void usage() {
+        for (String[] args : new String[][]{{}, {"--threads", "0", "a.csv"}, {"a.csv", "-a", "x"}, {"--bogus", "1"}}) {
+            assertEquals(2, BatchRunner.run(args, new ByteArrayInputStream(new byte[0]),
+                    new ByteArrayOutputStream(), new PrintStream(new ByteArrayOutputStream())));
+        }
+    }
+
+    @Test
+    public void mappedWindowsSplitCharacters() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("é€𝄞").append(i);
+        }
+        Path input = file("text.txt", text.toString());
+        for (long window : new long[]{4, 5, 6, 7, 64}) {
+            StringBuilder read = new StringBuilder();
+            char[] buf = new char[7];
+            try (Reader reader = new MappedReader(input, window)) {
+                for (int n = reader.read(buf, 0, buf.length); n >= 0; n = reader.read(buf, 0, buf.length)) {
+                    read.append(buf, 0, n);
+                }
+            }
+            assertEquals(text.toString(), read.toString());
+        }
+    }
+
+    @Test
+    public void mappedSingleCharsOutsideBmp() throws IOException {
+        String text = "a\uD83D\uDE00b\uD834\uDD1E\uD834\uDD1E\u00e9";
+        Path input = file("emoji.txt", text);
+        for (long window : new long[]{4, 5, 6, 64}) {
+            StringBuilder read = new StringBuilder();
+            try (Reader reader = new MappedReader(input, window)) {
+                for (int c = reader.read(); c >= 0; c = reader.read()) {
+                    read.append((char) c);
+                }
+            }
+            assertEquals(text, read.toString());
+
+            // single chars and larger reads mixed
+            read.setLength(0);
+            char[] buf = new char[3];
+            try (Reader reader = new MappedReader(input, window)) {
+                read.append((char) reader.read()).append((char) reader.read());
+                for (int n = reader.read(buf, 0, buf.length); n >= 0; n = reader.read(buf, 0, buf.length)) {
+                    read.append(buf, 0, n);
+                }
+            }
+            assertEquals(text, read.toString());
+        }
+    }
+}
@@ -3,7 +3,9 @@ package io.fno.grel;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
 
@@ -43,4 +45,18 @@ public class BooleanFunctions_Test {
         Boolean output = BooleanFunctions.xor(input);
         assertFalse(output);
     }
+
+    private static final Supplier<Boolean> UNUSED = () -> {
+        throw new AssertionError("evaluated an operand that was not needed");
+    };
+
+    @Test
+    public void lazy() {
+        assertFalse(BooleanFunctions.andLazy(Arrays.asList(() -> true, () -> false, UNUSED)));
+        assertTrue(BooleanFunctions.andLazy(Arrays.asList(() -> true, () -> true)));
+        assertTrue(BooleanFunctions.orLazy(Arrays.asList(() -> false, () -> true, UNUSED)));
+        assertFalse(BooleanFunctions.orLazy(Arrays.asList(() -> false, () -> false)));
+        assertFalse(BooleanFunctions.xorLazy(Arrays.asList(() -> true, () -> false, () -> true, UNUSED)));
+        assertTrue(BooleanFunctions.xorLazy(Arrays.asList(() -> false, () -> true, () -> false)));
+    }
 }
@@ -0,0 +1,83 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BufferFunctions_Test {
+
+    private static String largeValue() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            s.append("Zoë & \"Zeb\", ").append(i).append(" 😀\n");
+        }
+        return s.toString();
+    }
+
+    private static ByteBuffer utf8(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void hash() {
+        String value = largeValue();
+        ByteBuffer bytes = utf8(value);
+        assertEquals(StringFunctions.md5(value), BufferFunctions.md5(bytes));
+        assertEquals(StringFunctions.sha1(value), BufferFunctions.sha1(bytes));
+        assertEquals(0, bytes.position());
+    }
+
+    @Test
+    public void hashFileRegion() throws IOException {
+        String value = largeValue();
+        Path file = Files.createTempFile("grel", ".txt");
+        try {
+            Files.write(file, ("header" + value).getBytes(StandardCharsets.UTF_8));
+            long size = Files.size(file) - 6;
+            assertEquals(StringFunctions.md5(value), BufferFunctions.md5(file, 6, size));
+            assertEquals(StringFunctions.sha1(value), BufferFunctions.sha1(BufferFunctions.map(file, 6, size)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void escape() throws IOException {
+        String value = largeValue();
+        for (String mode : new String[]{"html", "xml", "csv", "url", "javascript", "none"}) {
+            StringWriter out = new StringWriter();
+            BufferFunctions.escape(utf8(value), mode, out);
+            assertEquals(mode, StringFunctions.escape(value, mode), out.toString());
+        }
+        StringWriter out = new StringWriter();
+        BufferFunctions.escape(utf8("plain"), "csv", out);
+        assertEquals("plain", out.toString());
+    }
+
+    @Test
+    public void split() {
+        String[] inputs = {largeValue(), ",,a,,b,,", "", ",", "no separator"};
+        for (String input : inputs) {
+            List<String> parts = new ArrayList<>();
+            BufferFunctions.split(utf8(input), ",", parts::add);
+            assertEquals(StringFunctions.split(input, ","), parts);
+        }
+        List<String> parts = new ArrayList<>();
+        BufferFunctions.split(utf8("a€b€€"), "€", parts::add);
+        assertEquals(StringFunctions.split("a€b€€", "€"), parts);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void split_regex() {
+        BufferFunctions.split(utf8("a1b"), "\\d", s -> { });
+    }
+}
@@ -0,0 +1,72 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CanonicalPool_Test {
+
+    @Test
+    public void canonical() {
+        CanonicalPool pool = new CanonicalPool(16);
+        String a = new String("category");
+        String b = new String("category");
+        assertSame(a, pool.canonical(a));
+        assertSame(a, pool.canonical(b));
+        assertEquals(1, pool.hits());
+        assertEquals(1, pool.misses());
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        // a single set of two ways
+        CanonicalPool pool = new CanonicalPool(2);
+        String hot = new String("hot");
+        pool.canonical(hot);
+        pool.canonical("rare1");
+        // hot is in the older way now; a hit makes it the most recently used again
+        assertSame(hot, pool.canonical(new String("hot")));
+        pool.canonical("rare2");
+        assertSame(hot, pool.canonical(new String("hot")));
+        pool.canonical("rare3");
+        pool.canonical("rare4");
+        assertNotSame(hot, pool.canonical(new String("hot")));
+        assertEquals(4, pool.evictions());
+    }
+
+    @Test
+    public void bounded() {
+        CanonicalPool pool = new CanonicalPool(8);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, pool.canonical("value" + i));
+        }
+        assertTrue(pool.size() <= pool.capacity());
+        assertEquals(8, pool.capacity());
+        assertTrue(pool.evictions() > 0);
+    }
+
+    @Test
+    public void longValuesAreNotPooled() {
+        CanonicalPool pool = new CanonicalPool(16, 4);
+        pool.canonical("too long");
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.misses());
+    }
+
+    @Test
+    public void stringFunctions() {
+        CanonicalPool pool = new CanonicalPool(64);
+        StringFunctions.setCanonicalPool(pool);
+        try {
+            String first = StringFunctions.toLowercase("BELGIUM");
+            assertSame(first, StringFunctions.toLowercase("Belgium"));
+            assertSame(first, StringFunctions.trim(" belgium "));
+            assertSame(first, StringFunctions.replace("bElgium", "E", "e"));
+            assertSame(first, StringFunctions.escape("belgium", "html"));
+        } finally {
+            StringFunctions.setCanonicalPool(null);
+        }
+        assertNotSame(StringFunctions.toLowercase("BELGIUM"), StringFunctions.toLowercase("Belgium"));
+    }
+}
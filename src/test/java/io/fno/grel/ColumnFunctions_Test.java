@@ -0,0 +1,81 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ColumnFunctions_Test {
+
+    private static final List<String> VALUES = Arrays.asList(
+            "", "  Island  ", "plain", "MiXeD Case 123", "Zoë & \"Zeb\", <b>", "café\t", "😀 smile",
+            "a,b", "line\nbreak", "it's/\\", "İstanbul ß", "\u0001control");
+
+    private static Utf8Column direct(List<String> values) {
+        Utf8Column.Builder builder = Utf8Column.builder(8, true);
+        for (String value : values) {
+            builder.add(value);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void roundTrip() {
+        for (Utf8Column column : new Utf8Column[]{Utf8Column.of(VALUES), direct(VALUES)}) {
+            assertEquals(VALUES, new ArrayList<>(column.toStrings()));
+            assertEquals("plain", StandardCharsets.UTF_8.decode(column.bytes(2)).toString());
+        }
+    }
+
+    @Test
+    public void wrap() {
+        byte[] bytes = "onetwothree".getBytes(StandardCharsets.UTF_8);
+        Utf8Column column = Utf8Column.wrap(ByteBuffer.wrap(bytes), new int[]{0, 3, 6, 11});
+        assertEquals(Arrays.asList("one", "two", "three"), column.toStrings());
+        assertEquals(5, column.byteLength(2));
+    }
+
+    @Test
+    public void sameAsStringFunctions() {
+        for (Utf8Column column : new Utf8Column[]{Utf8Column.of(VALUES), direct(VALUES)}) {
+            int[] lengths = ColumnFunctions.length(column);
+            boolean[] startsWith = ColumnFunctions.startsWith(column, "  I");
+            boolean[] contains = ColumnFunctions.contains(column, "ë &");
+            List<String> trimmed = ColumnFunctions.trim(column).toStrings();
+            List<String> lower = ColumnFunctions.toLowercase(column).toStrings();
+            List<String> upper = ColumnFunctions.toUppercase(column).toStrings();
+            List<String> md5 = ColumnFunctions.md5(column).toStrings();
+            List<String> sha1 = ColumnFunctions.sha1(column).toStrings();
+            for (int i = 0; i < VALUES.size(); i++) {
+                String value = VALUES.get(i);
+                assertEquals(value, StringFunctions.length(value), Integer.valueOf(lengths[i]));
+                assertEquals(value, StringFunctions.startsWith(value, "  I"), startsWith[i]);
+                assertEquals(value, StringFunctions.contains(value, "ë &"), contains[i]);
+                assertEquals(value, StringFunctions.trim(value), trimmed.get(i));
+                assertEquals(value, StringFunctions.toLowercase(value), lower.get(i));
+                assertEquals(value, StringFunctions.toUppercase(value), upper.get(i));
+                assertEquals(value, StringFunctions.md5(value), md5.get(i));
+                assertEquals(value, StringFunctions.sha1(value), sha1.get(i));
+            }
+            for (String mode : new String[]{"url", "csv", "html", "xml", "javascript", "none"}) {
+                List<String> escaped = ColumnFunctions.escape(column, mode).toStrings();
+                for (int i = 0; i < VALUES.size(); i++) {
+                    assertEquals(mode + " " + VALUES.get(i), StringFunctions.escape(VALUES.get(i), mode), escaped.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void trimSharesBytes() {
+        Utf8Column column = Utf8Column.of(VALUES);
+        Utf8Column trimmed = ColumnFunctions.trim(column);
+        assertSame(column.data(), trimmed.data());
+        assertEquals("Island", trimmed.getString(1));
+    }
+}
@@ -13,4 +13,14 @@ public class ControlsFunctions_Test {
         out = (String) ControlsFunctions.ifThenElse(false, one, two);
         assertEquals(two, out);
     }
+
+    @Test
+    public void ifThenElseLazy() {
+        assertEquals("one", ControlsFunctions.ifThenElseLazy(true, () -> "one", () -> {
+            throw new AssertionError("evaluated the false branch");
+        }));
+        assertEquals("two", ControlsFunctions.ifThenElseLazy(false, () -> {
+            throw new AssertionError("evaluated the true branch");
+        }, () -> "two"));
+    }
 }
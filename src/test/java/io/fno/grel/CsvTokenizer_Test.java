@@ -0,0 +1,81 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CsvTokenizer_Test {
+
+    @Test
+    public void quotedFields() {
+        CsvTokenizer tokenizer = new CsvTokenizer(',');
+        assertArrayEquals(new String[]{"a", "b, c", "say \"hi\"", ""},
+                tokenizer.split("a,\"b, c\",\"say \"\"hi\"\"\","));
+        assertArrayEquals(new String[]{"ab\"c", "x\"y\""}, tokenizer.split("ab\"c,x\"y\""));
+        assertArrayEquals(new String[]{"quoted then", "unclosed, rest"}, tokenizer.split("\"quoted\" then,\"unclosed, rest"));
+        assertArrayEquals(new String[]{""}, tokenizer.split(""));
+        assertArrayEquals(new String[]{"", "", ""}, tokenizer.split(",,"));
+    }
+
+    @Test
+    public void guessesSeparator() {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        assertArrayEquals(new String[]{"a", "b\tc", "d"}, tokenizer.split("a,b\tc,d"));
+        assertArrayEquals(new String[]{"a,b", "c"}, tokenizer.split("a,b\tc"));
+        // quoted commas still count towards the guess, as they always did
+        assertArrayEquals(new String[]{"x", "1,2,3"}, tokenizer.split("x,\"1,2,3\""));
+        assertArrayEquals(new String[]{"no separator"}, tokenizer.split("no separator"));
+    }
+
+    @Test
+    public void longSeparators() {
+        CsvTokenizer tokenizer = new CsvTokenizer("||");
+        assertArrayEquals(new String[]{"a", "b|c", "d||e", ""}, tokenizer.split("a||b|c||\"d||e\"||"));
+    }
+
+    @Test
+    public void batches() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer('\t');
+        List<String[]> lines = tokenizer.splitAll(Arrays.asList("a\tb", "\"c\td\"\te", "f"));
+        assertEquals(3, lines.size());
+        assertArrayEquals(new String[]{"c\td", "e"}, lines.get(1));
+        assertArrayEquals(new String[]{"f"}, lines.get(2));
+
+        String text = "\uFEFFid,note\r\n\r\n1,\"two\r\nlines\"\n2,\"a \"\"quote\"\"\"\n\n3,last";
+        try (CsvTokenizer.Records records = new CsvTokenizer(',').records(new StringReader(text))) {
+            List<String[]> all = records.readAll();
+            assertEquals(4, all.size());
+            assertArrayEquals(new String[]{"id", "note"}, all.get(0));
+            assertArrayEquals(new String[]{"1", "two\r\nlines"}, all.get(1));
+            assertArrayEquals(new String[]{"2", "a \"quote\""}, all.get(2));
+            assertArrayEquals(new String[]{"3", "last"}, all.get(3));
+            List<String> fields = new ArrayList<>();
+            assertFalse(records.next(fields));
+            assertTrue(fields.isEmpty());
+        }
+    }
+
+    @Test
+    public void unclosedQuoteAtEndOfInput() throws IOException {
+        try (CsvTokenizer.Records records = new CsvTokenizer(',').records(new StringReader("a,\"b\nc"))) {
+            List<String[]> all = records.readAll();
+            assertEquals(1, all.size());
+            assertArrayEquals(new String[]{"a", "b\nc"}, all.get(0));
+        }
+    }
+
+    @Test
+    public void smartSplit() {
+        assertArrayEquals(new String[]{"fire", "water, earth", "air"},
+                StringFunctions.smartSplit("fire,\"water, earth\",air"));
+        assertArrayEquals(new String[]{"a", "b,c", ""}, StringFunctions.smartSplit("a\tb,c\t", "\t"));
+        assertArrayEquals(new String[]{"a", "b;c", "d"}, StringFunctions.smartSplit("a;\"b;c\";d", ";"));
+        assertArrayEquals(new String[]{"1", "2", "3"}, StringFunctions.smartSplit("1 2  3", "\\s+"));
+    }
+}
@@ -0,0 +1,130 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DateFunctions_Test {
+
+    private static final String[] UNITS = {"milliseconds", "seconds", "minutes", "hours", "days", "weeks", "months", "years"};
+
+    private static final ChronoUnit[] CHRONO_UNITS = {ChronoUnit.MILLIS, ChronoUnit.SECONDS, ChronoUnit.MINUTES,
+            ChronoUnit.HOURS, ChronoUnit.DAYS, ChronoUnit.WEEKS, ChronoUnit.MONTHS, ChronoUnit.YEARS};
+
+    private static LocalDateTime utc(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+    }
+
+    private static long epochMillis(LocalDateTime date) {
+        return date.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    @Test
+    public void diff() {
+        LocalDateTime d1 = LocalDateTime.of(2011, 11, 1, 0, 0);
+        LocalDateTime d2 = LocalDateTime.of(2009, 11, 1, 0, 0);
+        assertEquals(104, DateFunctions.diff(d1, d2, "weeks"));
+        assertEquals(24, DateFunctions.diff(d1, d2, "months"));
+        assertEquals(-2, DateFunctions.diff(d2, d1, "years"));
+        assertEquals(5, DateFunctions.diff(d1.plusHours(5), d1, "hours"));
+    }
+
+    @Test
+    public void monthsAtMonthEndsMatchJavaTime() {
+        LocalDateTime start = LocalDateTime.of(2019, 8, 31, 3, 0);
+        LocalDateTime end = LocalDateTime.of(2019, 10, 1, 1, 0);
+        assertEquals(0, DateFunctions.diff(end, start, "months"));
+        assertEquals(0, DateFunctions.diffEpochMillis(epochMillis(end), epochMillis(start), "months"));
+        // not symmetric: backwards, the day moves forward to 2019-09-01
+        assertEquals(-1, ChronoUnit.MONTHS.between(end, start));
+        assertEquals(-1, DateFunctions.diffEpochMillis(epochMillis(start), epochMillis(end), "months"));
+
+        Random random = new Random(41);
+        for (int round = 0; round < 200_000; round++) {
+            // the last or first days of months, at random times of day
+            LocalDateTime date1 = LocalDateTime.of(1900 + random.nextInt(300), 1 + random.nextInt(12), 1, 0, 0)
+                    .plusDays(random.nextInt(4) - 2).plusSeconds(random.nextInt(86_400));
+            LocalDateTime date2 = date1.plusMonths(random.nextInt(49) - 24).plusDays(random.nextInt(5) - 2)
+                    .withHour(random.nextInt(24)).withMinute(random.nextInt(60));
+            String message = date1 + " " + date2;
+            long millis1 = epochMillis(date1);
+            long millis2 = epochMillis(date2);
+            assertEquals(message, ChronoUnit.MONTHS.between(date2, date1),
+                    DateFunctions.diffEpochMillis(millis1, millis2, "months"));
+            assertEquals(message, ChronoUnit.YEARS.between(date2, date1),
+                    DateFunctions.diffEpochMillis(millis1, millis2, "years"));
+            assertEquals(message, ChronoUnit.MONTHS.between(date2.toLocalDate(), date1.toLocalDate()),
+                    DateFunctions.diffEpochDay(date1.toLocalDate().toEpochDay(), date2.toLocalDate().toEpochDay(), "months"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownUnit() {
+        DateFunctions.diffEpochMillis(0, 0, "fortnights");
+    }
+
+    @Test
+    public void epochMillisMatchesJavaTime() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            // from about 1600 to 2300
+            long millis1 = (long) ((random.nextDouble() - 0.5) * 2.2e13);
+            long millis2 = random.nextInt(4) == 0 ? millis1 + random.nextInt(100_000_000) : (long) ((random.nextDouble() - 0.5) * 2.2e13);
+            LocalDateTime date1 = utc(millis1);
+            LocalDateTime date2 = utc(millis2);
+            int u = random.nextInt(UNITS.length);
+            long value = random.nextInt(2000) - 1000;
+            String message = date1 + " " + date2 + " " + UNITS[u];
+            assertEquals(message, epochMillis(date1.plus(value, CHRONO_UNITS[u])),
+                    DateFunctions.incEpochMillis(millis1, value, UNITS[u]));
+            assertEquals(message, CHRONO_UNITS[u].between(date2, date1), DateFunctions.diffEpochMillis(millis1, millis2, UNITS[u]));
+
+            assertEquals(message, date1.getYear(), DateFunctions.datePartEpochMillis(millis1, "year"));
+            assertEquals(message, date1.getMonthValue(), DateFunctions.datePartEpochMillis(millis1, "month"));
+            assertEquals(message, date1.getDayOfMonth(), DateFunctions.datePartEpochMillis(millis1, "day"));
+            assertEquals(message, date1.getDayOfWeek().getValue(), DateFunctions.datePartEpochMillis(millis1, "dayOfWeek"));
+            assertEquals(message, date1.getDayOfYear(), DateFunctions.datePartEpochMillis(millis1, "dayOfYear"));
+            assertEquals(message, date1.getHour(), DateFunctions.datePartEpochMillis(millis1, "hour"));
+            assertEquals(message, date1.getMinute(), DateFunctions.datePartEpochMillis(millis1, "minute"));
+            assertEquals(message, date1.getSecond(), DateFunctions.datePartEpochMillis(millis1, "second"));
+            assertEquals(message, date1.getNano() / 1_000_000, DateFunctions.datePartEpochMillis(millis1, "millisecond"));
+        }
+    }
+
+    @Test
+    public void epochDay() {
+        long day = LocalDate.of(2020, 1, 31).toEpochDay();
+        assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), DateFunctions.incEpochDay(day, 1, "month"));
+        assertEquals(LocalDate.of(2021, 1, 31).toEpochDay(), DateFunctions.incEpochDay(day, 1, "year"));
+        assertEquals(day + 14, DateFunctions.incEpochDay(day, 2, "weeks"));
+        assertEquals(day - 1, DateFunctions.incEpochDay(day, -1, "hours"));
+        assertEquals(11, DateFunctions.diffEpochDay(LocalDate.of(2021, 1, 30).toEpochDay(), day, "months"));
+        assertEquals(48, DateFunctions.diffEpochDay(day + 2, day, "hours"));
+        assertEquals(5, DateFunctions.datePartEpochDay(day, "dayOfWeek"));
+        assertEquals(3, DateFunctions.datePartEpochDay(-1, "dayOfWeek"));
+        assertEquals(1969, DateFunctions.datePartEpochDay(-1, "year"));
+    }
+
+    @Test
+    public void frozenClock() {
+        try {
+            DateFunctions.setClock(Clock.fixed(Instant.parse("2022-03-24T10:15:30Z"), ZoneOffset.UTC));
+            assertEquals(LocalDateTime.of(2022, 3, 24, 10, 15, 30), DateFunctions.now());
+            DateFunctions.setClock(null);
+            Clock frozen = DateFunctions.freeze();
+            LocalDateTime first = DateFunctions.now();
+            assertEquals(first, DateFunctions.now());
+            assertEquals(frozen.millis(), DateFunctions.nowEpochMillis());
+        } finally {
+            DateFunctions.setClock(null);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class Deferred_Test {
+
+    @Test
+    public void computedOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        Deferred<Integer> deferred = Deferred.of(calls::incrementAndGet);
+        assertFalse(deferred.isDone());
+        assertEquals(Integer.valueOf(1), deferred.get());
+        assertEquals(Integer.valueOf(1), deferred.get());
+        assertTrue(deferred.isDone());
+        assertEquals(1, calls.get());
+        assertTrue(Deferred.value("x").isDone());
+    }
+
+    @Test
+    public void call() {
+        Deferred<Object> md5 = Deferred.call(StringFunctions.class, "md5", "abc");
+        Deferred<Object> length = Deferred.call(StringFunctions.class, "length", md5);
+        assertFalse(md5.isDone());
+        assertEquals(32, length.get());
+        assertTrue(md5.isDone());
+    }
+
+    @Test
+    public void overloadChosenFromComputedArguments() {
+        Deferred<Object[]> array = Deferred.of(() -> new Object[]{"a", "b"});
+        assertEquals(2, Deferred.call(ArrayFunctions.class, "length", array).get());
+        Deferred<List<String>> list = Deferred.of(() -> Arrays.asList("a", "b", "c"));
+        assertEquals(3, Deferred.call(ArrayFunctions.class, "length", list).get());
+        Deferred<Object> text = Deferred.call(StringFunctions.class, "toUppercase", "abcd");
+        assertEquals(4, Deferred.call(StringFunctions.class, "length", text).get());
+    }
+
+    @Test
+    public void unusedBranchesAreNotComputed() {
+        Deferred<Object> cheap = Deferred.call(StringFunctions.class, "toUppercase", "value");
+        Deferred<Object> expensive = Deferred.call(StringFunctions.class, "sha1", "value");
+        Deferred<Object> result = Deferred.call(ControlsFunctions.class, "ifThenElseLazy", true, cheap, expensive);
+        assertEquals("VALUE", result.get());
+        assertFalse(expensive.isDone());
+
+        Deferred<Object> first = Deferred.value(null);
+        assertEquals("VALUE", OtherFunctions.coalesceLazy(first, cheap, expensive));
+        assertFalse(expensive.isDone());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMethod() {
+        Deferred.call(StringFunctions.class, "noSuchFunction", "value");
+    }
+}
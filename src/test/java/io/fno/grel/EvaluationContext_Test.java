@@ -0,0 +1,109 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EvaluationContext_Test {
+
+    @Test
+    public void computesOncePerRecord() {
+        EvaluationContext context = new EvaluationContext();
+        AtomicInteger calls = new AtomicInteger();
+        for (int record = 0; record < 3; record++) {
+            context.nextRecord();
+            for (int i = 0; i < 4; i++) {
+                String hash = context.apply("md5", "value" + record, s -> {
+                    calls.incrementAndGet();
+                    return StringFunctions.md5(s);
+                });
+                assertEquals(StringFunctions.md5("value" + record), hash);
+            }
+        }
+        assertEquals(3, calls.get());
+        assertEquals(9, context.hits());
+        assertEquals(3, context.misses());
+    }
+
+    @Test
+    public void forgetsPreviousRecord() {
+        EvaluationContext context = new EvaluationContext();
+        AtomicInteger calls = new AtomicInteger();
+        context.apply("length", "abc", s -> calls.incrementAndGet());
+        context.nextRecord();
+        assertEquals(Integer.valueOf(2), context.apply("length", "abc", s -> calls.incrementAndGet()));
+    }
+
+    @Test
+    public void distinguishesCalls() {
+        EvaluationContext context = new EvaluationContext();
+        assertEquals("abc", context.apply("toLowercase", "ABC", StringFunctions::toLowercase));
+        assertEquals("ABC", context.apply("toUppercase", "ABC", StringFunctions::toUppercase));
+        assertEquals("def", context.apply("toLowercase", "DEF", StringFunctions::toLowercase));
+        assertEquals("one", context.apply("f", "one", (String s) -> s));
+        assertEquals("two", context.apply("f", "one", null, (String s, String t) -> "two"));
+        assertEquals("three", context.apply("f", "one", "x", (String s, String t) -> "three"));
+        assertNull(context.apply("f", null, s -> null));
+        assertNull(context.apply("f", null, s -> "recomputed"));
+        assertEquals(1, context.hits());
+    }
+
+    @Test
+    public void reflectiveCalls() {
+        EvaluationContext context = new EvaluationContext();
+        assertEquals("a-b", context.call(StringFunctions.class, "replace", "a b", " ", "-"));
+        assertEquals("a-b", context.call(StringFunctions.class, "replace", "a b", " ", "-"));
+        assertEquals("a_b", context.call(StringFunctions.class, "replace", "a b", " ", "_"));
+        assertEquals(1, context.hits());
+        // the overload of length is chosen once the array is computed
+        assertEquals(2, context.call(ArrayFunctions.class, "length", Deferred.of(() -> new Object[]{"a", "b"})));
+    }
+
+    @Test
+    public void nestedCallsAndGrowth() {
+        EvaluationContext context = new EvaluationContext(1);
+        int capacity = context.capacity();
+        for (int i = 0; i < 100; i++) {
+            String value = "v" + i;
+            String result = context.apply("outer", value,
+                    s -> context.apply("inner", s, StringFunctions::toUppercase) + "!");
+            assertEquals("V" + i + "!", result);
+        }
+        assertTrue(context.capacity() > capacity);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("V" + i, context.apply("inner", "v" + i, s -> "missing"));
+        }
+        capacity = context.capacity();
+        context.nextRecord();
+        for (int i = 0; i < 100; i++) {
+            context.apply("inner", "v" + i, StringFunctions::toUppercase);
+        }
+        assertEquals(capacity, context.capacity());
+    }
+
+    @Test
+    public void generationWraps() {
+        EvaluationContext context = new EvaluationContext();
+        context.skipTo(Integer.MAX_VALUE - 1);
+        context.apply("f", "a", s -> 1);
+        context.nextRecord();
+        assertEquals(Integer.valueOf(2), context.apply("f", "a", s -> 2));
+        assertEquals(Integer.valueOf(2), context.apply("f", "a", s -> 3));
+    }
+
+    @Test
+    public void errorsAreNotRemembered() {
+        EvaluationContext context = new EvaluationContext();
+        try {
+            context.apply("f", "a", s -> {
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals("ok", context.apply("f", "a", s -> "ok"));
+    }
+}
@@ -0,0 +1,80 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FunctionChain_Test {
+
+    @Test
+    public void apply() {
+        FunctionChain chain = FunctionChain.parse("value.trim().toLowercase().replace(\" \", '-')");
+        assertNull(chain.column());
+        assertEquals("hello-world", chain.apply("  Hello World "));
+        assertNull(chain.apply(null));
+        assertEquals("value.trim().toLowercase().replace(\" \", '-')", chain.toString());
+    }
+
+    @Test
+    public void overloadsAndLiterals() {
+        assertEquals(5, FunctionChain.parse("value.length()").apply("hello"));
+        assertEquals(2, FunctionChain.parse("value.length()").apply(Arrays.asList("a", "b")));
+        assertEquals("b\tc", FunctionChain.parse("value . substring( 1 ) .replace('_', \"\\t\")").apply("ab_c"));
+        assertEquals("\u00e9", FunctionChain.parse("value.replace('e', '\\u00e9')").apply("e"));
+        assertEquals(123, FunctionChain.parse("value.toString().toNumber()").apply(" 123".trim()));
+        assertEquals("24/03/2022", FunctionChain.parse("value.toString('dd/MM/yyyy')").apply("2022-03-24"));
+        assertEquals("1,234.50", FunctionChain.parse("value.toString('#,##0.00')").apply(1234.5));
+        assertEquals(9.0, (Double) FunctionChain.parse("value.pow(2.0)").apply(3.0), 0.0);
+        assertEquals(true, FunctionChain.parse("value.startsWith('a')").apply("abc"));
+        try {
+            FunctionChain.parse("value.mod(2)").apply(2.5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("No function mod"));
+        }
+    }
+
+    @Test
+    public void numberConversions() {
+        assertEquals(9.0, (Double) FunctionChain.parse("value.pow(2)").apply(3.0), 0.0);
+        assertEquals(8.0, (Double) FunctionChain.parse("value.pow(3)").apply(2), 0.0);
+        assertEquals(42.0, (Double) FunctionChain.parse("value.toNumber().floor()").apply("42"), 0.0);
+        assertEquals(1, FunctionChain.parse("value.mod(2)").apply(5L));
+        assertEquals(1, FunctionChain.parse("value.mod(2)").apply(5.0));
+        // an Integer parameter does not take a long that does not fit
+        try {
+            FunctionChain.parse("value.mod(2)").apply(1L << 40);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("No function mod"));
+        }
+    }
+
+    @Test
+    public void cells() {
+        FunctionChain chain = FunctionChain.parse("cells[\"first name\"].value.toUppercase()");
+        assertEquals("first name", chain.column());
+        assertEquals("ANN", chain.apply("ann"));
+    }
+
+    @Test
+    public void errors() {
+        for (String invalid : new String[]{"", "trim()", "value.trim", "value.nope()", "value.trim(1, 2, 3, 4)",
+                "value.replace('a', 'b", "value.trim() x", "cells['a'].trim()", "value.substring(1.2.3)"}) {
+            try {
+                FunctionChain.parse(invalid);
+                fail(invalid);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("position"));
+            }
+        }
+        try {
+            FunctionChain.parse("value.toNumber()").apply("not a number");
+            fail();
+        } catch (NumberFormatException e) {
+            // the exception of the function itself
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class FunctionProcessor_Test {
+
+    /**
+     * Publishes 0 until `count`, as they are requested.
+     */
+    private static final class Range implements Flow.Publisher<Integer> {
+        private final int count;
+        private final AtomicLong requested = new AtomicLong();
+        private volatile boolean cancelled;
+
+        Range(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+            AtomicLong demand = new AtomicLong();
+            AtomicInteger next = new AtomicInteger();
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    requested.addAndGet(n);
+                    if (demand.getAndAdd(n) != 0) {
+                        return;
+                    }
+                    do {
+                        if (cancelled) {
+                            return;
+                        }
+                        int i = next.getAndIncrement();
+                        if (i == count) {
+                            subscriber.onComplete();
+                            return;
+                        }
+                        subscriber.onNext(i);
+                    } while (demand.decrementAndGet() != 0);
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static final class Collector<T> implements Flow.Subscriber<T> {
+        private final List<T> items = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private final int batch;
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private volatile boolean completed;
+        private int received;
+
+        Collector(int batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+            if (batch > 0 && ++received % batch == 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(terminated.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void orderedAndBounded() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            FunctionProcessor<Integer, String> processor = new FunctionProcessor<>(i -> {
+                // later items finish first
+                busy((1000 - i) % 7);
+                return "#" + i;
+            }, pool, 4, 16, true);
+            Range range = new Range(1000);
+            range.subscribe(processor);
+            Collector<String> collector = new Collector<>(10);
+            processor.subscribe(collector);
+            collector.await();
+            assertTrue(collector.completed);
+            assertEquals(1000, collector.items.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("#" + i, collector.items.get(i));
+            }
+            assertEquals(1000, processor.received());
+            assertEquals(1000, processor.emitted());
+            assertEquals(0, processor.buffered());
+            assertTrue(processor.maxBuffered() <= 16);
+            assertTrue(processor.busyNanos() > 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void backpressure() throws InterruptedException {
+        FunctionProcessor<Integer, Integer> processor = new FunctionProcessor<>(i -> i, Runnable::run, 1, 8, true);
+        Range range = new Range(1_000_000);
+        range.subscribe(processor);
+        Collector<Integer> collector = new Collector<>(0);
+        processor.subscribe(collector);
+        assertEquals(8, range.requested.get());
+        assertEquals(8, processor.buffered());
+        collector.subscription.request(3);
+        assertEquals(3, collector.items.size());
+        assertTrue(range.requested.get() <= 8 + 3);
+        assertTrue(processor.buffered() <= 8);
+        collector.subscription.cancel();
+        assertTrue(range.cancelled);
+    }
+
+    @Test
+    public void unorderedSkipsNulls() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            FunctionProcessor<Integer, Integer> processor = new FunctionProcessor<>(i -> i % 10 == 0 ? null : i,
+                    pool, 3, 32, false);
+            new Range(500).subscribe(processor);
+            Collector<Integer> collector = new Collector<>(7);
+            processor.subscribe(collector);
+            collector.await();
+            assertTrue(collector.completed);
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < 500; i++) {
+                if (i % 10 != 0) {
+                    expected.add(i);
+                }
+            }
+            assertEquals(expected, new HashSet<>(collector.items));
+            assertEquals(450, processor.emitted());
+            assertEquals(50, processor.skipped());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void errors() throws InterruptedException {
+        FunctionProcessor<Integer, Integer> processor = new FunctionProcessor<>(i -> 10 / (5 - i), Runnable::run,
+                1, 4, true);
+        Range range = new Range(100);
+        range.subscribe(processor);
+        Collector<Integer> collector = new Collector<>(100);
+        processor.subscribe(collector);
+        collector.await();
+        assertTrue(collector.error instanceof ArithmeticException);
+        assertEquals(5, collector.items.size());
+        assertTrue(range.cancelled);
+        assertEquals(1, processor.failed());
+
+        Collector<Integer> second = new Collector<>(1);
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+
+        processor = new FunctionProcessor<>(i -> i, Runnable::run, 1, 4, true);
+        new Range(10).subscribe(processor);
+        Collector<Integer> invalid = new Collector<>(0);
+        processor.subscribe(invalid);
+        invalid.subscription.request(0);
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void records() throws InterruptedException {
+        Map<String, FunctionChain> chains = new LinkedHashMap<>();
+        chains.put("name", FunctionChain.parse("value.trim()"));
+        chains.put("key", FunctionChain.parse("cells['name'].value.toLowercase().md5()"));
+        FunctionProcessor<Map<String, Object>, Map<String, Object>> processor =
+                new FunctionProcessor<>(FunctionProcessor.records(chains));
+        Flow.Publisher<Map<String, Object>> publisher = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            private boolean sent;
+
+            @Override
+            public void request(long n) {
+                if (!sent) {
+                    sent = true;
+                    Map<String, Object> record = new LinkedHashMap<>();
+                    record.put("name", " Ann ");
+                    record.put("age", 41);
+                    subscriber.onNext(record);
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        publisher.subscribe(processor);
+        Collector<Map<String, Object>> collector = new Collector<>(1);
+        processor.subscribe(collector);
+        collector.await();
+        Map<String, Object> result = collector.items.get(0);
+        assertEquals("Ann", result.get("name"));
+        assertEquals(41, result.get("age"));
+        assertEquals(StringFunctions.md5("ann"), result.get("key"));
+    }
+
+    private static void busy(int units) {
+        long end = System.nanoTime() + units * 20_000L;
+        while (System.nanoTime() < end) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LinearRegex_Test {
+
+    private static final String[] PATTERNS = {
+            "a", "a*", "a+?", "(a|ab)(c|bcd)(d*)", "\\d+", "[^\\s,]+", "\\w+@\\w+\\.com", "(?i)hello", "(?i:[a-c]+)x",
+            "^\\s+|\\s+$", "(?m)^\\w", "(?m)\\w$", "\\bis\\b", "\\Bis", "x?", "(\\d{2,3})-(\\d{1,})", "colou?r",
+            "(?s)a.c", "a.c", "\\Q.*\\E", "[a-z&&[^b]]", "[\\]a-]", "(?<year>\\d{4})-(?<month>\\d\\d)",
+            "(a|b|)+", "(a|b)+c?", "((a*)b?)*c", "(a*)*b", ".*?,", "\\$[0-9]+(\\.[0-9]{2})?", "[\\u00e0-\\u00ff]+", "\\x41|\\t", "😀+", ".",
+            "\\s*,\\s*", "$", "^", "(?:ab){2}", "a{0}b", "\\Aab|b\\z|\\Z"
+    };
+
+    private static final String[] INPUTS = {
+            "", "a", "aaa", "abcd", "abcdd", "This is it, isn't it?", "HeLLo hello", "  padded  ", "a, b ,c,, ",
+            "call 555-1234 or 12-345", "mail me@host.com", "colour color", "a\nb\r\nc\n", "abc\r\n", "a c",
+            "$10.50 and $3", "café déjà", "AbAbab", "😀😀 x", "a.*b", "ba-]"
+    };
+
+    @Test
+    public void sameMatchesAsJava() {
+        for (String regex : PATTERNS) {
+            Pattern pattern = Pattern.compile(regex);
+            LinearRegex linear = LinearRegex.compile(regex);
+            boolean supported = !regex.contains("&&");
+            assertEquals(regex, supported, linear != null);
+            if (linear == null) {
+                continue;
+            }
+            assertEquals(regex, pattern.matcher("").groupCount(), linear.groupCount());
+            for (String input : INPUTS) {
+                Matcher expected = pattern.matcher(input);
+                LinearRegex.Search actual = linear.search(input, true);
+                while (expected.find()) {
+                    String message = regex + " on " + input;
+                    assertTrue(message, actual.find());
+                    for (int g = 0; g <= expected.groupCount(); g++) {
+                        assertEquals(message + " group " + g, expected.start(g), actual.start(g));
+                        assertEquals(message + " group " + g, expected.end(g), actual.end(g));
+                    }
+                }
+                assertFalse(regex + " on " + input, actual.find());
+            }
+        }
+    }
+
+    @Test
+    public void unsupportedPatterns() {
+        for (String regex : new String[]{"(a)\\1", "a(?=b)", "(?<!a)b", "a++", "(?>a)", "\\p{L}", "\\G", "(?x)a",
+                "[[a]]", "(a", "a)", "*a", "a{2,1}", "\\k<n>"}) {
+            assertNull(regex, LinearRegex.compile(regex));
+        }
+    }
+
+    @Test
+    public void functionsGiveSameResultsInBothModes() {
+        for (String regex : PATTERNS) {
+            for (String input : INPUTS) {
+                String message = regex + " on " + input;
+                assertEquals(message, StringFunctions.replace(input, regex, "<$0>", "java"),
+                        StringFunctions.replace(input, regex, "<$0>", "linear"));
+                assertArrayEquals(message, StringFunctions.match(input, regex, "java"),
+                        StringFunctions.match(input, regex, "linear"));
+                assertEquals(message, StringFunctions.split(input, regex, "java"),
+                        StringFunctions.split(input, regex, "linear"));
+            }
+        }
+        assertEquals("2024/05", StringFunctions.replace("2024-05", "(?<year>\\d{4})-(?<month>\\d\\d)",
+                "${year}/$2", "linear"));
+        assertEquals("$1: ab", StringFunctions.replace("ab", "(a)(b)", "\\$1: $1$2", "linear"));
+        assertEquals("a0", StringFunctions.replace("a", "(a)", "$10", "linear"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingGroupName() {
+        StringFunctions.replace("ab", "(a)", "${b}", "linear");
+    }
+
+    @Test
+    public void noBacktrackingBlowUp() {
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'a');
+        String input = new String(chars) + "!";
+        long start = System.nanoTime();
+        assertEquals(input, StringFunctions.replace(input, "(a+)+$", "", "linear"));
+        assertEquals(0, StringFunctions.match(input, "(a|aa)*b", "linear").length);
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+    }
+
+    @Test
+    public void fallbackIsBudgeted() {
+        long budget = StringFunctions.getRegexStepBudget();
+        try {
+            StringFunctions.setRegexStepBudget(100_000);
+            assertArrayEquals(new String[]{"abab"}, StringFunctions.match("xababy", "(ab)\\1", "linear"));
+            try {
+                StringFunctions.match("aaaaaaaaaaaaaaaaaaaaaaaaa!", "(a|aa)+\\1b", "linear");
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("step budget"));
+            }
+        } finally {
+            StringFunctions.setRegexStepBudget(budget);
+        }
+    }
+
+    @Test
+    public void globalMode() {
+        assertEquals(RegexMode.JAVA, StringFunctions.getRegexMode());
+        try {
+            StringFunctions.setRegexMode(RegexMode.LINEAR);
+            assertEquals("a-b-c", StringFunctions.replace("a b  c", "\\s+", "-"));
+            assertEquals(Arrays.asList("a", "b", "c"), StringFunctions.split("a1b22c", "\\d+"));
+            assertArrayEquals(new String[]{"a", "b"}, StringFunctions.smartSplit("a;b", ";"));
+        } finally {
+            StringFunctions.setRegexMode(RegexMode.JAVA);
+        }
+        assertEquals(RegexMode.LINEAR, RegexMode.of("Linear"));
+    }
+}
@@ -0,0 +1,152 @@
+package io.fno.grel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class LookupIndex_Test {
+
+    private static final String CSV = "\uFEFFcode,name,capital\r\n"
+            + "BE,Belgium,Brussels\r\n"
+            + "FR,France,Paris\n"
+            + "\n"
+            + "\"CI\",\"Côte d'Ivoire\",\"Yamoussoukro, \"\"officially\"\"\"\n"
+            + "BE,\"Belgium\nagain\",Brussels\n"
+            + "XX\n";
+
+    private Path dir;
+
+    @Before
+    public void indexDirectory() throws IOException {
+        dir = Files.createTempDirectory("lookup");
+        LookupIndex.setIndexDirectory(dir.resolve("index"));
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        LookupIndex.setIndexDirectory(null);
+        delete(dir);
+    }
+
+    static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    delete(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    private Path csv(String content) throws IOException {
+        Path csv = Files.createTempDirectory(dir, "csv").resolve("countries.csv");
+        Files.write(csv, content.getBytes(StandardCharsets.UTF_8));
+        return csv;
+    }
+
+    @Test
+    public void lookup() throws IOException {
+        Path csv = csv(CSV);
+        LookupIndex index = LookupIndex.forFile(csv, "code");
+        assertEquals(Arrays.asList("code", "name", "capital"), index.columns());
+        assertEquals(5, index.rows());
+        assertEquals("Paris", index.get("FR", "capital"));
+        assertEquals("Côte d'Ivoire", index.get("CI", "name"));
+        assertEquals("Yamoussoukro, \"officially\"", index.get("CI", 2));
+        assertEquals("Belgium", index.get("BE", "name"));
+        assertNull(index.get("XX", "name"));
+        assertNull(index.get("NL", "name"));
+        assertTrue(index.contains("XX"));
+        assertFalse(index.contains("xx"));
+        assertSame(index, LookupIndex.forFile(csv, "code"));
+        assertTrue(Files.exists(index.file()));
+        assertEquals(dir.resolve("index"), index.file().getParent());
+    }
+
+    @Test
+    public void indexDirectories() throws IOException {
+        Path csv = csv(CSV);
+        // a CSV file of the same name elsewhere gets its own index
+        Path other = csv("code,name\nNL,Netherlands\n");
+        assertEquals("Paris", LookupIndex.forFile(csv, "code").get("FR", "capital"));
+        assertEquals("Netherlands", LookupIndex.forFile(other, "code").get("NL", "name"));
+        assertNotEquals(LookupIndex.forFile(csv, "code").file(), LookupIndex.forFile(other, "code").file());
+
+        Path explicit = dir.resolve("explicit");
+        LookupIndex index = LookupIndex.forFile(csv, "code", explicit);
+        assertEquals(explicit, index.file().getParent());
+        assertEquals("Paris", index.get("FR", "capital"));
+        // nothing is written next to the CSV file
+        try (Stream<Path> files = Files.list(csv.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void duplicateKeysInFileOrder() throws IOException {
+        LookupIndex index = LookupIndex.forFile(csv(CSV), "capital");
+        List<String[]> rows = index.rows("Brussels");
+        assertEquals(2, rows.size());
+        assertArrayEquals(new String[]{"BE", "Belgium", "Brussels"}, rows.get(0));
+        assertArrayEquals(new String[]{"BE", "Belgium\nagain", "Brussels"}, rows.get(1));
+        assertTrue(index.rows("Nowhere").isEmpty());
+    }
+
+    @Test
+    public void reopenAndRebuild() throws IOException {
+        Path csv = csv(CSV);
+        LookupIndex built = LookupIndex.forFile(csv, "name");
+        LookupIndex reopened = LookupIndex.open(built.file());
+        assertEquals("FR", reopened.get("France", "code"));
+
+        Files.write(csv, "code,name\nDE,Germany\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        LookupIndex rebuilt = LookupIndex.build(csv, 1, built.file());
+        assertEquals("DE", rebuilt.get("Germany", "code"));
+        assertNull(rebuilt.get("France", "code"));
+    }
+
+    @Test
+    public void manyRows() throws IOException {
+        StringBuilder content = new StringBuilder("id,value\n");
+        for (int i = 0; i < 20000; i++) {
+            content.append("key").append(i).append(",value ").append(i * 7).append('\n');
+        }
+        LookupIndex index = LookupIndex.forFile(csv(content.toString()), "id");
+        assertEquals(20000, index.rows());
+        for (int i = 0; i < 20000; i += 97) {
+            assertEquals("value " + (i * 7), index.get("key" + i, "value"));
+        }
+        assertNull(index.get("key20000", "value"));
+    }
+
+    @Test
+    public void crossAndLookup() throws IOException {
+        String file = csv(CSV).toString();
+        List<Map<String, String>> rows = OtherFunctions.cross("FR", file, "code");
+        assertEquals(1, rows.size());
+        assertEquals("Paris", rows.get(0).get("capital"));
+        assertEquals(2, OtherFunctions.cross("BE", file, "code").size());
+        assertTrue(OtherFunctions.cross("NL", file, "code").isEmpty());
+        assertEquals("Brussels", OtherFunctions.lookup("BE", file, "code", "capital"));
+        assertNull(OtherFunctions.lookup("NL", file, "code", "capital"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownKeyColumn() throws IOException {
+        LookupIndex.forFile(csv(CSV), "population");
+    }
+}
@@ -0,0 +1,189 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NumberFormats_Test {
+
+    @Test
+    public void shortestDigitsInDoubleLayout() {
+        assertEquals("0.0", NumberFormats.toString(0.0));
+        assertEquals("-0.0", NumberFormats.toString(-0.0));
+        assertEquals("NaN", NumberFormats.toString(Double.NaN));
+        assertEquals("-Infinity", NumberFormats.toString(Double.NEGATIVE_INFINITY));
+        assertEquals("1.0", NumberFormats.toString(1));
+        assertEquals("100.0", NumberFormats.toString(100));
+        assertEquals("0.1", NumberFormats.toString(0.1));
+        assertEquals("-123.456", NumberFormats.toString(-123.456));
+        assertEquals("0.001", NumberFormats.toString(0.001));
+        assertEquals("1.0E-4", NumberFormats.toString(0.0001));
+        assertEquals("9999999.0", NumberFormats.toString(9999999));
+        assertEquals("1.0E7", NumberFormats.toString(1e7));
+        assertEquals("1.2345678E7", NumberFormats.toString(12345678));
+        assertEquals("1.0E23", NumberFormats.toString(1e23));
+        assertEquals("1.7976931348623157E308", NumberFormats.toString(Double.MAX_VALUE));
+        assertEquals("2.2250738585072014E-308", NumberFormats.toString(Double.MIN_NORMAL));
+        assertEquals("4.9E-324", NumberFormats.toString(Double.MIN_VALUE));
+        assertEquals("9.9E-324", NumberFormats.toString(2 * Double.MIN_VALUE));
+        assertEquals("1.5E-323", NumberFormats.toString(3 * Double.MIN_VALUE));
+    }
+
+    @Test
+    public void shortestAndClosest() {
+        Random random = new Random(50);
+        for (int i = 0; i < 20_000; i++) {
+            double d;
+            switch (i % 4) {
+                case 0:
+                    d = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    d = random.nextInt(10_000_000) / Math.pow(10, random.nextInt(8));
+                    break;
+                case 2:
+                    d = Double.longBitsToDouble(random.nextInt(1 << 20));
+                    break;
+                default:
+                    d = random.nextDouble() * Math.pow(2, random.nextInt(200) - 100);
+            }
+            if (Double.isNaN(d) || Double.isInfinite(d) || d == 0) {
+                continue;
+            }
+            String s = NumberFormats.toString(d);
+            assertEquals(s, d, Double.parseDouble(s), 0);
+            BigDecimal expected = shortest(d);
+            BigDecimal actual = new BigDecimal(s).stripTrailingZeros();
+            assertEquals(s, 0, expected.compareTo(actual));
+            assertEquals(s, expected.precision(), actual.precision());
+            // older Java versions may print more digits, never fewer
+            BigDecimal java = new BigDecimal(Double.toString(d)).stripTrailingZeros();
+            assertTrue(s, actual.precision() <= java.precision());
+        }
+    }
+
+    @Test
+    public void appendsToBuffer() {
+        StringBuilder sb = new StringBuilder("x=");
+        NumberFormats.append(sb, 2.5).append(';');
+        NumberFormats.append(sb, 1e-7);
+        NumberFormats.format(sb.append(';'), 1234.5, "#,##0.00");
+        assertEquals("x=2.5;1.0E-7;1,234.50", sb.toString());
+    }
+
+    @Test
+    public void patternsMatchDecimalFormat() {
+        String[] patterns = {"#.##", "0.00", "#,##0.###", "#", "0", "00.0", "#,#00.0#", "#,####", "0.000000"};
+        double[] special = {0, -0.0, 0.5, -0.001, 0.125, 0.135, 1.005, 0.005, 2.5, 3.5, -2.5, 1234567.891, 1e20,
+                1.2345678901234567E20, 1e-20, 0.045, 9.995, 99.5, 0.05, 0.0005, -0.0005, 5e-5, 5e-7, 0.00015,
+                Double.MAX_VALUE, Double.MIN_VALUE};
+        Random random = new Random(50);
+        for (String pattern : patterns) {
+            DecimalFormat expected = new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(Locale.ROOT));
+            for (double d : special) {
+                assertEquals(pattern + " " + d, expected.format(d), NumberFormats.format(d, pattern));
+            }
+            for (int i = 0; i < 2_000; i++) {
+                double d = (random.nextInt(2_000_000) - 1_000_000) / Math.pow(10, random.nextInt(7));
+                assertEquals(pattern + " " + d, expected.format(d), NumberFormats.format(d, pattern));
+                long l = random.nextLong() >> random.nextInt(64);
+                assertEquals(pattern + " " + l, expected.format(l), NumberFormats.format(l, pattern));
+            }
+            assertEquals(expected.format(Long.MIN_VALUE), NumberFormats.format(Long.MIN_VALUE, pattern));
+            assertEquals(expected.format(7), NumberFormats.format(7, pattern));
+            assertEquals(expected.format(1.1f), NumberFormats.format(1.1f, pattern));
+            assertEquals(expected.format(new BigDecimal("1234.5678")),
+                    NumberFormats.format(new BigDecimal("1234.5678"), pattern));
+        }
+    }
+
+    @Test
+    public void loneFiveAfterZeros() {
+        assertEquals("0", NumberFormats.format(0.0005, "0.###"));
+        assertEquals("-00.000", NumberFormats.format(-0.0005, "00.000"));
+        assertEquals("0", NumberFormats.format(5e-5, "0.####"));
+        assertEquals("0.01", NumberFormats.format(0.005, "0.##"));
+        assertEquals("0.1", NumberFormats.format(0.05, "0.#"));
+        assertEquals("0", NumberFormats.format(0.5, "0"));
+        // DecimalFormat's fast path compares the double with the halfway point
+        assertEquals("0.001", NumberFormats.format(0.0005, "#,##0.###"));
+        String[] patterns = {"0.#", "0.##", "0.###", "0.####", "00.000", "0.000000", "#,##0.###", "#,###.###",
+                "#,##0.00", "#,##0.##"};
+        for (String pattern : patterns) {
+            DecimalFormat expected = new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(Locale.ROOT));
+            for (int k = 1; k <= 8; k++) {
+                for (double d : new double[]{5 / Math.pow(10, k), -5 / Math.pow(10, k), 15 / Math.pow(10, k)}) {
+                    assertEquals(pattern + " " + d, expected.format(d), NumberFormats.format(d, pattern));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void otherFormats() {
+        assertEquals("3.14", NumberFormats.format(Math.PI, "%.2f"));
+        assertEquals("00042", NumberFormats.format(42, "%05d"));
+        assertEquals("1,234,567", NumberFormats.format(1234567L, "%,d"));
+        assertEquals("1.23E3", NumberFormats.format(1234, "0.##E0"));
+        assertEquals("12.5%", NumberFormats.format(0.125, "0.0%"));
+        assertEquals("(5)", NumberFormats.format(-5, "0;(0)"));
+        assertEquals("'7'", NumberFormats.format(7, "''0''"));
+        assertEquals("NaN", NumberFormats.format(Double.NaN, "0.00"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPattern() {
+        NumberFormats.format(1, "0#");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void formatNotForNumber() {
+        NumberFormats.format(1.5, "%d");
+    }
+
+    /**
+     * The shortest decimal that reads back as `d` and, of those, the closest (or the even one when two are as close),
+     * with a one-digit decimal only chosen when no two-digit one is closer.
+     */
+    private static BigDecimal shortest(double d) {
+        BigDecimal exact = new BigDecimal(d);
+        for (int digits = 1; digits <= 17; digits++) {
+            BigDecimal best = closest(exact, d, digits);
+            if (best != null) {
+                if (digits == 1) {
+                    BigDecimal two = closest(exact, d, 2);
+                    if (two.subtract(exact).abs().compareTo(best.subtract(exact).abs()) < 0) {
+                        best = two;
+                    }
+                }
+                return best.stripTrailingZeros();
+            }
+        }
+        throw new AssertionError(d);
+    }
+
+    private static BigDecimal closest(BigDecimal exact, double d, int digits) {
+        BigDecimal best = null;
+        for (RoundingMode mode : new RoundingMode[]{RoundingMode.FLOOR, RoundingMode.CEILING}) {
+            BigDecimal candidate = exact.round(new MathContext(digits, mode));
+            if (Double.parseDouble(candidate.toString()) != d) {
+                continue;
+            }
+            int cmp = best == null ? -1 : candidate.subtract(exact).abs().compareTo(best.subtract(exact).abs());
+            // halfway: the one ending in an even digit
+            boolean even = candidate.precision() < digits || !candidate.unscaledValue().testBit(0);
+            if (cmp < 0 || cmp == 0 && even) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+}
@@ -2,11 +2,42 @@ package io.fno.grel;
 
 import org.junit.Test;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
 public class StringFunctions_Test {
+    @Test
+    public void toStringWithFormat() {
+        assertEquals("null", StringFunctions.toString(null, "0.00"));
+        assertEquals("1.0E23", StringFunctions.toString(1e23));
+        assertEquals("0.1", StringFunctions.toString(0.1, null));
+        assertEquals("3.14", StringFunctions.toString(Math.PI, "%.2f"));
+        assertEquals("1,234.50", StringFunctions.toString(1234.5, "#,##0.00"));
+        assertEquals("0042", StringFunctions.toString(42, "0000"));
+        assertEquals("24/03/2022", StringFunctions.toString(LocalDate.of(2022, 3, 24), "dd/MM/yyyy"));
+        assertEquals("10:15", StringFunctions.toString(LocalDateTime.of(2022, 3, 24, 10, 15), "HH:mm"));
+        Clock clock = DateFunctions.getClock();
+        try {
+            DateFunctions.setClock(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC));
+            assertEquals("1970-01-01", StringFunctions.toString(new Date(0), "yyyy-MM-dd"));
+        } finally {
+            DateFunctions.setClock(clock);
+        }
+        assertEquals("text", StringFunctions.toString("text", "0.00"));
+        assertEquals("true", StringFunctions.toString(true, "0.00"));
+    }
+
     @Test
     public void length() {
         String input = "one";
@@ -114,11 +145,35 @@ public class StringFunctions_Test {
         );
     }
 
+    @Test
+    public void partition_first() {
+        assertArrayEquals(
+                new String[]{"p", "a", "rallel"},
+                StringFunctions.partition("parallel", "a")
+        );
+    }
+
+    @Test
+    public void partition_omitFragment() {
+        assertArrayEquals(
+                new String[]{"inter", "alization"},
+                StringFunctions.partition("internationalization", "nation", true)
+        );
+    }
+
     @Test
     public void rpartition() {
         assertArrayEquals(
                 new String[]{"par", "a", "llel"},
-                StringFunctions.partition("parallel", "a")
+                StringFunctions.rpartition("parallel", "a")
+        );
+    }
+
+    @Test
+    public void rpartition_omitFragment() {
+        assertArrayEquals(
+                new String[]{"par", "llel"},
+                StringFunctions.rpartition("parallel", "a", true)
         );
     }
 
@@ -126,7 +181,7 @@ public class StringFunctions_Test {
     public void rpartition_empty() {
         assertArrayEquals(
                 new String[]{"lollipop", "", ""},
-                StringFunctions.partition("lollipop", "a")
+                StringFunctions.rpartition("lollipop", "a")
         );
     }
 
@@ -138,6 +193,9 @@ public class StringFunctions_Test {
         input = "On es";
         output = StringFunctions.escape(input, "url");
         assertEquals("On%20es", output);
+        assertNull(StringFunctions.escape((String) null, "url"));
+        assertNull(StringFunctions.escape((CharSequence) null, "url"));
+        assertNull(StringFunctions.escape((String) null, "html"));
     }
 
     @Test
@@ -153,4 +211,326 @@ public class StringFunctions_Test {
         String output = StringFunctions.sha1(input);
         assertEquals("b58b5a8ced9db48b30e008b148004c1065ce53b1", output);
     }
+
+    @Test
+    public void substringView() {
+        CharSlice view = StringFunctions.substringView("profound", 2, 7);
+        assertEquals("ofoun", view.toString());
+        CharSlice inner = StringFunctions.substringView(view, 1, 4);
+        assertEquals("fou", inner.toString());
+        assertEquals(Integer.valueOf(3), StringFunctions.length(inner));
+        assertTrue(StringFunctions.startsWith(inner, "fo"));
+        assertTrue(StringFunctions.contains(inner, "ou"));
+        assertFalse(StringFunctions.contains(inner, "un"));
+        assertEquals(StringFunctions.md5("fou"), StringFunctions.md5(inner));
+    }
+
+    @Test
+    public void md5View() {
+        String input = "Zoë \uD83D\uDE00 \uD800 d'un très long texte";
+        assertEquals(StringFunctions.md5(input), StringFunctions.md5(CharSlice.of(input)));
+    }
+
+    @Test
+    public void splitView() {
+        String input = "fire, water,, earth, air,,";
+        List<CharSlice> output = StringFunctions.splitView(input, ",");
+        List<String> expected = StringFunctions.split(input, ",");
+        assertEquals(expected.size(), output.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), output.get(i).toString());
+        }
+        assertEquals(1, StringFunctions.splitView("", ",").size());
+    }
+
+    @Test
+    public void partitionView() {
+        CharSlice[] output = StringFunctions.partitionView("internationalization", "nation", false);
+        assertEquals("inter", output[0].toString());
+        assertEquals("nation", output[1].toString());
+        assertEquals("alization", output[2].toString());
+        output = StringFunctions.partitionView("internationalization", "nation", true);
+        assertEquals(2, output.length);
+        assertEquals("inter", output[0].toString());
+        assertEquals("alization", output[1].toString());
+        output = StringFunctions.rpartitionView("parallel", "a", false);
+        assertEquals("par", output[0].toString());
+        assertEquals("a", output[1].toString());
+        assertEquals("llel", output[2].toString());
+        output = StringFunctions.rpartitionView("parallel", "a", true);
+        assertEquals("par", output[0].toString());
+        assertEquals("llel", output[1].toString());
+        assertArrayEquals(
+                new CharSlice[]{CharSlice.of("inter"), CharSlice.of("nation"), CharSlice.of("ali")},
+                StringFunctions.splitByLengthsView("internationalization", 5, 6, 3)
+        );
+    }
+
+    @Test
+    public void escapeView() {
+        CharSlice view = StringFunctions.substringView("x On es \uD83D\uDE00", 2);
+        assertEquals("On%20es%20%F0%9F%98%80", StringFunctions.escape(view, "url"));
+        assertEquals("On%20es%20%F0%9F%98%80", StringFunctions.escape(view.toString(), "url"));
+    }
+
+    @Test
+    public void splitLazy() {
+        String[] inputs = {"fire,water,,earth,air,,", ",,", "", "a", ",a", "a,,b"};
+        for (String input : inputs) {
+            List<String> expected = StringFunctions.split(input, ",");
+            assertEquals(expected, StringFunctions.splitLazy(input, ",").toList());
+            assertEquals(expected, StringFunctions.splitLazy(input, "[,]").toList());
+            assertEquals(Integer.valueOf(expected.size()), StringFunctions.splitCount(input, ","));
+            assertEquals(String.join(";", expected), StringFunctions.splitJoin(input, ",", ";"));
+        }
+        assertEquals(StringFunctions.split("a1b22c", "\\d*"), StringFunctions.splitLazy("a1b22c", "\\d*").toList());
+    }
+
+    @Test
+    public void splitGet() {
+        assertEquals("earth", StringFunctions.splitGet("fire,water,earth,air", ",", 2));
+        assertEquals("", StringFunctions.splitGet("fire,,earth", ",", 1));
+        assertEquals(" water", StringFunctions.splitGet("fire, water", "\\s*;|,", 1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void splitGet_trailingEmpty() {
+        StringFunctions.splitGet("fire,water,,", ",", 2);
+    }
+
+    @Test
+    public void replaceChars() throws Exception {
+        assertEquals(
+                "Text that was optically recognized",
+                StringFunctions.replaceChars("Téxt thát was optícálly recógnízéd", "áéíóú", "aeiou")
+        );
+        // replacements apply one after the other, so a is replaced by b, which is then replaced by c
+        assertEquals("ccc", StringFunctions.replaceChars("abc", "ab", "bc"));
+        // characters far apart use the sparse table
+        assertEquals("a-b", StringFunctions.replaceChars("\u00e0-\uac00", "\u00e0\uac00", "ab"));
+        String input = "nothing to replace";
+        assertSame(input, StringFunctions.replaceChars(input, "áéíóú", "aeiou"));
+    }
+
+    @Test(expected = Exception.class)
+    public void replaceChars_tooFewReplacements() throws Exception {
+        StringFunctions.replaceChars("abc", "ab", "b");
+    }
+
+    @Test
+    public void replaceAll() {
+        Map<String, String> dictionary = new HashMap<>();
+        dictionary.put("St.", "Saint");
+        dictionary.put("Blvd.", "Boulevard");
+        dictionary.put("he", "HE");
+        dictionary.put("hers", "HERS");
+        dictionary.put("is", "IS");
+        assertEquals("Saint Peter's Boulevard", StringFunctions.replaceAll("St. Peter's Blvd.", dictionary));
+        // leftmost first, then longest
+        assertEquals("usHERS HE thIS", StringFunctions.replaceAll("ushers he this", dictionary));
+        String input = "nothing to see";
+        assertSame(input, StringFunctions.replaceAll(input, dictionary));
+    }
+
+    @Test
+    public void replaceAll_overlappingKeys() {
+        Map<String, String> dictionary = new HashMap<>();
+        dictionary.put("bcd", "1");
+        dictionary.put("abcde", "2");
+        dictionary.put("c", "3");
+        assertEquals("2", StringFunctions.replaceAll("abcde", dictionary));
+        assertEquals("a1f", StringFunctions.replaceAll("abcdf", dictionary));
+        assertEquals("xab3", StringFunctions.replaceAll("xabc", dictionary));
+        // a longer key ending at the same place must not hide one starting after the previous match
+        dictionary = new HashMap<>();
+        dictionary.put("ab", "1");
+        dictionary.put("bcd", "2");
+        dictionary.put("cd", "3");
+        assertEquals("13", StringFunctions.replaceAll("abcd", dictionary));
+    }
+
+    @Test(timeout = 2000)
+    public void replaceAll_longPartialMatches() {
+        // a partial match of the long key runs over the whole input, which is read once
+        char[] as = new char[100_000];
+        Arrays.fill(as, 'a');
+        Map<String, String> dictionary = new HashMap<>();
+        dictionary.put("a", "x");
+        dictionary.put(new String(as, 0, 10_000) + "b", "y");
+        char[] xs = new char[as.length];
+        Arrays.fill(xs, 'x');
+        assertEquals(new String(xs), StringFunctions.replaceAll(new String(as), dictionary));
+        assertEquals(new String(xs, 0, 1_000) + "y",
+                StringFunctions.replaceAll(new String(as, 0, 11_000) + "b", dictionary));
+    }
+
+    @Test
+    public void replaceAll_sameAsLeftmostLongest() {
+        Random random = new Random(29);
+        for (int t = 0; t < 2_000; t++) {
+            Map<String, String> dictionary = new HashMap<>();
+            for (int k = random.nextInt(5); k >= 0; k--) {
+                dictionary.put(randomString(random, 1 + random.nextInt(4)), String.valueOf(k));
+            }
+            String input = randomString(random, random.nextInt(30));
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < input.length(); ) {
+                String best = null;
+                for (String key : dictionary.keySet()) {
+                    if (input.startsWith(key, i) && (best == null || key.length() > best.length())) {
+                        best = key;
+                    }
+                }
+                if (best == null) {
+                    expected.append(input.charAt(i++));
+                } else {
+                    expected.append(dictionary.get(best));
+                    i += best.length();
+                }
+            }
+            assertEquals(dictionary + " " + input, expected.toString(), StringFunctions.replaceAll(input, dictionary));
+        }
+    }
+
+    @Test
+    public void containsAny() {
+        List<String> dictionary = Arrays.asList("Ltd", "Inc.", "GmbH");
+        assertTrue(StringFunctions.containsAny("Acme Inc.", dictionary));
+        assertFalse(StringFunctions.containsAny("Acme Inc", dictionary));
+    }
+
+    @Test
+    public void caseMapping_unchanged() {
+        String lower = "already lower-case 123";
+        assertSame(lower, StringFunctions.toLowercase(lower));
+        String upper = "ALREADY UPPER-CASE 123";
+        assertSame(upper, StringFunctions.toUppercase(upper));
+        String title = "Already Title-case 123";
+        assertSame(title, StringFunctions.toTitlecase(title));
+    }
+
+    @Test
+    public void caseMapping_unicode() {
+        assertEquals("ÉCOLE STRASSE", StringFunctions.toUppercase("école straße"));
+        assertEquals("école", StringFunctions.toLowercase("ÉCOLE"));
+        assertEquals("Élan Vital", StringFunctions.toTitlecase("éLAN vITAL"));
+        assertEquals("ǅemal", StringFunctions.toTitlecase("ǆemal"));
+    }
+
+    @Test
+    public void caseMapping_locale() {
+        assertEquals("title", StringFunctions.toLowercase("TITLE", "en"));
+        assertEquals("tıtle", StringFunctions.toLowercase("TITLE", "tr"));
+        assertEquals("İSTANBUL", StringFunctions.toUppercase("istanbul", "tr"));
+        assertEquals("İstanbul", StringFunctions.toTitlecase("iSTANBUL", "tr"));
+        assertEquals("Istanbul", StringFunctions.toTitlecase("ISTANBUL", "tr"));
+        assertEquals("Istanbul", StringFunctions.toTitlecase("ISTANBUL", "en"));
+    }
+
+    @Test
+    public void unicode() {
+        assertArrayEquals(
+                new int[]{66, 101, 114, 110, 105, 99, 101, 32, 82, 117, 98, 101, 110, 115},
+                StringFunctions.unicode("Bernice Rubens")
+        );
+        assertArrayEquals(new int[]{0x1F600, 97}, StringFunctions.unicode("\uD83D\uDE00a"));
+    }
+
+    @Test
+    public void unicodeType() {
+        assertArrayEquals(
+                new String[]{"uppercase letter", "lowercase letter", "decimal digit number", "space separator", "other symbol"},
+                StringFunctions.unicodeType("Ab1 \uD83D\uDE00")
+        );
+    }
+
+    @Test
+    public void splitByCharType() {
+        assertArrayEquals(
+                new String[]{"H", "enry", "CT", "aylor"},
+                StringFunctions.splitByCharType("HenryCTaylor")
+        );
+        assertArrayEquals(
+                new String[]{"BE", "1", "A", "3", "E"},
+                StringFunctions.splitByCharType("BE1A3E")
+        );
+        assertArrayEquals(
+                new String[]{"ab", "\uD83D\uDE00\uD83D\uDE01", "c"},
+                StringFunctions.splitByCharType("ab\uD83D\uDE00\uD83D\uDE01c")
+        );
+        assertArrayEquals(new String[0], StringFunctions.splitByCharType(""));
+    }
+
+    @Test
+    public void reinterpret() {
+        assertEquals("Café", StringFunctions.reinterpret("CafÃ©", "UTF-8", "ISO-8859-1"));
+        assertEquals("CafÃ©", StringFunctions.reinterpret("Café", "ISO-8859-1", "UTF-8"));
+    }
+
+    @Test
+    public void levenshtein() {
+        assertEquals(3, StringFunctions.levenshtein("kitten", "sitting"));
+        assertEquals(0, StringFunctions.levenshtein("same", "same"));
+        assertEquals(4, StringFunctions.levenshtein("", "four"));
+        assertEquals(3, StringFunctions.levenshtein("kitten", "sitting", 3));
+        assertEquals(-1, StringFunctions.levenshtein("kitten", "sitting", 2));
+        assertEquals(-1, StringFunctions.levenshtein("short", "a much longer string", 5));
+    }
+
+    @Test
+    public void levenshteinMatchesFullMatrix() {
+        // short strings take the bit-parallel path, long ones the banded path
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            String a = randomString(random, random.nextInt(round % 2 == 0 ? 70 : 150));
+            String b = randomString(random, random.nextInt(round % 2 == 0 ? 70 : 150));
+            int expected = fullMatrixLevenshtein(a, b);
+            assertEquals(a + " / " + b, expected, StringFunctions.levenshtein(a, b));
+            int max = random.nextInt(expected + 2);
+            assertEquals(a + " / " + b + " / " + max, expected <= max ? expected : -1, StringFunctions.levenshtein(a, b, max));
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            s.append("abcdé😀".charAt(random.nextInt(7)));
+        }
+        return s.toString();
+    }
+
+    private static int fullMatrixLevenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    int replace = d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                    d[i][j] = Math.min(replace, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    @Test
+    public void jaroWinkler() {
+        assertEquals(0.9611, StringFunctions.jaroWinkler("MARTHA", "MARHTA"), 1e-4);
+        assertEquals(0.8133, StringFunctions.jaroWinkler("DIXON", "DICKSONX"), 1e-4);
+        assertEquals(0.8400, StringFunctions.jaroWinkler("DWAYNE", "DUANE"), 1e-4);
+        assertEquals(1.0, StringFunctions.jaroWinkler("same", "same"), 0.0);
+        assertEquals(0.0, StringFunctions.jaroWinkler("abc", "xyz"), 0.0);
+        assertEquals(0.0, StringFunctions.jaroWinkler("", "xyz"), 0.0);
+    }
+
+    @Test
+    public void ngramSimilarity() {
+        assertEquals(1.0 / 7, StringFunctions.ngramSimilarity("night", "nacht", 2), 1e-9);
+        assertEquals(1.0, StringFunctions.ngramSimilarity("abab", "baba", 2), 1e-9);
+        assertEquals(0.5, StringFunctions.ngramSimilarity("aaa", "aaab", 2), 1e-9);
+        assertEquals(1.0, StringFunctions.ngramSimilarity("ab", "ab", 3), 1e-9);
+        assertEquals(0.0, StringFunctions.ngramSimilarity("ab", "", 3), 1e-9);
+        assertEquals(1.0, StringFunctions.ngramSimilarity("", "", 3), 1e-9);
+    }
 }
@@ -0,0 +1,303 @@
+package io.fno.grel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calls every function from many threads at once, with inputs shared between the threads,
+ * and checks that every call gives the same result as a call made on its own.
+ */
+public class ThreadSafety_Test {
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static final int ITERATIONS = 500;
+
+    private interface Call {
+        Object call() throws Exception;
+    }
+
+    private ExecutorService pool;
+
+    @Before
+    public void startThreads() {
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void stopThreads() {
+        pool.shutdownNow();
+    }
+
+    private void hammer(String name, Call call) throws Exception {
+        Object expected = call.call();
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<String>> failures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            failures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    Object actual = call.call();
+                    if (!Objects.deepEquals(expected, actual)) {
+                        return name + ": expected " + describe(expected) + " but was " + describe(actual);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<String> failure : failures) {
+            assertNull(failure.get());
+        }
+    }
+
+    private static String describe(Object o) {
+        return o instanceof Object[] ? Arrays.deepToString((Object[]) o) : String.valueOf(o);
+    }
+
+    @Test
+    public void stringFunctions() throws Exception {
+        String s = "  Once upon a midnight DREARY, while I pondered, weak and weary  ";
+        String accented = "Téxt thát was optícálly recógnízéd 😀";
+        Map<String, String> dictionary = new HashMap<>();
+        dictionary.put("weak", "strong");
+        dictionary.put("weary", "awake");
+        List<String> keys = Arrays.asList("midnight", "noon");
+
+        hammer("length", () -> StringFunctions.length(s));
+        hammer("toString", () -> StringFunctions.toString(42));
+        hammer("toString double", () -> StringFunctions.toString(1234.5678e-9));
+        hammer("toString pattern", () -> StringFunctions.toString(1234.5678, "#,##0.00"));
+        hammer("toString fallback pattern", () -> StringFunctions.toString(1234.5678, "0.##E0"));
+        hammer("startsWith", () -> StringFunctions.startsWith(s, "  Once"));
+        hammer("endsWith", () -> StringFunctions.endsWith(s, "weary  "));
+        hammer("contains", () -> StringFunctions.contains(s, "midnight"));
+        hammer("toLowercase", () -> StringFunctions.toLowercase(s));
+        hammer("toLowercase locale", () -> StringFunctions.toLowercase(s, "tr"));
+        hammer("toUppercase", () -> StringFunctions.toUppercase(accented));
+        hammer("toTitlecase", () -> StringFunctions.toTitlecase(s));
+        hammer("trim", () -> StringFunctions.trim(s));
+        hammer("strip", () -> StringFunctions.strip(s));
+        hammer("chomp", () -> StringFunctions.chomp(s, "  "));
+        hammer("substring", () -> StringFunctions.substring(s, 7, 11));
+        hammer("slice", () -> StringFunctions.slice(s, 7));
+        hammer("get", () -> StringFunctions.get(s, 7, 11));
+        hammer("indexOf", () -> StringFunctions.indexOf(s, "upon"));
+        hammer("lastIndexOf", () -> StringFunctions.lastIndexOf(s, "we"));
+        hammer("replace", () -> StringFunctions.replace(s, "[aeiou]+", "_"));
+        hammer("replaceChars", () -> StringFunctions.replaceChars(accented, "áéíóú", "aeiou"));
+        hammer("replaceAll", () -> StringFunctions.replaceAll(s, dictionary));
+        hammer("containsAny", () -> StringFunctions.containsAny(s, keys));
+        hammer("match", () -> StringFunctions.match(s, "[A-Z]+"));
+        hammer("replace linear", () -> StringFunctions.replace(s, "(\\w+)(,?)", "$2$1", "linear"));
+        hammer("match linear", () -> StringFunctions.match(s, "(?i)[a-z]+ing\\b", "linear"));
+        hammer("split linear", () -> StringFunctions.split(s, ",\\s*", "linear"));
+        hammer("toNumber", () -> StringFunctions.toNumber("1234"));
+        hammer("split", () -> StringFunctions.split(s, ",\\s*"));
+        hammer("splitGet", () -> StringFunctions.splitGet(s, ",", 1));
+        hammer("splitCount", () -> StringFunctions.splitCount(s, " "));
+        hammer("splitJoin", () -> StringFunctions.splitJoin(s, ",", ";"));
+        hammer("splitLazy", () -> StringFunctions.splitLazy(s, " ").toList());
+        hammer("splitByLengths", () -> StringFunctions.splitByLengths(s, 2, 4, 5));
+        hammer("smartSplit", () -> StringFunctions.smartSplit("a,b\tc,d"));
+        hammer("splitByCharType", () -> StringFunctions.splitByCharType(accented));
+        hammer("partition", () -> StringFunctions.partition(s, "midnight"));
+        hammer("rpartition", () -> StringFunctions.rpartition(s, "we"));
+        hammer("diff", () -> StringFunctions.diff("cacti", "cactus"));
+        hammer("levenshtein", () -> StringFunctions.levenshtein(s, accented, 40));
+        hammer("jaroWinkler", () -> StringFunctions.jaroWinkler(s, accented));
+        hammer("ngramSimilarity", () -> StringFunctions.ngramSimilarity(s, accented, 3));
+        for (String mode : new String[]{"html", "xml", "csv", "url", "javascript"}) {
+            hammer("escape " + mode, () -> StringFunctions.escape(accented + s, mode));
+            hammer("unescape " + mode, () -> StringFunctions.unescape(StringFunctions.escape(accented, mode), mode));
+        }
+        hammer("md5", () -> StringFunctions.md5(s));
+        hammer("sha1", () -> StringFunctions.sha1(s));
+        for (String mode : new String[]{"doublemetaphone", "metaphone", "soundex", "cologne"}) {
+            hammer("phonetic " + mode, () -> StringFunctions.phonetic("Taylor", mode));
+        }
+        hammer("reinterpret", () -> StringFunctions.reinterpret("CafÃ©", "UTF-8", "ISO-8859-1"));
+        hammer("unicode", () -> StringFunctions.unicode(accented));
+        hammer("unicodeType", () -> StringFunctions.unicodeType(accented));
+    }
+
+    @Test
+    public void stringViews() throws Exception {
+        String s = "internationalization";
+        CharSlice shared = CharSlice.of(s, 5, 20);
+        hammer("substringView", () -> StringFunctions.substringView(shared, 1, 5).toString());
+        hammer("md5 view", () -> StringFunctions.md5(shared));
+        hammer("escape view", () -> StringFunctions.escape(shared, "url"));
+        hammer("partitionView", () -> StringFunctions.partitionView(s, "nation", false));
+        hammer("splitView", () -> StringFunctions.splitView(s, "a"));
+        hammer("shared view toString", shared::toString);
+    }
+
+    @Test
+    public void sharedCachesUnderEviction() throws Exception {
+        // more distinct patterns, tables and dictionaries than the caches hold, so threads evict each other's entries
+        hammer("patterns", () -> {
+            StringBuilder o = new StringBuilder();
+            for (int i = 0; i < 600; i++) {
+                o.append(StringFunctions.splitCount("a" + i + "b" + i + "c", "[" + i + "]+"));
+            }
+            return o.toString();
+        });
+        hammer("translation tables", () -> {
+            StringBuilder o = new StringBuilder();
+            for (int i = 0; i < 300; i++) {
+                o.append(StringFunctions.replaceChars("abc" + i, "c" + (char) ('a' + i % 26), "C!"));
+            }
+            return o.toString();
+        });
+        hammer("dictionaries", () -> {
+            StringBuilder o = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                Map<String, String> dictionary = new HashMap<>();
+                dictionary.put("k" + i, "v" + i);
+                o.append(StringFunctions.replaceAll("k1 k" + i, dictionary));
+            }
+            return o.toString();
+        });
+    }
+
+    @Test
+    public void canonicalPool() throws Exception {
+        StringFunctions.setCanonicalPool(new CanonicalPool(8));
+        try {
+            hammer("canonical toLowercase", () -> {
+                StringBuilder o = new StringBuilder();
+                for (int i = 0; i < 50; i++) {
+                    o.append(StringFunctions.toLowercase("VALUE" + (i % 20)));
+                }
+                return o.toString();
+            });
+        } finally {
+            StringFunctions.setCanonicalPool(null);
+        }
+    }
+
+    @Test
+    public void bufferFunctions() throws Exception {
+        ByteBuffer shared = ByteBuffer.wrap("fire, water, earth, air".getBytes(StandardCharsets.UTF_8));
+        hammer("md5 buffer", () -> BufferFunctions.md5(shared));
+        hammer("split buffer", () -> {
+            List<String> parts = new ArrayList<>();
+            BufferFunctions.split(shared, ", ", parts::add);
+            return parts;
+        });
+        hammer("reinterpretAll", () -> Transcoder.reinterpretAll(
+                Arrays.asList("CafÃ©", "naÃ¯ve"), StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void arrayFunctions() throws Exception {
+        Object[] array = new Object[]{"c", "a", "b", "a"};
+        Object[] original = array.clone();
+        List<String> list = Arrays.asList("one", "two", "three");
+        Map<String, Object> map = new HashMap<>();
+        map.put("key", "value");
+
+        hammer("get list", () -> ArrayFunctions.get(list, 1));
+        hammer("get sublist", () -> ArrayFunctions.get(list, 1, 3));
+        hammer("get map", () -> ArrayFunctions.get(map, "key"));
+        hammer("join", () -> ArrayFunctions.join(list, ";"));
+        hammer("inArray", () -> ArrayFunctions.inArray(list, "two") && !ArrayFunctions.inArray(array, "z"));
+        hammer("length", () -> ArrayFunctions.length(array));
+        hammer("slice", () -> ArrayFunctions.slice(array, 1, 2));
+        hammer("reverse", () -> ArrayFunctions.reverse(array));
+        hammer("sort", () -> ArrayFunctions.sort(array));
+        hammer("sum", () -> ArrayFunctions.sum(new Integer[]{1, 2, 3}));
+        hammer("uniques", () -> ArrayFunctions.uniques(array));
+        assertArrayEquals(original, array);
+    }
+
+    @Test
+    public void otherFunctions() throws Exception {
+        List<Boolean> booleans = Arrays.asList(true, false, true);
+        hammer("and", () -> BooleanFunctions.and(booleans));
+        hammer("or", () -> BooleanFunctions.or(booleans));
+        hammer("not", () -> BooleanFunctions.not(true));
+        hammer("xor", () -> BooleanFunctions.xor(booleans));
+        hammer("ifThenElse", () -> ControlsFunctions.ifThenElse(true, "yes", "no"));
+        hammer("ifThenElseLazy", () -> ControlsFunctions.ifThenElseLazy(false, () -> "yes", () -> "no"));
+        hammer("andLazy", () -> BooleanFunctions.andLazy(Arrays.asList(() -> true, () -> false)));
+
+        hammer("floor", () -> MathFunctions.floor(1.5));
+        hammer("ceil", () -> MathFunctions.ceil(1.5));
+        hammer("round", () -> MathFunctions.round(1.5));
+        hammer("min", () -> MathFunctions.min(1.0, 2.0));
+        hammer("max", () -> MathFunctions.max(1.0, 2.0));
+        hammer("mod", () -> MathFunctions.mod(-7, 3));
+        hammer("ln", () -> MathFunctions.ln(10.0));
+        hammer("log", () -> MathFunctions.log(10.0));
+        hammer("exp", () -> MathFunctions.exp(1.0));
+        hammer("pow", () -> MathFunctions.pow(2.0, 10.0));
+
+        hammer("type", () -> OtherFunctions.type("s"));
+        hammer("hasField", () -> OtherFunctions.hasField("s", "CASE_INSENSITIVE_ORDER"));
+        hammer("coalesce", () -> OtherFunctions.coalesce(null, "first", "second"));
+        hammer("coalesceLazy", () -> OtherFunctions.coalesceLazy(() -> null, () -> "first"));
+        Deferred<Object> shared = Deferred.call(StringFunctions.class, "md5", "shared");
+        hammer("shared deferred", shared::get);
+    }
+
+    @Test
+    public void lookupFunctions() throws Exception {
+        Path dir = Files.createTempDirectory("lookup");
+        try {
+            LookupIndex.setIndexDirectory(dir);
+            Path csv = dir.resolve("lookup.csv");
+            StringBuilder content = new StringBuilder("id,value\n");
+            for (int i = 0; i < 1000; i++) {
+                content.append(i).append(",value ").append(i).append('\n');
+            }
+            Files.write(csv, content.toString().getBytes(StandardCharsets.UTF_8));
+            hammer("lookup", () -> {
+                StringBuilder o = new StringBuilder();
+                for (int i = 0; i < 1000; i += 37) {
+                    o.append(OtherFunctions.lookup(i, csv.toString(), "id", "value"));
+                }
+                return o.toString();
+            });
+            hammer("cross", () -> OtherFunctions.cross("500", csv.toString(), "id"));
+        } finally {
+            LookupIndex.setIndexDirectory(null);
+            LookupIndex_Test.delete(dir);
+        }
+    }
+
+    @Test
+    public void dateFunctions() throws Exception {
+        LocalDateTime date = LocalDateTime.of(2022, 3, 24, 10, 15);
+        hammer("toDate", () -> DateFunctions.toDate("24/03/2022 10:15", "dd/MM/yyyy HH:mm"));
+        hammer("toString", () -> DateFunctions.toString("2022-03-24T10:15", "dd MMM yyyy"));
+        hammer("inc", () -> DateFunctions.inc(date, 3, ChronoUnit.DAYS));
+        hammer("datePart", () -> DateFunctions.datePart(date, ChronoField.DAY_OF_MONTH));
+        hammer("diff", () -> DateFunctions.diff(date, date.plusHours(5), "hours"));
+        hammer("incEpochMillis", () -> DateFunctions.incEpochMillis(1648116900000L, 13, "months"));
+        hammer("diffEpochMillis", () -> DateFunctions.diffEpochMillis(1648116900000L, 0, "years"));
+        hammer("datePartEpochDay", () -> DateFunctions.datePartEpochDay(19075, "dayOfYear"));
+        hammer("now", () -> DateFunctions.now() != null);
+    }
+}
@@ -0,0 +1,61 @@
+package io.fno.grel;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class Transcoder_Test {
+    @Test
+    public void reinterpretAll() {
+        List<String> output = Transcoder.reinterpretAll(
+                Arrays.asList("CafÃ©", "naÃ¯ve", null, "plain"),
+                StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("Café", "naïve", null, "plain"), output);
+    }
+
+    @Test
+    public void reinterpret_longValue() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append("é€");
+        }
+        String utf8AsLatin1 = new String(input.toString().getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        assertEquals(input.toString(),
+                Transcoder.reinterpret(utf8AsLatin1, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unmappableCharacters() {
+        assertEquals("?", Transcoder.reinterpret("€", StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8));
+        assertEquals("�", Transcoder.reinterpret("é", StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void charset() {
+        assertEquals(StandardCharsets.UTF_8, Transcoder.charset("utf8"));
+        assertSame(Transcoder.charset("latin1"), Transcoder.charset("latin1"));
+        assertEquals(Charset.forName("ISO-8859-1"), Transcoder.charset("latin1"));
+    }
+
+    @Test
+    public void looksMisdecodedUtf8() {
+        assertTrue(Transcoder.looksMisdecodedUtf8("CafÃ©"));
+        // windows-1252: the UTF-8 encoding of € is E2 82 AC, read as â‚¬
+        assertTrue(Transcoder.looksMisdecodedUtf8("5 â‚¬"));
+        assertFalse(Transcoder.looksMisdecodedUtf8("Café"));
+        assertFalse(Transcoder.looksMisdecodedUtf8("plain ASCII"));
+        assertFalse(Transcoder.looksMisdecodedUtf8("Ã"));
+    }
+
+    @Test
+    public void repairUtf8() {
+        assertEquals("5 €", Transcoder.repairUtf8("5 â‚¬"));
+        String input = "Café";
+        assertSame(input, Transcoder.repairUtf8(input));
+    }
+}